@@ -0,0 +1,138 @@
+package com.tryvault.app;
+
+import com.tryvault.entity.LoadFundsCheckpointEntity;
+import com.tryvault.io.LoadFundsRequestFileFollower;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseChannelWriter;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.LoadFundsCheckpointRepository;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * CheckpointedLoadFundsBatchRunner processes an input file like {@link LoadFundsBatchRunner}, but can resume it after a
+ * crash instead of reprocessing it from the start.
+ *
+ * <p>
+ * The input is decided in batches, one per read of the input file. Each batch runs in a single transaction which also
+ * saves a {@link LoadFundsCheckpointEntity} with the input offset after the batch, the output position after its
+ * responses and the number of stored requests, the marker of the persisted state. The responses are forced to disk
+ * before the transaction commits. After a crash the database rolls back to the last checkpoint, so a restart truncates
+ * the output to the checkpointed position and continues reading the input at the checkpointed offset, without looking
+ * up the requests decided before it again.
+ *
+ * <p>
+ * Resuming requires a store that survives the process, such as a file based H2 database.
+ */
+public class CheckpointedLoadFundsBatchRunner {
+
+    private static final Logger LOGGER = LogManager.getLogger(CheckpointedLoadFundsBatchRunner.class);
+
+    private final LoadFundsRequestService loadFundsRequestService;
+
+    private final LoadFundsRequestReader loadFundsRequestReader;
+
+    private final LoadFundsResponseWriter loadFundsResponseWriter;
+
+    private final LoadFundsRequestStore loadFundsRequestStore;
+
+    private final LoadFundsCheckpointRepository loadFundsCheckpointRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public CheckpointedLoadFundsBatchRunner(LoadFundsRequestService loadFundsRequestService,
+                                            LoadFundsRequestReader loadFundsRequestReader,
+                                            LoadFundsResponseWriter loadFundsResponseWriter,
+                                            LoadFundsRequestStore loadFundsRequestStore,
+                                            LoadFundsCheckpointRepository loadFundsCheckpointRepository,
+                                            PlatformTransactionManager transactionManager) {
+        this.loadFundsRequestService = loadFundsRequestService;
+        this.loadFundsRequestReader = loadFundsRequestReader;
+        this.loadFundsResponseWriter = loadFundsResponseWriter;
+        this.loadFundsRequestStore = loadFundsRequestStore;
+        this.loadFundsCheckpointRepository = loadFundsCheckpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Processes the load attempts of the input file from its last checkpoint, or from the start if it has none.
+     *
+     * @param loadAttemptsFilePath The path of the file containing the load attempts.
+     * @param outputFilePath       The path of the file the responses are written to.
+     * @return The number of load attempts processed, including the ones processed before the last checkpoint.
+     * @throws IOException if an I/O error occurs while reading or writing the files.
+     * @throws IllegalStateException if the stored requests do not match the last checkpoint.
+     */
+    public long run(String loadAttemptsFilePath, String outputFilePath) throws IOException {
+        Path inputPath = Paths.get(loadAttemptsFilePath).toAbsolutePath().normalize();
+        LoadFundsCheckpointEntity checkpoint = loadFundsCheckpointRepository.findById(inputPath.toString())
+                .orElseGet(() -> newCheckpoint(inputPath));
+
+        long storedRequests = loadFundsRequestStore.count();
+        if (checkpoint.getStoredRequests() != storedRequests) {
+            throw new IllegalStateException("The store holds " + storedRequests + " load funds requests but the checkpoint of "
+                    + inputPath + " expects " + checkpoint.getStoredRequests()
+                    + ", delete the checkpoint to process the file from the start");
+        }
+        if (checkpoint.getInputOffset() > 0) {
+            LOGGER.info("Resuming {} at offset {} after {} load funds requests, output position {}.", inputPath,
+                    checkpoint.getInputOffset(), checkpoint.getProcessedRequests(), checkpoint.getOutputPosition());
+        }
+
+        try (LoadFundsResponseChannelWriter responseChannelWriter = loadFundsResponseWriter.openFileChannel(outputFilePath,
+                checkpoint.getOutputPosition());
+             LoadFundsRequestFileFollower follower = new LoadFundsRequestFileFollower(inputPath, loadFundsRequestReader, 0, 0)) {
+            follower.seek(checkpoint.getInputOffset());
+            follower.readToEnd(loadFundsRequests -> {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> {
+                        try {
+                            for (LoadFundsRequest loadFundsRequest : loadFundsRequests) {
+                                Boolean accepted = loadFundsRequestService.decideLoadAttempt(loadFundsRequest);
+                                if (accepted != null) {
+                                    responseChannelWriter.write(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), accepted);
+                                }
+                            }
+                            // The requests are written in the transaction before their responses reach the disk, and the
+                            // responses must be on disk before the checkpoint that covers them is committed
+                            loadFundsRequestService.flush();
+                            responseChannelWriter.force();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+
+                        checkpoint.setInputOffset(follower.getConsumedPosition());
+                        checkpoint.setProcessedRequests(checkpoint.getProcessedRequests() + loadFundsRequests.size());
+                        checkpoint.setStoredRequests(loadFundsRequestStore.count());
+                        try {
+                            checkpoint.setOutputPosition(responseChannelWriter.getPosition());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        loadFundsCheckpointRepository.save(checkpoint);
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            });
+        }
+
+        return checkpoint.getProcessedRequests();
+    }
+
+    private static LoadFundsCheckpointEntity newCheckpoint(Path inputPath) {
+        LoadFundsCheckpointEntity checkpoint = new LoadFundsCheckpointEntity();
+        checkpoint.setInputPath(inputPath.toString());
+        return checkpoint;
+    }
+}
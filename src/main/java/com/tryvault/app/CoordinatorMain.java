@@ -0,0 +1,168 @@
+package com.tryvault.app;
+
+import com.tryvault.io.LoadFundsRequestBinaryReader;
+import com.tryvault.io.PipelinedGzipChannel;
+import com.tryvault.io.PipelinedGzipInputStream;
+import com.tryvault.io.LoadFundsRequestReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Entry point of the multi-process mode, requested with --tryvault.coordinator.workers=&lt;n&gt; where n is greater than
+ * one. It splits the input file with a {@link LoadFundsPartitionCoordinator}, decides each partition in a separate JVM
+ * running this application with the other options of the command line, and merges their outputs. Each worker has a
+ * store of its own, the default in-memory database unless spring.datasource.url is given, where %d is replaced by the
+ * worker index; a URL other than an in-memory H2 database without %d is rejected, since the workers would share it.
+ *
+ * <p>
+ * The partition files, worker outputs and worker logs are written to tryvault.coordinator.work-dir, a temporary
+ * directory by default, which is deleted after a successful run unless tryvault.coordinator.keep-work-dir is true.
+ * Usage: java -jar app.jar &lt;filePath&gt; &lt;outputPath&gt; --tryvault.coordinator.workers=4 [--&lt;property&gt;=&lt;value&gt;]
+ */
+public final class CoordinatorMain {
+
+    private static final Logger LOGGER = LogManager.getLogger(CoordinatorMain.class);
+
+    private static final String WORKERS_OPTION = "--tryvault.coordinator.workers=";
+
+    private static final String COORDINATOR_PROPERTY_PREFIX = "--tryvault.coordinator.";
+
+    private static final String DATASOURCE_URL_OPTION = "--spring.datasource.url=";
+
+    private CoordinatorMain() {
+    }
+
+    /**
+     * @param args The command line arguments.
+     * @return Whether the command line asks for more than one worker process.
+     */
+    public static boolean isRequested(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith(WORKERS_OPTION)) {
+                try {
+                    return Integer.parseInt(arg.substring(WORKERS_OPTION.length())) > 1;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) {
+        try {
+            List<String> fileArgs = new ArrayList<>();
+            Properties properties = LightweightMain.loadProperties(args, fileArgs);
+            LightweightMain.configureLogging(properties.getProperty("logging.level.root", "INFO"));
+
+            if (fileArgs.size() != 2) {
+                LOGGER.error("Usage: java -jar app.jar <filePath> <outputPath> --tryvault.coordinator.workers=<n> [--<property>=<value>]");
+                System.exit(1);
+            }
+
+            Path inputPath = Paths.get(fileArgs.get(0));
+            if (LoadFundsRequestBinaryReader.isBinary(inputPath)) {
+                throw new IllegalArgumentException("The coordinator splits JSON lines input files, not binary files: " + inputPath);
+            }
+            if (PipelinedGzipInputStream.isGzip(inputPath) || PipelinedGzipChannel.isGzipName(Paths.get(fileArgs.get(1)))) {
+                throw new IllegalArgumentException("The coordinator splits and merges uncompressed files, not gzip files");
+            }
+
+            String dataSourceUrl = properties.getProperty("spring.datasource.url", "");
+            if (!dataSourceUrl.isEmpty() && !dataSourceUrl.startsWith("jdbc:h2:mem:") && !dataSourceUrl.contains("%d")) {
+                throw new IllegalArgumentException("The workers would share the database " + dataSourceUrl
+                        + ", put %d in spring.datasource.url for the worker index");
+            }
+
+            int numberOfWorkers = Integer.parseInt(properties.getProperty("tryvault.coordinator.workers"));
+            String workDirProperty = properties.getProperty("tryvault.coordinator.work-dir", "");
+            Path workDir = workDirProperty.isEmpty() ? Files.createTempDirectory("tryvault-partitions") : Paths.get(workDirProperty);
+            List<String> workerOptions = workerOptions(args);
+
+            long startTime = System.nanoTime();
+            long numberOfLoadFundsRequests = new LoadFundsPartitionCoordinator(new LoadFundsRequestReader(), numberOfWorkers)
+                    .processLocally(inputPath, Paths.get(fileArgs.get(1)), workDir,
+                            (partition, partitionPath, outputPath) -> runWorker(partition, partitionPath, outputPath,
+                                    workerOptions, workDir));
+
+            if (!Boolean.parseBoolean(properties.getProperty("tryvault.coordinator.keep-work-dir", "false"))) {
+                deleteRecursively(workDir);
+            }
+            LOGGER.info("Exiting app after processing {} load funds requests over {} workers in {} ms",
+                    numberOfLoadFundsRequests, numberOfWorkers, (System.nanoTime() - startTime) / 1_000_000);
+        } catch (Exception exception) {
+            LOGGER.error("An exception was thrown while processing the load attempts", exception);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The options of the command line without the coordinator's, with the worker index in the data source URL.
+     */
+    private static List<String> workerOptions(String[] args) {
+        List<String> options = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && !arg.startsWith(COORDINATOR_PROPERTY_PREFIX)) {
+                options.add(arg);
+            }
+        }
+        return options;
+    }
+
+    private static void runWorker(int partition, Path partitionPath, Path outputPath, List<String> workerOptions,
+                                  Path workDir) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String classPath = System.getProperty("java.class.path");
+        if (!classPath.contains(File.pathSeparator) && classPath.endsWith(".jar")) {
+            // Started from the executable jar, whose launcher sets up the nested class path
+            command.add("-jar");
+            command.add(classPath);
+        } else {
+            command.add("-cp");
+            command.add(classPath);
+            command.add(Main.class.getName());
+        }
+        command.add(partitionPath.toString());
+        command.add(outputPath.toString());
+        for (String option : workerOptions) {
+            command.add(option.startsWith(DATASOURCE_URL_OPTION) ? option.replace("%d", String.valueOf(partition)) : option);
+        }
+
+        Path logPath = workDir.resolve("worker-" + partition + ".log");
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logPath.toFile())
+                .start();
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("The worker of partition " + partition + " exited with code " + exitCode + ", see " + logPath);
+            }
+        } finally {
+            process.destroy();
+        }
+        if (!Files.exists(outputPath)) {
+            throw new IOException("The worker of partition " + partition + " wrote no output, see " + logPath);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.tryvault.app;
+
+import ch.qos.logback.classic.Level;
+import com.tryvault.diagnostics.AllocationProfiler;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Plain Java entry point for short batch runs. It wires the {@link LoadFundsRequestReader}, the
+ * {@link LoadFundsRequestService} over an {@link InMemoryLoadFundsRequestStore} and the {@link LoadFundsResponseWriter}
+ * by hand, without Spring Boot component scanning, Hibernate or the H2 schema, so startup costs less than the work.
+ * The decisions are the same as {@link Main}'s; the requests are just not persisted.
+ *
+ * <p>
+ * Settings are read from application.properties and can be overridden on the command line like with {@link Main}.
+ * Usage: java com.tryvault.app.LightweightMain &lt;filePath&gt; &lt;outputPath&gt; [--tryvault.&lt;property&gt;=&lt;value&gt;]
+ * or java -jar app.jar &lt;filePath&gt; &lt;outputPath&gt; --tryvault.bootstrap=lightweight
+ */
+public final class LightweightMain {
+
+    private static final Logger LOGGER = LogManager.getLogger(LightweightMain.class);
+
+    private static final String LIGHTWEIGHT_BOOTSTRAP_OPTION = "--tryvault.bootstrap=lightweight";
+
+    private LightweightMain() {
+    }
+
+    /**
+     * @param args The command line arguments.
+     * @return Whether the command line asks for the lightweight bootstrap.
+     */
+    public static boolean isRequested(String[] args) {
+        for (String arg : args) {
+            if (LIGHTWEIGHT_BOOTSTRAP_OPTION.equals(arg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void main(String[] args) {
+        try {
+            List<String> fileArgs = new ArrayList<>();
+            Properties properties = loadProperties(args, fileArgs);
+            configureLogging(properties.getProperty("logging.level.root", "WARN"));
+
+            if (fileArgs.size() != 2) {
+                LOGGER.error("Usage: java com.tryvault.app.LightweightMain <filePath> <outputPath> [--tryvault.<property>=<value>]");
+                System.exit(1);
+            }
+
+            // Wire the components by hand
+            LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(new InMemoryLoadFundsRequestStore());
+            loadFundsRequestService.setAtomicInsert(Boolean.parseBoolean(properties.getProperty("tryvault.persistence.atomic-insert", "false")));
+            LoadFundsBatchRunner loadFundsBatchRunner = new LoadFundsBatchRunner(loadFundsRequestService,
+                    new LoadFundsRequestReader(), new LoadFundsResponseWriter());
+
+            AllocationProfiler allocationProfiler = null;
+            if (Boolean.parseBoolean(properties.getProperty("tryvault.diagnostics.allocation-report", "false"))) {
+                allocationProfiler = new AllocationProfiler();
+                loadFundsRequestService.setAllocationProfiler(allocationProfiler);
+                loadFundsBatchRunner.setAllocationProfiler(allocationProfiler);
+            }
+
+            if (Boolean.parseBoolean(properties.getProperty("tryvault.checkpoint.enabled", "false"))) {
+                LOGGER.warn("Checkpoints are ignored by the lightweight bootstrap, its in-memory store cannot be resumed");
+            }
+
+            long numberOfLoadFundsRequests;
+            if (MultiFileLoadFundsBatchRunner.isMultiFileInput(fileArgs.get(0))) {
+                numberOfLoadFundsRequests = new MultiFileLoadFundsBatchRunner(loadFundsRequestService,
+                        new LoadFundsRequestReader(), new LoadFundsResponseWriter(),
+                        Integer.parseInt(properties.getProperty("tryvault.input.read-parallelism", "4")))
+                        .run(fileArgs.get(0), fileArgs.get(1),
+                                Boolean.parseBoolean(properties.getProperty("tryvault.input.output-per-file", "false")),
+                                Integer.parseInt(properties.getProperty("tryvault.executor.lanes", "1")))
+                        .stream().mapToLong(MultiFileLoadFundsBatchRunner.FileReport::getNumberOfRequests).sum();
+            } else if (Boolean.parseBoolean(properties.getProperty("tryvault.input.follow", "false"))) {
+                numberOfLoadFundsRequests = loadFundsBatchRunner.follow(fileArgs.get(0), fileArgs.get(1),
+                        Long.parseLong(properties.getProperty("tryvault.input.follow.poll-interval-ms", "500")),
+                        Long.parseLong(properties.getProperty("tryvault.input.follow.idle-timeout-ms", "0")));
+            } else {
+                int numberOfLanes = Integer.parseInt(properties.getProperty("tryvault.executor.lanes", "1"));
+                numberOfLoadFundsRequests = loadFundsBatchRunner.run(fileArgs.get(0), fileArgs.get(1), numberOfLanes);
+            }
+
+            if (allocationProfiler != null) {
+                // Asked for explicitly, so reported above the default WARN level of this bootstrap
+                LOGGER.warn(allocationProfiler.report());
+            }
+            LOGGER.info("Exiting app after processing {} load funds requests", numberOfLoadFundsRequests);
+        } catch (Exception exception) {
+            LOGGER.error("An exception was thrown while processing the load attempts", exception);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads application.properties, then overrides it with the --key=value options of the command line.
+     * The other arguments are the file paths.
+     */
+    static Properties loadProperties(String[] args, List<String> fileArgs) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream inputStream = LightweightMain.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (inputStream != null) {
+                properties.load(inputStream);
+            }
+        }
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                fileArgs.add(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                properties.setProperty(arg.substring(2), "");
+            } else {
+                properties.setProperty(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+
+        return properties;
+    }
+
+    public static void configureLogging(String level) {
+        // Without Spring Boot, logback falls back to logging everything at DEBUG level to the console
+        org.slf4j.Logger rootLogger = LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        if (rootLogger instanceof ch.qos.logback.classic.Logger) {
+            ((ch.qos.logback.classic.Logger) rootLogger).setLevel(Level.toLevel(level, Level.WARN));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.tryvault.app;
+
+import com.tryvault.diagnostics.AllocationProfiler;
+import com.tryvault.io.LoadFundsRequestBinaryReader;
+import com.tryvault.io.LoadFundsRequestFileFollower;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseChannelWriter;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.io.PackedLoadFundsRequests;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.service.PartitionedLoadFundsExecutor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * LoadFundsBatchRunner reads the load attempts of an input file, decides them with the {@link LoadFundsRequestService}
+ * and writes the responses to an output file. It is shared by the Spring Boot entry point {@link Main} and the plain
+ * Java entry point {@link LightweightMain}, which only differ in how the components are wired.
+ */
+public class LoadFundsBatchRunner {
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadFundsBatchRunner.class);
+
+    private final LoadFundsRequestService loadFundsRequestService;
+
+    private final LoadFundsRequestReader loadFundsRequestReader;
+
+    private final LoadFundsResponseWriter loadFundsResponseWriter;
+
+    private AllocationProfiler allocationProfiler;
+
+    public LoadFundsBatchRunner(LoadFundsRequestService loadFundsRequestService,
+                                LoadFundsRequestReader loadFundsRequestReader,
+                                LoadFundsResponseWriter loadFundsResponseWriter) {
+        this.loadFundsRequestService = loadFundsRequestService;
+        this.loadFundsRequestReader = loadFundsRequestReader;
+        this.loadFundsResponseWriter = loadFundsResponseWriter;
+    }
+
+    /**
+     * @param allocationProfiler The profiler the allocations of parsing and responding are attributed to, or null.
+     *                           The service attributes the allocations of the decisions.
+     */
+    public void setAllocationProfiler(AllocationProfiler allocationProfiler) {
+        this.allocationProfiler = allocationProfiler;
+    }
+
+    /**
+     * Processes the load attempts of the input file and writes the responses to the output file.
+     * The input file is either in the JSON lines format or in the binary format of {@link LoadFundsRequestBinaryReader}.
+     *
+     * @param loadAttemptsFilePath The path of the file containing the load attempts.
+     * @param outputFilePath       The path of the file the responses are written to.
+     * @param numberOfLanes        The number of worker lanes; 1 processes the load attempts sequentially.
+     * @return The number of load attempts processed.
+     * @throws IOException if an I/O error occurs while reading or writing the files.
+     */
+    public long run(String loadAttemptsFilePath, String outputFilePath, int numberOfLanes) throws IOException {
+        // Read the client's loads attempts
+        LOGGER.info("Reading attempts at entry path: {}.", loadAttemptsFilePath);
+
+        long allocationMark = markAllocations();
+        Iterable<LoadFundsRequest> loadFundsRequests;
+        long numberOfLoadFundsRequests;
+        if (LoadFundsRequestBinaryReader.isBinary(Paths.get(loadAttemptsFilePath))) {
+            // Replay files converted to the binary format are mapped instead of parsed
+            LoadFundsRequestBinaryReader binaryReader = LoadFundsRequestBinaryReader.open(Paths.get(loadAttemptsFilePath));
+            loadFundsRequests = binaryReader;
+            numberOfLoadFundsRequests = binaryReader.size();
+        } else {
+            // Packed, the parsed requests of a large file fit in a fraction of the heap of a list of objects
+            PackedLoadFundsRequests parsedLoadFundsRequests = loadFundsRequestReader.readPackedFromFile(loadAttemptsFilePath);
+            loadFundsRequests = parsedLoadFundsRequests;
+            numberOfLoadFundsRequests = parsedLoadFundsRequests.size();
+        }
+        recordAllocations(AllocationProfiler.Stage.PARSE, allocationMark);
+        // Process LoadAttempt using LoadService
+        LOGGER.info("Processing load funds requests.");
+
+        try (LoadFundsResponseChannelWriter responseChannelWriter = loadFundsResponseWriter.openFileChannel(outputFilePath)) {
+            if (numberOfLanes > 1) {
+                // Decide customers in parallel, keeping the requests of each customer and the output in order
+                try (PartitionedLoadFundsExecutor executor = new PartitionedLoadFundsExecutor(
+                        loadFundsRequestService::decideLoadAttempt, numberOfLanes)) {
+                    executor.processInOrder(loadFundsRequests, (loadFundsRequest, accepted) -> {
+                        long responseMark = markAllocations();
+                        if (accepted != null) {
+                            responseChannelWriter.write(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), accepted);
+                        }
+                        recordAllocations(AllocationProfiler.Stage.RESPONSE, responseMark);
+                    });
+                }
+            } else {
+                // Binary and packed requests are materialized while iterating, which is part of parsing
+                Iterator<LoadFundsRequest> iterator = loadFundsRequests.iterator();
+                while (true) {
+                    allocationMark = markAllocations();
+                    if (!iterator.hasNext()) {
+                        break;
+                    }
+                    LoadFundsRequest loadFundsRequest = iterator.next();
+                    recordAllocations(AllocationProfiler.Stage.PARSE, allocationMark);
+
+                    Boolean accepted = loadFundsRequestService.decideLoadAttempt(loadFundsRequest);
+
+                    allocationMark = markAllocations();
+                    if (accepted != null) {
+                        responseChannelWriter.write(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), accepted);
+                    }
+                    recordAllocations(AllocationProfiler.Stage.RESPONSE, allocationMark);
+                }
+            }
+            // Store the last decisions before the output is completed
+            loadFundsRequestService.flush();
+        }
+
+        return numberOfLoadFundsRequests;
+    }
+
+    /**
+     * Follows the input file, deciding the load attempts appended to it as they arrive and flushing their responses to
+     * the output file after each batch.
+     *
+     * @param loadAttemptsFilePath The path of the file containing the load attempts.
+     * @param outputFilePath       The path of the file the responses are written to.
+     * @param pollIntervalMillis   The maximum time between two checks of the input file.
+     * @param idleTimeoutMillis    The time without new load attempts after which the run ends; 0 follows forever.
+     * @return The number of load attempts processed.
+     * @throws IOException if an I/O error occurs while reading or writing the files.
+     */
+    public long follow(String loadAttemptsFilePath, String outputFilePath, long pollIntervalMillis,
+                       long idleTimeoutMillis) throws IOException {
+        LOGGER.info("Following attempts at entry path: {}.", loadAttemptsFilePath);
+
+        long[] numberOfLoadFundsRequests = new long[1];
+        // The follower reads and parses each batch between two calls of the consumer
+        long[] allocationMark = {markAllocations()};
+        try (LoadFundsResponseChannelWriter responseChannelWriter = loadFundsResponseWriter.openFileChannel(outputFilePath);
+             LoadFundsRequestFileFollower follower = new LoadFundsRequestFileFollower(Paths.get(loadAttemptsFilePath),
+                     loadFundsRequestReader, pollIntervalMillis, idleTimeoutMillis)) {
+            follower.follow(loadFundsRequests -> {
+                recordAllocations(AllocationProfiler.Stage.PARSE, allocationMark[0]);
+                for (LoadFundsRequest loadFundsRequest : loadFundsRequests) {
+                    Boolean accepted = loadFundsRequestService.decideLoadAttempt(loadFundsRequest);
+                    long responseMark = markAllocations();
+                    if (accepted != null) {
+                        responseChannelWriter.write(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), accepted);
+                    }
+                    recordAllocations(AllocationProfiler.Stage.RESPONSE, responseMark);
+                }
+                // Make the responses visible to downstream readers right away, once their requests are stored
+                loadFundsRequestService.flush();
+                responseChannelWriter.flush();
+                numberOfLoadFundsRequests[0] += loadFundsRequests.size();
+                allocationMark[0] = markAllocations();
+            });
+        }
+
+        return numberOfLoadFundsRequests[0];
+    }
+
+    private long markAllocations() {
+        return allocationProfiler == null ? 0 : allocationProfiler.mark();
+    }
+
+    private void recordAllocations(AllocationProfiler.Stage stage, long allocationMark) {
+        if (allocationProfiler != null) {
+            allocationProfiler.record(stage, allocationMark);
+        }
+    }
+}
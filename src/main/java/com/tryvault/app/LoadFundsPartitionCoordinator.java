@@ -0,0 +1,393 @@
+package com.tryvault.app;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.model.LoadFundsRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * LoadFundsPartitionCoordinator processes an input file over several independent workers, each with a store of its own.
+ * The velocity limits are per customer, so the input is split by customer into one partition file per worker, the
+ * workers decide their partitions in parallel, and their outputs are merged back into the order of the input.
+ *
+ * <p>
+ * Requests are stored by id: a request replaces the request with the same id of another customer, which changes the
+ * decisions of that customer. The customers that share ids are therefore kept in the same partition, which makes the
+ * merged output identical to the output of a single process. To find them without holding every id of the input, the
+ * (id, customer) pairs are spilled to bucket files by id, and the ids of one bucket at a time are held in memory; only
+ * the customers that share ids stay in memory for the whole run.
+ *
+ * <p>
+ * The three steps are separate so that the partitions can be decided anywhere, on this machine by
+ * {@link #processLocally} or on other nodes, as long as each worker gets a whole partition and returns its output:
+ * <ol>
+ *   <li>{@link #split} reads the input twice, once to spill the ids and group the customers sharing them, once to
+ *   write the partitions.</li>
+ *   <li>Each partition is decided by an independent run of the application.</li>
+ *   <li>{@link #merge} reads the input again and takes the response of each request from the output of its partition.
+ *   A worker writes no response for an ignored request, so a request whose customer and id do not match the next
+ *   response of its partition was ignored.</li>
+ * </ol>
+ */
+public class LoadFundsPartitionCoordinator {
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadFundsPartitionCoordinator.class);
+
+    // Bytes of input per id bucket by default, about a million requests whose ids are held in memory at once
+    private static final long INPUT_BYTES_PER_ID_BUCKET = 64L * 1024 * 1024;
+
+    private static final int MAX_ID_BUCKETS = 256;
+
+    /**
+     * Decides the load attempts of one partition file into one output file.
+     */
+    @FunctionalInterface
+    public interface Worker {
+
+        /**
+         * @param partition  The index of the partition.
+         * @param inputPath  The partition file.
+         * @param outputPath The file the responses of the partition are written to.
+         * @throws IOException          if the partition cannot be decided.
+         * @throws InterruptedException if the thread is interrupted while waiting for the worker.
+         */
+        void process(int partition, Path inputPath, Path outputPath) throws IOException, InterruptedException;
+    }
+
+    private final LoadFundsRequestReader loadFundsRequestReader;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final int numberOfPartitions;
+
+    private final Map<Long, Long> partitionRootByCustomer = new HashMap<>();
+
+    private int numberOfIdBuckets = 0;
+
+    public LoadFundsPartitionCoordinator(LoadFundsRequestReader loadFundsRequestReader, int numberOfPartitions) {
+        if (numberOfPartitions < 1) {
+            throw new IllegalArgumentException("The coordinator needs at least one partition");
+        }
+        this.loadFundsRequestReader = loadFundsRequestReader;
+        this.numberOfPartitions = numberOfPartitions;
+    }
+
+    /**
+     * @param numberOfIdBuckets The number of files the ids of the input are spilled to while looking for customers
+     *                          sharing ids, or 0 for one per 64 MiB of input, at most 256.
+     */
+    public void setNumberOfIdBuckets(int numberOfIdBuckets) {
+        if (numberOfIdBuckets < 0) {
+            throw new IllegalArgumentException("The number of id buckets cannot be negative");
+        }
+        this.numberOfIdBuckets = numberOfIdBuckets;
+    }
+
+    /**
+     * Splits, decides with the workers in parallel and merges an input file.
+     *
+     * @param inputPath  The input file, in the JSON lines format.
+     * @param outputPath The file the merged responses are written to.
+     * @param workDir    The directory of the partition files and of their outputs.
+     * @param worker     The worker deciding each partition.
+     * @return The number of load attempts in the input.
+     * @throws IOException          if a file cannot be read or written, or a worker fails.
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers.
+     */
+    public long processLocally(Path inputPath, Path outputPath, Path workDir, Worker worker)
+            throws IOException, InterruptedException {
+        List<Path> partitionPaths = split(inputPath, workDir);
+        List<Path> partitionOutputPaths = new ArrayList<>();
+        for (int partition = 0; partition < numberOfPartitions; partition++) {
+            partitionOutputPaths.add(workDir.resolve("output-" + partition + ".txt"));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(numberOfPartitions);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int partition = 0; partition < numberOfPartitions; partition++) {
+                int index = partition;
+                futures.add(executorService.submit(() -> {
+                    worker.process(index, partitionPaths.get(index), partitionOutputPaths.get(index));
+                    return null;
+                }));
+            }
+            for (int partition = 0; partition < numberOfPartitions; partition++) {
+                try {
+                    futures.get(partition).get();
+                } catch (ExecutionException e) {
+                    throw new IOException("The worker of partition " + partition + " failed", e.getCause());
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return merge(inputPath, partitionOutputPaths, outputPath);
+    }
+
+    /**
+     * Writes the lines of the input file to one partition file per worker, keeping their order.
+     *
+     * @param inputPath The input file, in the JSON lines format.
+     * @param workDir   The directory the partition files are written to.
+     * @return The partition files, by partition index.
+     * @throws IOException if an I/O error occurs while reading or writing the files.
+     */
+    public List<Path> split(Path inputPath, Path workDir) throws IOException {
+        Files.createDirectories(workDir);
+        groupCustomersSharingIds(inputPath, workDir);
+
+        List<Path> partitionPaths = new ArrayList<>();
+        BufferedWriter[] writers = new BufferedWriter[numberOfPartitions];
+        long[] partitionSizes = new long[numberOfPartitions];
+        try {
+            for (int partition = 0; partition < numberOfPartitions; partition++) {
+                Path partitionPath = workDir.resolve("partition-" + partition + ".txt");
+                partitionPaths.add(partitionPath);
+                writers[partition] = Files.newBufferedWriter(partitionPath, StandardCharsets.UTF_8);
+            }
+
+            try (BufferedReader reader = Files.newBufferedReader(inputPath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LoadFundsRequest loadFundsRequest = readLine(line);
+                    if (loadFundsRequest == null) {
+                        continue;
+                    }
+                    int partition = partitionOf(loadFundsRequest.getCustomerId());
+                    writers[partition].write(line);
+                    writers[partition].write('\n');
+                    partitionSizes[partition]++;
+                }
+            }
+        } finally {
+            for (BufferedWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+
+        for (int partition = 0; partition < numberOfPartitions; partition++) {
+            LOGGER.info("Partition {} holds {} load funds requests.", partition, partitionSizes[partition]);
+        }
+        return partitionPaths;
+    }
+
+    /**
+     * Merges the outputs of the partitions into the order of the input file. {@link #split} must have been called
+     * with the same input file on this coordinator.
+     *
+     * @param inputPath            The input file the partitions were split from.
+     * @param partitionOutputPaths The outputs of the partitions, by partition index.
+     * @param outputPath           The file the merged responses are written to.
+     * @return The number of load attempts in the input.
+     * @throws IOException if an I/O error occurs, or an output does not match its partition.
+     */
+    public long merge(Path inputPath, List<Path> partitionOutputPaths, Path outputPath) throws IOException {
+        if (partitionOutputPaths.size() != numberOfPartitions) {
+            throw new IllegalArgumentException("Expected the outputs of " + numberOfPartitions + " partitions");
+        }
+
+        BufferedReader[] outputReaders = new BufferedReader[numberOfPartitions];
+        String[] nextResponses = new String[numberOfPartitions];
+        long numberOfLoadFundsRequests = 0;
+        try (BufferedReader reader = Files.newBufferedReader(inputPath, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+            for (int partition = 0; partition < numberOfPartitions; partition++) {
+                outputReaders[partition] = Files.newBufferedReader(partitionOutputPaths.get(partition), StandardCharsets.UTF_8);
+                nextResponses[partition] = outputReaders[partition].readLine();
+            }
+
+            boolean firstResponse = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LoadFundsRequest loadFundsRequest = readLine(line);
+                if (loadFundsRequest == null) {
+                    continue;
+                }
+                numberOfLoadFundsRequests++;
+
+                int partition = partitionOf(loadFundsRequest.getCustomerId());
+                String response = nextResponses[partition];
+                if (response == null || !isResponseTo(response, loadFundsRequest)) {
+                    // Ignored by the worker, as a duplicate
+                    continue;
+                }
+
+                if (!firstResponse) {
+                    writer.write('\n');
+                }
+                writer.write(response);
+                firstResponse = false;
+                nextResponses[partition] = outputReaders[partition].readLine();
+            }
+
+            for (int partition = 0; partition < numberOfPartitions; partition++) {
+                if (nextResponses[partition] != null) {
+                    throw new IOException("The output of partition " + partition + " has a response to no request of the input: "
+                            + nextResponses[partition]);
+                }
+            }
+        } finally {
+            for (BufferedReader outputReader : outputReaders) {
+                if (outputReader != null) {
+                    outputReader.close();
+                }
+            }
+        }
+
+        return numberOfLoadFundsRequests;
+    }
+
+    /**
+     * @param customerId The customer ID.
+     * @return The partition of the customer, the same for all the customers sharing ids with it.
+     */
+    public int partitionOf(long customerId) {
+        long root = findRoot(customerId);
+        return Math.floorMod(Long.hashCode(root * 0x9E3779B97F4A7C15L), numberOfPartitions);
+    }
+
+    private void groupCustomersSharingIds(Path inputPath, Path workDir) throws IOException {
+        partitionRootByCustomer.clear();
+        int buckets = numberOfIdBuckets > 0 ? numberOfIdBuckets
+                : (int) Math.max(1, Math.min(MAX_ID_BUCKETS, Files.size(inputPath) / INPUT_BYTES_PER_ID_BUCKET));
+        List<Path> bucketPaths = new ArrayList<>();
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            bucketPaths.add(workDir.resolve("ids-" + bucket + ".bin"));
+        }
+
+        try {
+            spillIdsToBuckets(inputPath, bucketPaths);
+
+            // An id always falls in the same bucket, so every customer using it is met within that bucket
+            for (Path bucketPath : bucketPaths) {
+                Map<Long, Long> customerById = new HashMap<>();
+                try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(bucketPath),
+                        64 * 1024))) {
+                    while (true) {
+                        long id;
+                        try {
+                            id = input.readLong();
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        long customerId = input.readLong();
+                        Long firstCustomerId = customerById.putIfAbsent(id, customerId);
+                        if (firstCustomerId != null && firstCustomerId != customerId) {
+                            union(firstCustomerId, customerId);
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (Path bucketPath : bucketPaths) {
+                Files.deleteIfExists(bucketPath);
+            }
+        }
+        if (!partitionRootByCustomer.isEmpty()) {
+            LOGGER.info("{} customers share load funds request ids with another customer and are kept together.",
+                    partitionRootByCustomer.size());
+        }
+    }
+
+    /**
+     * Writes the id and customer of each request of the input to the bucket file of its id.
+     */
+    private void spillIdsToBuckets(Path inputPath, List<Path> bucketPaths) throws IOException {
+        DataOutputStream[] outputs = new DataOutputStream[bucketPaths.size()];
+        try {
+            for (int bucket = 0; bucket < outputs.length; bucket++) {
+                outputs[bucket] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bucketPaths.get(bucket)),
+                        16 * 1024));
+            }
+            try (BufferedReader reader = Files.newBufferedReader(inputPath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    LoadFundsRequest loadFundsRequest = readLine(line);
+                    if (loadFundsRequest == null) {
+                        continue;
+                    }
+                    DataOutputStream output = outputs[Math.floorMod(Long.hashCode(loadFundsRequest.getId() * 0x9E3779B97F4A7C15L),
+                            outputs.length)];
+                    output.writeLong(loadFundsRequest.getId());
+                    output.writeLong(loadFundsRequest.getCustomerId());
+                }
+            }
+        } finally {
+            for (DataOutputStream output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+    }
+
+    private long findRoot(long customerId) {
+        long root = customerId;
+        Long parent;
+        while ((parent = partitionRootByCustomer.get(root)) != null && parent != root) {
+            root = parent;
+        }
+        // Compress the path to the root
+        long current = customerId;
+        while (current != root) {
+            long next = partitionRootByCustomer.get(current);
+            partitionRootByCustomer.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    private void union(long firstCustomerId, long secondCustomerId) {
+        long firstRoot = findRoot(firstCustomerId);
+        long secondRoot = findRoot(secondCustomerId);
+        partitionRootByCustomer.putIfAbsent(firstRoot, firstRoot);
+        partitionRootByCustomer.putIfAbsent(secondRoot, secondRoot);
+        if (firstRoot != secondRoot) {
+            partitionRootByCustomer.put(Math.max(firstRoot, secondRoot), Math.min(firstRoot, secondRoot));
+        }
+    }
+
+    private boolean isResponseTo(String response, LoadFundsRequest loadFundsRequest) throws IOException {
+        JsonNode node = objectMapper.readTree(response);
+        return String.valueOf(loadFundsRequest.getId()).equals(node.path("id").asText())
+                && String.valueOf(loadFundsRequest.getCustomerId()).equals(node.path("customer_id").asText());
+    }
+
+    private LoadFundsRequest readLine(String line) {
+        if (line.isBlank()) {
+            return null;
+        }
+        try {
+            return loadFundsRequestReader.readLine(line);
+        } catch (IOException e) {
+            LOGGER.warn("Skipping a malformed load funds request line: {}", line);
+            return null;
+        }
+    }
+}
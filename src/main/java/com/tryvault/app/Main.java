@@ -1,23 +1,32 @@
 package com.tryvault.app;
 
-import com.tryvault.model.LoadFundsRequest;
-import com.tryvault.repository.LoadFundsRequestRepository;
+import com.tryvault.diagnostics.AllocationProfiler;
+import com.tryvault.repository.LoadFundsCheckpointRepository;
+import com.tryvault.repository.LoadFundsRequestStore;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import com.tryvault.io.LoadFundsLineServer;
 import com.tryvault.io.LoadFundsRequestReader;
 import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.service.LoadFundsRequestSegmentArchiver;
 import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.util.AimdConcurrencyLimit;
+import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.core.env.Environment;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.io.Flushable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 @EntityScan(basePackages = "com.tryvault.entity")
 @EnableJpaRepositories("com.tryvault.repository")
@@ -43,6 +52,18 @@ public class Main {
     }
 
     public static void main(String[] args) {
+        if (CoordinatorMain.isRequested(args)) {
+            // Split the input over worker processes of this application
+            CoordinatorMain.main(args);
+            return;
+        }
+
+        if (LightweightMain.isRequested(args)) {
+            // Skip Spring Boot and JPA altogether for short batch runs
+            LightweightMain.main(args);
+            return;
+        }
+
         try {
             // Start Spring app
             ApplicationContext context = SpringApplication.run(Main.class, args);
@@ -50,33 +71,111 @@ public class Main {
             LoadFundsRequestService loadFundsRequestService = context.getBean(LoadFundsRequestService.class);
             LoadFundsRequestReader loadFundsRequestReader = context.getBean(LoadFundsRequestReader.class);
             LoadFundsResponseWriter loadFundsResponseWriter = context.getBean(LoadFundsResponseWriter.class);
+            Environment environment = context.getEnvironment();
 
-            // Get the path of the file containing the load attempts
-            if (args.length != 2) {
-                LOGGER.error("Usage: java com.tryvault.app.Main <filePath> <outputPath>");
+            if (environment.getProperty("tryvault.server.enabled", Boolean.class, false)) {
+                // Decide the load attempts streamed by clients over TCP until the process is stopped
+                serve(loadFundsRequestService, loadFundsRequestReader, environment);
+                return;
+            }
+
+            // Get the path of the file containing the load attempts, options such as --tryvault.executor.lanes=8 are
+            // handled by Spring as properties
+            List<String> fileArgs = context.getBean(ApplicationArguments.class).getNonOptionArgs();
+            if (fileArgs.size() != 2) {
+                LOGGER.error("Usage: java com.tryvault.app.Main <filePath> <outputPath> [--tryvault.<property>=<value>]");
                 System.exit(1);
             }
 
             // Read arg
-            String loadAttemptsFilePath = args[0];
-            String outputFilePath = args[1];
+            String loadAttemptsFilePath = fileArgs.get(0);
+            String outputFilePath = fileArgs.get(1);
+            LoadFundsBatchRunner loadFundsBatchRunner = new LoadFundsBatchRunner(loadFundsRequestService,
+                    loadFundsRequestReader, loadFundsResponseWriter);
+
+            AllocationProfiler allocationProfiler = null;
+            if (environment.getProperty("tryvault.diagnostics.allocation-report", Boolean.class, false)) {
+                // Attribute the allocations of the run to the pipeline stages
+                allocationProfiler = new AllocationProfiler();
+                loadFundsRequestService.setAllocationProfiler(allocationProfiler);
+                loadFundsBatchRunner.setAllocationProfiler(allocationProfiler);
+            }
 
-            // Read the client's loads attempts
-            LOGGER.info("Reading attempts at entry path: {}.", loadAttemptsFilePath);
+            int archiveAfterWeeks = environment.getProperty("tryvault.persistence.archive-after-weeks", Integer.class, 0);
+            if (archiveAfterWeeks > 0) {
+                // Keep only the recent weeks in the active table of long lived databases
+                context.getBean(LoadFundsRequestSegmentArchiver.class).archiveOlderThan(archiveAfterWeeks);
+            }
 
-            List<LoadFundsRequest> loadFundsRequests = loadFundsRequestReader.readFromFile(loadAttemptsFilePath);
-            // Process LoadAttempt using LoadService
-            LOGGER.info("Processing load funds requests.");
-            LOGGER.info("loadService: ", loadFundsRequestService);
+            long numberOfLoadFundsRequests;
+            if (MultiFileLoadFundsBatchRunner.isMultiFileInput(loadAttemptsFilePath)) {
+                // A directory or a glob of input files, merged by time
+                if (environment.getProperty("tryvault.checkpoint.enabled", Boolean.class, false)
+                        || environment.getProperty("tryvault.input.follow", Boolean.class, false)) {
+                    throw new IllegalArgumentException("Several input files can be neither checkpointed nor followed");
+                }
+                numberOfLoadFundsRequests = new MultiFileLoadFundsBatchRunner(loadFundsRequestService,
+                        loadFundsRequestReader, loadFundsResponseWriter,
+                        environment.getProperty("tryvault.input.read-parallelism", Integer.class, 4))
+                        .run(loadAttemptsFilePath, outputFilePath,
+                                environment.getProperty("tryvault.input.output-per-file", Boolean.class, false),
+                                environment.getProperty("tryvault.executor.lanes", Integer.class, 1))
+                        .stream().mapToLong(MultiFileLoadFundsBatchRunner.FileReport::getNumberOfRequests).sum();
+            } else if (environment.getProperty("tryvault.checkpoint.enabled", Boolean.class, false)) {
+                // Resume from the last checkpoint of the input file, if any
+                numberOfLoadFundsRequests = new CheckpointedLoadFundsBatchRunner(loadFundsRequestService,
+                        loadFundsRequestReader, loadFundsResponseWriter, context.getBean(LoadFundsRequestStore.class),
+                        context.getBean(LoadFundsCheckpointRepository.class),
+                        context.getBean(PlatformTransactionManager.class)).run(loadAttemptsFilePath, outputFilePath);
+            } else if (environment.getProperty("tryvault.input.follow", Boolean.class, false)) {
+                numberOfLoadFundsRequests = loadFundsBatchRunner.follow(loadAttemptsFilePath, outputFilePath,
+                        environment.getProperty("tryvault.input.follow.poll-interval-ms", Long.class, 500L),
+                        environment.getProperty("tryvault.input.follow.idle-timeout-ms", Long.class, 0L));
+            } else {
+                int numberOfLanes = environment.getProperty("tryvault.executor.lanes", Integer.class, 1);
+                numberOfLoadFundsRequests = loadFundsBatchRunner.run(loadAttemptsFilePath, outputFilePath, numberOfLanes);
+            }
 
-            loadFundsResponseWriter.writeToFile(loadFundsRequests.stream()
-                    .map(loadFundsRequestService::processLoadAttempt)
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList()), outputFilePath);
+            LoadFundsRequestStore loadFundsRequestStore = context.getBean(LoadFundsRequestStore.class);
+            if (loadFundsRequestStore instanceof Flushable) {
+                // Write the last batch before the database shutdown hook can close the database
+                ((Flushable) loadFundsRequestStore).flush();
+            }
 
-            LOGGER.info("Exiting app after processing {} load funds requests", loadFundsRequests.size());
+            if (allocationProfiler != null) {
+                LOGGER.info(allocationProfiler.report());
+            }
+            LOGGER.info("Exiting app after processing {} load funds requests", numberOfLoadFundsRequests);
         } catch (Exception exception) {
             LOGGER.info("An exception was thrown while processing the load attempts", exception);
+            // Let scripts and the coordinator of worker processes tell a failed run from a complete one
+            System.exit(1);
         }
     }
+
+    private static void serve(LoadFundsRequestService loadFundsRequestService, LoadFundsRequestReader loadFundsRequestReader,
+                              Environment environment) throws IOException, InterruptedException {
+        LoadFundsLineServer loadFundsLineServer = new LoadFundsLineServer(loadFundsRequestService, loadFundsRequestReader,
+                new InetSocketAddress(environment.getProperty("tryvault.server.host", "127.0.0.1"),
+                        environment.getProperty("tryvault.server.port", Integer.class, 7070)),
+                environment.getProperty("tryvault.server.max-outstanding-requests", Integer.class, 4096));
+        loadFundsLineServer.setRequestTimeoutMillis(environment.getProperty("tryvault.server.request-timeout-ms", Long.class, 0L));
+        long targetLatencyMillis = environment.getProperty("tryvault.server.concurrency-limit.target-latency-ms", Long.class, 0L);
+        if (targetLatencyMillis > 0) {
+            loadFundsLineServer.setConcurrencyLimit(new AimdConcurrencyLimit(
+                    environment.getProperty("tryvault.server.concurrency-limit.min", Integer.class, 64),
+                    environment.getProperty("tryvault.server.concurrency-limit.max", Integer.class, 65536),
+                    TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis),
+                    environment.getProperty("tryvault.server.concurrency-limit.backoff-ratio", Double.class, 0.5)));
+        }
+        loadFundsLineServer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                loadFundsLineServer.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to stop the load funds line server", e);
+            }
+        }));
+        loadFundsLineServer.awaitTermination();
+    }
 }
@@ -0,0 +1,365 @@
+package com.tryvault.app;
+
+import com.tryvault.io.LoadFundsRequestBinaryReader;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseChannelWriter;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.io.PackedLoadFundsRequests;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.service.PartitionedLoadFundsExecutor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * MultiFileLoadFundsBatchRunner processes the load attempts of several input files, given as a directory or as a glob on
+ * file names such as {@code data/2024-01-*.txt.gz}, as one stream: the files are read and parsed concurrently, then
+ * their requests are merged by time with a k-way merge, so the requests of a customer spread over several files are
+ * decided in time order, as if the files were one. Requests with the same time are taken in file name order, and each
+ * file keeps its own order. The responses are written to one merged output, in the merged order, or to one output per
+ * input file, named after it in the output directory. The requests are held as {@link PackedLoadFundsRequests}, so
+ * the heap of a day of files is a fraction of their size.
+ *
+ * <p>
+ * Each file can be in the JSON lines format, gzip-compressed or not, or in the binary format of
+ * {@link LoadFundsRequestBinaryReader}. A report of each file gives its reading throughput and its share of the
+ * decision time, the time spent between its requests' decisions and the previous ones in the merged order.
+ */
+public class MultiFileLoadFundsBatchRunner {
+
+    private static final Logger LOGGER = LogManager.getLogger(MultiFileLoadFundsBatchRunner.class);
+
+    private final LoadFundsRequestService loadFundsRequestService;
+
+    private final LoadFundsRequestReader loadFundsRequestReader;
+
+    private final LoadFundsResponseWriter loadFundsResponseWriter;
+
+    private final int readParallelism;
+
+    /**
+     * The counters of one input file.
+     */
+    public static final class FileReport {
+
+        private final Path path;
+
+        private final long bytes;
+
+        private final int numberOfRequests;
+
+        private final long readNanos;
+
+        private long numberOfResponses;
+
+        private long decisionNanos;
+
+        private FileReport(Path path, long bytes, int numberOfRequests, long readNanos) {
+            this.path = path;
+            this.bytes = bytes;
+            this.numberOfRequests = numberOfRequests;
+            this.readNanos = readNanos;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public int getNumberOfRequests() {
+            return numberOfRequests;
+        }
+
+        public long getNumberOfResponses() {
+            return numberOfResponses;
+        }
+
+        public long getReadNanos() {
+            return readNanos;
+        }
+
+        public long getDecisionNanos() {
+            return decisionNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d requests, %d responses, read %d bytes in %d ms (%.0f requests/s), decided in %d ms (%.0f requests/s)",
+                    path.getFileName(), numberOfRequests, numberOfResponses, bytes, readNanos / 1_000_000,
+                    perSecond(numberOfRequests, readNanos), decisionNanos / 1_000_000, perSecond(numberOfRequests, decisionNanos));
+        }
+
+        private static double perSecond(long count, long nanos) {
+            return nanos == 0 ? 0 : count * 1e9 / nanos;
+        }
+    }
+
+    /**
+     * @param readParallelism The number of files read and parsed at once.
+     */
+    public MultiFileLoadFundsBatchRunner(LoadFundsRequestService loadFundsRequestService,
+                                         LoadFundsRequestReader loadFundsRequestReader,
+                                         LoadFundsResponseWriter loadFundsResponseWriter, int readParallelism) {
+        if (readParallelism < 1) {
+            throw new IllegalArgumentException("The read parallelism must be positive");
+        }
+        this.loadFundsRequestService = loadFundsRequestService;
+        this.loadFundsRequestReader = loadFundsRequestReader;
+        this.loadFundsResponseWriter = loadFundsResponseWriter;
+        this.readParallelism = readParallelism;
+    }
+
+    /**
+     * @param inputPath The input path of the command line.
+     * @return Whether the input path is a directory or a glob, rather than a single file.
+     */
+    public static boolean isMultiFileInput(String inputPath) {
+        return hasGlob(inputPath) || Files.isDirectory(Paths.get(inputPath));
+    }
+
+    /**
+     * Lists the files of a directory, or the files matching a glob on file names, sorted by name. Hidden files and
+     * subdirectories are left out.
+     *
+     * @param inputPath A directory, or a path whose file name is a glob.
+     * @return The input files.
+     * @throws IOException if the directory cannot be listed or no file matches.
+     */
+    public static List<Path> resolveInputFiles(String inputPath) throws IOException {
+        Path directory;
+        String glob;
+        if (hasGlob(inputPath)) {
+            Path path = Paths.get(inputPath);
+            if (path.getParent() != null && hasGlob(path.getParent().toString())) {
+                throw new IOException("Only the file name of an input path can be a glob: " + inputPath);
+            }
+            directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+            glob = path.getFileName().toString();
+        } else {
+            directory = Paths.get(inputPath);
+            glob = "*";
+        }
+
+        List<Path> inputFiles = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : paths) {
+                if (Files.isRegularFile(path) && !path.getFileName().toString().startsWith(".")) {
+                    inputFiles.add(path);
+                }
+            }
+        }
+        if (inputFiles.isEmpty()) {
+            throw new IOException("No input file matches " + inputPath);
+        }
+        inputFiles.sort(null);
+        return inputFiles;
+    }
+
+    private static boolean hasGlob(String path) {
+        return path.indexOf('*') >= 0 || path.indexOf('?') >= 0 || path.indexOf('[') >= 0 || path.indexOf('{') >= 0;
+    }
+
+    /**
+     * Processes the load attempts of the input files and writes their responses.
+     *
+     * @param inputPath     A directory, or a path whose file name is a glob.
+     * @param outputPath    The merged output file, or the directory of the outputs if outputPerFile is set.
+     * @param outputPerFile Whether to write the responses of each input file to a file of the same name in the output
+     *                      directory, created if needed, rather than all of them to one file.
+     * @param numberOfLanes The number of lanes deciding customers in parallel, 1 decides the requests sequentially.
+     * @return The report of each input file, in file name order.
+     * @throws IOException if an I/O error occurs while reading or writing the files.
+     */
+    public List<FileReport> run(String inputPath, String outputPath, boolean outputPerFile, int numberOfLanes)
+            throws IOException {
+        List<Path> inputFiles = resolveInputFiles(inputPath);
+        LOGGER.info("Reading {} input files matching {} with {} threads.", inputFiles.size(), inputPath, readParallelism);
+
+        List<PackedLoadFundsRequests> requestsByFile = new ArrayList<>();
+        List<FileReport> reports = new ArrayList<>();
+        readAll(inputFiles, requestsByFile, reports);
+
+        int[] sourceFiles = new int[requestsByFile.stream().mapToInt(PackedLoadFundsRequests::size).sum()];
+        PackedLoadFundsRequests loadFundsRequests = merge(requestsByFile, sourceFiles);
+        // The merged list holds the requests now
+        requestsByFile.clear();
+
+        LOGGER.info("Processing {} load funds requests of {} files.", loadFundsRequests.size(), inputFiles.size());
+        LoadFundsResponseChannelWriter[] writers = openWriters(inputFiles, outputPath, outputPerFile);
+        try {
+            int[] index = {0};
+            long[] lastNanos = {System.nanoTime()};
+            PartitionedLoadFundsExecutor.DecisionConsumer consumer = (loadFundsRequest, accepted) -> {
+                int sourceFile = sourceFiles[index[0]++];
+                if (accepted != null) {
+                    writers[outputPerFile ? sourceFile : 0].write(loadFundsRequest.getId(),
+                            loadFundsRequest.getCustomerId(), accepted);
+                    reports.get(sourceFile).numberOfResponses++;
+                }
+                long now = System.nanoTime();
+                reports.get(sourceFile).decisionNanos += now - lastNanos[0];
+                lastNanos[0] = now;
+            };
+
+            if (numberOfLanes > 1) {
+                try (PartitionedLoadFundsExecutor executor = new PartitionedLoadFundsExecutor(
+                        loadFundsRequestService::decideLoadAttempt, numberOfLanes)) {
+                    executor.processInOrder(loadFundsRequests, consumer);
+                }
+            } else {
+                for (LoadFundsRequest loadFundsRequest : loadFundsRequests) {
+                    consumer.accept(loadFundsRequest, loadFundsRequestService.decideLoadAttempt(loadFundsRequest));
+                }
+            }
+            // Store the last decisions before the outputs are completed
+            loadFundsRequestService.flush();
+        } finally {
+            closeAll(writers);
+        }
+
+        for (FileReport report : reports) {
+            LOGGER.info("{}", report);
+        }
+        return reports;
+    }
+
+    private void readAll(List<Path> inputFiles, List<PackedLoadFundsRequests> requestsByFile, List<FileReport> reports)
+            throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(readParallelism, inputFiles.size()));
+        try {
+            List<Future<PackedLoadFundsRequests>> futures = new ArrayList<>();
+            long[] readNanos = new long[inputFiles.size()];
+            for (int file = 0; file < inputFiles.size(); file++) {
+                Path inputFile = inputFiles.get(file);
+                int fileIndex = file;
+                futures.add(executorService.submit(() -> {
+                    long start = System.nanoTime();
+                    PackedLoadFundsRequests loadFundsRequests = read(inputFile);
+                    readNanos[fileIndex] = System.nanoTime() - start;
+                    return loadFundsRequests;
+                }));
+            }
+            for (int file = 0; file < inputFiles.size(); file++) {
+                PackedLoadFundsRequests loadFundsRequests = futures.get(file).get();
+                requestsByFile.add(loadFundsRequests);
+                reports.add(new FileReport(inputFiles.get(file), Files.size(inputFiles.get(file)), loadFundsRequests.size(),
+                        readNanos[file]));
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to read the input files", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the input files", e);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private PackedLoadFundsRequests read(Path inputFile) throws IOException {
+        if (!LoadFundsRequestBinaryReader.isBinary(inputFile)) {
+            return loadFundsRequestReader.readPackedFromFile(inputFile.toString());
+        }
+        PackedLoadFundsRequests loadFundsRequests = new PackedLoadFundsRequests();
+        for (LoadFundsRequest loadFundsRequest : LoadFundsRequestBinaryReader.open(inputFile)) {
+            loadFundsRequests.add(loadFundsRequest);
+        }
+        return loadFundsRequests;
+    }
+
+    /**
+     * Merges the requests of the files by time, with a heap of the next request of each file. The times are compared
+     * on the packed fields, without materializing the requests.
+     *
+     * @param sourceFiles Receives the file index of each merged request.
+     */
+    static PackedLoadFundsRequests merge(List<PackedLoadFundsRequests> requestsByFile, int[] sourceFiles) {
+        // A cursor is {file, position}, ordered by the time of its request, then by file
+        PriorityQueue<int[]> cursors = new PriorityQueue<>((left, right) -> {
+            PackedLoadFundsRequests leftRequests = requestsByFile.get(left[0]);
+            PackedLoadFundsRequests rightRequests = requestsByFile.get(right[0]);
+            int comparison = Long.compare(leftRequests.getEpochSecond(left[1]), rightRequests.getEpochSecond(right[1]));
+            if (comparison == 0) {
+                comparison = Integer.compare(leftRequests.getNano(left[1]), rightRequests.getNano(right[1]));
+            }
+            return comparison != 0 ? comparison : Integer.compare(left[0], right[0]);
+        });
+        for (int file = 0; file < requestsByFile.size(); file++) {
+            if (requestsByFile.get(file).size() > 0) {
+                cursors.add(new int[]{file, 0});
+            }
+        }
+
+        PackedLoadFundsRequests merged = new PackedLoadFundsRequests();
+        while (!cursors.isEmpty()) {
+            int[] cursor = cursors.poll();
+            PackedLoadFundsRequests loadFundsRequests = requestsByFile.get(cursor[0]);
+            sourceFiles[merged.size()] = cursor[0];
+            merged.add(loadFundsRequests, cursor[1]);
+            if (++cursor[1] < loadFundsRequests.size()) {
+                cursors.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private LoadFundsResponseChannelWriter[] openWriters(List<Path> inputFiles, String outputPath, boolean outputPerFile)
+            throws IOException {
+        if (!outputPerFile) {
+            return new LoadFundsResponseChannelWriter[]{loadFundsResponseWriter.openFileChannel(outputPath)};
+        }
+
+        Path outputDirectory = Files.createDirectories(Paths.get(outputPath));
+        for (Path inputFile : inputFiles) {
+            if (Files.isSameFile(outputDirectory, inputFile.toAbsolutePath().getParent())) {
+                throw new IOException("The outputs would overwrite the input files in " + outputDirectory);
+            }
+        }
+        LoadFundsResponseChannelWriter[] writers = new LoadFundsResponseChannelWriter[inputFiles.size()];
+        try {
+            for (int file = 0; file < inputFiles.size(); file++) {
+                writers[file] = loadFundsResponseWriter.openFileChannel(
+                        outputDirectory.resolve(inputFiles.get(file).getFileName()).toString());
+            }
+        } catch (IOException e) {
+            closeAll(writers);
+            throw e;
+        }
+        return writers;
+    }
+
+    private static void closeAll(LoadFundsResponseChannelWriter[] writers) throws IOException {
+        IOException failure = null;
+        for (LoadFundsResponseChannelWriter writer : writers) {
+            if (writer == null) {
+                continue;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.tryvault.config;
+
+import com.tryvault.repository.CustomerVelocityDailyRepository;
+import com.tryvault.repository.JdbcLoadFundsRequestStore;
+import com.tryvault.repository.LoadFundsRequestRepository;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.repository.ShardedLoadFundsRequestStore;
+import com.tryvault.repository.VelocityRollupLoadFundsRequestStore;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the {@link LoadFundsRequestStore} the service decides load funds requests with. By default it is the
+ * {@link LoadFundsRequestRepository} itself; the properties below replace it with another implementation.
+ */
+@Configuration
+public class LoadFundsRequestStoreConfiguration {
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadFundsRequestStoreConfiguration.class);
+
+    /**
+     * Answers the velocity queries from daily rollups maintained with each save, enabled with
+     * tryvault.persistence.velocity-rollup=true. Rollups that do not add up to the stored requests, as on a database
+     * that already holds requests, are rebuilt from them first.
+     */
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "tryvault.persistence.velocity-rollup", havingValue = "true")
+    public LoadFundsRequestStore velocityRollupLoadFundsRequestStore(LoadFundsRequestRepository loadFundsRequestRepository,
+                                                                     CustomerVelocityDailyRepository customerVelocityDailyRepository) {
+        VelocityRollupLoadFundsRequestStore velocityRollupLoadFundsRequestStore =
+                new VelocityRollupLoadFundsRequestStore(loadFundsRequestRepository, customerVelocityDailyRepository);
+        if (velocityRollupLoadFundsRequestStore.rebuildRollupsIfStale()) {
+            LOGGER.info("Rebuilt the velocity rollups from the stored load funds requests.");
+        }
+        return velocityRollupLoadFundsRequestStore;
+    }
+
+    /**
+     * Runs the store operations on plain JDBC, with prepared statements cached per connection and batched merges,
+     * enabled with tryvault.persistence.store=jdbc.
+     */
+    @Bean(destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty(name = "tryvault.persistence.store", havingValue = "jdbc")
+    public JdbcLoadFundsRequestStore jdbcLoadFundsRequestStore(DataSource dataSource,
+                                                               @Value("${tryvault.persistence.jdbc.batch-size:256}") int batchSize,
+                                                               @Value("${tryvault.persistence.velocity-rollup:false}") boolean velocityRollup) {
+        if (velocityRollup) {
+            throw new IllegalStateException("tryvault.persistence.velocity-rollup needs tryvault.persistence.store=jpa");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("tryvault.persistence.jdbc.batch-size must be positive: " + batchSize);
+        }
+        return new JdbcLoadFundsRequestStore(dataSource, batchSize);
+    }
+
+    /**
+     * Spreads the requests over independent H2 databases by customer id, each with its own plain JDBC store, enabled
+     * with tryvault.persistence.store=sharded. The shards are created from
+     * tryvault.persistence.shards.url, where %d is replaced by the shard index, and migrated by Flyway like the main
+     * database.
+     */
+    @Bean(destroyMethod = "close")
+    @Primary
+    @ConditionalOnProperty(name = "tryvault.persistence.store", havingValue = "sharded")
+    public ShardedLoadFundsRequestStore shardedLoadFundsRequestStore(
+            @Value("${tryvault.persistence.shards:4}") int numberOfShards,
+            @Value("${tryvault.persistence.shards.url:jdbc:h2:mem:tryvault-shard-%d}") String shardUrl,
+            @Value("${spring.datasource.username:sa}") String username,
+            @Value("${spring.datasource.password:}") String password,
+            @Value("${tryvault.persistence.jdbc.batch-size:256}") int batchSize,
+            @Value("${tryvault.persistence.velocity-rollup:false}") boolean velocityRollup,
+            @Value("${tryvault.checkpoint.enabled:false}") boolean checkpointEnabled) {
+        if (velocityRollup) {
+            throw new IllegalStateException("tryvault.persistence.velocity-rollup needs tryvault.persistence.store=jpa");
+        }
+        if (checkpointEnabled) {
+            // The checkpoint is committed in the main database, it cannot cover the writes of the shards
+            throw new IllegalStateException("tryvault.checkpoint.enabled needs a single database store, not the sharded store");
+        }
+        if (numberOfShards < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("The number of shards and the batch size must be positive");
+        }
+
+        List<DataSource> dataSources = new ArrayList<>();
+        for (int index = 0; index < numberOfShards; index++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("tryvault-shard-" + index);
+            dataSource.setJdbcUrl(String.format(shardUrl, index));
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            // The store of a shard keeps one connection for its operations, and takes a second one only inside a Spring
+            // managed transaction, so a larger pool would never be used
+            dataSource.setMaximumPoolSize(2);
+            Flyway.configure().dataSource(dataSource).load().migrate();
+            dataSources.add(dataSource);
+        }
+        return new ShardedLoadFundsRequestStore(dataSources, batchSize);
+    }
+}
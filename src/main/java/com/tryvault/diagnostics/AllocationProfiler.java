@@ -0,0 +1,155 @@
+package com.tryvault.diagnostics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AllocationProfiler attributes the bytes allocated by the load funds pipeline to its stages, from the per-thread
+ * allocation counters of the JVM. A stage is measured by taking a {@link #mark()} of the current thread before it and
+ * {@link #record recording} the difference after it, so the stages can run on any thread, such as the executor lanes.
+ * The counters are read without allocating and are cheap, but a profiler is only created for the runs that ask for an
+ * allocation report.
+ *
+ * <p>
+ * The bytes of a stage include everything the stage allocates indirectly: the velocity checks include the queries of
+ * the store, and with JPA the save includes Hibernate's entity copies and flushes.
+ */
+public class AllocationProfiler {
+
+    /**
+     * The stages of the pipeline, in the order a request goes through them.
+     */
+    public enum Stage {
+        /**
+         * Reading and parsing the input into load funds requests, with Jackson for JSON lines.
+         */
+        PARSE("parse"),
+        /**
+         * The duplicate check.
+         */
+        DEDUPE("dedupe"),
+        /**
+         * The day and week windows of the request, the {@code ZonedDateTime} math.
+         */
+        TIME_WINDOWS("time windows"),
+        /**
+         * The velocity limit checks: the store queries and the {@code BigDecimal} arithmetic.
+         */
+        VELOCITY_CHECKS("velocity checks"),
+        /**
+         * Building and saving the entity, or the atomic insert.
+         */
+        SAVE("save"),
+        /**
+         * Building and writing the response.
+         */
+        RESPONSE("response");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+
+    private final Map<Stage, LongAdder> allocatedBytes = new EnumMap<>(Stage.class);
+
+    private final LongAdder numberOfRequests = new LongAdder();
+
+    /**
+     * @throws UnsupportedOperationException if the JVM does not measure the memory allocated by each thread.
+     */
+    public AllocationProfiler() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            throw new UnsupportedOperationException("The JVM does not report the memory allocated by each thread");
+        }
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+            throw new UnsupportedOperationException("The JVM does not report the memory allocated by each thread");
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        for (Stage stage : Stage.values()) {
+            allocatedBytes.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far, to be passed to {@link #record}.
+     */
+    public long mark() {
+        return threadMXBean.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Attributes the bytes allocated by the current thread since a mark to a stage.
+     *
+     * @param stage The stage that ran since the mark.
+     * @param mark  The value of {@link #mark()} before the stage.
+     * @return A new mark, for the next stage.
+     */
+    public long record(Stage stage, long mark) {
+        long now = threadMXBean.getCurrentThreadAllocatedBytes();
+        allocatedBytes.get(stage).add(now - mark);
+        return now;
+    }
+
+    /**
+     * Counts a decided load funds request, the denominator of the report.
+     */
+    public void countRequest() {
+        numberOfRequests.increment();
+    }
+
+    /**
+     * @param stage The stage.
+     * @return The bytes allocated by the stage so far.
+     */
+    public long getAllocatedBytes(Stage stage) {
+        return allocatedBytes.get(stage).sum();
+    }
+
+    /**
+     * @return The number of load funds requests decided so far.
+     */
+    public long getNumberOfRequests() {
+        return numberOfRequests.sum();
+    }
+
+    /**
+     * @param stage The stage.
+     * @return The bytes allocated by the stage per decided request, 0 before the first request.
+     */
+    public long getBytesPerRequest(Stage stage) {
+        long requests = getNumberOfRequests();
+        return requests == 0 ? 0 : getAllocatedBytes(stage) / requests;
+    }
+
+    /**
+     * @return One line per stage with its bytes per request and share of the allocations, then the total.
+     */
+    public String report() {
+        long total = 0;
+        for (Stage stage : Stage.values()) {
+            total += getAllocatedBytes(stage);
+        }
+        long requests = getNumberOfRequests();
+
+        StringBuilder report = new StringBuilder(String.format("Allocations of %d load funds requests:", requests));
+        for (Stage stage : Stage.values()) {
+            long bytes = getAllocatedBytes(stage);
+            report.append(String.format("%n  %-16s %10d bytes/request %5.1f%%", stage.getLabel(),
+                    requests == 0 ? 0 : bytes / requests, total == 0 ? 0.0 : 100.0 * bytes / total));
+        }
+        report.append(String.format("%n  %-16s %10d bytes/request", "total", requests == 0 ? 0 : total / requests));
+        return report.toString();
+    }
+}
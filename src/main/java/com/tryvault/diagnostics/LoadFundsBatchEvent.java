@@ -0,0 +1,57 @@
+package com.tryvault.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a batch of load funds requests read from an input file, or of responses written to an
+ * output file.
+ */
+@Name("com.tryvault.LoadFundsBatch")
+@Label("Load Funds Batch")
+@Category({"TryVault", "Load Funds"})
+@Description("Batch of load funds requests read or responses written")
+@Enabled(false)
+@StackTrace(false)
+public class LoadFundsBatchEvent extends jdk.jfr.Event {
+
+    public static final String READ = "read";
+
+    public static final String WRITE = "write";
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Records")
+    public long records;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    /**
+     * Ends the event and commits it if it is enabled and over its threshold.
+     *
+     * @param stage   READ or WRITE.
+     * @param path    The file read or written, if known.
+     * @param records The number of requests or responses in the batch.
+     * @param bytes   The number of bytes read or written, if known.
+     */
+    public void commit(String stage, String path, long records, long bytes) {
+        if (shouldCommit()) {
+            this.stage = stage;
+            this.path = path;
+            this.records = records;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
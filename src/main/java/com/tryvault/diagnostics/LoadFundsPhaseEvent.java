@@ -0,0 +1,61 @@
+package com.tryvault.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one phase of a load funds request decision: the duplicate check, each velocity limit check,
+ * the save or the atomic insert. Its duration is mostly the store's, so it shows database waits per phase.
+ */
+@Name("com.tryvault.LoadFundsPhase")
+@Label("Load Funds Phase")
+@Category({"TryVault", "Load Funds"})
+@Description("Phase of a load funds request decision")
+@Enabled(false)
+@StackTrace(false)
+public class LoadFundsPhaseEvent extends jdk.jfr.Event {
+
+    public static final String DEDUPE = "dedupe";
+
+    public static final String DAILY_COUNT = "daily count";
+
+    public static final String DAILY_AMOUNT = "daily amount";
+
+    public static final String WEEKLY_AMOUNT = "weekly amount";
+
+    public static final String SAVE = "save";
+
+    public static final String ATOMIC_INSERT = "atomic insert";
+
+    public static final String ARCHIVED_WEEK = "archived week";
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Customer Id")
+    public long customerId;
+
+    @Label("Decision")
+    @Description("The outcome of the phase: duplicate or unique, reached or within for a limit, the decision for a write")
+    public String decision;
+
+    /**
+     * Ends the event and commits it if it is enabled and over its threshold.
+     *
+     * @param phase      The phase.
+     * @param customerId The customer ID of the request.
+     * @param decision   The outcome of the phase.
+     */
+    public void commit(String phase, long customerId, String decision) {
+        if (shouldCommit()) {
+            this.phase = phase;
+            this.customerId = customerId;
+            this.decision = decision;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.tryvault.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of the decision of one load funds request, from the duplicate check to the save.
+ * Like the other TryVault events it is disabled by default and only recorded when enabled in the recording settings,
+ * for example with jcmd &lt;pid&gt; JFR.start settings=tryvault.jfc, where tryvault.jfc enables com.tryvault.*.
+ */
+@Name("com.tryvault.LoadFundsRequest")
+@Label("Load Funds Request")
+@Category({"TryVault", "Load Funds"})
+@Description("Decision of a load funds request")
+@Enabled(false)
+@StackTrace(false)
+public class LoadFundsRequestEvent extends jdk.jfr.Event {
+
+    public static final String ACCEPTED = "accepted";
+
+    public static final String REJECTED = "rejected";
+
+    public static final String DUPLICATE = "duplicate";
+
+    public static final String FAILED = "failed";
+
+    @Label("Id")
+    public long id;
+
+    @Label("Customer Id")
+    public long customerId;
+
+    @Label("Decision")
+    @Description("accepted, rejected, duplicate or failed")
+    public String decision;
+
+    @Label("Rejection Reason")
+    @Description("The first velocity limit reached by a rejected request, unknown for an atomic insert")
+    public String rejectionReason;
+
+    @Label("Atomic Insert")
+    public boolean atomicInsert;
+
+    /**
+     * @param accepted The decision of the service.
+     * @return The decision field of the event.
+     */
+    public static String decision(Boolean accepted) {
+        if (accepted == null) {
+            return DUPLICATE;
+        }
+        return accepted ? ACCEPTED : REJECTED;
+    }
+}
@@ -0,0 +1,84 @@
+package com.tryvault.entity;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+
+/**
+ * Represents the daily rollup of a customer's accepted load funds requests in the database.
+ * This class is used to map the "customer_velocity_daily" table in the "public" schema, with one row per customer and
+ * UTC day holding the number and the sum of the accepted requests of that day.
+ *
+ * <p>
+ * The velocity windows of the service include their end, the start of the next day, so each row also holds the accepted
+ * requests made at exactly the end of its day. A daily window is then read from one row and a weekly window from at most
+ * seven.
+ */
+@Entity
+@IdClass(CustomerVelocityDailyId.class)
+@Table(name = "customer_velocity_daily", schema = "public")
+public class CustomerVelocityDailyEntity {
+
+    @Id
+    private long customerId;
+
+    @Id
+    private long epochDay;
+
+    private long acceptedCount;
+
+    private BigDecimal acceptedSum;
+
+    private long endOfDayCount;
+
+    private BigDecimal endOfDaySum;
+
+    // Getters and Setters
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(long customerId) {
+        this.customerId = customerId;
+    }
+
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    public void setEpochDay(long epochDay) {
+        this.epochDay = epochDay;
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public void setAcceptedCount(long acceptedCount) {
+        this.acceptedCount = acceptedCount;
+    }
+
+    public BigDecimal getAcceptedSum() {
+        return acceptedSum;
+    }
+
+    public void setAcceptedSum(BigDecimal acceptedSum) {
+        this.acceptedSum = acceptedSum;
+    }
+
+    public long getEndOfDayCount() {
+        return endOfDayCount;
+    }
+
+    public void setEndOfDayCount(long endOfDayCount) {
+        this.endOfDayCount = endOfDayCount;
+    }
+
+    public BigDecimal getEndOfDaySum() {
+        return endOfDaySum;
+    }
+
+    public void setEndOfDaySum(BigDecimal endOfDaySum) {
+        this.endOfDaySum = endOfDaySum;
+    }
+}
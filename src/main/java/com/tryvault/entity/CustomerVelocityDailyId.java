@@ -0,0 +1,39 @@
+package com.tryvault.entity;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Identifies a {@link CustomerVelocityDailyEntity} by customer and UTC day.
+ */
+public class CustomerVelocityDailyId implements Serializable {
+
+    private long customerId;
+
+    private long epochDay;
+
+    public CustomerVelocityDailyId() {
+    }
+
+    public CustomerVelocityDailyId(long customerId, long epochDay) {
+        this.customerId = customerId;
+        this.epochDay = epochDay;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CustomerVelocityDailyId)) {
+            return false;
+        }
+        CustomerVelocityDailyId that = (CustomerVelocityDailyId) other;
+        return customerId == that.customerId && epochDay == that.epochDay;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(customerId, epochDay);
+    }
+}
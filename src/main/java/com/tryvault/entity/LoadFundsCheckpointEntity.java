@@ -0,0 +1,68 @@
+package com.tryvault.entity;
+
+import javax.persistence.*;
+
+/**
+ * Represents the checkpoint of a load funds input file in the database.
+ * This class is used to map and persist checkpoints to the "load_funds_checkpoint" table in the "public" schema.
+ * A checkpoint is saved in the same transaction as the load funds requests it covers, so after a crash the input offset,
+ * the output position and the stored requests always describe the same point of the run.
+ */
+@Entity
+@Table(name = "load_funds_checkpoint", schema = "public")
+public class LoadFundsCheckpointEntity {
+
+    @Id
+    @Column(length = 1024)
+    private String inputPath;
+
+    private long inputOffset;
+
+    private long outputPosition;
+
+    private long processedRequests;
+
+    private long storedRequests;
+
+    // Getters and Setters
+
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    public void setInputPath(String inputPath) {
+        this.inputPath = inputPath;
+    }
+
+    public long getInputOffset() {
+        return inputOffset;
+    }
+
+    public void setInputOffset(long inputOffset) {
+        this.inputOffset = inputOffset;
+    }
+
+    public long getOutputPosition() {
+        return outputPosition;
+    }
+
+    public void setOutputPosition(long outputPosition) {
+        this.outputPosition = outputPosition;
+    }
+
+    public long getProcessedRequests() {
+        return processedRequests;
+    }
+
+    public void setProcessedRequests(long processedRequests) {
+        this.processedRequests = processedRequests;
+    }
+
+    public long getStoredRequests() {
+        return storedRequests;
+    }
+
+    public void setStoredRequests(long storedRequests) {
+        this.storedRequests = storedRequests;
+    }
+}
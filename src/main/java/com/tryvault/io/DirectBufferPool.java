@@ -0,0 +1,61 @@
+package com.tryvault.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DirectBufferPool hands out direct {@link ByteBuffer}s of one size and takes them back, so network reads and writes
+ * reuse a bounded set of buffers instead of allocating and freeing native memory for each one. It is safe to use from
+ * several threads; a buffer must not be used once released.
+ */
+public class DirectBufferPool {
+
+    private final int bufferSize;
+
+    private final int maxPooledBuffers;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger numberOfPooledBuffers = new AtomicInteger();
+
+    /**
+     * @param bufferSize       The capacity of the buffers.
+     * @param maxPooledBuffers The maximum number of released buffers kept for reuse; the others are left to the GC.
+     */
+    public DirectBufferPool(int bufferSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * @return A cleared buffer, from the pool if one is available.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        numberOfPooledBuffers.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer A buffer acquired from this pool, no longer used by the caller.
+     */
+    public void release(ByteBuffer buffer) {
+        if (numberOfPooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+            buffers.offer(buffer);
+        } else {
+            numberOfPooledBuffers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The capacity of the buffers.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,558 @@
+package com.tryvault.io;
+
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.util.AimdConcurrencyLimit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadFundsLineServer decides load funds requests streamed over persistent TCP connections, in the JSON lines format of
+ * the input files, and streams the responses back on the same connection, in the format of the output files with a line
+ * break after each response. A client can send as many requests as it likes before reading responses; the responses
+ * of a connection come in the order of its requests, and like in the output files an ignored request, a duplicate, has
+ * no response, so clients match responses to requests by id and customer_id.
+ *
+ * <p>
+ * One selector thread accepts connections, reads them into pooled direct buffers and cuts the lines, and writes the
+ * encoded responses back. One decision thread decides the requests in the order they were read, like a sequential
+ * batch run, flushes the store like a batch runner so no response is sent for a request the database does not hold
+ * yet, and encodes the responses into pooled buffers; a request the store fails to decide, or all the decided ones if
+ * the flush fails, are answered with the "store_failed" error instead. A connection with more than the maximum number
+ * of undecided requests is not read until the decision thread catches up. Malformed lines are logged and skipped. When
+ * a client shuts its output down, its connection is closed once all its responses are written.
+ *
+ * <p>
+ * Under overload, requests can be shed instead of queueing up in front of the store: a request still undecided past
+ * its deadline is answered {"id":"…","customer_id":"…","error":"deadline_exceeded"} without being decided, and with a
+ * concurrency limit, the requests read while the limit is reached are answered with the "overloaded" error. The
+ * deadline of a request is the earlier of its own timeout_ms and the request timeout of the server, both counted from
+ * when the request was read, so it does not depend on the clocks of the client and the server agreeing. A shed request
+ * is not recorded, so the client can send it again.
+ */
+public class LoadFundsLineServer implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadFundsLineServer.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED_BUFFERS = 1024;
+
+    private static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+    private static final byte[] DEADLINE_EXCEEDED = "deadline_exceeded".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] OVERLOADED = "overloaded".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] STORE_FAILED = "store_failed".getBytes(StandardCharsets.US_ASCII);
+
+    private final LoadFundsRequestService loadFundsRequestService;
+
+    private final LoadFundsRequestReader loadFundsRequestReader;
+
+    private final InetSocketAddress address;
+
+    private final int maxOutstandingRequests;
+
+    private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    private final Queue<Connection> connectionsToUpdate = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong shedRequests = new AtomicLong();
+
+    private long requestTimeoutNanos = 0;
+
+    private AimdConcurrencyLimit concurrencyLimit;
+
+    private final ExecutorService decisionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "load-funds-line-server-decisions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private Thread selectorThread;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * @param loadFundsRequestService The service deciding the requests.
+     * @param loadFundsRequestReader  The reader parsing the request lines.
+     * @param address                 The address to listen on; port 0 picks a free port.
+     * @param maxOutstandingRequests  The number of undecided requests of a connection above which it is not read.
+     */
+    public LoadFundsLineServer(LoadFundsRequestService loadFundsRequestService, LoadFundsRequestReader loadFundsRequestReader,
+                               InetSocketAddress address, int maxOutstandingRequests) {
+        if (maxOutstandingRequests < 1) {
+            throw new IllegalArgumentException("The maximum number of outstanding requests must be positive");
+        }
+        this.loadFundsRequestService = loadFundsRequestService;
+        this.loadFundsRequestReader = loadFundsRequestReader;
+        this.address = address;
+        this.maxOutstandingRequests = maxOutstandingRequests;
+    }
+
+    /**
+     * @param requestTimeoutMillis The time after which a request read but not decided yet is shed, or 0 to decide every
+     *                             request without a timeout of its own however long it waited.
+     */
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+        if (requestTimeoutMillis < 0) {
+            throw new IllegalArgumentException("The request timeout cannot be negative");
+        }
+        this.requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+    }
+
+    /**
+     * @param concurrencyLimit The limit on the requests waiting for or going through a decision, adapted to their
+     *                         latency from being read to being decided, or null to queue every request read.
+     */
+    public void setConcurrencyLimit(AimdConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * Binds the server socket and starts accepting connections.
+     *
+     * @throws IOException if the socket cannot be bound.
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        selectorThread = new Thread(this::runSelector, "load-funds-line-server-selector");
+        selectorThread.start();
+        LOGGER.info("Listening for load funds requests on {}", serverChannel.getLocalAddress());
+    }
+
+    /**
+     * @return The port the server listens on.
+     * @throws IOException if the server is not bound.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Waits until the server is closed.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void awaitTermination() throws InterruptedException {
+        selectorThread.join();
+    }
+
+    /**
+     * @return The number of requests answered with an error instead of being decided.
+     */
+    public long getShedRequests() {
+        return shedRequests.get();
+    }
+
+    /**
+     * Stops accepting and reading and closes the connections, then lets the decision thread finish the requests already
+     * read, whose responses are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        stopped = true;
+        // The selector thread hands reads to the decision thread, so it must stop before the decision thread is shut down
+        if (selector != null) {
+            selector.wakeup();
+            try {
+                selectorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        decisionExecutor.shutdown();
+        try {
+            decisionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (shedRequests.get() > 0) {
+            LOGGER.info("Shed {} load funds requests under overload", shedRequests.get());
+        }
+    }
+
+    private void runSelector() {
+        try {
+            while (!stopped) {
+                selector.select();
+
+                Connection connection;
+                while ((connection = connectionsToUpdate.poll()) != null) {
+                    update(connection);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isWritable()) {
+                                write((Connection) key.attachment());
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                read((Connection) key.attachment());
+                            }
+                        }
+                    } catch (IOException e) {
+                        LOGGER.warn("Closing a connection after an I/O error: {}", e.toString());
+                        if (key.attachment() != null) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOGGER.error("The load funds line server stopped", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private void read(Connection connection) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            int read = connection.channel.read(buffer);
+            long readNanos = System.nanoTime();
+            List<LoadFundsRequest> loadFundsRequests;
+            if (read < 0) {
+                // The client sent everything, its last line may have no line break; answer the rest, then close
+                connection.inputClosed = true;
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                loadFundsRequests = connection.cutLastLine();
+            } else {
+                buffer.flip();
+                loadFundsRequests = connection.cutLines(buffer);
+            }
+
+            if (!loadFundsRequests.isEmpty()) {
+                if (connection.outstandingRequests.addAndGet(loadFundsRequests.size()) > maxOutstandingRequests) {
+                    connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                    connection.readPaused = true;
+                }
+                int admitted = concurrencyLimit == null ? loadFundsRequests.size()
+                        : concurrencyLimit.tryAcquire(loadFundsRequests.size());
+                decisionExecutor.execute(() -> decide(connection, loadFundsRequests, readNanos, admitted));
+            } else {
+                closeIfDone(connection);
+            }
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Decides the admitted requests of a read, the first ones, unless their deadline has passed, and sheds the others.
+     * The responses are only handed to the selector thread once the store holds the decided requests. A request the
+     * store fails to decide is answered with the "store_failed" error, the others of the read are still answered.
+     */
+    private void decide(Connection connection, List<LoadFundsRequest> loadFundsRequests, long readNanos, int admitted) {
+        ByteBuffer buffer = null;
+        try {
+            Boolean[] decisions = new Boolean[loadFundsRequests.size()];
+            byte[][] errors = new byte[loadFundsRequests.size()][];
+            int shed = 0;
+            for (int index = 0; index < loadFundsRequests.size(); index++) {
+                LoadFundsRequest loadFundsRequest = loadFundsRequests.get(index);
+                long timeoutNanos = timeoutNanos(loadFundsRequest);
+                if (index >= admitted) {
+                    errors[index] = OVERLOADED;
+                    shed++;
+                } else if (timeoutNanos != NO_TIMEOUT && System.nanoTime() - readNanos > timeoutNanos) {
+                    // Too late for the client, do not spend a store round trip on it
+                    errors[index] = DEADLINE_EXCEEDED;
+                    shed++;
+                } else {
+                    try {
+                        decisions[index] = loadFundsRequestService.decideLoadAttempt(loadFundsRequest);
+                    } catch (RuntimeException e) {
+                        // A store query timing out under load fails this request only
+                        LOGGER.error("Failed to decide the load funds request (id: {}, customer_id: {})",
+                                loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), e);
+                        errors[index] = STORE_FAILED;
+                    }
+                }
+            }
+            try {
+                // A store batching its saves only holds the decided requests in memory, no response before they are written
+                loadFundsRequestService.flush();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to store the decided load funds requests, answering them with an error", e);
+                for (int index = 0; index < decisions.length; index++) {
+                    if (decisions[index] != null) {
+                        decisions[index] = null;
+                        errors[index] = STORE_FAILED;
+                    }
+                }
+            }
+            if (shed > 0) {
+                shedRequests.addAndGet(shed);
+            }
+
+            buffer = bufferPool.acquire();
+            for (int index = 0; index < loadFundsRequests.size(); index++) {
+                if (decisions[index] == null && errors[index] == null) {
+                    // A duplicate, ignored without a response
+                    continue;
+                }
+                if (buffer.remaining() < LoadFundsResponseChannelWriter.MAX_RESPONSE_SIZE) {
+                    connection.pendingWrites.add(buffer.flip());
+                    buffer = bufferPool.acquire();
+                }
+                LoadFundsRequest loadFundsRequest = loadFundsRequests.get(index);
+                if (errors[index] != null) {
+                    LoadFundsResponseChannelWriter.encodeError(buffer, loadFundsRequest.getId(),
+                            loadFundsRequest.getCustomerId(), errors[index]);
+                } else {
+                    LoadFundsResponseChannelWriter.encode(buffer, loadFundsRequest.getId(),
+                            loadFundsRequest.getCustomerId(), decisions[index]);
+                }
+                buffer.put((byte) '\n');
+            }
+            if (buffer.position() > 0) {
+                connection.pendingWrites.add(buffer.flip());
+                buffer = null;
+            }
+        } finally {
+            // Whatever failed, the permits, the outstanding requests and the buffers of this read are given back
+            if (buffer != null) {
+                bufferPool.release(buffer);
+            }
+            if (concurrencyLimit != null) {
+                concurrencyLimit.release(admitted, readNanos, System.nanoTime() - readNanos);
+            }
+            if (!connection.channel.isOpen()) {
+                // Closed while the requests were decided, nothing will write the responses
+                connection.releasePendingWrites();
+            }
+
+            connection.outstandingRequests.addAndGet(-loadFundsRequests.size());
+            connectionsToUpdate.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * The time a request may wait from being read to being decided: its own timeout, at most the one of the server.
+     */
+    private long timeoutNanos(LoadFundsRequest loadFundsRequest) {
+        long serverTimeoutNanos = requestTimeoutNanos > 0 ? requestTimeoutNanos : NO_TIMEOUT;
+        Long timeoutMillis = loadFundsRequest.getTimeoutMillis();
+        if (timeoutMillis == null) {
+            return serverTimeoutNanos;
+        }
+        return Math.min(serverTimeoutNanos, TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis)));
+    }
+
+    /**
+     * Applies the progress of the decision thread to a connection, on the selector thread.
+     */
+    private void update(Connection connection) {
+        if (!connection.key.isValid()) {
+            connection.releasePendingWrites();
+            return;
+        }
+        try {
+            write(connection);
+            if (connection.readPaused && !connection.inputClosed && connection.key.isValid()
+                    && connection.outstandingRequests.get() <= maxOutstandingRequests / 2) {
+                connection.readPaused = false;
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Closing a connection after an I/O error: {}", e.toString());
+            connection.close();
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = connection.pendingWrites.peek()) != null) {
+            connection.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                // The socket buffer is full, continue when it is writable again
+                connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.pendingWrites.poll();
+            bufferPool.release(buffer);
+        }
+        connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+        closeIfDone(connection);
+    }
+
+    private void closeIfDone(Connection connection) {
+        if (connection.inputClosed && connection.outstandingRequests.get() == 0 && connection.pendingWrites.isEmpty()) {
+            connection.close();
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the load funds line server: {}", e.toString());
+        }
+    }
+
+    /**
+     * The state of a client connection: the line being read, the undecided requests and the responses to write.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+
+        private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+
+        private SelectionKey key;
+
+        private byte[] line = new byte[256];
+
+        private int lineLength = 0;
+
+        private boolean readPaused = false;
+
+        private boolean inputClosed = false;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Parses the complete lines of the buffer, keeping the incomplete last line for the next read.
+         */
+        private List<LoadFundsRequest> cutLines(ByteBuffer buffer) throws IOException {
+            List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+            int lineStart = buffer.position();
+            for (int index = lineStart; index < buffer.limit(); index++) {
+                if (buffer.get(index) != '\n') {
+                    continue;
+                }
+                append(buffer, lineStart, index - lineStart);
+                lineStart = index + 1;
+                parseLine(loadFundsRequests);
+                lineLength = 0;
+            }
+            append(buffer, lineStart, buffer.limit() - lineStart);
+            return loadFundsRequests;
+        }
+
+        /**
+         * Parses the line left without a line break at the end of the input.
+         */
+        private List<LoadFundsRequest> cutLastLine() {
+            List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+            parseLine(loadFundsRequests);
+            lineLength = 0;
+            return loadFundsRequests;
+        }
+
+        private void append(ByteBuffer buffer, int offset, int length) throws IOException {
+            if (lineLength + length > BUFFER_SIZE) {
+                throw new IOException("Line longer than " + BUFFER_SIZE + " bytes");
+            }
+            if (lineLength + length > line.length) {
+                line = Arrays.copyOf(line, Math.max(lineLength + length, line.length * 2));
+            }
+            buffer.get(offset, line, lineLength, length);
+            lineLength += length;
+        }
+
+        private void parseLine(List<LoadFundsRequest> loadFundsRequests) {
+            int start = 0;
+            int end = lineLength;
+            while (start < end && line[start] <= ' ') {
+                start++;
+            }
+            while (end > start && line[end - 1] <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                return;
+            }
+            try {
+                loadFundsRequests.add(loadFundsRequestReader.readLine(line, start, end - start));
+            } catch (IOException e) {
+                LOGGER.error("Skipping malformed line: {}", new String(line, start, end - start, StandardCharsets.UTF_8));
+            }
+        }
+
+        private void close() {
+            try {
+                key.cancel();
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close a connection: {}", e.toString());
+            }
+            releasePendingWrites();
+        }
+
+        /**
+         * Returns the responses not written yet to the pool, once the connection is closed; safe from either thread.
+         */
+        private void releasePendingWrites() {
+            ByteBuffer buffer;
+            while ((buffer = pendingWrites.poll()) != null) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+}
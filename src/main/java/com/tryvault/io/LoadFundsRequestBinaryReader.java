@@ -0,0 +1,175 @@
+package com.tryvault.io;
+
+import com.tryvault.model.LoadFundsRequest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * LoadFundsRequestBinaryReader gives access to a load funds request file in the fixed-width binary format written by
+ * {@link LoadFundsRequestBinaryWriter}. The file is memory-mapped and each field is read straight from its offset, so
+ * replaying a file costs no parsing at all: no JSON, no "$" stripping and no time parsing.
+ *
+ * <p>
+ * The file is mapped in segments of 1 GiB, which hold a whole number of records, so files larger than 2 GiB are
+ * supported. Iterating the reader materializes {@link LoadFundsRequest} objects for the service, with the same time
+ * zone as the JSON reader.
+ */
+public class LoadFundsRequestBinaryReader implements Iterable<LoadFundsRequest> {
+
+    /** "TVLFRBIN" read as a little-endian int64. */
+    static final long MAGIC = 0x4E494252464C5654L;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int RECORD_SIZE = 32;
+
+    private static final int SEGMENT_SHIFT = 30;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private final MappedByteBuffer[] segments;
+
+    private final long size;
+
+    private LoadFundsRequestBinaryReader(MappedByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Maps a binary load funds request file.
+     *
+     * @param filePath The path of the binary file.
+     * @return The reader of the file.
+     * @throws IOException if the file cannot be mapped or is not a complete binary load funds request file.
+     */
+    public static LoadFundsRequestBinaryReader open(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Not a binary load funds request file: " + filePath);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // Read the whole header
+            }
+            header.flip();
+            if (header.getLong() != MAGIC) {
+                throw new IOException("Not a binary load funds request file: " + filePath);
+            }
+            int version = header.getInt();
+            int recordSize = header.getInt();
+            long size = header.getLong();
+            if (version != VERSION || recordSize != RECORD_SIZE) {
+                throw new IOException("Unsupported binary load funds request file version " + version + ": " + filePath);
+            }
+            if (fileSize != HEADER_SIZE + size * RECORD_SIZE) {
+                throw new IOException("Incomplete binary load funds request file, expected " + size + " records: " + filePath);
+            }
+
+            // The header takes the place of one record, so no record crosses a segment boundary
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((fileSize + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int index = 0; index < segments.length; index++) {
+                long position = (long) index << SEGMENT_SHIFT;
+                segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(1L << SEGMENT_SHIFT, fileSize - position));
+                segments[index].order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            return new LoadFundsRequestBinaryReader(segments, size);
+        }
+    }
+
+    /**
+     * @param filePath The path of the file.
+     * @return Whether the file starts like a binary load funds request file.
+     * @throws IOException if an I/O error occurs while reading the file.
+     */
+    public static boolean isBinary(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+                // Read the whole magic number
+            }
+            return !magic.hasRemaining() && magic.getLong(0) == MAGIC;
+        }
+    }
+
+    /**
+     * @return The number of records.
+     */
+    public long size() {
+        return size;
+    }
+
+    public long getId(long index) {
+        return field(index, 0);
+    }
+
+    public long getCustomerId(long index) {
+        return field(index, 8);
+    }
+
+    public long getAmountCents(long index) {
+        return field(index, 16);
+    }
+
+    public long getEpochSecond(long index) {
+        return field(index, 24);
+    }
+
+    /**
+     * @param index The index of the record.
+     * @return The record as a LoadFundsRequest, as the JSON reader would have read it.
+     */
+    public LoadFundsRequest get(long index) {
+        return new LoadFundsRequest(getId(index), getCustomerId(index), BigDecimal.valueOf(getAmountCents(index), 2),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(getEpochSecond(index)), UTC));
+    }
+
+    @Override
+    public Iterator<LoadFundsRequest> iterator() {
+        return new Iterator<>() {
+            private long index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public LoadFundsRequest next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+
+    private long field(long index, int fieldOffset) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Record " + index + " out of " + size);
+        }
+        long offset = HEADER_SIZE + index * RECORD_SIZE + fieldOffset;
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getLong((int) (offset & SEGMENT_MASK));
+    }
+}
@@ -0,0 +1,84 @@
+package com.tryvault.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * LoadFundsRequestBinaryWriter writes load funds requests in the fixed-width binary format read by
+ * {@link LoadFundsRequestBinaryReader}: a 32 bytes header followed by one 32 bytes record per request, holding the id,
+ * the customer id, the amount in cents and the time in epoch seconds as little-endian int64 values.
+ * The header holds the number of records, written when the writer is closed.
+ */
+public class LoadFundsRequestBinaryWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long count = 0;
+
+    public LoadFundsRequestBinaryWriter(Path outputPath) throws IOException {
+        this.channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // Reserve the header, it is completed once the number of records is known
+        this.buffer.position(LoadFundsRequestBinaryReader.HEADER_SIZE);
+    }
+
+    /**
+     * Appends a load funds request record.
+     *
+     * @param id          The ID of the load funds request.
+     * @param customerId  The customer ID associated with the load funds request.
+     * @param amountCents The amount to be loaded, in cents.
+     * @param epochSecond The time of the load funds request, in epoch seconds.
+     * @throws IOException if an I/O error occurs while flushing to the file.
+     */
+    public void write(long id, long customerId, long amountCents, long epochSecond) throws IOException {
+        if (buffer.remaining() < LoadFundsRequestBinaryReader.RECORD_SIZE) {
+            flush();
+        }
+        buffer.putLong(id).putLong(customerId).putLong(amountCents).putLong(epochSecond);
+        count++;
+    }
+
+    /**
+     * @return The number of records written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+
+            ByteBuffer header = ByteBuffer.allocate(LoadFundsRequestBinaryReader.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(LoadFundsRequestBinaryReader.MAGIC)
+                    .putInt(LoadFundsRequestBinaryReader.VERSION)
+                    .putInt(LoadFundsRequestBinaryReader.RECORD_SIZE)
+                    .putLong(count)
+                    .flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,262 @@
+package com.tryvault.io;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.tryvault.diagnostics.LoadFundsBatchEvent;
+import com.tryvault.model.LoadFundsRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadFundsRequestFileFollower keeps a file of load funds requests open and reads the lines appended to it, like
+ * {@code tail -f}, so a single warm JVM can process a file that upstream systems keep appending to.
+ *
+ * <p>
+ * New data is picked up when the {@link WatchService} reports a change to the file, or at the latest after the poll
+ * interval, for file systems without change notifications. A last line without a line break is kept until it is
+ * completed, unless it is already a complete request, which happens at the end of files written without a trailing line
+ * break. A file that shrinks is considered truncated and is followed again from its beginning. Malformed lines are logged
+ * and skipped, so one bad line does not stop the follower.
+ */
+public class LoadFundsRequestFileFollower implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadFundsRequestFileFollower.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Path filePath;
+
+    private final LoadFundsRequestReader loadFundsRequestReader;
+
+    private final long pollIntervalMillis;
+
+    private final long idleTimeoutMillis;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+    private volatile boolean stopped = false;
+
+    private long readPosition;
+
+    private long consumedPosition;
+
+    /**
+     * Receives the requests read from the followed file, one batch per read of up to 64 KiB.
+     */
+    @FunctionalInterface
+    public interface BatchConsumer {
+        void accept(List<LoadFundsRequest> loadFundsRequests) throws IOException;
+    }
+
+    /**
+     * @param filePath               The path of the followed file.
+     * @param loadFundsRequestReader The reader used to parse each line.
+     * @param pollIntervalMillis     The maximum time between two checks of the file.
+     * @param idleTimeoutMillis      The time without new data after which following stops; 0 follows until stopped.
+     */
+    public LoadFundsRequestFileFollower(Path filePath, LoadFundsRequestReader loadFundsRequestReader,
+                                        long pollIntervalMillis, long idleTimeoutMillis) {
+        this.filePath = filePath;
+        this.loadFundsRequestReader = loadFundsRequestReader;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Starts following the file at a byte offset, for example to resume from a previous run.
+     *
+     * @param offset The offset of the first line to be read.
+     */
+    public void seek(long offset) {
+        this.readPosition = offset;
+        this.consumedPosition = offset;
+        this.partialLine.reset();
+    }
+
+    /**
+     * Follows the file until {@link #close()} is called, the thread is interrupted or the idle timeout expires.
+     *
+     * @param consumer The consumer of the requests read from the file.
+     * @throws IOException if an I/O error occurs while reading the file or the consumer fails.
+     */
+    public void follow(BatchConsumer consumer) throws IOException {
+        LOGGER.info("Following entries appended to filePath {}", filePath);
+        read(consumer, false);
+    }
+
+    /**
+     * Reads the file from the current offset to its end, in batches, without waiting for more lines.
+     *
+     * @param consumer The consumer of the requests read from the file.
+     * @throws IOException if an I/O error occurs while reading the file or the consumer fails.
+     */
+    public void readToEnd(BatchConsumer consumer) throws IOException {
+        LOGGER.info("Reading entries of filePath {} from offset {}", filePath, readPosition);
+        read(consumer, true);
+    }
+
+    private void read(BatchConsumer consumer, boolean untilEndOfFile) throws IOException {
+        if (PipelinedGzipInputStream.isGzip(filePath)) {
+            // Offsets in a compressed stream cannot be followed, seeked or checkpointed
+            throw new IOException("A gzip file cannot be followed or resumed, decompress it first: " + filePath);
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+             WatchService watchService = untilEndOfFile ? null : openWatchService()) {
+            long lastDataNanos = System.nanoTime();
+
+            while (!stopped && !Thread.currentThread().isInterrupted()) {
+                List<LoadFundsRequest> loadFundsRequests = readAppendedLines(channel);
+
+                if (loadFundsRequests.isEmpty()) {
+                    // No new line: the pending line may be complete already, only without its line break
+                    LoadFundsRequest pendingRequest = parsePartialLine();
+                    if (pendingRequest != null) {
+                        loadFundsRequests.add(pendingRequest);
+                    }
+                }
+
+                if (!loadFundsRequests.isEmpty()) {
+                    consumer.accept(loadFundsRequests);
+                    lastDataNanos = System.nanoTime();
+                } else if (untilEndOfFile) {
+                    break;
+                } else if (idleTimeoutMillis > 0
+                        && System.nanoTime() - lastDataNanos >= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)) {
+                    LOGGER.info("No new entries for {} ms, stopping to follow filePath {}", idleTimeoutMillis, filePath);
+                    break;
+                } else {
+                    awaitChange(watchService);
+                }
+            }
+
+            if (partialLine.size() > 0) {
+                LOGGER.warn("Ignoring incomplete last line of filePath {}", filePath);
+            }
+        }
+    }
+
+    /**
+     * @return The offset right after the last line handed to the consumer, which is also the offset to resume from.
+     */
+    public long getConsumedPosition() {
+        return consumedPosition;
+    }
+
+    /**
+     * Stops following the file; a batch being consumed is completed first.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+    }
+
+    private List<LoadFundsRequest> readAppendedLines(FileChannel channel) throws IOException {
+        List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+        LoadFundsBatchEvent event = new LoadFundsBatchEvent();
+        event.begin();
+
+        if (channel.size() < readPosition) {
+            LOGGER.warn("filePath {} was truncated, following it again from the beginning", filePath);
+            seek(0);
+        }
+
+        long bytesRead = 0;
+
+        // One buffer of data per batch, unless it does not complete a line
+        while (readPosition < channel.size() && loadFundsRequests.isEmpty()) {
+            readBuffer.clear();
+            int read = channel.read(readBuffer, readPosition);
+            if (read <= 0) {
+                break;
+            }
+            readPosition += read;
+
+            byte[] bytes = readBuffer.array();
+            int lineStart = 0;
+            for (int index = 0; index < read; index++) {
+                if (bytes[index] != '\n') {
+                    continue;
+                }
+                partialLine.write(bytes, lineStart, index - lineStart);
+                lineStart = index + 1;
+
+                String line = partialLine.toString(StandardCharsets.UTF_8).trim();
+                partialLine.reset();
+                consumedPosition = readPosition - read + lineStart;
+                if (!line.isEmpty()) {
+                    parse(line, loadFundsRequests);
+                }
+            }
+            partialLine.write(bytes, lineStart, read - lineStart);
+            bytesRead += read;
+        }
+
+        if (bytesRead > 0) {
+            event.commit(LoadFundsBatchEvent.READ, filePath.toString(), loadFundsRequests.size(), bytesRead);
+        }
+        return loadFundsRequests;
+    }
+
+    private LoadFundsRequest parsePartialLine() {
+        String line = partialLine.toString(StandardCharsets.UTF_8).trim();
+        if (line.isEmpty()) {
+            return null;
+        }
+
+        try {
+            LoadFundsRequest loadFundsRequest = loadFundsRequestReader.readLine(line);
+            partialLine.reset();
+            consumedPosition = readPosition;
+            return loadFundsRequest;
+        } catch (IOException e) {
+            // Still being written
+            return null;
+        }
+    }
+
+    private void parse(String line, List<LoadFundsRequest> loadFundsRequests) {
+        try {
+            loadFundsRequests.add(loadFundsRequestReader.readLine(line));
+        } catch (JsonProcessingException e) {
+            LOGGER.error("Skipping malformed line of filePath {}: {}", filePath, line, e);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read line of filePath {}: {}", filePath, line, e);
+        }
+    }
+
+    private WatchService openWatchService() throws IOException {
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        Path directory = filePath.toAbsolutePath().getParent();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        return watchService;
+    }
+
+    private void awaitChange(WatchService watchService) {
+        try {
+            WatchKey watchKey = watchService.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+            if (watchKey != null) {
+                watchKey.pollEvents();
+                watchKey.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.tryvault.diagnostics.LoadFundsBatchEvent;
 import com.tryvault.model.LoadFundsRequest;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,8 +14,14 @@ import org.springframework.stereotype.Service;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  LoadFundsRequestReader is a component used to read LoadFundsRequest objects from a file in JSON format.
@@ -45,29 +52,85 @@ public class LoadFundsRequestReader {
      * This method takes a file path as input and reads the file line by line.
      * Each line is parsed as a separate JSON object and mapped to a LoadFundsRequest object.
      * The resulting LoadFundsRequest objects are added to a list and returned.
+     * A gzip-compressed file is read transparently, inflated on its own thread while the lines are parsed.
      *
      * @param filePath The file path of the file to be read.
      * @return A list of LoadFundsRequest objects read from the file.
      * @throws IOException If an I/O error occurs during the file reading process.
      */
     public List<LoadFundsRequest> readFromFile(String filePath) throws IOException {
-        LOGGER.info("Reading entries from filePath {}", filePath);
-
-        // Create ObjectMapper instance
         List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+        read(filePath, loadFundsRequests::add);
+        return loadFundsRequests;
+    }
+
+    /**
+     * Reads LoadFundsRequest objects from a file in JSON format, like {@link #readFromFile}, into packed primitive
+     * fields instead of a list of objects, so the requests of a large file take a fraction of the heap.
+     *
+     * @param filePath The file path of the file to be read.
+     * @return The requests read from the file.
+     * @throws IOException If an I/O error occurs during the file reading process.
+     */
+    public PackedLoadFundsRequests readPackedFromFile(String filePath) throws IOException {
+        PackedLoadFundsRequests loadFundsRequests = new PackedLoadFundsRequests();
+        read(filePath, loadFundsRequests::add);
+        return loadFundsRequests;
+    }
+
+    private void read(String filePath, Consumer<LoadFundsRequest> consumer) throws IOException {
+        LOGGER.info("Reading entries from filePath {}", filePath);
 
         LOGGER.info("Reading lines");
 
+        LoadFundsBatchEvent event = new LoadFundsBatchEvent();
+        event.begin();
+        long numberOfRequests = 0;
+        long numberOfChars = 0;
+
         // Read file line by line
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+        try (BufferedReader reader = new BufferedReader(open(Paths.get(filePath)), 64 * 1024)) {
             String line;
             while ((line = reader.readLine()) != null) {
                 // Parse each line as a separate JSON object and map it to LoadFundsRequest
-                LoadFundsRequest loadFundsRequest = objectMapper.readValue(line, LoadFundsRequest.class);
-                loadFundsRequests.add(loadFundsRequest);
+                consumer.accept(objectMapper.readValue(line, LoadFundsRequest.class));
+                numberOfRequests++;
+                numberOfChars += line.length() + 1;
             }
         }
 
-        return loadFundsRequests;
+        // The whole file is one batch; its size in characters stands for bytes, the same for ASCII lines
+        event.commit(LoadFundsBatchEvent.READ, filePath, numberOfRequests, numberOfChars);
+    }
+
+    private static Reader open(Path filePath) throws IOException {
+        if (PipelinedGzipInputStream.isGzip(filePath)) {
+            return new InputStreamReader(new PipelinedGzipInputStream(filePath), StandardCharsets.UTF_8);
+        }
+        return new FileReader(filePath.toFile());
+    }
+
+    /**
+     * Parses a single line in JSON format as a LoadFundsRequest object.
+     *
+     * @param line The line to be parsed.
+     * @return The LoadFundsRequest object read from the line.
+     * @throws IOException If the line is not a valid LoadFundsRequest in JSON format.
+     */
+    public LoadFundsRequest readLine(String line) throws IOException {
+        return objectMapper.readValue(line, LoadFundsRequest.class);
+    }
+
+    /**
+     * Parses a single line in JSON format, given as UTF-8 bytes, as a LoadFundsRequest object.
+     *
+     * @param bytes  The buffer holding the line.
+     * @param offset The offset of the line in the buffer.
+     * @param length The length of the line, without its line break.
+     * @return The LoadFundsRequest object read from the line.
+     * @throws IOException If the line is not a valid LoadFundsRequest in JSON format.
+     */
+    public LoadFundsRequest readLine(byte[] bytes, int offset, int length) throws IOException {
+        return objectMapper.readValue(bytes, offset, length, LoadFundsRequest.class);
     }
 }
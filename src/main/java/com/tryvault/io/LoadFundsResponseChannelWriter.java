@@ -0,0 +1,218 @@
+package com.tryvault.io;
+
+import com.tryvault.diagnostics.LoadFundsBatchEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * LoadFundsResponseChannelWriter encodes load funds responses straight from their primitive fields into a reusable direct
+ * {@link ByteBuffer} and flushes it to a {@link FileChannel} in large writes.
+ * A response always has the fixed shape {"id":"…","customer_id":"…","accepted":bool}, so the JSON is produced without
+ * building a {@link com.tryvault.model.LoadFundsResponse} or going through Jackson. The output is byte-identical to
+ * {@link LoadFundsResponseWriter#writeToFile}: one response per line, with no trailing line break.
+ * An output path ending with .gz is written gzip-compressed by a {@link PipelinedGzipChannel}, deflated on its own thread
+ * while the next responses are decided; such an output cannot be continued at a position nor forced to disk before
+ * it is closed.
+ */
+public class LoadFundsResponseChannelWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    // Longest possible response: two 20 characters longs, the field names, "false" and the line break
+    static final int MAX_RESPONSE_SIZE = 128;
+
+    private static final byte[] ID_PREFIX = "{\"id\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CUSTOMER_ID_PREFIX = "\",\"customer_id\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACCEPTED_TRUE = "\",\"accepted\":true}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACCEPTED_FALSE = "\",\"accepted\":false}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_PREFIX = "\",\"error\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LONG_MIN_VALUE = String.valueOf(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel channel;
+
+    private final String path;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private boolean shouldBreakLine = false;
+
+    private long count = 0;
+
+    private long flushedCount = 0;
+
+    public LoadFundsResponseChannelWriter(Path outputPath) throws IOException {
+        this(PipelinedGzipChannel.isGzipName(outputPath) ? new PipelinedGzipChannel(outputPath)
+                : FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), outputPath.toString());
+    }
+
+    public LoadFundsResponseChannelWriter(FileChannel channel) {
+        this(channel, null);
+    }
+
+    private LoadFundsResponseChannelWriter(WritableByteChannel channel, String path) {
+        this.channel = channel;
+        this.path = path;
+    }
+
+    /**
+     * Continues an output file at a known position, discarding whatever was written after it.
+     *
+     * @param outputPath The path of the output file.
+     * @param position   The position to continue from, as returned by {@link #getPosition()}; 0 starts a new file.
+     * @throws IOException if an I/O error occurs while opening or truncating the file, or if it is a gzip file.
+     */
+    public LoadFundsResponseChannelWriter(Path outputPath, long position) throws IOException {
+        this(openToContinue(outputPath), outputPath.toString());
+        FileChannel fileChannel = (FileChannel) channel;
+        fileChannel.truncate(position);
+        fileChannel.position(position);
+        shouldBreakLine = position > 0;
+    }
+
+    private static FileChannel openToContinue(Path outputPath) throws IOException {
+        if (PipelinedGzipChannel.isGzipName(outputPath)) {
+            throw new IOException("A gzip output cannot be continued at a position: " + outputPath);
+        }
+        return FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Encodes a load funds response into the buffer, flushing the buffer to the channel first if it is full.
+     *
+     * @param id         The ID of the load funds request.
+     * @param customerId The customer ID associated with the load funds request.
+     * @param accepted   Whether the load funds request was accepted.
+     * @throws IOException if an I/O error occurs while flushing to the channel.
+     */
+    public void write(long id, long customerId, boolean accepted) throws IOException {
+        if (buffer.remaining() < MAX_RESPONSE_SIZE) {
+            flush();
+        }
+
+        if (shouldBreakLine) {
+            buffer.put((byte) '\n');
+        }
+        shouldBreakLine = true;
+
+        encode(buffer, id, customerId, accepted);
+        count++;
+    }
+
+    /**
+     * Encodes a load funds response, without a line break, into a buffer with at least MAX_RESPONSE_SIZE bytes left.
+     */
+    static void encode(ByteBuffer buffer, long id, long customerId, boolean accepted) {
+        buffer.put(ID_PREFIX);
+        putLong(buffer, id);
+        buffer.put(CUSTOMER_ID_PREFIX);
+        putLong(buffer, customerId);
+        buffer.put(accepted ? ACCEPTED_TRUE : ACCEPTED_FALSE);
+    }
+
+    /**
+     * Encodes the response to a request that was not decided, {"id":"…","customer_id":"…","error":"…"}, without a line
+     * break, into a buffer with at least MAX_RESPONSE_SIZE bytes left; the error is a short ASCII code.
+     */
+    static void encodeError(ByteBuffer buffer, long id, long customerId, byte[] error) {
+        buffer.put(ID_PREFIX);
+        putLong(buffer, id);
+        buffer.put(CUSTOMER_ID_PREFIX);
+        putLong(buffer, customerId);
+        buffer.put(ERROR_PREFIX);
+        buffer.put(error);
+        buffer.put(ERROR_SUFFIX);
+    }
+
+    /**
+     * Writes the buffered responses to the channel.
+     *
+     * @throws IOException if an I/O error occurs while writing to the channel.
+     */
+    public void flush() throws IOException {
+        LoadFundsBatchEvent event = new LoadFundsBatchEvent();
+        event.begin();
+        buffer.flip();
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        event.commit(LoadFundsBatchEvent.WRITE, path, count - flushedCount, bytes);
+        flushedCount = count;
+    }
+
+    /**
+     * Writes the buffered responses to the channel and forces them to the storage device, so they survive a crash.
+     *
+     * @throws IOException if an I/O error occurs while writing to the channel, or if the output is a gzip file.
+     */
+    public void force() throws IOException {
+        flush();
+        fileChannel().force(false);
+    }
+
+    /**
+     * @return The position in the output file right after the last response written, including buffered ones.
+     * @throws IOException if an I/O error occurs while reading the position of the channel, or if the output is a gzip
+     *                     file.
+     */
+    public long getPosition() throws IOException {
+        return fileChannel().position() + buffer.position();
+    }
+
+    private FileChannel fileChannel() throws IOException {
+        if (!(channel instanceof FileChannel)) {
+            throw new IOException("A gzip output has no position until it is closed: " + path);
+        }
+        return (FileChannel) channel;
+    }
+
+    /**
+     * @return The number of responses written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void putLong(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(LONG_MIN_VALUE);
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+
+        int length = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            length++;
+        }
+
+        // Write the digits backwards from the last position
+        int position = buffer.position();
+        for (int index = position + length - 1; index >= position; index--) {
+            buffer.put(index, (byte) ('0' + (value % 10)));
+            value /= 10;
+        }
+        buffer.position(position + length);
+    }
+}
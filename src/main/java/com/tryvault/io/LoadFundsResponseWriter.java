@@ -11,6 +11,7 @@ import org.springframework.stereotype.Component;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 
 
@@ -64,4 +65,26 @@ public class LoadFundsResponseWriter {
             }
         }
     }
+
+    /**
+     * Opens a writer that encodes LoadFundsResponse fields straight into a FileChannel, producing the same output as
+     * {@link #writeToFile} without allocating a LoadFundsResponse per request.
+     * @param outputPath The path of the file to write the JSON data to.
+     * @return The channel writer, which must be closed to flush the remaining responses.
+     * @throws IOException if an I/O error occurs while opening the file.
+     */
+    public LoadFundsResponseChannelWriter openFileChannel(String outputPath) throws IOException {
+        return new LoadFundsResponseChannelWriter(Paths.get(outputPath));
+    }
+
+    /**
+     * Opens a channel writer that continues an existing output file at a checkpointed position.
+     * @param outputPath The path of the file to write the JSON data to.
+     * @param position The position to continue from; the responses written after it are discarded.
+     * @return The channel writer, which must be closed to flush the remaining responses.
+     * @throws IOException if an I/O error occurs while opening the file.
+     */
+    public LoadFundsResponseChannelWriter openFileChannel(String outputPath, long position) throws IOException {
+        return new LoadFundsResponseChannelWriter(Paths.get(outputPath), position);
+    }
 }
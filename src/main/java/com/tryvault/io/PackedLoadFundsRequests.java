@@ -0,0 +1,191 @@
+package com.tryvault.io;
+
+import com.tryvault.model.LoadFundsRequest;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * PackedLoadFundsRequests holds load funds requests packed in pages of primitive longs, four per request: the id, the
+ * customer id, the amount in cents and the time in epoch seconds, the fields of the binary format of
+ * {@link LoadFundsRequestBinaryReader}. A request takes 32 bytes of heap instead of the 200 or so of a
+ * {@link LoadFundsRequest} with its {@link ZonedDateTime} and {@link BigDecimal}, and the pages are the only objects,
+ * so millions of requests cost the garbage collector almost nothing to keep.
+ *
+ * <p>
+ * The primitive accessors read the fields in place. {@link #get} and iterating materialize short-lived
+ * {@link LoadFundsRequest} objects, equal to the ones that were added. The few requests that the fields cannot
+ * represent exactly, an amount that is not in cents with two decimals or a time with fractions of a second or outside
+ * the UTC zone of the JSON reader, are kept as they are on the side.
+ */
+public class PackedLoadFundsRequests implements Iterable<LoadFundsRequest> {
+
+    private static final int FIELDS = 4;
+
+    private static final int PAGE_SHIFT = 16;
+
+    // Requests per page, 2 MiB of longs
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private long[][] pages = new long[0][];
+
+    private final Map<Integer, LoadFundsRequest> unpackedRequests = new HashMap<>();
+
+    private int size = 0;
+
+    /**
+     * Appends a load funds request.
+     *
+     * @param loadFundsRequest The request; it is not referenced afterwards if its fields can be packed.
+     */
+    public void add(LoadFundsRequest loadFundsRequest) {
+        ZonedDateTime time = loadFundsRequest.getTime();
+        BigDecimal loadAmount = loadFundsRequest.getLoadAmount();
+        boolean packable = loadAmount.scale() == 2 && loadAmount.unscaledValue().bitLength() < Long.SIZE
+                && time.getNano() == 0 && UTC.equals(time.getZone());
+
+        long[] page = page(size);
+        int offset = (size & PAGE_MASK) * FIELDS;
+        page[offset] = loadFundsRequest.getId();
+        page[offset + 1] = loadFundsRequest.getCustomerId();
+        page[offset + 2] = packable ? loadAmount.unscaledValue().longValue() : 0;
+        page[offset + 3] = time.toEpochSecond();
+        if (!packable) {
+            unpackedRequests.put(size, loadFundsRequest);
+        }
+        size++;
+    }
+
+    /**
+     * Appends a request of other packed requests, without materializing it.
+     *
+     * @param source The packed requests holding the request.
+     * @param index  The index of the request in the source.
+     */
+    public void add(PackedLoadFundsRequests source, int index) {
+        source.checkIndex(index);
+        long[] sourcePage = source.pages[index >>> PAGE_SHIFT];
+        int sourceOffset = (index & PAGE_MASK) * FIELDS;
+        long[] page = page(size);
+        System.arraycopy(sourcePage, sourceOffset, page, (size & PAGE_MASK) * FIELDS, FIELDS);
+        LoadFundsRequest unpackedRequest = source.unpackedRequests.get(index);
+        if (unpackedRequest != null) {
+            unpackedRequests.put(size, unpackedRequest);
+        }
+        size++;
+    }
+
+    private long[] page(int index) {
+        if (index == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many load funds requests");
+        }
+        int pageIndex = index >>> PAGE_SHIFT;
+        if (pageIndex == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length + 1);
+            pages[pageIndex] = new long[PAGE_SIZE * FIELDS];
+        }
+        return pages[pageIndex];
+    }
+
+    /**
+     * @return The number of requests.
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getId(int index) {
+        return field(index, 0);
+    }
+
+    public long getCustomerId(int index) {
+        return field(index, 1);
+    }
+
+    /**
+     * @param index The index of the request.
+     * @return The amount of the request in cents.
+     * @throws ArithmeticException if the amount is not a whole number of cents.
+     */
+    public long getAmountCents(int index) {
+        LoadFundsRequest unpackedRequest = unpackedRequests.get(index);
+        if (unpackedRequest != null) {
+            return unpackedRequest.getLoadAmount().movePointRight(2).longValueExact();
+        }
+        return field(index, 2);
+    }
+
+    /**
+     * @param index The index of the request.
+     * @return The time of the request in epoch seconds, rounded down.
+     */
+    public long getEpochSecond(int index) {
+        return field(index, 3);
+    }
+
+    /**
+     * @param index The index of the request.
+     * @return The fraction of a second of the time of the request, in nanoseconds.
+     */
+    public int getNano(int index) {
+        checkIndex(index);
+        LoadFundsRequest unpackedRequest = unpackedRequests.isEmpty() ? null : unpackedRequests.get(index);
+        return unpackedRequest == null ? 0 : unpackedRequest.getTime().getNano();
+    }
+
+    /**
+     * @param index The index of the request.
+     * @return The request as a LoadFundsRequest, equal to the one that was added.
+     */
+    public LoadFundsRequest get(int index) {
+        checkIndex(index);
+        LoadFundsRequest unpackedRequest = unpackedRequests.isEmpty() ? null : unpackedRequests.get(index);
+        if (unpackedRequest != null) {
+            return unpackedRequest;
+        }
+        return new LoadFundsRequest(getId(index), getCustomerId(index), BigDecimal.valueOf(field(index, 2), 2),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(getEpochSecond(index)), UTC));
+    }
+
+    @Override
+    public Iterator<LoadFundsRequest> iterator() {
+        return new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public LoadFundsRequest next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+
+    private long field(int index, int field) {
+        checkIndex(index);
+        return pages[index >>> PAGE_SHIFT][(index & PAGE_MASK) * FIELDS + field];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Request " + index + " out of " + size);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.tryvault.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * PipelinedGzipChannel writes a gzip file, deflated on a thread of its own: the bytes written are copied into 1 MiB
+ * chunks that are handed over to the deflating thread through a queue, at most four ahead, so deflating overlaps with
+ * producing the next bytes instead of adding to it. Deflated chunks go back to the writer to be refilled.
+ *
+ * <p>
+ * The file is only complete once the channel is closed, which waits for the deflating thread and reports its errors;
+ * an error of the deflating thread is also reported by the next write that hands a chunk over.
+ */
+public class PipelinedGzipChannel implements WritableByteChannel {
+
+    private static final int CHUNK_SIZE = PipelinedGzipInputStream.CHUNK_SIZE;
+
+    private static final int MAX_CHUNKS_AHEAD = 4;
+
+    private static final Chunk END = new Chunk(new byte[0], 0);
+
+    private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS_AHEAD);
+
+    private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(MAX_CHUNKS_AHEAD + 1);
+
+    private final Thread deflater;
+
+    private volatile IOException error;
+
+    private byte[] buffer = new byte[CHUNK_SIZE];
+
+    private int position = 0;
+
+    private boolean open = true;
+
+    /**
+     * Creates or truncates the file and starts the deflating thread.
+     *
+     * @param filePath The path of the gzip file.
+     * @throws IOException if the file cannot be created.
+     */
+    public PipelinedGzipChannel(Path filePath) throws IOException {
+        this(Files.newOutputStream(filePath), String.valueOf(filePath.getFileName()));
+    }
+
+    /**
+     * Starts the deflating thread over an output stream, which is closed with the channel.
+     *
+     * @param outputStream The stream the gzip bytes are written to.
+     * @param name         The name of the stream, for the name of the deflating thread.
+     * @throws IOException if the gzip header cannot be written.
+     */
+    public PipelinedGzipChannel(OutputStream outputStream, String name) throws IOException {
+        GZIPOutputStream gzipOutputStream;
+        try {
+            gzipOutputStream = new GZIPOutputStream(outputStream, 64 * 1024);
+        } catch (IOException e) {
+            outputStream.close();
+            throw e;
+        }
+        deflater = new Thread(() -> deflate(gzipOutputStream), "gzip-deflater-" + name);
+        deflater.setDaemon(true);
+        deflater.start();
+    }
+
+    /**
+     * @param filePath The path of a file.
+     * @return Whether the file is named as a gzip file, with the .gz extension.
+     */
+    public static boolean isGzipName(Path filePath) {
+        return filePath.getFileName() != null && filePath.getFileName().toString().endsWith(".gz");
+    }
+
+    private void deflate(GZIPOutputStream gzipOutputStream) {
+        boolean ended = false;
+        try {
+            try (gzipOutputStream) {
+                Chunk chunk;
+                while ((chunk = chunks.take()) != END) {
+                    gzipOutputStream.write(chunk.bytes, 0, chunk.length);
+                    freeBuffers.offer(chunk.bytes);
+                }
+                // Finishing and closing the stream can still fail, with no chunk left to take
+                ended = true;
+            }
+        } catch (IOException e) {
+            error = e;
+            if (!ended) {
+                // Keep taking the chunks, so the writer never waits for room and sees the error
+                try {
+                    while (chunks.take() != END) {
+                        // Discard the chunk
+                    }
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int written = source.remaining();
+        while (source.hasRemaining()) {
+            int length = Math.min(source.remaining(), buffer.length - position);
+            source.get(buffer, position, length);
+            position += length;
+            if (position == buffer.length) {
+                handOver();
+            }
+        }
+        return written;
+    }
+
+    private void handOver() throws IOException {
+        throwIfFailed();
+        put(new Chunk(buffer, position));
+        buffer = freeBuffers.poll();
+        if (buffer == null) {
+            buffer = new byte[CHUNK_SIZE];
+        }
+        position = 0;
+    }
+
+    private void put(Chunk chunk) throws IOException {
+        try {
+            chunks.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the gzip deflater", e);
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (error != null) {
+            throw new IOException("Failed to deflate the gzip file", error);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Hands the last bytes over, then waits for the deflating thread to write the end of the file.
+     *
+     * @throws IOException if the deflating thread failed to write the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        if (position > 0) {
+            put(new Chunk(buffer, position));
+        }
+        put(END);
+        try {
+            deflater.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the gzip deflater", e);
+        }
+        throwIfFailed();
+    }
+
+    private static final class Chunk {
+
+        private final byte[] bytes;
+
+        private final int length;
+
+        private Chunk(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+}
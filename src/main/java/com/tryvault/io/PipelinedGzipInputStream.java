@@ -0,0 +1,190 @@
+package com.tryvault.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * PipelinedGzipInputStream reads a gzip file, inflated on a thread of its own: the inflating thread fills 1 MiB chunks
+ * ahead of the reader, at most four at a time, and hands them over through a queue, so inflating the next chunks
+ * overlaps with parsing the current one instead of adding to it. Consumed chunks go back to the inflating thread to be
+ * refilled. Files made of several gzip members, such as concatenated archives, are read as one.
+ */
+public class PipelinedGzipInputStream extends InputStream {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final int MAX_CHUNKS_AHEAD = 4;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final Chunk END = new Chunk(new byte[0], 0, null);
+
+    private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS_AHEAD);
+
+    private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(MAX_CHUNKS_AHEAD + 1);
+
+    private final Thread inflater;
+
+    private Chunk current;
+
+    private int position;
+
+    private boolean ended = false;
+
+    /**
+     * Opens the file and starts inflating it.
+     *
+     * @param filePath The path of the gzip file.
+     * @throws IOException if the file cannot be opened or does not start with a gzip header.
+     */
+    public PipelinedGzipInputStream(Path filePath) throws IOException {
+        InputStream fileInputStream = Files.newInputStream(filePath);
+        GZIPInputStream gzipInputStream;
+        try {
+            gzipInputStream = new GZIPInputStream(fileInputStream, 64 * 1024);
+        } catch (IOException e) {
+            fileInputStream.close();
+            throw e;
+        }
+        inflater = new Thread(() -> inflate(gzipInputStream), "gzip-inflater-" + filePath.getFileName());
+        inflater.setDaemon(true);
+        inflater.start();
+    }
+
+    /**
+     * @param filePath The path of the file.
+     * @return Whether the file starts with the gzip magic number, whatever its name.
+     * @throws IOException if an I/O error occurs while reading the file.
+     */
+    public static boolean isGzip(Path filePath) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(filePath)) {
+            int first = inputStream.read();
+            int second = inputStream.read();
+            return second >= 0 && (first | (second << 8)) == GZIP_MAGIC;
+        }
+    }
+
+    private void inflate(GZIPInputStream gzipInputStream) {
+        try (gzipInputStream) {
+            while (true) {
+                byte[] buffer = freeBuffers.poll();
+                if (buffer == null) {
+                    buffer = new byte[CHUNK_SIZE];
+                }
+
+                // Hand over full chunks, the reader is faster with fewer handoffs
+                int length = 0;
+                int read = 0;
+                while (length < buffer.length && (read = gzipInputStream.read(buffer, length, buffer.length - length)) >= 0) {
+                    length += read;
+                }
+                if (length > 0) {
+                    chunks.put(new Chunk(buffer, length, null));
+                }
+                if (read < 0) {
+                    chunks.put(END);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            try {
+                chunks.put(new Chunk(null, 0, e));
+            } catch (InterruptedException interrupted) {
+                // Closed by the reader
+            }
+        } catch (InterruptedException e) {
+            // Closed by the reader
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return current.bytes[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current.bytes, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Makes sure the current chunk has bytes left, waiting for the next one if needed.
+     *
+     * @return false at the end of the file.
+     */
+    private boolean nextChunk() throws IOException {
+        if (current != null && position < current.length) {
+            return true;
+        }
+        if (ended) {
+            return false;
+        }
+        if (current != null) {
+            freeBuffers.offer(current.bytes);
+            current = null;
+        }
+
+        Chunk chunk;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the gzip inflater", e);
+        }
+        if (chunk.error != null) {
+            ended = true;
+            throw new IOException("Failed to inflate the gzip file", chunk.error);
+        }
+        if (chunk == END) {
+            ended = true;
+            return false;
+        }
+        current = chunk;
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ended = true;
+        // Wakes the inflater up if it waits for room in the queue; it closes the file on its way out
+        inflater.interrupt();
+        try {
+            inflater.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Chunk {
+
+        private final byte[] bytes;
+
+        private final int length;
+
+        private final IOException error;
+
+        private Chunk(byte[] bytes, int length, IOException error) {
+            this.bytes = bytes;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
@@ -12,7 +12,8 @@ import java.time.ZonedDateTime;
  * Represents a LoadFundsRequest model that is used for transferring funds in the application.
  * This class defines the properties and methods for a LoadFundsRequest object, including its ID,
  * customer ID, load amount, and time of the request. It also includes Jackson annotations for
- * custom serialization and deserialization of BigDecimal and ZonedDateTime fields.
+ * custom serialization and deserialization of BigDecimal and ZonedDateTime fields. A request streamed to the line
+ * server can also carry the time its client is willing to wait for the response, which the files leave out.
  */
 public class LoadFundsRequest {
     @JsonProperty("id")
@@ -25,6 +26,8 @@ public class LoadFundsRequest {
     @JsonProperty("time")
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'", timezone = "UTC")
     private ZonedDateTime time;
+    @JsonProperty("timeout_ms")
+    private Long timeoutMillis;
 
     // Default constructor
     public LoadFundsRequest() {
@@ -70,4 +73,16 @@ public class LoadFundsRequest {
     public void setTime(ZonedDateTime time) {
         this.time = time;
     }
+
+    /**
+     * @return The time in milliseconds, from when the server reads the request, after which the client no longer
+     * waits for its response, or null if the client did not set one.
+     */
+    public Long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(Long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.tryvault.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+
+/**
+ * VelocityHeadroom is a model class that represents what a customer can still load at a given time without reaching a
+ * velocity limit: the number of loads left today, and the largest amounts a load can have today and this week and still
+ * be accepted. The limits are exclusive, a load is rejected once it would bring a total to a limit, so each amount is
+ * one cent below what is left under its limit. A load of the smaller of the two amounts is accepted while loads are
+ * left today.
+ */
+public class VelocityHeadroom {
+    @JsonProperty("customer_id")
+    private final String customerId;
+    @JsonProperty("remaining_daily_count")
+    private final long remainingDailyCount;
+    @JsonProperty("remaining_daily_amount")
+    private final BigDecimal remainingDailyAmount;
+    @JsonProperty("remaining_weekly_amount")
+    private final BigDecimal remainingWeeklyAmount;
+
+    public VelocityHeadroom(String customerId, long remainingDailyCount, BigDecimal remainingDailyAmount,
+                            BigDecimal remainingWeeklyAmount) {
+        this.customerId = customerId;
+        this.remainingDailyCount = remainingDailyCount;
+        this.remainingDailyAmount = remainingDailyAmount;
+        this.remainingWeeklyAmount = remainingWeeklyAmount;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public long getRemainingDailyCount() {
+        return remainingDailyCount;
+    }
+
+    public BigDecimal getRemainingDailyAmount() {
+        return remainingDailyAmount;
+    }
+
+    public BigDecimal getRemainingWeeklyAmount() {
+        return remainingWeeklyAmount;
+    }
+}
@@ -0,0 +1,108 @@
+package com.tryvault.repository;
+
+import com.tryvault.entity.CustomerVelocityDailyEntity;
+import com.tryvault.entity.CustomerVelocityDailyId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+
+/**
+ * CustomerVelocityDailyRepository is a Spring Data JPA repository interface that reads and maintains the daily rollups
+ * of the customers' accepted load funds requests.
+ **/
+@Repository
+public interface CustomerVelocityDailyRepository extends JpaRepository<CustomerVelocityDailyEntity, CustomerVelocityDailyId> {
+
+    /**
+     * Counts the accepted load funds requests of a customer from the start of a day to the end of another, both ends
+     * included, from the rollups of these days.
+     *
+     * @param customerId    The customer ID.
+     * @param firstEpochDay The first day of the range, in days since the epoch.
+     * @param lastEpochDay  The last day of the range, in days since the epoch.
+     * @return The number of accepted load funds requests in the range.
+     */
+    @Query("SELECT COALESCE(SUM(r.acceptedCount), 0) + COALESCE(SUM(CASE WHEN r.epochDay = ?3 THEN r.endOfDayCount ELSE 0 END), 0) "
+            + "FROM CustomerVelocityDailyEntity r WHERE r.customerId = ?1 AND r.epochDay BETWEEN ?2 AND ?3")
+    long countAccepted(long customerId, long firstEpochDay, long lastEpochDay);
+
+    /**
+     * Sums the accepted load funds requests of a customer from the start of a day to the end of another, both ends
+     * included, from the rollups of these days.
+     *
+     * @param customerId    The customer ID.
+     * @param firstEpochDay The first day of the range, in days since the epoch.
+     * @param lastEpochDay  The last day of the range, in days since the epoch.
+     * @return The sum of the accepted load funds requests in the range, zero if there is none.
+     */
+    @Query("SELECT COALESCE(SUM(r.acceptedSum), 0) + COALESCE(SUM(CASE WHEN r.epochDay = ?3 THEN r.endOfDaySum ELSE 0 END), 0) "
+            + "FROM CustomerVelocityDailyEntity r WHERE r.customerId = ?1 AND r.epochDay BETWEEN ?2 AND ?3")
+    BigDecimal sumAccepted(long customerId, long firstEpochDay, long lastEpochDay);
+
+    /**
+     * Adds to the rollup of a customer's day, creating it if needed, in a single statement.
+     *
+     * @param customerId    The customer ID.
+     * @param epochDay      The day, in days since the epoch.
+     * @param count         The number of accepted requests to add, negative to remove them.
+     * @param sum           The amount of accepted requests to add, negative to remove it.
+     * @param endOfDayCount The number of accepted requests at exactly the end of the day to add.
+     * @param endOfDaySum   The amount of accepted requests at exactly the end of the day to add.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(nativeQuery = true, value = "MERGE INTO public.customer_velocity_daily r "
+            + "USING (SELECT CAST(:customerId AS BIGINT) AS customer_id, CAST(:epochDay AS BIGINT) AS epoch_day) k "
+            + "ON r.customer_id = k.customer_id AND r.epoch_day = k.epoch_day "
+            + "WHEN MATCHED THEN UPDATE SET accepted_count = r.accepted_count + :count, "
+            + "accepted_sum = r.accepted_sum + :sum, end_of_day_count = r.end_of_day_count + :endOfDayCount, "
+            + "end_of_day_sum = r.end_of_day_sum + :endOfDaySum "
+            + "WHEN NOT MATCHED THEN INSERT (customer_id, epoch_day, accepted_count, accepted_sum, end_of_day_count, end_of_day_sum) "
+            + "VALUES (:customerId, :epochDay, :count, :sum, :endOfDayCount, :endOfDaySum)")
+    void add(@Param("customerId") long customerId,
+             @Param("epochDay") long epochDay,
+             @Param("count") long count,
+             @Param("sum") BigDecimal sum,
+             @Param("endOfDayCount") long endOfDayCount,
+             @Param("endOfDaySum") BigDecimal endOfDaySum);
+
+    /**
+     * Checks that the rollups add up to the accepted load funds requests, in number and in amount.
+     *
+     * @return True if the totals of the rollups are the ones of the accepted requests.
+     */
+    @Query(nativeQuery = true, value = "SELECT (SELECT COALESCE(SUM(r.accepted_count), 0) FROM public.customer_velocity_daily r) "
+            + "= (SELECT COUNT(*) FROM public.load_funds_request p WHERE p.accepted = TRUE) "
+            + "AND (SELECT COALESCE(SUM(r.accepted_sum), 0) FROM public.customer_velocity_daily r) "
+            + "= (SELECT COALESCE(SUM(p.load_amount), 0) FROM public.load_funds_request p WHERE p.accepted = TRUE)")
+    boolean isConsistentWithRequests();
+
+    /**
+     * Replaces the rollups by the ones of the stored load funds requests, in one transaction.
+     */
+    @Transactional
+    default void rebuildFromRequests() {
+        deleteAllInBatch();
+        insertFromRequests();
+    }
+
+    /**
+     * Rolls up the accepted load funds requests by customer and day into an empty rollup table. A request at exactly
+     * midnight also counts at the end of the previous day, whose windows include their end.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO public.customer_velocity_daily "
+            + "(customer_id, epoch_day, accepted_count, accepted_sum, end_of_day_count, end_of_day_sum) "
+            + "SELECT customer_id, epoch_day, SUM(accepted_count), SUM(accepted_sum), SUM(end_of_day_count), SUM(end_of_day_sum) "
+            + "FROM (SELECT customer_id, DATEDIFF('DAY', DATE '1970-01-01', time) AS epoch_day, 1 AS accepted_count, "
+            + "load_amount AS accepted_sum, 0 AS end_of_day_count, CAST(0 AS DECIMAL(19,2)) AS end_of_day_sum "
+            + "FROM public.load_funds_request WHERE accepted = TRUE "
+            + "UNION ALL SELECT customer_id, DATEDIFF('DAY', DATE '1970-01-01', time) - 1, 0, CAST(0 AS DECIMAL(19,2)), 1, load_amount "
+            + "FROM public.load_funds_request WHERE accepted = TRUE AND CAST(time AS TIME) = TIME '00:00:00') d "
+            + "GROUP BY customer_id, epoch_day")
+    void insertFromRequests();
+}
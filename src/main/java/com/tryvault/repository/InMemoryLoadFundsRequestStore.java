@@ -0,0 +1,121 @@
+package com.tryvault.repository;
+
+import com.tryvault.entity.LoadFundsRequestEntity;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * InMemoryLoadFundsRequestStore is a {@link LoadFundsRequestStore} that keeps the load funds requests in memory, for
+ * batch runs that do not need to persist them. It has the same semantics as {@link LoadFundsRequestRepository}:
+ * requests are stored by id and time ranges include both ends. The requests of each customer are indexed by time,
+ * so the velocity queries only visit the requests inside the queried range.
+ * All operations are synchronized, so the store can be shared by the lanes of the parallel executor.
+ */
+public class InMemoryLoadFundsRequestStore implements LoadFundsRequestStore {
+
+    private final Map<Long, LoadFundsRequestEntity> requestsById = new HashMap<>();
+
+    private final Map<Long, NavigableMap<Instant, List<LoadFundsRequestEntity>>> requestsByCustomer = new HashMap<>();
+
+    @Override
+    public synchronized boolean existsByIdAndCustomerId(long id, long customerId) {
+        LoadFundsRequestEntity stored = requestsById.get(id);
+        return stored != null && stored.getCustomerId() == customerId;
+    }
+
+    @Override
+    public synchronized long countByCustomerIdAndTimeBetweenAndAccepted(long customerId, ZonedDateTime startTime,
+                                                                        ZonedDateTime endTime, boolean accepted) {
+        long count = 0;
+        for (List<LoadFundsRequestEntity> requests : range(customerId, startTime, endTime).values()) {
+            for (LoadFundsRequestEntity request : requests) {
+                if (request.isAccepted() == accepted) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized BigDecimal sumLoadAmountByCustomerIdAndTimeBetween(long customerId, ZonedDateTime startTime,
+                                                                           ZonedDateTime endTime, boolean accepted) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (List<LoadFundsRequestEntity> requests : range(customerId, startTime, endTime).values()) {
+            for (LoadFundsRequestEntity request : requests) {
+                if (request.isAccepted() == accepted) {
+                    sum = sum.add(request.getLoadAmount());
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public synchronized Boolean insertIfWithinLimits(long id, long customerId, BigDecimal loadAmount, ZonedDateTime time,
+                                                     ZonedDateTime startOfDay, ZonedDateTime endOfDay,
+                                                     ZonedDateTime startOfWeek, long loadsPerDay, BigDecimal amountPerDay,
+                                                     BigDecimal amountPerWeek) {
+        if (existsByIdAndCustomerId(id, customerId)) {
+            return null;
+        }
+
+        boolean accepted = countByCustomerIdAndTimeBetweenAndAccepted(customerId, startOfDay, endOfDay, true) < loadsPerDay
+                && sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfDay, endOfDay, true)
+                .add(loadAmount).compareTo(amountPerDay) < 0
+                && sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfWeek, endOfDay, true)
+                .add(loadAmount).compareTo(amountPerWeek) < 0;
+
+        LoadFundsRequestEntity entity = new LoadFundsRequestEntity();
+        entity.setId(id);
+        entity.setCustomerId(customerId);
+        entity.setLoadAmount(loadAmount);
+        entity.setTime(time);
+        entity.setAccepted(accepted);
+        save(entity);
+
+        return accepted;
+    }
+
+    @Override
+    public synchronized <S extends LoadFundsRequestEntity> S save(S entity) {
+        LoadFundsRequestEntity replaced = requestsById.put(entity.getId(), entity);
+        if (replaced != null) {
+            NavigableMap<Instant, List<LoadFundsRequestEntity>> customerRequests = requestsByCustomer.get(replaced.getCustomerId());
+            Instant replacedTime = replaced.getTime().toInstant();
+            List<LoadFundsRequestEntity> requests = customerRequests.get(replacedTime);
+            requests.remove(replaced);
+            if (requests.isEmpty()) {
+                customerRequests.remove(replacedTime);
+            }
+        }
+
+        requestsByCustomer.computeIfAbsent(entity.getCustomerId(), customerId -> new TreeMap<>())
+                .computeIfAbsent(entity.getTime().toInstant(), time -> new ArrayList<>(1))
+                .add(entity);
+
+        return entity;
+    }
+
+    @Override
+    public synchronized long count() {
+        return requestsById.size();
+    }
+
+    private NavigableMap<Instant, List<LoadFundsRequestEntity>> range(long customerId, ZonedDateTime startTime,
+                                                                     ZonedDateTime endTime) {
+        NavigableMap<Instant, List<LoadFundsRequestEntity>> customerRequests = requestsByCustomer.get(customerId);
+        if (customerRequests == null) {
+            return new TreeMap<>();
+        }
+        return customerRequests.subMap(startTime.toInstant(), true, endTime.toInstant(), true);
+    }
+}
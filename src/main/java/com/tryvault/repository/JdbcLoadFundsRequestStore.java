@@ -0,0 +1,461 @@
+package com.tryvault.repository;
+
+import com.tryvault.entity.LoadFundsRequestEntity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * JdbcLoadFundsRequestStore is a {@link LoadFundsRequestStore} on plain JDBC, for the write heavy, read aggregate
+ * workload of the service: no entity management, no dirty checking and no select before each merge. It runs the queries
+ * of {@link LoadFundsRequestRepository} on the same schema, so the decisions are the same.
+ *
+ * <p>
+ * Statements are prepared once per connection and bound with primitives. Saved requests are merged on their id in
+ * JDBC batches: a pending request is flushed before any query that could see it, which is a query of its customer, or
+ * of the customer whose request it replaces. The owner of the replaced request is known from the duplicate check,
+ * which reads the customer of the stored request with the same id.
+ *
+ * <p>
+ * Outside transactions the store uses a connection of its own. Inside a Spring managed transaction, such as a checkpoint
+ * batch, it uses the transaction's connection and flushes its pending requests before the commit. Pending requests are
+ * only in memory, so the runners flush the store before the responses of its requests are flushed to their output. A
+ * pending request that the database rejects is logged and left out when it is flushed, without failing the other
+ * pending requests or the query that flushed them.
+ *
+ * <p>
+ * All operations are synchronized, so the store can be shared by the lanes of the parallel executor. That monitor over
+ * a single connection is all that makes the duplicate check and the decision of {@link #insertIfWithinLimits} atomic:
+ * it holds no database lock, so two stores, or two processes, deciding the same customers on one database can both
+ * accept past a limit.
+ */
+public class JdbcLoadFundsRequestStore implements LoadFundsRequestStore, Flushable, Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(JdbcLoadFundsRequestStore.class);
+
+    private static final String OWNER_QUERY = "SELECT (SELECT p.customer_id FROM public.load_funds_request p WHERE p.id = ?), "
+            + "EXISTS (SELECT 1 FROM public.load_funds_request_archive a WHERE a.id = ? AND a.customer_id = ?)";
+
+    private static final String COUNT_QUERY = "SELECT COUNT(*) FROM public.load_funds_request "
+            + "WHERE customer_id = ? AND time BETWEEN ? AND ? AND accepted = ?";
+
+    private static final String SUM_QUERY = "SELECT COALESCE(SUM(load_amount), 0) FROM public.load_funds_request "
+            + "WHERE accepted = ? AND customer_id = ? AND time BETWEEN ? AND ?";
+
+    private static final String COUNT_ALL_QUERY = "SELECT COUNT(*) FROM public.load_funds_request";
+
+    private static final String MERGE_STATEMENT = "MERGE INTO public.load_funds_request "
+            + "(id, accepted, customer_id, load_amount, time) KEY (id) VALUES (?, ?, ?, ?, ?)";
+
+    // The merge of LoadFundsRequestRepository#insertIfWithinLimits with numbered parameters. It is not wrapped in
+    // FINAL TABLE: on H2 1.4.200 the later statements of a connection that ran a FINAL TABLE query do not see its
+    // later writes, which breaks a connection kept for the whole run
+    private static final String INSERT_IF_WITHIN_LIMITS_STATEMENT = "MERGE INTO public.load_funds_request "
+            + "(id, customer_id, load_amount, time, accepted) KEY (id) SELECT ?1, ?2, ?3, ?4, "
+            + "(SELECT COUNT(*) FROM public.load_funds_request d WHERE d.accepted = TRUE AND d.customer_id = ?2 "
+            + "AND d.time BETWEEN ?5 AND ?6) < ?8 "
+            + "AND (SELECT COALESCE(SUM(d.load_amount), 0) FROM public.load_funds_request d WHERE d.accepted = TRUE "
+            + "AND d.customer_id = ?2 AND d.time BETWEEN ?5 AND ?6) + ?3 < ?9 "
+            + "AND (SELECT COALESCE(SUM(w.load_amount), 0) FROM public.load_funds_request w WHERE w.accepted = TRUE "
+            + "AND w.customer_id = ?2 AND w.time BETWEEN ?7 AND ?6) + ?3 < ?10 "
+            + "FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM public.load_funds_request p WHERE p.id = ?1 AND p.customer_id = ?2) "
+            + "AND NOT EXISTS (SELECT 1 FROM public.load_funds_request_archive a WHERE a.id = ?1 AND a.customer_id = ?2)";
+
+    private static final String ACCEPTED_QUERY = "SELECT accepted FROM public.load_funds_request WHERE id = ?";
+
+    private static final String DELETE_STATEMENT = "DELETE FROM public.load_funds_request WHERE id = ?";
+
+    private final DataSource dataSource;
+
+    private final int batchSize;
+
+    private final Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    private Session sharedSession;
+
+    /**
+     * @param dataSource The data source of the load_funds_request table.
+     * @param batchSize  The maximum number of pending requests merged in one JDBC batch.
+     */
+    public JdbcLoadFundsRequestStore(DataSource dataSource, int batchSize) {
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public synchronized boolean existsByIdAndCustomerId(long id, long customerId) {
+        Session session = session();
+        LoadFundsRequestEntity pending = session.pendingById.get(id);
+        if (pending != null && pending.getCustomerId() == customerId) {
+            return true;
+        }
+
+        try {
+            PreparedStatement statement = session.prepare(OWNER_QUERY);
+            statement.setLong(1, id);
+            statement.setLong(2, id);
+            statement.setLong(3, customerId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                long owner = resultSet.getLong(1);
+                boolean stored = !resultSet.wasNull();
+                boolean archived = resultSet.getBoolean(2);
+
+                if (pending == null) {
+                    // Remember the owner, the save that usually follows replaces its request
+                    session.lookedUpId = id;
+                    session.lookedUpOwner = stored ? owner : null;
+                    return archived || (stored && owner == customerId);
+                }
+                // The stored request is replaced by the pending one when it is flushed
+                return archived;
+            }
+        } catch (SQLException e) {
+            throw translate("existsByIdAndCustomerId", OWNER_QUERY, e);
+        }
+    }
+
+    @Override
+    public synchronized long countByCustomerIdAndTimeBetweenAndAccepted(long customerId, ZonedDateTime startTime,
+                                                                        ZonedDateTime endTime, boolean accepted) {
+        Session session = sessionFor(customerId);
+        try {
+            PreparedStatement statement = session.prepare(COUNT_QUERY);
+            statement.setLong(1, customerId);
+            statement.setTimestamp(2, Timestamp.from(startTime.toInstant()), utcCalendar);
+            statement.setTimestamp(3, Timestamp.from(endTime.toInstant()), utcCalendar);
+            statement.setBoolean(4, accepted);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw translate("countByCustomerIdAndTimeBetweenAndAccepted", COUNT_QUERY, e);
+        }
+    }
+
+    @Override
+    public synchronized BigDecimal sumLoadAmountByCustomerIdAndTimeBetween(long customerId, ZonedDateTime startTime,
+                                                                           ZonedDateTime endTime, boolean accepted) {
+        Session session = sessionFor(customerId);
+        try {
+            PreparedStatement statement = session.prepare(SUM_QUERY);
+            statement.setBoolean(1, accepted);
+            statement.setLong(2, customerId);
+            statement.setTimestamp(3, Timestamp.from(startTime.toInstant()), utcCalendar);
+            statement.setTimestamp(4, Timestamp.from(endTime.toInstant()), utcCalendar);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getBigDecimal(1);
+            }
+        } catch (SQLException e) {
+            throw translate("sumLoadAmountByCustomerIdAndTimeBetween", SUM_QUERY, e);
+        }
+    }
+
+    @Override
+    public synchronized Boolean insertIfWithinLimits(long id, long customerId, BigDecimal loadAmount, ZonedDateTime time,
+                                                     ZonedDateTime startOfDay, ZonedDateTime endOfDay,
+                                                     ZonedDateTime startOfWeek, long loadsPerDay, BigDecimal amountPerDay,
+                                                     BigDecimal amountPerWeek) {
+        Session session = session();
+        session.flush();
+        try {
+            PreparedStatement statement = session.prepare(INSERT_IF_WITHIN_LIMITS_STATEMENT);
+            statement.setLong(1, id);
+            statement.setLong(2, customerId);
+            statement.setBigDecimal(3, loadAmount);
+            statement.setTimestamp(4, Timestamp.from(time.toInstant()), utcCalendar);
+            statement.setTimestamp(5, Timestamp.from(startOfDay.toInstant()), utcCalendar);
+            statement.setTimestamp(6, Timestamp.from(endOfDay.toInstant()), utcCalendar);
+            statement.setTimestamp(7, Timestamp.from(startOfWeek.toInstant()), utcCalendar);
+            statement.setLong(8, loadsPerDay);
+            statement.setBigDecimal(9, amountPerDay);
+            statement.setBigDecimal(10, amountPerWeek);
+            if (statement.executeUpdate() == 0) {
+                return null;
+            }
+
+            // The decision was taken by the merge, read it back from the row it wrote
+            PreparedStatement acceptedQuery = session.prepare(ACCEPTED_QUERY);
+            acceptedQuery.setLong(1, id);
+            try (ResultSet resultSet = acceptedQuery.executeQuery()) {
+                resultSet.next();
+                return resultSet.getBoolean(1);
+            }
+        } catch (SQLException e) {
+            throw translate("insertIfWithinLimits", INSERT_IF_WITHIN_LIMITS_STATEMENT, e);
+        }
+    }
+
+    @Override
+    public synchronized <S extends LoadFundsRequestEntity> S save(S entity) {
+        Session session = session();
+        long id = entity.getId();
+
+        // The customer whose request is replaced must not read its requests before the replacement is flushed
+        LoadFundsRequestEntity pending = session.pendingById.remove(id);
+        if (pending == null) {
+            Long owner = Long.valueOf(id).equals(session.lookedUpId) ? session.lookedUpOwner : findOwner(session, id);
+            if (owner != null) {
+                session.pendingCustomers.add(owner);
+            }
+        }
+        session.lookedUpId = null;
+
+        session.pendingById.put(id, entity);
+        session.pendingCustomers.add(entity.getCustomerId());
+        if (session.pendingById.size() >= batchSize) {
+            session.flush();
+        }
+        return entity;
+    }
+
+    @Override
+    public synchronized long count() {
+        Session session = session();
+        session.flush();
+        try (ResultSet resultSet = session.prepare(COUNT_ALL_QUERY).executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        } catch (SQLException e) {
+            throw translate("count", COUNT_ALL_QUERY, e);
+        }
+    }
+
+    /**
+     * Deletes the request with the given id, pending or stored, when a request with the same id is stored elsewhere.
+     *
+     * @param id The ID of the load funds request.
+     */
+    public synchronized void deleteById(long id) {
+        Session session = session();
+        session.pendingById.remove(id);
+        if (Long.valueOf(id).equals(session.lookedUpId)) {
+            session.lookedUpId = null;
+        }
+        try {
+            PreparedStatement statement = session.prepare(DELETE_STATEMENT);
+            statement.setLong(1, id);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw translate("deleteById", DELETE_STATEMENT, e);
+        }
+    }
+
+    /**
+     * Merges the pending requests into the table.
+     */
+    @Override
+    public synchronized void flush() {
+        session().flush();
+    }
+
+    /**
+     * Flushes the pending requests and releases the store's own connection.
+     */
+    @Override
+    public synchronized void close() {
+        if (sharedSession != null) {
+            try {
+                sharedSession.flush();
+            } finally {
+                sharedSession.close();
+                sharedSession = null;
+            }
+        }
+    }
+
+    private Session sessionFor(long customerId) {
+        Session session = session();
+        if (session.pendingCustomers.contains(customerId)) {
+            session.flush();
+        }
+        return session;
+    }
+
+    private Session session() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            if (sharedSession == null) {
+                try {
+                    sharedSession = new Session(dataSource.getConnection(), false);
+                } catch (SQLException e) {
+                    throw translate("getConnection", null, e);
+                }
+            }
+            return sharedSession;
+        }
+
+        Session session = (Session) TransactionSynchronizationManager.getResource(this);
+        if (session == null) {
+            // Requests saved outside the transaction must be visible to it
+            if (sharedSession != null) {
+                sharedSession.flush();
+            }
+
+            Session transactionSession = new Session(DataSourceUtils.getConnection(dataSource), true);
+            TransactionSynchronizationManager.bindResource(this, transactionSession);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    synchronized (JdbcLoadFundsRequestStore.this) {
+                        transactionSession.flush();
+                    }
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    synchronized (JdbcLoadFundsRequestStore.this) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(JdbcLoadFundsRequestStore.this);
+                        transactionSession.close();
+                    }
+                }
+            });
+            session = transactionSession;
+        }
+        return session;
+    }
+
+    private Long findOwner(Session session, long id) {
+        try {
+            PreparedStatement statement = session.prepare(OWNER_QUERY);
+            statement.setLong(1, id);
+            statement.setLong(2, id);
+            statement.setLong(3, 0L);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                long owner = resultSet.getLong(1);
+                return resultSet.wasNull() ? null : owner;
+            }
+        } catch (SQLException e) {
+            throw translate("save", OWNER_QUERY, e);
+        }
+    }
+
+    private static UncategorizedSQLException translate(String task, String sql, SQLException e) {
+        return new UncategorizedSQLException(task, sql, e);
+    }
+
+    /**
+     * A connection with its prepared statements and the requests saved on it but not yet merged.
+     */
+    private final class Session {
+
+        private final Connection connection;
+
+        private final boolean transactional;
+
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private final Map<Long, LoadFundsRequestEntity> pendingById = new LinkedHashMap<>();
+
+        private final Set<Long> pendingCustomers = new HashSet<>();
+
+        private Long lookedUpId;
+
+        private Long lookedUpOwner;
+
+        private Session(Connection connection, boolean transactional) {
+            this.connection = connection;
+            this.transactional = transactional;
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        /**
+         * Merges the pending requests in one batch. If the batch fails, they are merged one by one, a merge on the id
+         * being idempotent, so a request that cannot be saved fails alone, like a failed save of the JPA repository,
+         * instead of the unrelated query that triggered the flush, and the other requests are still saved.
+         */
+        private void flush() {
+            if (pendingById.isEmpty()) {
+                return;
+            }
+
+            try {
+                PreparedStatement statement = prepare(MERGE_STATEMENT);
+                try {
+                    for (LoadFundsRequestEntity entity : pendingById.values()) {
+                        bindMerge(statement, entity);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                } catch (SQLException e) {
+                    statement.clearBatch();
+                    for (LoadFundsRequestEntity entity : pendingById.values()) {
+                        try {
+                            bindMerge(statement, entity);
+                            statement.executeUpdate();
+                        } catch (SQLException entityException) {
+                            LOGGER.error("The attempt to save the load funds request (id: {}, customer_id: {}) failed.",
+                                    entity.getId(), entity.getCustomerId(), entityException);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                // The merge could not even be prepared, the pending requests are kept for the next flush
+                throw translate("save", MERGE_STATEMENT, e);
+            }
+            pendingById.clear();
+            pendingCustomers.clear();
+            lookedUpId = null;
+        }
+
+        private void bindMerge(PreparedStatement statement, LoadFundsRequestEntity entity) throws SQLException {
+            statement.setLong(1, entity.getId());
+            statement.setBoolean(2, entity.isAccepted());
+            statement.setLong(3, entity.getCustomerId());
+            statement.setBigDecimal(4, entity.getLoadAmount());
+            statement.setTimestamp(5, Timestamp.from(entity.getTime().toInstant()), utcCalendar);
+        }
+
+        private void close() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // The connection is released anyway
+                }
+            }
+            statements.clear();
+
+            if (transactional) {
+                DataSourceUtils.releaseConnection(connection, dataSource);
+            } else {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    // The database may have been shut down before the store, nothing is pending anymore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.tryvault.repository;
+
+import com.tryvault.entity.LoadFundsCheckpointEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * LoadFundsCheckpointRepository is a Spring Data JPA repository interface that stores the checkpoints of load funds
+ * input files, keyed by the path of the input file.
+ **/
+@Repository
+public interface LoadFundsCheckpointRepository extends JpaRepository<LoadFundsCheckpointEntity, String> {
+}
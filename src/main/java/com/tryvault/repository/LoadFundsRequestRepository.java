@@ -6,24 +6,42 @@ import java.math.BigDecimal;
 import java.time.ZonedDateTime;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * LoadFundsRequestRepository is a Spring Data JPA repository interface that provides
  * data access methods for managing load funds requests in the database.
+ * It is the JPA implementation of {@link LoadFundsRequestStore}.
  **/
 @Repository
-public interface LoadFundsRequestRepository extends JpaRepository<LoadFundsRequestEntity, Long> {
+public interface LoadFundsRequestRepository extends JpaRepository<LoadFundsRequestEntity, Long>, LoadFundsRequestStore {
 
     /**
-     * Checks if a load funds request with the given ID and customer ID exists in the database.
+     * Saves a load funds request. The id is assigned, so an existing request with the same id is merged.
+     * Redeclared to resolve the save method of both {@link JpaRepository} and {@link LoadFundsRequestStore}.
+     *
+     * @param entity The load funds request to be saved.
+     * @return The saved load funds request.
+     */
+    @Override
+    <S extends LoadFundsRequestEntity> S save(S entity);
+
+    /**
+     * Checks if a load funds request with the given ID and customer ID exists in the database, archived or not.
      *
      * @param id         The ID of the load funds request.
      * @param customerId The customer ID associated with the load funds request.
      * @return True if a load funds request with the given ID and customer ID exists, false otherwise.
      */
-    boolean existsByIdAndCustomerId(long id, long customerId);
+    @Override
+    @Query(nativeQuery = true, value = "SELECT EXISTS (SELECT 1 FROM public.load_funds_request p "
+            + "WHERE p.id = :id AND p.customer_id = :customerId) OR EXISTS (SELECT 1 FROM public.load_funds_request_archive a "
+            + "WHERE a.id = :id AND a.customer_id = :customerId)")
+    boolean existsByIdAndCustomerId(@Param("id") long id, @Param("customerId") long customerId);
 
     /**
      * Counts the number of load funds requests for a given customer ID and within a specified time range.
@@ -34,6 +52,7 @@ public interface LoadFundsRequestRepository extends JpaRepository<LoadFundsReque
      * @param accepted   If the transaction was accepted or not
      * @return The count of load funds requests within the specified time range.
      */
+    @Override
     long countByCustomerIdAndTimeBetweenAndAccepted(long customerId, ZonedDateTime startTime, ZonedDateTime endTime, boolean accepted);
 
     /**
@@ -45,6 +64,138 @@ public interface LoadFundsRequestRepository extends JpaRepository<LoadFundsReque
      * @param accepted   If the transaction was accepted or not
      * @return The sum of load amounts within the specified time range.
      */
+    @Override
     @Query("SELECT COALESCE(SUM(t.loadAmount), 0) FROM LoadFundsRequestEntity t WHERE t.accepted = ?4 AND t.customerId = ?1 AND t.time BETWEEN ?2 AND ?3")
     BigDecimal sumLoadAmountByCustomerIdAndTimeBetween(long customerId, ZonedDateTime startTime, ZonedDateTime endTime, boolean accepted);
-}
\ No newline at end of file
+
+    /**
+     * Decides and records a load funds request in a single transaction.
+     * The customer's lock row is taken first and held until the transaction ends, so the attempts of a customer decided
+     * on different connections are serialized: under READ COMMITTED the velocity subqueries of the merge only see the
+     * rows committed before it, and without the lock two concurrent attempts could both be accepted past a limit.
+     * The decision is then taken by a single merge that computes the customer's accepted daily count, daily sum and
+     * weekly sum inside the insert itself, and read back from the row it wrote.
+     * The row is merged on its id, mirroring the semantics of {@link #save(Object)} for an assigned id.
+     *
+     * @param id            The ID of the load funds request.
+     * @param customerId    The customer ID associated with the load funds request.
+     * @param loadAmount    The amount to be loaded.
+     * @param time          The time of the load funds request.
+     * @param startOfDay    The start of the request's day.
+     * @param endOfDay      The end of the request's day.
+     * @param startOfWeek   The start of the request's week.
+     * @param loadsPerDay   The maximum number of accepted loads per day.
+     * @param amountPerDay  The maximum amount that can be loaded per day.
+     * @param amountPerWeek The maximum amount that can be loaded per week.
+     * @return The accepted flag of the inserted row, or null if the request was already processed for the customer.
+     */
+    @Override
+    @Transactional
+    default Boolean insertIfWithinLimits(long id, long customerId, BigDecimal loadAmount, ZonedDateTime time,
+                                         ZonedDateTime startOfDay, ZonedDateTime endOfDay, ZonedDateTime startOfWeek,
+                                         long loadsPerDay, BigDecimal amountPerDay, BigDecimal amountPerWeek) {
+        lockCustomer(customerId);
+        if (mergeIfWithinLimits(id, customerId, loadAmount, time, startOfDay, endOfDay, startOfWeek, loadsPerDay,
+                amountPerDay, amountPerWeek) == 0) {
+            return null;
+        }
+        return findAcceptedById(id);
+    }
+
+    /**
+     * Locks the lock row of a customer until the end of the current transaction, creating it on the first attempt.
+     * A concurrent transaction locking the same customer waits until this one commits or rolls back.
+     *
+     * @param customerId The customer ID to lock.
+     * @return The number of lock rows written, always 1.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "MERGE INTO public.customer_velocity_lock (customer_id) KEY (customer_id) VALUES (:customerId)")
+    int lockCustomer(@Param("customerId") long customerId);
+
+    /**
+     * Merges a load funds request with its decision, unless it was already processed for the customer. Only atomic
+     * with respect to the other attempts of the customer when its lock row is held, see {@link #lockCustomer(long)}.
+     *
+     * @return The number of merged rows, 0 for a duplicate.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "MERGE INTO public.load_funds_request (id, customer_id, load_amount, time, accepted) KEY (id) "
+            + "SELECT :id, :customerId, :loadAmount, :time, "
+            + "(SELECT COUNT(*) FROM public.load_funds_request d WHERE d.accepted = TRUE AND d.customer_id = :customerId "
+            + "AND d.time BETWEEN :startOfDay AND :endOfDay) < :loadsPerDay "
+            + "AND (SELECT COALESCE(SUM(d.load_amount), 0) FROM public.load_funds_request d WHERE d.accepted = TRUE "
+            + "AND d.customer_id = :customerId AND d.time BETWEEN :startOfDay AND :endOfDay) + :loadAmount < :amountPerDay "
+            + "AND (SELECT COALESCE(SUM(w.load_amount), 0) FROM public.load_funds_request w WHERE w.accepted = TRUE "
+            + "AND w.customer_id = :customerId AND w.time BETWEEN :startOfWeek AND :endOfDay) + :loadAmount < :amountPerWeek "
+            + "FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM public.load_funds_request p WHERE p.id = :id AND p.customer_id = :customerId) "
+            + "AND NOT EXISTS (SELECT 1 FROM public.load_funds_request_archive a WHERE a.id = :id AND a.customer_id = :customerId)")
+    int mergeIfWithinLimits(@Param("id") long id,
+                            @Param("customerId") long customerId,
+                            @Param("loadAmount") BigDecimal loadAmount,
+                            @Param("time") ZonedDateTime time,
+                            @Param("startOfDay") ZonedDateTime startOfDay,
+                            @Param("endOfDay") ZonedDateTime endOfDay,
+                            @Param("startOfWeek") ZonedDateTime startOfWeek,
+                            @Param("loadsPerDay") long loadsPerDay,
+                            @Param("amountPerDay") BigDecimal amountPerDay,
+                            @Param("amountPerWeek") BigDecimal amountPerWeek);
+
+    /**
+     * Reads the decision of a load funds request.
+     *
+     * @param id The ID of the load funds request.
+     * @return The accepted flag of the request, or null if there is none with the id.
+     */
+    @Query(nativeQuery = true, value = "SELECT accepted FROM public.load_funds_request WHERE id = :id")
+    Boolean findAcceptedById(@Param("id") long id);
+
+    /**
+     * Retrieves the latest week segment of the active requests.
+     *
+     * @return The latest week segment, in weeks since Monday 1970-01-05, or null if there is no request.
+     */
+    @Query(nativeQuery = true, value = "SELECT MAX(week_segment) FROM public.load_funds_request")
+    Integer findLatestWeekSegment();
+
+    /**
+     * Retrieves the latest week segment of the archived requests.
+     *
+     * @return The latest archived week segment, in weeks since Monday 1970-01-05, or null if there is no archived request.
+     */
+    @Query(nativeQuery = true, value = "SELECT MAX(week_segment) FROM public.load_funds_request_archive")
+    Integer findLatestArchivedWeekSegment();
+
+    /**
+     * Deletes the archived request with an id, when a request with the same id replaces it.
+     *
+     * @param id The ID of the load funds request.
+     * @return The number of deleted archived requests.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM public.load_funds_request_archive WHERE id = :id")
+    int deleteArchivedById(@Param("id") long id);
+
+    /**
+     * Copies the requests of the weeks before a week segment to the archive table.
+     *
+     * @param weekSegment The first week segment to keep active.
+     * @return The number of copied requests.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO public.load_funds_request_archive "
+            + "(id, accepted, customer_id, load_amount, time, week_segment) "
+            + "SELECT id, accepted, customer_id, load_amount, time, week_segment FROM public.load_funds_request "
+            + "WHERE week_segment < :weekSegment")
+    int copyWeekSegmentsBefore(@Param("weekSegment") int weekSegment);
+
+    /**
+     * Deletes the requests of the weeks before a week segment from the active table.
+     *
+     * @param weekSegment The first week segment to keep active.
+     * @return The number of deleted requests.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM public.load_funds_request WHERE week_segment < :weekSegment")
+    int deleteWeekSegmentsBefore(@Param("weekSegment") int weekSegment);
+}
@@ -0,0 +1,85 @@
+package com.tryvault.repository;
+
+import com.tryvault.entity.LoadFundsRequestEntity;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+/**
+ * LoadFundsRequestStore declares the data access operations {@link com.tryvault.service.LoadFundsRequestService} needs
+ * to decide and record load funds requests. {@link LoadFundsRequestRepository} implements it on top of Spring Data JPA;
+ * other implementations keep the same semantics without JPA, so the service can be wired by hand over them.
+ * Requests are stored by id: saving a request whose id is already stored replaces the stored request, even when it
+ * belongs to another customer.
+ **/
+public interface LoadFundsRequestStore {
+
+    /**
+     * Checks if a load funds request with the given ID and customer ID is stored.
+     *
+     * @param id         The ID of the load funds request.
+     * @param customerId The customer ID associated with the load funds request.
+     * @return True if a load funds request with the given ID and customer ID is stored, false otherwise.
+     */
+    boolean existsByIdAndCustomerId(long id, long customerId);
+
+    /**
+     * Counts the number of load funds requests for a given customer ID and within a specified time range, both ends
+     * included.
+     *
+     * @param customerId The customer ID associated with the load funds requests.
+     * @param startTime  The start time of the time range.
+     * @param endTime    The end time of the time range.
+     * @param accepted   If the transaction was accepted or not
+     * @return The count of load funds requests within the specified time range.
+     */
+    long countByCustomerIdAndTimeBetweenAndAccepted(long customerId, ZonedDateTime startTime, ZonedDateTime endTime, boolean accepted);
+
+    /**
+     * Retrieves the sum of load amounts for load funds requests of a given customer ID and within a specified time range,
+     * both ends included.
+     *
+     * @param customerId The customer ID associated with the load funds requests.
+     * @param startTime  The start time of the time range.
+     * @param endTime    The end time of the time range.
+     * @param accepted   If the transaction was accepted or not
+     * @return The sum of load amounts within the specified time range, zero if there is none.
+     */
+    BigDecimal sumLoadAmountByCustomerIdAndTimeBetween(long customerId, ZonedDateTime startTime, ZonedDateTime endTime, boolean accepted);
+
+    /**
+     * Decides and records a load funds request atomically: the daily count, daily sum and weekly sum of the customer's
+     * accepted requests are checked against the limits and the request is stored with the resulting accepted flag, with
+     * no other write in between.
+     *
+     * @param id            The ID of the load funds request.
+     * @param customerId    The customer ID associated with the load funds request.
+     * @param loadAmount    The amount to be loaded.
+     * @param time          The time of the load funds request.
+     * @param startOfDay    The start of the request's day.
+     * @param endOfDay      The end of the request's day.
+     * @param startOfWeek   The start of the request's week.
+     * @param loadsPerDay   The maximum number of accepted loads per day.
+     * @param amountPerDay  The maximum amount that can be loaded per day.
+     * @param amountPerWeek The maximum amount that can be loaded per week.
+     * @return The accepted flag of the stored request, or null if the request was already processed for the customer.
+     */
+    Boolean insertIfWithinLimits(long id, long customerId, BigDecimal loadAmount, ZonedDateTime time, ZonedDateTime startOfDay,
+                                 ZonedDateTime endOfDay, ZonedDateTime startOfWeek, long loadsPerDay, BigDecimal amountPerDay,
+                                 BigDecimal amountPerWeek);
+
+    /**
+     * Stores a load funds request, replacing the stored request with the same id if there is one.
+     *
+     * @param entity The load funds request to be stored.
+     * @return The stored load funds request.
+     */
+    <S extends LoadFundsRequestEntity> S save(S entity);
+
+    /**
+     * Counts the stored load funds requests.
+     *
+     * @return The number of stored load funds requests.
+     */
+    long count();
+}
@@ -0,0 +1,163 @@
+package com.tryvault.repository;
+
+import com.tryvault.entity.LoadFundsRequestEntity;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ShardedLoadFundsRequestStore spreads the load funds requests over independent databases by customer id, each with a
+ * {@link JdbcLoadFundsRequestStore} and a connection pool of its own. Every velocity query is scoped to one customer, so
+ * it is answered by the customer's shard alone, and the shards write in parallel instead of queueing on one database.
+ *
+ * <p>
+ * Requests are stored by id across all the shards: a request replaces the request with the same id stored for a
+ * customer of another shard, as it would in a single table. Rather than keeping the shard of every stored id in memory,
+ * a save deletes the id from the other shards, pending or stored, each a lookup of their primary key, and saves of the
+ * same id are serialized by a striped lock.
+ *
+ * <p>
+ * The striped lock only keeps an id in a single shard. It covers a single save or
+ * atomic insert, not a check then save decision made of several calls: as with the other stores, the checks of such a
+ * decision and its save can interleave with another decision of the customer, so racing requests of a customer are
+ * only decided atomically with the atomic insert, which is one call on the customer's shard, or when the lanes keep
+ * the customer on one thread.
+ */
+public class ShardedLoadFundsRequestStore implements LoadFundsRequestStore, Flushable, Closeable {
+
+    private static final int ID_LOCK_STRIPES = 256;
+
+    private final List<DataSource> dataSources;
+
+    private final JdbcLoadFundsRequestStore[] shards;
+
+    private final Object[] idLocks = new Object[ID_LOCK_STRIPES];
+
+    /**
+     * @param dataSources The data sources of the shards, with the load funds request schema.
+     * @param batchSize   The maximum number of pending requests merged in one JDBC batch by each shard.
+     */
+    public ShardedLoadFundsRequestStore(List<DataSource> dataSources, int batchSize) {
+        if (dataSources.isEmpty()) {
+            throw new IllegalArgumentException("The sharded store needs at least one shard");
+        }
+
+        this.dataSources = new ArrayList<>(dataSources);
+        this.shards = new JdbcLoadFundsRequestStore[dataSources.size()];
+        for (int index = 0; index < shards.length; index++) {
+            shards[index] = new JdbcLoadFundsRequestStore(dataSources.get(index), batchSize);
+        }
+        for (int index = 0; index < ID_LOCK_STRIPES; index++) {
+            idLocks[index] = new Object();
+        }
+    }
+
+    /**
+     * @param customerId The customer ID.
+     * @return The index of the shard holding the requests of the customer.
+     */
+    public int shardOf(long customerId) {
+        // Spread sequential customer ids before reducing them to a shard
+        return Math.floorMod(Long.hashCode(customerId * 0x9E3779B97F4A7C15L), shards.length);
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    public int getNumberOfShards() {
+        return shards.length;
+    }
+
+    @Override
+    public boolean existsByIdAndCustomerId(long id, long customerId) {
+        return shards[shardOf(customerId)].existsByIdAndCustomerId(id, customerId);
+    }
+
+    @Override
+    public long countByCustomerIdAndTimeBetweenAndAccepted(long customerId, ZonedDateTime startTime, ZonedDateTime endTime,
+                                                           boolean accepted) {
+        return shards[shardOf(customerId)].countByCustomerIdAndTimeBetweenAndAccepted(customerId, startTime, endTime, accepted);
+    }
+
+    @Override
+    public BigDecimal sumLoadAmountByCustomerIdAndTimeBetween(long customerId, ZonedDateTime startTime, ZonedDateTime endTime,
+                                                              boolean accepted) {
+        return shards[shardOf(customerId)].sumLoadAmountByCustomerIdAndTimeBetween(customerId, startTime, endTime, accepted);
+    }
+
+    @Override
+    public Boolean insertIfWithinLimits(long id, long customerId, BigDecimal loadAmount, ZonedDateTime time,
+                                       ZonedDateTime startOfDay, ZonedDateTime endOfDay, ZonedDateTime startOfWeek,
+                                       long loadsPerDay, BigDecimal amountPerDay, BigDecimal amountPerWeek) {
+        int shard = shardOf(customerId);
+        synchronized (idLock(id)) {
+            Boolean accepted = shards[shard].insertIfWithinLimits(id, customerId, loadAmount, time, startOfDay, endOfDay,
+                    startOfWeek, loadsPerDay, amountPerDay, amountPerWeek);
+            if (accepted != null) {
+                removeFromOtherShards(id, shard);
+            }
+            return accepted;
+        }
+    }
+
+    @Override
+    public <S extends LoadFundsRequestEntity> S save(S entity) {
+        long id = entity.getId();
+        int shard = shardOf(entity.getCustomerId());
+        synchronized (idLock(id)) {
+            S saved = shards[shard].save(entity);
+            removeFromOtherShards(id, shard);
+            return saved;
+        }
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (JdbcLoadFundsRequestStore shard : shards) {
+            count += shard.count();
+        }
+        return count;
+    }
+
+    @Override
+    public void flush() {
+        for (JdbcLoadFundsRequestStore shard : shards) {
+            shard.flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the shards, then closes their data sources.
+     */
+    @Override
+    public void close() throws IOException {
+        for (JdbcLoadFundsRequestStore shard : shards) {
+            shard.close();
+        }
+        for (DataSource dataSource : dataSources) {
+            if (dataSource instanceof Closeable) {
+                ((Closeable) dataSource).close();
+            }
+        }
+    }
+
+    private void removeFromOtherShards(long id, int shard) {
+        // A request with the same id of a customer of another shard is replaced
+        for (int otherShard = 0; otherShard < shards.length; otherShard++) {
+            if (otherShard != shard) {
+                shards[otherShard].deleteById(id);
+            }
+        }
+    }
+
+    private Object idLock(long id) {
+        return idLocks[Math.floorMod(Long.hashCode(id), ID_LOCK_STRIPES)];
+    }
+}
@@ -0,0 +1,151 @@
+package com.tryvault.repository;
+
+import com.tryvault.entity.LoadFundsRequestEntity;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+/**
+ * VelocityRollupLoadFundsRequestStore is a {@link LoadFundsRequestStore} that answers the velocity queries from the
+ * daily rollups of {@link CustomerVelocityDailyRepository} instead of the stored requests, so their cost does not grow
+ * with the history of the customer: a daily window reads one rollup row and a weekly window at most seven.
+ *
+ * <p>
+ * The requests themselves are still stored by the {@link LoadFundsRequestRepository}. Each save updates the rollups in
+ * the same transaction, including when it replaces an accepted request with the same id. Queries whose range does not
+ * start and end at a UTC midnight, or that count rejected requests, fall back to the stored requests.
+ *
+ * <p>
+ * Requests stored without the rollups, before they were enabled or while they were disabled, are not rolled up by
+ * the saves; {@link #rebuildRollupsIfStale()} is called at startup to catch up with them.
+ */
+public class VelocityRollupLoadFundsRequestStore implements LoadFundsRequestStore {
+
+    private static final long SECONDS_PER_DAY = 86_400L;
+
+    private final LoadFundsRequestRepository loadFundsRequestRepository;
+
+    private final CustomerVelocityDailyRepository customerVelocityDailyRepository;
+
+    public VelocityRollupLoadFundsRequestStore(LoadFundsRequestRepository loadFundsRequestRepository,
+                                               CustomerVelocityDailyRepository customerVelocityDailyRepository) {
+        this.loadFundsRequestRepository = loadFundsRequestRepository;
+        this.customerVelocityDailyRepository = customerVelocityDailyRepository;
+    }
+
+    /**
+     * Rebuilds the rollups from the stored requests if their totals are not the ones of the accepted requests. Meant to
+     * be called once, before any request is decided.
+     *
+     * @return Whether the rollups were rebuilt.
+     */
+    public boolean rebuildRollupsIfStale() {
+        if (customerVelocityDailyRepository.isConsistentWithRequests()) {
+            return false;
+        }
+        customerVelocityDailyRepository.rebuildFromRequests();
+        return true;
+    }
+
+    @Override
+    public boolean existsByIdAndCustomerId(long id, long customerId) {
+        return loadFundsRequestRepository.existsByIdAndCustomerId(id, customerId);
+    }
+
+    @Override
+    public long countByCustomerIdAndTimeBetweenAndAccepted(long customerId, ZonedDateTime startTime, ZonedDateTime endTime,
+                                                           boolean accepted) {
+        if (!accepted || !isWholeDays(startTime, endTime)) {
+            return loadFundsRequestRepository.countByCustomerIdAndTimeBetweenAndAccepted(customerId, startTime, endTime, accepted);
+        }
+        return customerVelocityDailyRepository.countAccepted(customerId, epochDay(startTime), epochDay(endTime) - 1);
+    }
+
+    @Override
+    public BigDecimal sumLoadAmountByCustomerIdAndTimeBetween(long customerId, ZonedDateTime startTime, ZonedDateTime endTime,
+                                                              boolean accepted) {
+        if (!accepted || !isWholeDays(startTime, endTime)) {
+            return loadFundsRequestRepository.sumLoadAmountByCustomerIdAndTimeBetween(customerId, startTime, endTime, accepted);
+        }
+        return customerVelocityDailyRepository.sumAccepted(customerId, epochDay(startTime), epochDay(endTime) - 1);
+    }
+
+    /**
+     * Decides and records a load funds request in one transaction, reading the velocity windows from the rollups. The
+     * customer's lock row is held until the transaction ends, so the attempts of a customer decided on other connections
+     * wait instead of reading the rollups before this one is committed.
+     */
+    @Override
+    @Transactional
+    public Boolean insertIfWithinLimits(long id, long customerId, BigDecimal loadAmount, ZonedDateTime time,
+                                        ZonedDateTime startOfDay, ZonedDateTime endOfDay, ZonedDateTime startOfWeek,
+                                        long loadsPerDay, BigDecimal amountPerDay, BigDecimal amountPerWeek) {
+        loadFundsRequestRepository.lockCustomer(customerId);
+        if (existsByIdAndCustomerId(id, customerId)) {
+            return null;
+        }
+
+        boolean accepted = countByCustomerIdAndTimeBetweenAndAccepted(customerId, startOfDay, endOfDay, true) < loadsPerDay
+                && sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfDay, endOfDay, true)
+                .add(loadAmount).compareTo(amountPerDay) < 0
+                && sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfWeek, endOfDay, true)
+                .add(loadAmount).compareTo(amountPerWeek) < 0;
+
+        LoadFundsRequestEntity entity = new LoadFundsRequestEntity();
+        entity.setId(id);
+        entity.setCustomerId(customerId);
+        entity.setLoadAmount(loadAmount);
+        entity.setTime(time);
+        entity.setAccepted(accepted);
+        save(entity);
+
+        return accepted;
+    }
+
+    /**
+     * Stores a load funds request and updates the rollups in the same transaction.
+     */
+    @Override
+    @Transactional
+    public <S extends LoadFundsRequestEntity> S save(S entity) {
+        Optional<LoadFundsRequestEntity> replaced = loadFundsRequestRepository.findById(entity.getId());
+        if (replaced.isPresent() && replaced.get().isAccepted()) {
+            // Read before the save, which merges the new state into the same managed entity
+            addToRollup(replaced.get().getCustomerId(), replaced.get().getTime(), -1, replaced.get().getLoadAmount().negate());
+        }
+
+        S saved = loadFundsRequestRepository.save(entity);
+        if (entity.isAccepted()) {
+            addToRollup(entity.getCustomerId(), entity.getTime(), 1, entity.getLoadAmount());
+        }
+        return saved;
+    }
+
+    @Override
+    public long count() {
+        return loadFundsRequestRepository.count();
+    }
+
+    private void addToRollup(long customerId, ZonedDateTime time, long count, BigDecimal amount) {
+        long epochDay = epochDay(time);
+        customerVelocityDailyRepository.add(customerId, epochDay, count, amount, 0, BigDecimal.ZERO);
+        if (isMidnight(time)) {
+            // The windows of the previous day include their end, which is this request's time
+            customerVelocityDailyRepository.add(customerId, epochDay - 1, 0, BigDecimal.ZERO, count, amount);
+        }
+    }
+
+    private static boolean isWholeDays(ZonedDateTime startTime, ZonedDateTime endTime) {
+        return isMidnight(startTime) && isMidnight(endTime) && endTime.isAfter(startTime);
+    }
+
+    private static boolean isMidnight(ZonedDateTime time) {
+        return time.getNano() == 0 && Math.floorMod(time.toEpochSecond(), SECONDS_PER_DAY) == 0;
+    }
+
+    private static long epochDay(ZonedDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(), SECONDS_PER_DAY);
+    }
+}
@@ -0,0 +1,112 @@
+package com.tryvault.service;
+
+import com.tryvault.repository.LoadFundsRequestRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+
+/**
+ * LoadFundsRequestSegmentArchiver moves whole weeks of load funds requests from the active table to the archive table.
+ * The velocity windows never reach further back than the Monday of a request's week, so older weeks only matter to the
+ * duplicate check, which also looks at the archive. Keeping them out of the active table keeps its indexes small on
+ * long lived file based databases.
+ *
+ * <p>
+ * A late request of an archived week would be checked against the requests of its week left in the active table only,
+ * so the service rejects the requests {@link #isArchived(ZonedDateTime)} reports. The first week still active is read
+ * from the archive at startup, the week after the latest archived one, and moved forward by each archiving. A stored
+ * request is replaced by any request with its id, so the service also deletes the archived request a saved request
+ * replaces, which is no longer a duplicate either.
+ */
+@Service
+public class LoadFundsRequestSegmentArchiver {
+
+    private static final Logger LOGGER = LogManager.getLogger(LoadFundsRequestSegmentArchiver.class);
+
+    // 1970-01-05, the first Monday after the epoch
+    private static final long FIRST_MONDAY_EPOCH_DAY = 4;
+
+    private final LoadFundsRequestRepository loadFundsRequestRepository;
+
+    private volatile int firstActiveWeekSegment;
+
+    @Autowired
+    public LoadFundsRequestSegmentArchiver(LoadFundsRequestRepository loadFundsRequestRepository) {
+        this.loadFundsRequestRepository = loadFundsRequestRepository;
+        Integer latestArchivedWeekSegment = loadFundsRequestRepository.findLatestArchivedWeekSegment();
+        this.firstActiveWeekSegment = latestArchivedWeekSegment == null ? Integer.MIN_VALUE : latestArchivedWeekSegment + 1;
+    }
+
+    /**
+     * Archives the weeks older than a number of weeks before the week of the latest stored request.
+     *
+     * @param weeks The number of weeks before the latest one to keep active, at least 1.
+     * @return The number of archived requests.
+     */
+    @Transactional
+    public int archiveOlderThan(int weeks) {
+        if (weeks < 1) {
+            throw new IllegalArgumentException("At least the week before the latest one must stay active, got " + weeks);
+        }
+
+        Integer latestWeekSegment = loadFundsRequestRepository.findLatestWeekSegment();
+        if (latestWeekSegment == null) {
+            return 0;
+        }
+        return archiveWeekSegmentsBefore(latestWeekSegment - weeks);
+    }
+
+    /**
+     * Archives the weeks before a week segment.
+     *
+     * @param weekSegment The first week segment to keep active.
+     * @return The number of archived requests.
+     */
+    @Transactional
+    public int archiveWeekSegmentsBefore(int weekSegment) {
+        int copied = loadFundsRequestRepository.copyWeekSegmentsBefore(weekSegment);
+        int deleted = loadFundsRequestRepository.deleteWeekSegmentsBefore(weekSegment);
+        if (copied != deleted) {
+            throw new IllegalStateException("Copied " + copied + " requests to the archive but deleted " + deleted);
+        }
+
+        firstActiveWeekSegment = Math.max(firstActiveWeekSegment, weekSegment);
+
+        LOGGER.info("Archived {} load funds requests of the weeks before segment {}", copied, weekSegment);
+        return copied;
+    }
+
+    /**
+     * @param time The time of a load funds request.
+     * @return Whether the week of the time was archived, its requests no longer counting towards the limits.
+     */
+    public boolean isArchived(ZonedDateTime time) {
+        return weekSegment(time) < firstActiveWeekSegment;
+    }
+
+    /**
+     * Deletes the archived request with an id, once a request with the same id is stored. Nothing to do until a week
+     * was archived, so it costs nothing to the databases that are never archived.
+     *
+     * @param id The ID of the stored load funds request.
+     */
+    @Transactional
+    public void deleteReplacedArchivedRequest(long id) {
+        if (firstActiveWeekSegment != Integer.MIN_VALUE) {
+            loadFundsRequestRepository.deleteArchivedById(id);
+        }
+    }
+
+    /**
+     * @param time A time.
+     * @return The week segment of the time, in weeks since Monday 1970-01-05, as computed by the database.
+     */
+    public static int weekSegment(ZonedDateTime time) {
+        long epochDay = Math.floorDiv(time.toEpochSecond(), 86_400L);
+        return (int) Math.floorDiv(epochDay - FIRST_MONDAY_EPOCH_DAY, 7);
+    }
+}
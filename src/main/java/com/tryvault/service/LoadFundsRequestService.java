@@ -1,5 +1,7 @@
 package com.tryvault.service;
 
+import java.io.Flushable;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
@@ -8,14 +10,18 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
 import com.tryvault.constants.LoadFundsRequestLimits;
+import com.tryvault.diagnostics.AllocationProfiler;
+import com.tryvault.diagnostics.LoadFundsPhaseEvent;
+import com.tryvault.diagnostics.LoadFundsRequestEvent;
 import com.tryvault.entity.LoadFundsRequestEntity;
 import com.tryvault.model.LoadFundsRequest;
 import com.tryvault.model.LoadFundsResponse;
-import com.tryvault.repository.LoadFundsRequestRepository;
+import com.tryvault.repository.LoadFundsRequestStore;
 import com.tryvault.util.LoadFundsResponseBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -29,13 +35,58 @@ import org.springframework.stereotype.Service;
 @Service
 public class LoadFundsRequestService {
 
-    @Autowired
-    private LoadFundsRequestRepository loadFundsRequestRepository;
+    private final LoadFundsRequestStore loadFundsRequestStore;
+
+    private boolean atomicInsert;
+
+    private AllocationProfiler allocationProfiler;
+
+    private VelocityHeadroomService velocityHeadroomService;
+
+    private LoadFundsRequestSegmentArchiver loadFundsRequestSegmentArchiver;
 
     private static final Logger LOGGER = LogManager.getLogger(LoadFundsRequestService.class);
 
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z");
 
+    /**
+     * @param loadFundsRequestStore The store of the load funds requests, the JPA repository in a Spring application.
+     */
+    @Autowired
+    public LoadFundsRequestService(LoadFundsRequestStore loadFundsRequestStore) {
+        this.loadFundsRequestStore = loadFundsRequestStore;
+    }
+
+    /**
+     * @param atomicInsert Whether each request is decided and recorded in a single atomic store operation.
+     */
+    @Value("${tryvault.persistence.atomic-insert:false}")
+    public void setAtomicInsert(boolean atomicInsert) {
+        this.atomicInsert = atomicInsert;
+    }
+
+    /**
+     * @param velocityHeadroomService The service whose velocity state is updated with the accepted requests, or null.
+     */
+    @Autowired
+    public void setVelocityHeadroomService(VelocityHeadroomService velocityHeadroomService) {
+        this.velocityHeadroomService = velocityHeadroomService;
+    }
+
+    /**
+     * @param loadFundsRequestSegmentArchiver The archiver whose archived weeks can no longer be decided, or null.
+     */
+    @Autowired
+    public void setLoadFundsRequestSegmentArchiver(LoadFundsRequestSegmentArchiver loadFundsRequestSegmentArchiver) {
+        this.loadFundsRequestSegmentArchiver = loadFundsRequestSegmentArchiver;
+    }
+
+    /**
+     * @param allocationProfiler The profiler the allocations of each decision stage are attributed to, or null.
+     */
+    public void setAllocationProfiler(AllocationProfiler allocationProfiler) {
+        this.allocationProfiler = allocationProfiler;
+    }
 
     /**
      * Processes a load funds request and returns a load funds response.
@@ -44,6 +95,57 @@ public class LoadFundsRequestService {
      * @return The load funds response.
      */
     public LoadFundsResponse processLoadAttempt(LoadFundsRequest loadFundsRequest) {
+        Boolean accepted = decideLoadAttempt(loadFundsRequest);
+
+        if (accepted == null) {
+            return null;
+        }
+
+        return LoadFundsResponseBuilder.fromLoadRequest(loadFundsRequest).accepted(accepted).build();
+    }
+
+    /**
+     * Processes a load funds request and returns only its decision, so callers that encode the response themselves
+     * do not have to allocate a load funds response.
+     *
+     * @param loadFundsRequest The load funds request to be processed.
+     * @return Whether the load funds request was accepted, or null if it was already processed for the customer.
+     */
+    public Boolean decideLoadAttempt(LoadFundsRequest loadFundsRequest) {
+        // Disabled flight recorder events are not committed, and not allocated once compiled
+        LoadFundsRequestEvent event = new LoadFundsRequestEvent();
+        event.begin();
+        Boolean accepted = decideLoadAttempt(loadFundsRequest, event);
+        if (event.shouldCommit()) {
+            event.id = loadFundsRequest.getId();
+            event.customerId = loadFundsRequest.getCustomerId();
+            event.atomicInsert = atomicInsert;
+            if (event.decision == null) {
+                event.decision = LoadFundsRequestEvent.decision(accepted);
+            }
+            event.commit();
+        }
+        if (allocationProfiler != null) {
+            allocationProfiler.countRequest();
+        }
+        return accepted;
+    }
+
+    /**
+     * Writes the requests the store buffered to the database, for stores that batch their saves such as
+     * {@link com.tryvault.repository.JdbcLoadFundsRequestStore}. Called before the responses of the decided requests are
+     * flushed to an output, so no response is visible for a request the database does not hold.
+     *
+     * @throws IOException if the store fails to write the buffered requests.
+     */
+    public void flush() throws IOException {
+        if (loadFundsRequestStore instanceof Flushable) {
+            ((Flushable) loadFundsRequestStore).flush();
+        }
+    }
+
+    private Boolean decideLoadAttempt(LoadFundsRequest loadFundsRequest, LoadFundsRequestEvent event) {
+        long allocationMark = markAllocations();
         long id = loadFundsRequest.getId();
         long customerId = loadFundsRequest.getCustomerId();
         BigDecimal loadAmount = loadFundsRequest.getLoadAmount();
@@ -51,33 +153,66 @@ public class LoadFundsRequestService {
 
         LOGGER.info("Handling request (id: {}, customer_id: {})", id, customerId);
 
-        if (isLoadRequestDuplicated(id, customerId)) {
+        if (loadFundsRequestSegmentArchiver != null && loadFundsRequestSegmentArchiver.isArchived(requestTime)) {
+            return rejectArchivedWeekAttempt(loadFundsRequest, event);
+        }
+
+        if (atomicInsert) {
+            return decideLoadAttemptAtomically(loadFundsRequest, event, allocationMark);
+        }
+
+        LoadFundsPhaseEvent dedupeEvent = new LoadFundsPhaseEvent();
+        dedupeEvent.begin();
+        boolean duplicated = isLoadRequestDuplicated(id, customerId);
+        dedupeEvent.commit(LoadFundsPhaseEvent.DEDUPE, customerId, duplicated ? "duplicate" : "unique");
+        allocationMark = recordAllocations(AllocationProfiler.Stage.DEDUPE, allocationMark);
+        if (duplicated) {
             return null;
         }
 
-        // Response builder
-        LoadFundsResponseBuilder loadFundsResponseBuilder = LoadFundsResponseBuilder.fromLoadRequest(loadFundsRequest);
         boolean accepted = true;
 
         // Check if the customer has exceeded the maximum number of loads per day
         ZonedDateTime startOfDay = requestTime.toLocalDate().atStartOfDay(ZoneOffset.UTC);
         ZonedDateTime endOfDay = startOfDay.plusDays(1);
+        allocationMark = recordAllocations(AllocationProfiler.Stage.TIME_WINDOWS, allocationMark);
 
-        if (hasReachedMaximumLoadsDailyCount(startOfDay, endOfDay, customerId)) {
+        LoadFundsPhaseEvent dailyCountEvent = new LoadFundsPhaseEvent();
+        dailyCountEvent.begin();
+        boolean reached = hasReachedMaximumLoadsDailyCount(startOfDay, endOfDay, customerId);
+        dailyCountEvent.commit(LoadFundsPhaseEvent.DAILY_COUNT, customerId, reached ? "reached" : "within");
+        if (reached) {
             LOGGER.info("Number of load funds requests reached the maximum limit of {} per day.", LoadFundsRequestLimits.LOADS_PER_DAY);
+            event.rejectionReason = LoadFundsPhaseEvent.DAILY_COUNT;
             accepted = false;
         }
 
-        if (accepted && hasReachedMaximumLoadDailyAmount(startOfDay, endOfDay, customerId, loadAmount)) {
-            LOGGER.info("Number of load amount reached it daily limit.");
-            accepted = false;
+        if (accepted) {
+            LoadFundsPhaseEvent dailyAmountEvent = new LoadFundsPhaseEvent();
+            dailyAmountEvent.begin();
+            reached = hasReachedMaximumLoadDailyAmount(startOfDay, endOfDay, customerId, loadAmount);
+            dailyAmountEvent.commit(LoadFundsPhaseEvent.DAILY_AMOUNT, customerId, reached ? "reached" : "within");
+            if (reached) {
+                LOGGER.info("Number of load amount reached it daily limit.");
+                event.rejectionReason = LoadFundsPhaseEvent.DAILY_AMOUNT;
+                accepted = false;
+            }
         }
 
-        if (accepted && hasReachedMaximumLoadWeeklyAmount(requestTime, endOfDay, customerId, loadAmount)) {
-            LOGGER.info("Number of load funds requests reached it maximum weekly amount.");
-            accepted = false;
+        if (accepted) {
+            LoadFundsPhaseEvent weeklyAmountEvent = new LoadFundsPhaseEvent();
+            weeklyAmountEvent.begin();
+            reached = hasReachedMaximumLoadWeeklyAmount(requestTime, endOfDay, customerId, loadAmount);
+            weeklyAmountEvent.commit(LoadFundsPhaseEvent.WEEKLY_AMOUNT, customerId, reached ? "reached" : "within");
+            if (reached) {
+                LOGGER.info("Number of load funds requests reached it maximum weekly amount.");
+                event.rejectionReason = LoadFundsPhaseEvent.WEEKLY_AMOUNT;
+                accepted = false;
+            }
         }
 
+        allocationMark = recordAllocations(AllocationProfiler.Stage.VELOCITY_CHECKS, allocationMark);
+
         // Create and save customer transaction
         LoadFundsRequestEntity loadRequestEntity = new LoadFundsRequestEntity();
         loadRequestEntity.setId(id);
@@ -88,27 +223,140 @@ public class LoadFundsRequestService {
 
         LOGGER.info("Writing load funds request to the database.");
 
+        LoadFundsPhaseEvent saveEvent = new LoadFundsPhaseEvent();
+        saveEvent.begin();
         try {
-            loadFundsRequestRepository.save(loadRequestEntity);
+            loadFundsRequestStore.save(loadRequestEntity);
             LOGGER.info("Request to load funds processed successfully.");
         }
         catch (Exception e) {
             LOGGER.error("The attempt to save the load funds request failed.", e);
-            return loadFundsResponseBuilder.build();
+            saveEvent.commit(LoadFundsPhaseEvent.SAVE, customerId, LoadFundsRequestEvent.FAILED);
+            event.decision = LoadFundsRequestEvent.FAILED;
+            return false;
+        }
+        saveEvent.commit(LoadFundsPhaseEvent.SAVE, customerId, LoadFundsRequestEvent.decision(accepted));
+        deleteReplacedArchivedRequest(id);
+        if (accepted && velocityHeadroomService != null) {
+            velocityHeadroomService.recordAccepted(customerId, requestTime, loadAmount);
+        }
+        recordAllocations(AllocationProfiler.Stage.SAVE, allocationMark);
+
+        return accepted;
+    }
+
+    /**
+     * Decides and records a load funds request in a single database statement.
+     * The decision is read back from the inserted row instead of being computed from separate velocity queries, which
+     * keeps several application instances sharing one database from racing between the checks and the write.
+     *
+     * @param loadFundsRequest The load funds request to be processed.
+     * @param event            The flight recorder event of the request.
+     * @param allocationMark   The allocation mark taken at the start of the decision.
+     * @return Whether the load funds request was accepted, or null if it was already processed for the customer.
+     */
+    private Boolean decideLoadAttemptAtomically(LoadFundsRequest loadFundsRequest, LoadFundsRequestEvent event,
+                                                long allocationMark) {
+        ZonedDateTime requestTime = loadFundsRequest.getTime();
+        ZonedDateTime startOfDay = requestTime.toLocalDate().atStartOfDay(ZoneOffset.UTC);
+        ZonedDateTime endOfDay = startOfDay.plusDays(1);
+        ZonedDateTime startOfWeek = requestTime.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                .atStartOfDay(ZoneOffset.UTC);
+        allocationMark = recordAllocations(AllocationProfiler.Stage.TIME_WINDOWS, allocationMark);
+
+        Boolean accepted;
+
+        LoadFundsPhaseEvent insertEvent = new LoadFundsPhaseEvent();
+        insertEvent.begin();
+        try {
+            accepted = loadFundsRequestStore.insertIfWithinLimits(loadFundsRequest.getId(),
+                    loadFundsRequest.getCustomerId(), loadFundsRequest.getLoadAmount(), requestTime, startOfDay, endOfDay,
+                    startOfWeek, LoadFundsRequestLimits.LOADS_PER_DAY, LoadFundsRequestLimits.AMOUNT_PER_DAY,
+                    LoadFundsRequestLimits.AMOUNT_PER_WEEK);
+        }
+        catch (Exception e) {
+            LOGGER.error("The attempt to save the load funds request failed.", e);
+            insertEvent.commit(LoadFundsPhaseEvent.ATOMIC_INSERT, loadFundsRequest.getCustomerId(), LoadFundsRequestEvent.FAILED);
+            event.decision = LoadFundsRequestEvent.FAILED;
+            return false;
+        }
+        insertEvent.commit(LoadFundsPhaseEvent.ATOMIC_INSERT, loadFundsRequest.getCustomerId(),
+                LoadFundsRequestEvent.decision(accepted));
+        if (accepted != null) {
+            deleteReplacedArchivedRequest(loadFundsRequest.getId());
+        }
+        if (Boolean.TRUE.equals(accepted) && velocityHeadroomService != null) {
+            velocityHeadroomService.recordAccepted(loadFundsRequest.getCustomerId(), requestTime,
+                    loadFundsRequest.getLoadAmount());
+        }
+        recordAllocations(AllocationProfiler.Stage.SAVE, allocationMark);
+
+        if (accepted == null) {
+            LOGGER.info("Load funds request already processed for the customer.");
+            return null;
+        }
+
+        LOGGER.info("Request to load funds processed successfully.");
+        return accepted;
+    }
+
+    /**
+     * Rejects a load funds request whose week was archived, unless it is a duplicate. The velocity limits of its week
+     * cannot be checked anymore, the archived requests of the week no longer counting towards them.
+     *
+     * @param loadFundsRequest The load funds request to be processed.
+     * @param event            The flight recorder event of the request.
+     * @return False, or null if the request was already processed for the customer.
+     */
+    private Boolean rejectArchivedWeekAttempt(LoadFundsRequest loadFundsRequest, LoadFundsRequestEvent event) {
+        if (isLoadRequestDuplicated(loadFundsRequest.getId(), loadFundsRequest.getCustomerId())) {
+            return null;
+        }
+
+        LOGGER.info("Load funds request in an archived week, its limits cannot be checked anymore.");
+        event.rejectionReason = LoadFundsPhaseEvent.ARCHIVED_WEEK;
+
+        LoadFundsRequestEntity loadRequestEntity = new LoadFundsRequestEntity();
+        loadRequestEntity.setId(loadFundsRequest.getId());
+        loadRequestEntity.setCustomerId(loadFundsRequest.getCustomerId());
+        loadRequestEntity.setLoadAmount(loadFundsRequest.getLoadAmount());
+        loadRequestEntity.setTime(loadFundsRequest.getTime());
+        loadRequestEntity.setAccepted(false);
+        try {
+            loadFundsRequestStore.save(loadRequestEntity);
+            deleteReplacedArchivedRequest(loadFundsRequest.getId());
+        }
+        catch (Exception e) {
+            LOGGER.error("The attempt to save the load funds request failed.", e);
+            event.decision = LoadFundsRequestEvent.FAILED;
         }
+        return false;
+    }
+
+    private void deleteReplacedArchivedRequest(long id) {
+        // Like the stored request it replaced, an archived request with the same id is no longer a duplicate
+        if (loadFundsRequestSegmentArchiver != null) {
+            loadFundsRequestSegmentArchiver.deleteReplacedArchivedRequest(id);
+        }
+    }
+
+    private long markAllocations() {
+        return allocationProfiler == null ? 0 : allocationProfiler.mark();
+    }
 
-        return loadFundsResponseBuilder.accepted(accepted).build();
+    private long recordAllocations(AllocationProfiler.Stage stage, long allocationMark) {
+        return allocationProfiler == null ? 0 : allocationProfiler.record(stage, allocationMark);
     }
 
     private boolean isLoadRequestDuplicated(long id, long customerId) {
         // Check if the load ID has already been processed for the given customer
-        return loadFundsRequestRepository.existsByIdAndCustomerId(id, customerId);
+        return loadFundsRequestStore.existsByIdAndCustomerId(id, customerId);
     }
 
     private boolean hasReachedMaximumLoadsDailyCount(ZonedDateTime startOfDay, ZonedDateTime endOfDay, long customerId) {
         LOGGER.info("Looking for requests within date range {} to {}", startOfDay.format(DATE_TIME_FORMATTER), endOfDay.format(DATE_TIME_FORMATTER));
 
-        long numberOfLoadsToday = loadFundsRequestRepository.countByCustomerIdAndTimeBetweenAndAccepted(customerId, startOfDay,
+        long numberOfLoadsToday = loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(customerId, startOfDay,
                 endOfDay, true);
 
         return numberOfLoadsToday >= 3;
@@ -116,7 +364,7 @@ public class LoadFundsRequestService {
 
     private boolean hasReachedMaximumLoadDailyAmount(ZonedDateTime startOfDay, ZonedDateTime endOfDay, long customerId, BigDecimal loadAmount) {
         // Check if the customer has exceeded the maximum amount that can be loaded per day
-        BigDecimal totalAmountLoadedToday = loadFundsRequestRepository
+        BigDecimal totalAmountLoadedToday = loadFundsRequestStore
                 .sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfDay, endOfDay, true);
 
         return totalAmountLoadedToday.add(loadAmount).compareTo(LoadFundsRequestLimits.AMOUNT_PER_DAY) >= 0;
@@ -125,7 +373,7 @@ public class LoadFundsRequestService {
     private boolean hasReachedMaximumLoadWeeklyAmount(ZonedDateTime requestTime, ZonedDateTime endOfDay, long customerId, BigDecimal loadAmount) {
         LocalDate startOfWeek = requestTime.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
 
-        BigDecimal totalAmountLoadedThisWeek = loadFundsRequestRepository
+        BigDecimal totalAmountLoadedThisWeek = loadFundsRequestStore
                 .sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfWeek.atStartOfDay(ZoneOffset.UTC), endOfDay, true);
 
         return totalAmountLoadedThisWeek.add(loadAmount).compareTo(LoadFundsRequestLimits.AMOUNT_PER_WEEK) >= 0;
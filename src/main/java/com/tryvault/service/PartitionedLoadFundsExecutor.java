@@ -0,0 +1,439 @@
+package com.tryvault.service;
+
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.util.CountMinSketch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Executes load funds decisions in parallel over a fixed number of worker lanes, while keeping the requests of each
+ * customer in order. Velocity limits are scoped to one customer, so requests of different customers can mostly be
+ * decided concurrently, but the requests of one customer must be decided one after the other, in input order.
+ *
+ * <p>
+ * Requests are stored by id, so a request reusing the id of another customer's request replaces it and changes that
+ * customer's later decisions. Such a request waits for the last request of the other customer, and the other customer's
+ * next requests wait for it, so the replacement happens at the same point of both customers' sequences as in a
+ * sequential run. The customer of the last request of each id is kept for that, for up to {@code maxTrackedIds} ids:
+ * past that, the ids are forgotten and only remembered by a Bloom filter. A request whose id may have been forgotten
+ * cannot tell which customer it replaces, so it is decided alone, after every request submitted before it and before
+ * every request submitted after it. Such barriers get more frequent as the filter fills up, but the memory stays bounded.
+ *
+ * <p>
+ * Real traffic is skewed, so plain hash partitioning by customer id would turn the lane of the busiest customers into
+ * the bottleneck. Instead, the executor counts customers online with a {@link CountMinSketch}; customers whose share of
+ * the recent traffic exceeds {@code hotCustomerShare} get a dedicated lane, and the other customers are spread over the
+ * remaining shared lanes by queue depth. A cold customer only moves to another lane when none of its requests is in
+ * flight. A hot customer moves to its dedicated lane right away, and its first request there waits for its last request
+ * on the previous lane, which is what keeps its requests in order.
+ *
+ * <p>
+ * Requests must be submitted from a single thread.
+ */
+public class PartitionedLoadFundsExecutor implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger(PartitionedLoadFundsExecutor.class);
+
+    // Number of observations before any customer can be considered hot
+    private static final long WARM_UP_OBSERVATIONS = 1_000;
+
+    // The sketch is halved every time it has counted this many observations
+    private static final long DECAY_WINDOW = 1 << 16;
+
+    private static final int MAX_TRACKED_CUSTOMERS = 1 << 20;
+
+    private static final int DEFAULT_MAX_TRACKED_IDS = 1 << 20;
+
+    // 2 MiB of bits, under 1% false positives for the first million forgotten ids
+    private static final int FORGOTTEN_IDS_BITS = 1 << 24;
+
+    private static final int DEFAULT_WINDOW_SIZE = 8 * 1024;
+
+    private final Function<LoadFundsRequest, Boolean> decision;
+
+    private final Lane[] lanes;
+
+    private final boolean skewAware;
+
+    private final double hotCustomerShare;
+
+    private final int maxDedicatedLanes;
+
+    private final CountMinSketch sketch = new CountMinSketch(4096, 4);
+
+    private final Map<Long, CustomerRoute> routes = new HashMap<>();
+
+    private final Map<Long, Lane> dedicatedLanes = new HashMap<>();
+
+    private final Map<Long, Long> customerIdsById = new HashMap<>();
+
+    private final SplittableRandom random = new SplittableRandom(0);
+
+    private Lane[] sharedLanes;
+
+    private int maxTrackedIds = DEFAULT_MAX_TRACKED_IDS;
+
+    private long[] forgottenIds;
+
+    private CompletableFuture<Boolean> exclusive;
+
+    /**
+     * Receives the decisions of the processed requests, in input order.
+     */
+    @FunctionalInterface
+    public interface DecisionConsumer {
+        void accept(LoadFundsRequest loadFundsRequest, Boolean accepted) throws IOException;
+    }
+
+    /**
+     * Creates a skew-aware executor where a customer is hot once it sends more than half of a lane's fair share of the
+     * traffic, and up to half of the lanes can be dedicated to hot customers.
+     *
+     * @param decision      The decision applied to each request, usually {@link LoadFundsRequestService#decideLoadAttempt}.
+     * @param numberOfLanes The number of worker lanes.
+     */
+    public PartitionedLoadFundsExecutor(Function<LoadFundsRequest, Boolean> decision, int numberOfLanes) {
+        this(decision, numberOfLanes, true, 1.0 / (2 * numberOfLanes), numberOfLanes / 2);
+    }
+
+    /**
+     * @param decision          The decision applied to each request.
+     * @param numberOfLanes     The number of worker lanes.
+     * @param skewAware         Whether hot customers get dedicated lanes; when false, customers are hash partitioned.
+     * @param hotCustomerShare  The share of the recent traffic above which a customer is hot.
+     * @param maxDedicatedLanes The maximum number of lanes dedicated to hot customers; at least one lane stays shared.
+     */
+    public PartitionedLoadFundsExecutor(Function<LoadFundsRequest, Boolean> decision, int numberOfLanes, boolean skewAware,
+                                        double hotCustomerShare, int maxDedicatedLanes) {
+        if (numberOfLanes < 1) {
+            throw new IllegalArgumentException("The executor needs at least one lane");
+        }
+
+        this.decision = decision;
+        this.skewAware = skewAware;
+        this.hotCustomerShare = hotCustomerShare;
+        this.maxDedicatedLanes = Math.max(0, Math.min(maxDedicatedLanes, numberOfLanes - 1));
+        this.lanes = new Lane[numberOfLanes];
+        for (int index = 0; index < numberOfLanes; index++) {
+            lanes[index] = new Lane(index);
+        }
+        this.sharedLanes = lanes.clone();
+    }
+
+    /**
+     * @param maxTrackedIds The number of ids whose last customer is kept before they are forgotten, at least 1.
+     */
+    public void setMaxTrackedIds(int maxTrackedIds) {
+        if (maxTrackedIds < 1) {
+            throw new IllegalArgumentException("At least one id must be tracked, got " + maxTrackedIds);
+        }
+        this.maxTrackedIds = maxTrackedIds;
+    }
+
+    /**
+     * Submits a request to the lane of its customer.
+     *
+     * @param loadFundsRequest The load funds request to be processed.
+     * @return The decision of the request, as returned by the decision function.
+     */
+    public CompletableFuture<Boolean> submit(LoadFundsRequest loadFundsRequest) {
+        CustomerRoute route = route(loadFundsRequest.getCustomerId());
+        Lane lane = route.lane;
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        CompletableFuture<Boolean> barrier = replacementBarrier(loadFundsRequest, after(route.barrier, exclusive), result);
+
+        route.barrier = null;
+        route.last = result;
+        lane.last = result;
+
+        route.inFlight.incrementAndGet();
+        lane.pending.incrementAndGet();
+        lane.executor.execute(() -> {
+            try {
+                if (barrier != null) {
+                    // The customer just moved lanes, or the request is ordered with another customer's requests;
+                    // wait until the requests it follows are decided
+                    barrier.handle((accepted, throwable) -> accepted).join();
+                }
+                result.complete(decision.apply(loadFundsRequest));
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+            } finally {
+                // Only released once the decision is done, so the customer cannot move lanes before that
+                route.inFlight.decrementAndGet();
+                lane.pending.decrementAndGet();
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Orders a request reusing the id of another customer's request after that customer's last request, and that
+     * customer's next requests after it. A request whose id may have been forgotten is ordered after every request.
+     *
+     * @return The requests the request must wait for, or null.
+     */
+    private CompletableFuture<Boolean> replacementBarrier(LoadFundsRequest loadFundsRequest,
+                                                          CompletableFuture<Boolean> barrier, CompletableFuture<Boolean> result) {
+        if (customerIdsById.size() >= maxTrackedIds && !customerIdsById.containsKey(loadFundsRequest.getId())) {
+            forgetIds();
+        }
+
+        Long previousCustomerId = customerIdsById.put(loadFundsRequest.getId(), loadFundsRequest.getCustomerId());
+        if (previousCustomerId == null) {
+            if (!mayBeForgotten(loadFundsRequest.getId())) {
+                return barrier;
+            }
+            // The customer it replaces, if any, is unknown: wait for every lane, and make every later request wait
+            for (Lane lane : lanes) {
+                barrier = after(barrier, lane.last);
+            }
+            exclusive = result;
+            return barrier;
+        }
+        if (previousCustomerId == loadFundsRequest.getCustomerId()) {
+            return barrier;
+        }
+        CustomerRoute replacedRoute = routes.computeIfAbsent(previousCustomerId, customerId -> new CustomerRoute());
+        CompletableFuture<Boolean> replacementBarrier = after(after(barrier, replacedRoute.last), replacedRoute.barrier);
+        replacedRoute.barrier = result;
+        return replacementBarrier;
+    }
+
+    private void forgetIds() {
+        if (forgottenIds == null) {
+            forgottenIds = new long[FORGOTTEN_IDS_BITS / Long.SIZE];
+        }
+        for (Long id : customerIdsById.keySet()) {
+            long hash = CountMinSketch.mix(id);
+            for (int probe = 0; probe < 3; probe++) {
+                int bit = forgottenIdBit(hash, probe);
+                forgottenIds[bit >>> 6] |= 1L << bit;
+            }
+        }
+        LOGGER.info("Forgot the customers of {} ids.", customerIdsById.size());
+        customerIdsById.clear();
+    }
+
+    private boolean mayBeForgotten(long id) {
+        if (forgottenIds == null) {
+            return false;
+        }
+        long hash = CountMinSketch.mix(id);
+        for (int probe = 0; probe < 3; probe++) {
+            int bit = forgottenIdBit(hash, probe);
+            if ((forgottenIds[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int forgottenIdBit(long hash, int probe) {
+        // Double hashing from the two halves of the mixed id
+        return ((int) hash + probe * (int) (hash >>> 32)) & (FORGOTTEN_IDS_BITS - 1);
+    }
+
+    private static CompletableFuture<Boolean> after(CompletableFuture<Boolean> first, CompletableFuture<Boolean> second) {
+        if (first == null || first.isDone()) {
+            return second;
+        }
+        if (second == null || second.isDone()) {
+            return first;
+        }
+        return CompletableFuture.allOf(first.handle((accepted, throwable) -> accepted),
+                second.handle((accepted, throwable) -> accepted)).thenApply(done -> null);
+    }
+
+    /**
+     * Processes requests in parallel and hands their decisions to the consumer in input order.
+     * At most a fixed window of requests is in flight, so the requests do not all have to be held in memory.
+     *
+     * @param loadFundsRequests The load funds requests to be processed.
+     * @param consumer          The consumer of the decisions.
+     * @throws IOException if the consumer fails to handle a decision.
+     */
+    public void processInOrder(Iterable<LoadFundsRequest> loadFundsRequests, DecisionConsumer consumer) throws IOException {
+        ArrayDeque<LoadFundsRequest> pendingRequests = new ArrayDeque<>();
+        ArrayDeque<CompletableFuture<Boolean>> pendingDecisions = new ArrayDeque<>();
+
+        Iterator<LoadFundsRequest> iterator = loadFundsRequests.iterator();
+        while (iterator.hasNext()) {
+            LoadFundsRequest loadFundsRequest = iterator.next();
+            pendingRequests.add(loadFundsRequest);
+            pendingDecisions.add(submit(loadFundsRequest));
+
+            if (pendingDecisions.size() >= DEFAULT_WINDOW_SIZE) {
+                consumer.accept(pendingRequests.poll(), pendingDecisions.poll().join());
+            }
+        }
+
+        while (!pendingDecisions.isEmpty()) {
+            consumer.accept(pendingRequests.poll(), pendingDecisions.poll().join());
+        }
+    }
+
+    /**
+     * @return The customers that currently have a dedicated lane.
+     */
+    public List<Long> getDedicatedCustomers() {
+        return new ArrayList<>(dedicatedLanes.keySet());
+    }
+
+    @Override
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.executor.shutdown();
+        }
+        for (Lane lane : lanes) {
+            try {
+                lane.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private CustomerRoute route(long customerId) {
+        CustomerRoute route = routes.get(customerId);
+        if (route == null) {
+            if (routes.size() >= MAX_TRACKED_CUSTOMERS) {
+                routes.values().removeIf(idle -> idle.inFlight.get() == 0 && (idle.barrier == null || idle.barrier.isDone()));
+            }
+            route = new CustomerRoute();
+            routes.put(customerId, route);
+        }
+
+        if (!skewAware) {
+            route.lane = lanes[(int) Math.floorMod(CountMinSketch.mix(customerId), (long) lanes.length)];
+            return route;
+        }
+
+        long estimate = sketch.add(customerId);
+        if (sketch.getTotal() >= DECAY_WINDOW) {
+            sketch.decay();
+            estimate >>>= 1;
+        }
+
+        boolean hot = isHot(estimate);
+        if (route.lane != null && route.inFlight.get() > 0) {
+            Lane lane = hot && !route.lane.dedicated ? dedicatedLane(customerId) : null;
+            if (lane != null) {
+                route.lane = lane;
+                route.barrier = after(route.barrier, route.last);
+            }
+            // Otherwise the customer stays on its lane, so its requests are decided in order
+            return route;
+        }
+
+        Lane lane = hot ? dedicatedLane(customerId) : null;
+        route.lane = lane != null ? lane : leastLoadedSharedLane();
+        return route;
+    }
+
+    private boolean isHot(long estimate) {
+        return sketch.getTotal() >= WARM_UP_OBSERVATIONS && estimate >= hotCustomerShare * sketch.getTotal();
+    }
+
+    private Lane dedicatedLane(long customerId) {
+        Lane lane = dedicatedLanes.get(customerId);
+        if (lane != null) {
+            return lane;
+        }
+
+        if (dedicatedLanes.size() >= maxDedicatedLanes && !releaseColdDedicatedLane()) {
+            return null;
+        }
+
+        lane = leastLoadedLane(sharedLanes);
+        dedicatedLanes.put(customerId, lane);
+        lane.dedicated = true;
+        updateSharedLanes();
+        LOGGER.info("Customer {} is hot, dedicating lane {} to it.", customerId, lane.index);
+
+        return lane;
+    }
+
+    private boolean releaseColdDedicatedLane() {
+        for (Map.Entry<Long, Lane> entry : dedicatedLanes.entrySet()) {
+            CustomerRoute route = routes.get(entry.getKey());
+            boolean idle = route == null || route.inFlight.get() == 0;
+            if (idle && !isHot(sketch.estimate(entry.getKey()))) {
+                LOGGER.info("Customer {} cooled down, sharing lane {} again.", entry.getKey(), entry.getValue().index);
+                entry.getValue().dedicated = false;
+                dedicatedLanes.remove(entry.getKey());
+                updateSharedLanes();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void updateSharedLanes() {
+        List<Lane> shared = new ArrayList<>();
+        for (Lane lane : lanes) {
+            if (!lane.dedicated) {
+                shared.add(lane);
+            }
+        }
+        sharedLanes = shared.toArray(new Lane[0]);
+    }
+
+    private Lane leastLoadedSharedLane() {
+        // Power of two choices: nearly as balanced as scanning every lane, at a constant cost
+        Lane first = sharedLanes[random.nextInt(sharedLanes.length)];
+        Lane second = sharedLanes[random.nextInt(sharedLanes.length)];
+        return second.pending.get() < first.pending.get() ? second : first;
+    }
+
+    private static Lane leastLoadedLane(Lane[] candidates) {
+        Lane leastLoaded = candidates[0];
+        for (Lane candidate : candidates) {
+            if (candidate.pending.get() < leastLoaded.pending.get()) {
+                leastLoaded = candidate;
+            }
+        }
+        return leastLoaded;
+    }
+
+    private static final class Lane {
+        private final int index;
+        private final ExecutorService executor;
+        private final AtomicInteger pending = new AtomicInteger();
+        private boolean dedicated;
+        private CompletableFuture<Boolean> last;
+
+        private Lane(int index) {
+            this.index = index;
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "load-funds-lane-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class CustomerRoute {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private Lane lane;
+        private CompletableFuture<Boolean> last;
+        private CompletableFuture<Boolean> barrier;
+    }
+}
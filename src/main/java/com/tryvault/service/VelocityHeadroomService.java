@@ -0,0 +1,180 @@
+package com.tryvault.service;
+
+import com.tryvault.constants.LoadFundsRequestLimits;
+import com.tryvault.model.VelocityHeadroom;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Read-only service telling how much a customer can still load, without making a load attempt. It answers from an
+ * in-memory velocity state of the accepted loads of each customer's recent days, which {@link LoadFundsRequestService}
+ * updates as it accepts requests, instead of from the aggregate queries of the store.
+ *
+ * <p>
+ * The state of a customer is an immutable snapshot of at most eight days, replaced on each accepted load, so a query is
+ * a map lookup and a scan of those days: it never blocks, nor is blocked by, the write path. The window rules are the
+ * ones of the decisions: the day runs from midnight to the next midnight included, the week from Monday.
+ *
+ * <p>
+ * The state only knows the loads accepted since it was created, unless it is warmed up with {@link #recordAccepted}, and
+ * it does not see a request replaced by another customer's request with the same id, so its headroom can be lower than
+ * the store's, never higher. Queries older than the customer's last eight days of activity are not answered exactly.
+ */
+@Service
+public class VelocityHeadroomService {
+
+    private static final long SECONDS_PER_DAY = 86_400L;
+
+    // The days of a week, plus the day whose first midnight belongs to the day window of the previous day
+    private static final int RETAINED_DAYS = 8;
+
+    private final ConcurrentMap<Long, CustomerVelocity> velocityByCustomer = new ConcurrentHashMap<>();
+
+    private final long loadsPerDay = LoadFundsRequestLimits.LOADS_PER_DAY;
+
+    private final long amountPerDayCents = LoadFundsRequestLimits.AMOUNT_PER_DAY.movePointRight(2).longValueExact();
+
+    private final long amountPerWeekCents = LoadFundsRequestLimits.AMOUNT_PER_WEEK.movePointRight(2).longValueExact();
+
+    /**
+     * Adds an accepted load to the velocity state of its customer.
+     *
+     * @param customerId The customer ID of the accepted load funds request.
+     * @param time       The time of the accepted load funds request.
+     * @param loadAmount The amount loaded.
+     */
+    public void recordAccepted(long customerId, ZonedDateTime time, BigDecimal loadAmount) {
+        long epochSecond = time.toEpochSecond();
+        int epochDay = Math.toIntExact(Math.floorDiv(epochSecond, SECONDS_PER_DAY));
+        boolean atMidnight = Math.floorMod(epochSecond, SECONDS_PER_DAY) == 0 && time.getNano() == 0;
+        // Fractions of a cent count as a whole cent, which keeps the headroom on the safe side
+        long amountCents = loadAmount.movePointRight(2).setScale(0, RoundingMode.CEILING).longValueExact();
+
+        velocityByCustomer.compute(customerId, (key, velocity) ->
+                (velocity == null ? CustomerVelocity.EMPTY : velocity).plus(epochDay, atMidnight, amountCents));
+    }
+
+    /**
+     * @param customerId The customer ID.
+     * @param time       The time of a hypothetical load attempt.
+     * @return The number of loads the customer has left at that time, and the largest amounts a load can have.
+     */
+    public VelocityHeadroom getHeadroom(long customerId, ZonedDateTime time) {
+        CustomerVelocity velocity = velocityByCustomer.getOrDefault(customerId, CustomerVelocity.EMPTY);
+
+        int epochDay = Math.toIntExact(Math.floorDiv(time.toEpochSecond(), SECONDS_PER_DAY));
+        // The epoch day 0 is a Thursday
+        int startOfWeek = epochDay - Math.floorMod(epochDay + 3, 7);
+
+        long dailyCount = 0;
+        long dailyCents = 0;
+        long weeklyCents = 0;
+        for (int index = 0; index < velocity.days.length; index++) {
+            int day = velocity.days[index];
+            if (day == epochDay + 1) {
+                // Loads at the next midnight are in the day window too
+                dailyCount += velocity.midnightCounts[index];
+                dailyCents += velocity.midnightCents[index];
+                weeklyCents += velocity.midnightCents[index];
+            } else if (day == epochDay) {
+                dailyCount += velocity.counts[index];
+                dailyCents += velocity.cents[index];
+                weeklyCents += velocity.cents[index];
+            } else if (day >= startOfWeek && day < epochDay) {
+                weeklyCents += velocity.cents[index];
+            }
+        }
+
+        // A load that brings a total to its limit is rejected, the largest accepted one is a cent below
+        return new VelocityHeadroom(String.valueOf(customerId), Math.max(0, loadsPerDay - dailyCount),
+                BigDecimal.valueOf(Math.max(0, amountPerDayCents - dailyCents - 1), 2),
+                BigDecimal.valueOf(Math.max(0, amountPerWeekCents - weeklyCents - 1), 2));
+    }
+
+    /**
+     * Forgets the velocity state of all the customers, for instance after the store was cleared.
+     */
+    public void clear() {
+        velocityByCustomer.clear();
+    }
+
+    /**
+     * The accepted loads of a customer's recent days, by day, sorted. Never modified once built.
+     */
+    private static final class CustomerVelocity {
+
+        private static final CustomerVelocity EMPTY = new CustomerVelocity(new int[0], new long[0], new long[0],
+                new long[0], new long[0]);
+
+        private final int[] days;
+        private final long[] counts;
+        private final long[] cents;
+        private final long[] midnightCounts;
+        private final long[] midnightCents;
+
+        private CustomerVelocity(int[] days, long[] counts, long[] cents, long[] midnightCounts, long[] midnightCents) {
+            this.days = days;
+            this.counts = counts;
+            this.cents = cents;
+            this.midnightCounts = midnightCounts;
+            this.midnightCents = midnightCents;
+        }
+
+        private CustomerVelocity plus(int epochDay, boolean atMidnight, long amountCents) {
+            int latestDay = days.length == 0 ? epochDay : Math.max(epochDay, days[days.length - 1]);
+            int firstRetainedDay = latestDay - RETAINED_DAYS + 1;
+            if (epochDay < firstRetainedDay) {
+                // Too old to be in the window of a recent query
+                return this;
+            }
+
+            int position = Arrays.binarySearch(days, epochDay);
+            int[] newDays = days;
+            int insertion = position;
+            if (position < 0) {
+                insertion = -position - 1;
+                newDays = new int[days.length + 1];
+                System.arraycopy(days, 0, newDays, 0, insertion);
+                newDays[insertion] = epochDay;
+                System.arraycopy(days, insertion, newDays, insertion + 1, days.length - insertion);
+            }
+
+            // Drop the days that left the retained window
+            int first = 0;
+            while (newDays[first] < firstRetainedDay) {
+                first++;
+            }
+            int length = newDays.length - first;
+
+            int[] resultDays = Arrays.copyOfRange(newDays, first, newDays.length);
+            long[] resultCounts = new long[length];
+            long[] resultCents = new long[length];
+            long[] resultMidnightCounts = new long[length];
+            long[] resultMidnightCents = new long[length];
+            for (int index = 0; index < days.length; index++) {
+                int target = Arrays.binarySearch(resultDays, days[index]);
+                if (target >= 0) {
+                    resultCounts[target] = counts[index];
+                    resultCents[target] = cents[index];
+                    resultMidnightCounts[target] = midnightCounts[index];
+                    resultMidnightCents[target] = midnightCents[index];
+                }
+            }
+
+            int target = insertion - first;
+            resultCounts[target]++;
+            resultCents[target] += amountCents;
+            if (atMidnight) {
+                resultMidnightCounts[target]++;
+                resultMidnightCents[target] += amountCents;
+            }
+            return new CustomerVelocity(resultDays, resultCounts, resultCents, resultMidnightCounts, resultMidnightCents);
+        }
+    }
+}
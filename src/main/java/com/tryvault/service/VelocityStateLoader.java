@@ -0,0 +1,216 @@
+package com.tryvault.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * VelocityStateLoader builds the in-memory velocity state of the {@link VelocityHeadroomService} from the accepted
+ * requests already in the load_funds_request table, so the state is complete when the application runs on top of an
+ * existing database. It is enabled with tryvault.velocity.warm-up=true.
+ *
+ * <p>
+ * Only the active week, the latest week segment of the table, and the week before it are scanned: the day window of a
+ * Sunday ends at the next midnight, the first instant of the next week, so a request at that midnight starts a new
+ * week segment while the Sunday, and its week, can still be queried. Their customer ids are split into ranges read
+ * in parallel, each through a forward-only, read-only JDBC cursor with a large fetch size, straight into the state,
+ * without going through Hibernate entities. The load runs once all the singletons are created, so the application
+ * context, and with it the processing of any request, only starts once the state is complete.
+ */
+@Component
+@ConditionalOnProperty(name = "tryvault.velocity.warm-up", havingValue = "true")
+public class VelocityStateLoader implements SmartInitializingSingleton {
+
+    private static final Logger LOGGER = LogManager.getLogger(VelocityStateLoader.class);
+
+    private static final String LATEST_WEEK_SEGMENT_QUERY = "SELECT MAX(week_segment) FROM public.load_funds_request";
+
+    private static final String CUSTOMER_RANGE_QUERY = "SELECT MIN(customer_id), MAX(customer_id) "
+            + "FROM public.load_funds_request WHERE week_segment >= ? AND accepted = TRUE";
+
+    private static final String ACCEPTED_REQUESTS_QUERY = "SELECT customer_id, load_amount, time "
+            + "FROM public.load_funds_request WHERE week_segment >= ? AND accepted = TRUE AND customer_id BETWEEN ? AND ?";
+
+    private final DataSource dataSource;
+
+    private final VelocityHeadroomService velocityHeadroomService;
+
+    private final int parallelism;
+
+    private final int fetchSize;
+
+    /**
+     * @param dataSource              The data source of the load_funds_request table.
+     * @param velocityHeadroomService The service whose velocity state is built.
+     * @param parallelism             The number of customer ranges read in parallel, each on its own connection.
+     * @param fetchSize               The number of rows fetched per round trip by each cursor.
+     * @param store                   The store selected by tryvault.persistence.store.
+     */
+    @Autowired
+    public VelocityStateLoader(DataSource dataSource, VelocityHeadroomService velocityHeadroomService,
+                               @Value("${tryvault.velocity.warm-up.parallelism:4}") int parallelism,
+                               @Value("${tryvault.velocity.warm-up.fetch-size:10000}") int fetchSize,
+                               @Value("${tryvault.persistence.store:jpa}") String store) {
+        if ("sharded".equals(store)) {
+            throw new IllegalStateException("tryvault.velocity.warm-up reads the single database of the jpa and jdbc stores");
+        }
+        if (parallelism < 1 || fetchSize < 1) {
+            throw new IllegalArgumentException("The warm-up parallelism and fetch size must be positive");
+        }
+        this.dataSource = dataSource;
+        this.velocityHeadroomService = velocityHeadroomService;
+        this.parallelism = parallelism;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        load();
+    }
+
+    /**
+     * Adds the accepted requests of the active week and of the week before it to the velocity state.
+     *
+     * @return The number of requests read.
+     */
+    public long load() {
+        long startTime = System.nanoTime();
+        Integer latestWeekSegment;
+        int firstWeekSegment;
+        long minCustomerId;
+        long maxCustomerId;
+        try (Connection connection = dataSource.getConnection()) {
+            latestWeekSegment = queryLatestWeekSegment(connection);
+            if (latestWeekSegment == null) {
+                LOGGER.info("No load funds requests to warm the velocity state up with.");
+                return 0;
+            }
+            firstWeekSegment = latestWeekSegment - 1;
+            try (PreparedStatement statement = connection.prepareStatement(CUSTOMER_RANGE_QUERY)) {
+                statement.setInt(1, firstWeekSegment);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    minCustomerId = resultSet.getLong(1);
+                    if (resultSet.wasNull()) {
+                        LOGGER.info("No accepted load funds requests in the active weeks to warm the velocity state up with.");
+                        return 0;
+                    }
+                    maxCustomerId = resultSet.getLong(2);
+                }
+            }
+        } catch (SQLException e) {
+            throw new UncategorizedSQLException("load", CUSTOMER_RANGE_QUERY, e);
+        }
+
+        List<long[]> customerRanges = split(minCustomerId, maxCustomerId, parallelism);
+        ExecutorService executorService = Executors.newFixedThreadPool(customerRanges.size());
+        long numberOfRequests = 0;
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (long[] customerRange : customerRanges) {
+                futures.add(executorService.submit(() -> loadRange(firstWeekSegment, customerRange[0], customerRange[1])));
+            }
+            for (Future<Long> future : futures) {
+                numberOfRequests += future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("The velocity state warm-up failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("The velocity state warm-up was interrupted", e);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        LOGGER.info("Warmed the velocity state up with {} accepted load funds requests of week segments {} to {} in {} ms",
+                numberOfRequests, firstWeekSegment, latestWeekSegment, (System.nanoTime() - startTime) / 1_000_000);
+        return numberOfRequests;
+    }
+
+    private Integer queryLatestWeekSegment(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(LATEST_WEEK_SEGMENT_QUERY);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            int latestWeekSegment = resultSet.getInt(1);
+            return resultSet.wasNull() ? null : latestWeekSegment;
+        }
+    }
+
+    private long loadRange(int weekSegment, long firstCustomerId, long lastCustomerId) {
+        Calendar utcCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        long numberOfRequests = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            // Some drivers only stream a cursor inside a transaction
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(ACCEPTED_REQUESTS_QUERY,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                statement.setInt(1, weekSegment);
+                statement.setLong(2, firstCustomerId);
+                statement.setLong(3, lastCustomerId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        long customerId = resultSet.getLong(1);
+                        BigDecimal loadAmount = resultSet.getBigDecimal(2);
+                        Timestamp time = resultSet.getTimestamp(3, utcCalendar);
+                        velocityHeadroomService.recordAccepted(customerId,
+                                ZonedDateTime.ofInstant(time.toInstant(), ZoneOffset.UTC), loadAmount);
+                        numberOfRequests++;
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new UncategorizedSQLException("loadRange", ACCEPTED_REQUESTS_QUERY, e);
+        }
+        return numberOfRequests;
+    }
+
+    /**
+     * Splits [min, max] into at most the given number of contiguous ranges of about the same width.
+     */
+    private static List<long[]> split(long min, long max, int numberOfRanges) {
+        // The width of [min, max] can exceed Long.MAX_VALUE, so it is computed unsigned
+        long width = Long.divideUnsigned(max - min, numberOfRanges) + 1;
+        List<long[]> ranges = new ArrayList<>();
+        long first = min;
+        while (true) {
+            boolean isLast = Long.compareUnsigned(max - first, width - 1) <= 0;
+            long last = isLast ? max : first + width - 1;
+            ranges.add(new long[]{first, last});
+            if (isLast) {
+                return ranges;
+            }
+            first = last + 1;
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package com.tryvault.tools;
+
+import com.tryvault.constants.LoadFundsRequestLimits;
+import com.tryvault.io.LoadFundsRequestBinaryReader;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.PackedLoadFundsRequests;
+import com.tryvault.model.LoadFundsRequest;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replays a history of load funds requests under alternate velocity limits, to see how the decisions would have changed
+ * before changing {@link LoadFundsRequestLimits}. The history is loaded once into primitive columns sorted by customer,
+ * and every limit set is evaluated in a single fork/join pass over the customers, so trying many limit sets costs
+ * about as much as trying one, without a database.
+ *
+ * <p>
+ * The decisions are the ones of {@link com.tryvault.service.LoadFundsRequestService}, as modelled by
+ * {@link ReferenceVelocityModel}: duplicates have no decision, the day window includes the next midnight, and a request
+ * reusing the id of another customer replaces that customer's request. Which requests are stored, and when they are
+ * replaced, only depends on the ids and customers, not on the limits, so it is worked out while loading and the
+ * customers are then independent of each other.
+ *
+ * <p>
+ * Usage: java com.tryvault.tools.LoadFundsBacktester --input=&lt;file&gt; --limits=&lt;limits&gt;[,&lt;limits&gt;...]
+ * [--limits-file=&lt;file&gt;] [--baseline=3:5000:20000] [--parallelism=&lt;n&gt;], where limits are written
+ * loadsPerDay:amountPerDay:amountPerWeek and a limits file holds one per line.
+ */
+public class LoadFundsBacktester {
+
+    private static final long SECONDS_PER_DAY = 86_400L;
+
+    // Customers decided by one fork/join task, unless a single customer has more requests
+    private static final int REQUESTS_PER_TASK = 8_192;
+
+    private final int numberOfDuplicates;
+
+    // Columns of the stored requests, sorted by customer and then by input order
+    private final long[] customerIds;
+    private final int[] epochDays;
+    private final boolean[] atMidnight;
+    private final long[] amountsCents;
+    private final int[] orders;
+    private final int[] removedAtOrders;
+
+    // The requests of customer index c are at [customerStarts[c], customerStarts[c + 1])
+    private final int[] customerStarts;
+
+    // The distinct days of each customer, sorted, and the day slot of each request among them
+    private final int[] slotDays;
+    private final int[] slotStarts;
+    private final int[] requestSlots;
+
+    /**
+     * A set of velocity limits, with amounts in cents.
+     */
+    public static final class Limits {
+
+        private final long loadsPerDay;
+
+        private final long amountPerDayCents;
+
+        private final long amountPerWeekCents;
+
+        public Limits(long loadsPerDay, long amountPerDayCents, long amountPerWeekCents) {
+            this.loadsPerDay = loadsPerDay;
+            this.amountPerDayCents = amountPerDayCents;
+            this.amountPerWeekCents = amountPerWeekCents;
+        }
+
+        /**
+         * @return The limits of {@link LoadFundsRequestLimits}.
+         */
+        public static Limits current() {
+            return new Limits(LoadFundsRequestLimits.LOADS_PER_DAY, cents(LoadFundsRequestLimits.AMOUNT_PER_DAY),
+                    cents(LoadFundsRequestLimits.AMOUNT_PER_WEEK));
+        }
+
+        /**
+         * @param limits Limits written loadsPerDay:amountPerDay:amountPerWeek, such as 3:5000:20000.
+         * @return The parsed limits.
+         */
+        public static Limits parse(String limits) {
+            String[] fields = limits.trim().split(":");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Limits must be written loadsPerDay:amountPerDay:amountPerWeek: " + limits);
+            }
+            return new Limits(Long.parseLong(fields[0]), cents(new BigDecimal(fields[1])), cents(new BigDecimal(fields[2])));
+        }
+
+        public long getLoadsPerDay() {
+            return loadsPerDay;
+        }
+
+        public long getAmountPerDayCents() {
+            return amountPerDayCents;
+        }
+
+        public long getAmountPerWeekCents() {
+            return amountPerWeekCents;
+        }
+
+        @Override
+        public String toString() {
+            return loadsPerDay + ":" + BigDecimal.valueOf(amountPerDayCents, 2).stripTrailingZeros().toPlainString() + ":"
+                    + BigDecimal.valueOf(amountPerWeekCents, 2).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    /**
+     * The decisions of the history under a limit set, compared with the decisions under the baseline limits.
+     */
+    public static final class Result {
+
+        private final Limits limits;
+
+        private final long accepted;
+
+        private final long rejected;
+
+        private final long acceptedCents;
+
+        private final long newlyAccepted;
+
+        private final long newlyRejected;
+
+        private Result(Limits limits, long[] totals) {
+            this.limits = limits;
+            this.accepted = totals[0];
+            this.rejected = totals[1];
+            this.acceptedCents = totals[2];
+            this.newlyAccepted = totals[3];
+            this.newlyRejected = totals[4];
+        }
+
+        public Limits getLimits() {
+            return limits;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getAcceptedCents() {
+            return acceptedCents;
+        }
+
+        /**
+         * @return The number of requests accepted under these limits and rejected under the baseline.
+         */
+        public long getNewlyAccepted() {
+            return newlyAccepted;
+        }
+
+        /**
+         * @return The number of requests rejected under these limits and accepted under the baseline.
+         */
+        public long getNewlyRejected() {
+            return newlyRejected;
+        }
+    }
+
+    /**
+     * Loads a history in input order.
+     *
+     * @param loadFundsRequests The load funds requests of the history, in the order they were processed.
+     * @throws IllegalArgumentException if an amount has a fraction of a cent.
+     */
+    public LoadFundsBacktester(Iterable<LoadFundsRequest> loadFundsRequests) {
+        this(columns(loadFundsRequests));
+    }
+
+    /**
+     * Loads a packed history in input order, reading the fields of each request in place.
+     *
+     * @param loadFundsRequests The load funds requests of the history, in the order they were processed.
+     * @throws IllegalArgumentException if an amount has a fraction of a cent.
+     */
+    public LoadFundsBacktester(PackedLoadFundsRequests loadFundsRequests) {
+        this(columns(loadFundsRequests));
+    }
+
+    private LoadFundsBacktester(ColumnBuilder builder) {
+        int size = builder.size;
+        numberOfDuplicates = builder.numberOfDuplicates;
+
+        // Stable counting sort by customer, keeping the input order of each customer
+        Map<Long, Integer> customerIndexes = new HashMap<>();
+        int[] requestCustomerIndexes = new int[size];
+        List<Integer> customerSizes = new ArrayList<>();
+        for (int index = 0; index < size; index++) {
+            Integer customerIndex = customerIndexes.putIfAbsent(builder.customerIds[index], customerIndexes.size());
+            if (customerIndex == null) {
+                customerIndex = customerIndexes.size() - 1;
+                customerSizes.add(0);
+            }
+            requestCustomerIndexes[index] = customerIndex;
+            customerSizes.set(customerIndex, customerSizes.get(customerIndex) + 1);
+        }
+        customerStarts = new int[customerSizes.size() + 1];
+        for (int customerIndex = 0; customerIndex < customerSizes.size(); customerIndex++) {
+            customerStarts[customerIndex + 1] = customerStarts[customerIndex] + customerSizes.get(customerIndex);
+        }
+
+        customerIds = new long[size];
+        epochDays = new int[size];
+        atMidnight = new boolean[size];
+        amountsCents = new long[size];
+        orders = new int[size];
+        removedAtOrders = new int[size];
+        int[] next = Arrays.copyOf(customerStarts, customerSizes.size());
+        for (int index = 0; index < size; index++) {
+            int position = next[requestCustomerIndexes[index]]++;
+            customerIds[position] = builder.customerIds[index];
+            epochDays[position] = builder.epochDays[index];
+            atMidnight[position] = builder.atMidnight[index];
+            amountsCents[position] = builder.amountsCents[index];
+            orders[position] = index;
+            removedAtOrders[position] = builder.removedAtOrders[index];
+        }
+
+        // Day slots of each customer
+        requestSlots = new int[size];
+        slotStarts = new int[customerSizes.size() + 1];
+        int[] days = new int[size];
+        int numberOfSlots = 0;
+        for (int customerIndex = 0; customerIndex < customerSizes.size(); customerIndex++) {
+            int start = customerStarts[customerIndex];
+            int end = customerStarts[customerIndex + 1];
+            int[] customerDays = Arrays.copyOfRange(epochDays, start, end);
+            Arrays.sort(customerDays);
+            slotStarts[customerIndex] = numberOfSlots;
+            for (int index = 0; index < customerDays.length; index++) {
+                if (index == 0 || customerDays[index] != customerDays[index - 1]) {
+                    days[numberOfSlots++] = customerDays[index];
+                }
+            }
+            for (int position = start; position < end; position++) {
+                requestSlots[position] = Arrays.binarySearch(days, slotStarts[customerIndex], numberOfSlots, epochDays[position]);
+            }
+        }
+        slotStarts[customerSizes.size()] = numberOfSlots;
+        slotDays = Arrays.copyOf(days, numberOfSlots);
+    }
+
+    /**
+     * Loads a history file, in the JSON lines format or in the binary format of {@link LoadFundsRequestBinaryReader}.
+     *
+     * @param inputPath The path of the history file.
+     * @return The backtester of the history.
+     * @throws IOException if an I/O error occurs or a line is not a valid load funds request.
+     */
+    public static LoadFundsBacktester load(Path inputPath) throws IOException {
+        if (LoadFundsRequestBinaryReader.isBinary(inputPath)) {
+            return new LoadFundsBacktester(LoadFundsRequestBinaryReader.open(inputPath));
+        }
+
+        // Packed as they are read, so the history is never held as request objects
+        return new LoadFundsBacktester(new LoadFundsRequestReader().readPackedFromFile(inputPath.toString()));
+    }
+
+    /**
+     * @return The number of requests with a decision, the ones that are not duplicates.
+     */
+    public int size() {
+        return customerIds.length;
+    }
+
+    /**
+     * @return The number of duplicate requests, which have no decision.
+     */
+    public int getNumberOfDuplicates() {
+        return numberOfDuplicates;
+    }
+
+    /**
+     * Decides the history under the baseline and every candidate limit set in one pass.
+     *
+     * @param baseline   The limits the candidates are compared with, usually {@link Limits#current()}.
+     * @param candidates The candidate limit sets.
+     * @param pool       The pool the customers are decided on.
+     * @return The result of the baseline followed by the results of the candidates.
+     */
+    public List<Result> run(Limits baseline, List<Limits> candidates, ForkJoinPool pool) {
+        Limits[] limitSets = new Limits[candidates.size() + 1];
+        limitSets[0] = baseline;
+        for (int index = 0; index < candidates.size(); index++) {
+            limitSets[index + 1] = candidates.get(index);
+        }
+
+        long[][] totals = pool.invoke(new CustomerRangeTask(limitSets, 0, customerStarts.length - 1));
+
+        List<Result> results = new ArrayList<>();
+        for (int index = 0; index < limitSets.length; index++) {
+            results.add(new Result(limitSets[index], totals[index]));
+        }
+        return results;
+    }
+
+    /**
+     * Decides the customers of a range of customer indexes, splitting the range while it holds many requests.
+     */
+    private final class CustomerRangeTask extends RecursiveTask<long[][]> {
+
+        private final Limits[] limitSets;
+
+        private final int firstCustomer;
+
+        private final int endCustomer;
+
+        private CustomerRangeTask(Limits[] limitSets, int firstCustomer, int endCustomer) {
+            this.limitSets = limitSets;
+            this.firstCustomer = firstCustomer;
+            this.endCustomer = endCustomer;
+        }
+
+        @Override
+        protected long[][] compute() {
+            int numberOfRequests = customerStarts[endCustomer] - customerStarts[firstCustomer];
+            if (numberOfRequests > REQUESTS_PER_TASK && endCustomer - firstCustomer > 1) {
+                int middle = (firstCustomer + endCustomer) >>> 1;
+                CustomerRangeTask first = new CustomerRangeTask(limitSets, firstCustomer, middle);
+                first.fork();
+                long[][] totals = new CustomerRangeTask(limitSets, middle, endCustomer).compute();
+                long[][] firstTotals = first.join();
+                for (int index = 0; index < totals.length; index++) {
+                    for (int field = 0; field < totals[index].length; field++) {
+                        totals[index][field] += firstTotals[index][field];
+                    }
+                }
+                return totals;
+            }
+
+            long[][] totals = new long[limitSets.length][5];
+            CustomerState state = new CustomerState();
+            for (int customerIndex = firstCustomer; customerIndex < endCustomer; customerIndex++) {
+                state.decide(customerIndex, limitSets, totals);
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * The velocity state of one customer at a time, reused by the customers of a task.
+     */
+    private final class CustomerState {
+
+        private long[] slotCounts = new long[16];
+        private long[] slotAmounts = new long[16];
+        private long[] midnightCounts = new long[16];
+        private long[] midnightAmounts = new long[16];
+        private boolean[] accepted = new boolean[16];
+        private boolean[] baselineAccepted = new boolean[16];
+        private long[] removals = new long[16];
+
+        private void decide(int customerIndex, Limits[] limitSets, long[][] totals) {
+            int start = customerStarts[customerIndex];
+            int end = customerStarts[customerIndex + 1];
+            int firstSlot = slotStarts[customerIndex];
+            int endSlot = slotStarts[customerIndex + 1];
+            ensureCapacity(end - start, endSlot - firstSlot);
+
+            // The requests replaced by another customer's, by the order they are replaced at
+            int numberOfRemovals = 0;
+            for (int position = start; position < end; position++) {
+                if (removedAtOrders[position] != Integer.MAX_VALUE) {
+                    removals[numberOfRemovals++] = ((long) removedAtOrders[position] << 32) | (position - start);
+                }
+            }
+            Arrays.sort(removals, 0, numberOfRemovals);
+
+            for (int limitSet = 0; limitSet < limitSets.length; limitSet++) {
+                Limits limits = limitSets[limitSet];
+                long[] limitTotals = totals[limitSet];
+                Arrays.fill(slotCounts, 0, endSlot - firstSlot, 0);
+                Arrays.fill(slotAmounts, 0, endSlot - firstSlot, 0);
+                Arrays.fill(midnightCounts, 0, endSlot - firstSlot, 0);
+                Arrays.fill(midnightAmounts, 0, endSlot - firstSlot, 0);
+                int nextRemoval = 0;
+
+                for (int position = start; position < end; position++) {
+                    // Take out the requests replaced before this one
+                    while (nextRemoval < numberOfRemovals && (int) (removals[nextRemoval] >>> 32) < orders[position]) {
+                        int removed = start + (int) removals[nextRemoval++];
+                        if (accepted[removed - start]) {
+                            add(removed, firstSlot, -1);
+                        }
+                    }
+
+                    int slot = requestSlots[position] - firstSlot;
+                    int day = epochDays[position];
+                    long amount = amountsCents[position];
+
+                    // Requests at the next midnight are in the day window too
+                    long nextMidnightCount = 0;
+                    long nextMidnightAmount = 0;
+                    if (slot + 1 < endSlot - firstSlot && slotDays[firstSlot + slot + 1] == day + 1) {
+                        nextMidnightCount = midnightCounts[slot + 1];
+                        nextMidnightAmount = midnightAmounts[slot + 1];
+                    }
+
+                    boolean isAccepted = slotCounts[slot] + nextMidnightCount < limits.loadsPerDay
+                            && slotAmounts[slot] + nextMidnightAmount + amount < limits.amountPerDayCents;
+                    if (isAccepted) {
+                        // The epoch day 0 is a Thursday
+                        int startOfWeek = day - Math.floorMod(day + 3, 7);
+                        long weeklyAmount = nextMidnightAmount;
+                        for (int weekSlot = slot; weekSlot >= 0 && slotDays[firstSlot + weekSlot] >= startOfWeek; weekSlot--) {
+                            weeklyAmount += slotAmounts[weekSlot];
+                        }
+                        isAccepted = weeklyAmount + amount < limits.amountPerWeekCents;
+                    }
+
+                    accepted[position - start] = isAccepted;
+                    if (isAccepted) {
+                        add(position, firstSlot, 1);
+                        limitTotals[0]++;
+                        limitTotals[2] += amount;
+                    } else {
+                        limitTotals[1]++;
+                    }
+
+                    if (limitSet == 0) {
+                        baselineAccepted[position - start] = isAccepted;
+                    } else if (isAccepted != baselineAccepted[position - start]) {
+                        limitTotals[isAccepted ? 3 : 4]++;
+                    }
+                }
+            }
+        }
+
+        private void add(int position, int firstSlot, int sign) {
+            int slot = requestSlots[position] - firstSlot;
+            slotCounts[slot] += sign;
+            slotAmounts[slot] += sign * amountsCents[position];
+            if (atMidnight[position]) {
+                midnightCounts[slot] += sign;
+                midnightAmounts[slot] += sign * amountsCents[position];
+            }
+        }
+
+        private void ensureCapacity(int numberOfRequests, int numberOfSlots) {
+            if (numberOfSlots > slotCounts.length) {
+                int capacity = Math.max(numberOfSlots, slotCounts.length * 2);
+                slotCounts = new long[capacity];
+                slotAmounts = new long[capacity];
+                midnightCounts = new long[capacity];
+                midnightAmounts = new long[capacity];
+            }
+            if (numberOfRequests > accepted.length) {
+                int capacity = Math.max(numberOfRequests, accepted.length * 2);
+                accepted = new boolean[capacity];
+                baselineAccepted = new boolean[capacity];
+                removals = new long[capacity];
+            }
+        }
+    }
+
+    /**
+     * Collects the stored requests in input order, leaving out the duplicates and recording when a request is replaced
+     * by the request of another customer with the same id.
+     */
+    private static ColumnBuilder columns(Iterable<LoadFundsRequest> loadFundsRequests) {
+        ColumnBuilder builder = new ColumnBuilder();
+        for (LoadFundsRequest loadFundsRequest : loadFundsRequests) {
+            builder.add(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), loadFundsRequest.getTime().toEpochSecond(),
+                    loadFundsRequest.getTime().getNano(), cents(loadFundsRequest.getLoadAmount()));
+        }
+        return builder;
+    }
+
+    private static ColumnBuilder columns(PackedLoadFundsRequests loadFundsRequests) {
+        ColumnBuilder builder = new ColumnBuilder();
+        for (int index = 0; index < loadFundsRequests.size(); index++) {
+            long amountCents;
+            try {
+                amountCents = loadFundsRequests.getAmountCents(index);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("The backtester needs amounts in whole cents: "
+                        + loadFundsRequests.get(index).getLoadAmount(), e);
+            }
+            builder.add(loadFundsRequests.getId(index), loadFundsRequests.getCustomerId(index),
+                    loadFundsRequests.getEpochSecond(index), loadFundsRequests.getNano(index), amountCents);
+        }
+        return builder;
+    }
+
+    private static final class ColumnBuilder {
+
+        private final Map<Long, Integer> orderById = new HashMap<>();
+
+        private long[] customerIds = new long[1024];
+        private int[] epochDays = new int[1024];
+        private boolean[] atMidnight = new boolean[1024];
+        private long[] amountsCents = new long[1024];
+        private int[] removedAtOrders = new int[1024];
+
+        private int size;
+
+        private int numberOfDuplicates;
+
+        private void add(long id, long customerId, long epochSecond, int nano, long amountCents) {
+            Integer previousOrder = orderById.get(id);
+            if (previousOrder != null && customerIds[previousOrder] == customerId) {
+                numberOfDuplicates++;
+                return;
+            }
+            if (previousOrder != null) {
+                removedAtOrders[previousOrder] = size;
+            }
+            orderById.put(id, size);
+
+            if (size == customerIds.length) {
+                int capacity = size * 2;
+                customerIds = Arrays.copyOf(customerIds, capacity);
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                atMidnight = Arrays.copyOf(atMidnight, capacity);
+                amountsCents = Arrays.copyOf(amountsCents, capacity);
+                removedAtOrders = Arrays.copyOf(removedAtOrders, capacity);
+            }
+
+            customerIds[size] = customerId;
+            epochDays[size] = Math.toIntExact(Math.floorDiv(epochSecond, SECONDS_PER_DAY));
+            // Only the exact midnight belongs to the day window of the previous day
+            atMidnight[size] = Math.floorMod(epochSecond, SECONDS_PER_DAY) == 0 && nano == 0;
+            amountsCents[size] = amountCents;
+            removedAtOrders[size] = Integer.MAX_VALUE;
+            size++;
+        }
+    }
+
+    private static long cents(BigDecimal amount) {
+        try {
+            return amount.movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The backtester needs amounts in whole cents: " + amount, e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        if (!options.containsProperty("input") || !(options.containsProperty("limits") || options.containsProperty("limits-file"))) {
+            System.err.println("Usage: java com.tryvault.tools.LoadFundsBacktester --input=<file> "
+                    + "--limits=<loadsPerDay:amountPerDay:amountPerWeek>[,...] [--limits-file=<file>] "
+                    + "[--baseline=3:5000:20000] [--parallelism=<n>]");
+            System.exit(1);
+        }
+
+        List<Limits> candidates = new ArrayList<>();
+        if (options.containsProperty("limits")) {
+            for (String limits : options.getProperty("limits").split(",")) {
+                candidates.add(Limits.parse(limits));
+            }
+        }
+        if (options.containsProperty("limits-file")) {
+            for (String line : Files.readAllLines(Paths.get(options.getProperty("limits-file")), StandardCharsets.UTF_8)) {
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    candidates.add(Limits.parse(line));
+                }
+            }
+        }
+        Limits baseline = options.containsProperty("baseline") ? Limits.parse(options.getProperty("baseline")) : Limits.current();
+        ForkJoinPool pool = options.containsProperty("parallelism")
+                ? new ForkJoinPool(Integer.parseInt(options.getProperty("parallelism"))) : ForkJoinPool.commonPool();
+
+        long startTime = System.nanoTime();
+        LoadFundsBacktester backtester = load(Paths.get(options.getProperty("input")));
+        long loadedTime = System.nanoTime();
+        List<Result> results = backtester.run(baseline, candidates, pool);
+        long endTime = System.nanoTime();
+
+        System.out.printf("%d requests, %d duplicates, loaded in %d ms, %d limit sets decided in %d ms%n",
+                backtester.size(), backtester.getNumberOfDuplicates(), (loadedTime - startTime) / 1_000_000,
+                results.size(), (endTime - loadedTime) / 1_000_000);
+        System.out.printf("%-24s %10s %10s %8s %10s %10s %10s%n", "limits", "accepted", "rejected", "rate", "delta",
+                "+accepted", "+rejected");
+        Result baselineResult = results.get(0);
+        for (Result result : results) {
+            long decided = result.getAccepted() + result.getRejected();
+            System.out.printf("%-24s %10d %10d %7.2f%% %+10d %10d %10d%s%n", result.getLimits(), result.getAccepted(),
+                    result.getRejected(), decided == 0 ? 0.0 : 100.0 * result.getAccepted() / decided,
+                    result.getAccepted() - baselineResult.getAccepted(), result.getNewlyAccepted(),
+                    result.getNewlyRejected(), result == baselineResult ? "  (baseline)" : "");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.tryvault.tools;
+
+import com.tryvault.io.LoadFundsResponseChannelWriter;
+import com.tryvault.util.ZipfDistribution;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Generates synthetic load funds request files in the JSON lines format read by
+ * {@link com.tryvault.io.LoadFundsRequestReader}, so benchmarks and capacity tests can run at any scale.
+ * The same settings and seed always produce the same file. Optionally, the expected output of the file is computed
+ * with the {@link ReferenceVelocityModel} and written next to it.
+ *
+ * <p>
+ * Usage: java com.tryvault.tools.LoadFundsInputGenerator --output=&lt;file&gt; [--reference-output=&lt;file&gt;]
+ * [--requests=100000] [--customers=1000] [--skew=1.0] [--amount-distribution=uniform|lognormal]
+ * [--min-amount=1.00] [--max-amount=6000.00] [--duplicate-rate=0.001] [--start=2000-01-01T00:00:00Z] [--days=30]
+ * [--out-of-order=0.0] [--max-lag-seconds=86400] [--seed=42]
+ */
+public class LoadFundsInputGenerator {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private long requests = 100_000;
+    private int customers = 1_000;
+    private double skew = 1.0;
+    private boolean logNormalAmounts = false;
+    private long minAmountCents = 100;
+    private long maxAmountCents = 600_000;
+    private double duplicateRate = 0.001;
+    private Instant start = Instant.parse("2000-01-01T00:00:00Z");
+    private int days = 30;
+    private double outOfOrderFraction = 0.0;
+    private long maxLagSeconds = 86_400;
+    private long seed = 42;
+
+    public LoadFundsInputGenerator requests(long requests) {
+        this.requests = requests;
+        return this;
+    }
+
+    /**
+     * @param customers The number of distinct customers, with ids from 1 to customers.
+     */
+    public LoadFundsInputGenerator customers(int customers) {
+        this.customers = customers;
+        return this;
+    }
+
+    /**
+     * @param skew The Zipf exponent of the customer distribution; 0 spreads the requests evenly over the customers.
+     */
+    public LoadFundsInputGenerator skew(double skew) {
+        this.skew = skew;
+        return this;
+    }
+
+    /**
+     * @param logNormal Whether amounts follow a log-normal distribution between the bounds instead of a uniform one.
+     */
+    public LoadFundsInputGenerator logNormalAmounts(boolean logNormal) {
+        this.logNormalAmounts = logNormal;
+        return this;
+    }
+
+    public LoadFundsInputGenerator amountRangeCents(long minAmountCents, long maxAmountCents) {
+        this.minAmountCents = minAmountCents;
+        this.maxAmountCents = maxAmountCents;
+        return this;
+    }
+
+    /**
+     * @param duplicateRate The fraction of requests that repeat the (id, customer_id) of an earlier request.
+     */
+    public LoadFundsInputGenerator duplicateRate(double duplicateRate) {
+        this.duplicateRate = duplicateRate;
+        return this;
+    }
+
+    /**
+     * @param start The time of the first request.
+     * @param days  The number of days the requests are spread over.
+     */
+    public LoadFundsInputGenerator timeSpan(Instant start, int days) {
+        this.start = start;
+        this.days = days;
+        return this;
+    }
+
+    /**
+     * @param outOfOrderFraction The fraction of requests that arrive late, with a time up to maxLagSeconds earlier.
+     * @param maxLagSeconds      The maximum lateness of an out of order request.
+     */
+    public LoadFundsInputGenerator outOfOrder(double outOfOrderFraction, long maxLagSeconds) {
+        this.outOfOrderFraction = outOfOrderFraction;
+        this.maxLagSeconds = maxLagSeconds;
+        return this;
+    }
+
+    public LoadFundsInputGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes the generated requests and, if a reference output path is given, the expected responses.
+     *
+     * @param outputPath          The path of the generated input file.
+     * @param referenceOutputPath The path of the expected output file, or null to skip it.
+     * @throws IOException if an I/O error occurs while writing the files.
+     */
+    public void generate(Path outputPath, Path referenceOutputPath) throws IOException {
+        Random random = new Random(seed);
+        ZipfDistribution customerDistribution = new ZipfDistribution(customers, skew);
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel();
+        long spanSeconds = Math.max(1, days * 86_400L);
+        // Ids are drawn at random from a range ten times the volume, so some are reused across customers
+        long idRange = Math.max(10, requests * 10);
+
+        long[] recentIds = new long[4096];
+        long[] recentCustomerIds = new long[4096];
+        int recent = 0;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8);
+             LoadFundsResponseChannelWriter referenceWriter = referenceOutputPath == null ? null
+                     : new LoadFundsResponseChannelWriter(referenceOutputPath)) {
+            StringBuilder line = new StringBuilder(128);
+
+            for (long index = 0; index < requests; index++) {
+                long id;
+                long customerId;
+                if (recent > 0 && random.nextDouble() < duplicateRate) {
+                    int previous = random.nextInt(Math.min(recent, recentIds.length));
+                    id = recentIds[previous];
+                    customerId = recentCustomerIds[previous];
+                } else {
+                    id = 1 + (long) (random.nextDouble() * idRange);
+                    customerId = customerDistribution.sample(random);
+                    recentIds[recent % recentIds.length] = id;
+                    recentCustomerIds[recent % recentIds.length] = customerId;
+                    recent++;
+                }
+
+                long epochSecond = start.getEpochSecond() + index * spanSeconds / requests;
+                if (outOfOrderFraction > 0 && random.nextDouble() < outOfOrderFraction) {
+                    epochSecond -= (long) (random.nextDouble() * maxLagSeconds);
+                }
+                long amountCents = nextAmountCents(random);
+
+                line.setLength(0);
+                line.append("{\"id\":\"").append(id)
+                        .append("\",\"customer_id\":\"").append(customerId)
+                        .append("\",\"load_amount\":\"$").append(amountCents / 100).append('.')
+                        .append((char) ('0' + amountCents % 100 / 10)).append((char) ('0' + amountCents % 10))
+                        .append("\",\"time\":\"").append(TIME_FORMATTER.format(Instant.ofEpochSecond(epochSecond)))
+                        .append("\"}");
+                if (index > 0) {
+                    writer.newLine();
+                }
+                writer.append(line);
+
+                if (referenceWriter != null) {
+                    Boolean accepted = referenceModel.decide(id, customerId, amountCents, epochSecond);
+                    if (accepted != null) {
+                        referenceWriter.write(id, customerId, accepted);
+                    }
+                }
+            }
+        }
+    }
+
+    private long nextAmountCents(Random random) {
+        long range = maxAmountCents - minAmountCents;
+        if (!logNormalAmounts) {
+            return minAmountCents + (long) (random.nextDouble() * (range + 1));
+        }
+
+        // Log-normal centred on the geometric mean of the bounds, clipped to the bounds
+        double logMin = Math.log(Math.max(1, minAmountCents));
+        double logMax = Math.log(Math.max(1, maxAmountCents));
+        double logAmount = (logMin + logMax) / 2 + random.nextGaussian() * (logMax - logMin) / 6;
+        return Math.max(minAmountCents, Math.min(maxAmountCents, Math.round(Math.exp(logAmount))));
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        if (!options.containsProperty("output")) {
+            System.err.println("Usage: java com.tryvault.tools.LoadFundsInputGenerator --output=<file> "
+                    + "[--reference-output=<file>] [--requests=100000] [--customers=1000] [--skew=1.0] "
+                    + "[--amount-distribution=uniform|lognormal] [--min-amount=1.00] [--max-amount=6000.00] "
+                    + "[--duplicate-rate=0.001] [--start=2000-01-01T00:00:00Z] [--days=30] [--out-of-order=0.0] "
+                    + "[--max-lag-seconds=86400] [--seed=42]");
+            System.exit(1);
+        }
+
+        LoadFundsInputGenerator generator = new LoadFundsInputGenerator()
+                .requests(Long.parseLong(option(options, "requests", "100000")))
+                .customers(Integer.parseInt(option(options, "customers", "1000")))
+                .skew(Double.parseDouble(option(options, "skew", "1.0")))
+                .logNormalAmounts("lognormal".equalsIgnoreCase(option(options, "amount-distribution", "uniform")))
+                .amountRangeCents(cents(option(options, "min-amount", "1.00")), cents(option(options, "max-amount", "6000.00")))
+                .duplicateRate(Double.parseDouble(option(options, "duplicate-rate", "0.001")))
+                .timeSpan(Instant.parse(option(options, "start", "2000-01-01T00:00:00Z")),
+                        Integer.parseInt(option(options, "days", "30")))
+                .outOfOrder(Double.parseDouble(option(options, "out-of-order", "0.0")),
+                        Long.parseLong(option(options, "max-lag-seconds", "86400")))
+                .seed(Long.parseLong(option(options, "seed", "42")));
+
+        String referenceOutput = options.getProperty("reference-output");
+        generator.generate(Paths.get(options.getProperty("output")), referenceOutput == null ? null : Paths.get(referenceOutput));
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        String value = options.getProperty(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static long cents(String amount) {
+        return new BigDecimal(amount).movePointRight(2).longValueExact();
+    }
+}
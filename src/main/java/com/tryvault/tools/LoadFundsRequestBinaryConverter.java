@@ -0,0 +1,78 @@
+package com.tryvault.tools;
+
+import com.tryvault.io.LoadFundsRequestBinaryWriter;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.model.LoadFundsRequest;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts a load funds request file from the JSON lines format to the fixed-width binary format of
+ * {@link com.tryvault.io.LoadFundsRequestBinaryReader}, so the same file can be replayed many times without parsing it
+ * again. The conversion is lossless: amounts with fractions of cents and times with fractions of seconds are rejected.
+ *
+ * <p>
+ * Usage: java com.tryvault.tools.LoadFundsRequestBinaryConverter --input=&lt;file&gt; --output=&lt;file&gt;
+ */
+public class LoadFundsRequestBinaryConverter {
+
+    private final LoadFundsRequestReader loadFundsRequestReader;
+
+    public LoadFundsRequestBinaryConverter(LoadFundsRequestReader loadFundsRequestReader) {
+        this.loadFundsRequestReader = loadFundsRequestReader;
+    }
+
+    /**
+     * Converts a JSON lines file to a binary file.
+     *
+     * @param inputPath  The path of the JSON lines file.
+     * @param outputPath The path of the binary file.
+     * @return The number of converted load funds requests.
+     * @throws IOException if an I/O error occurs or a line is not a valid load funds request.
+     * @throws IllegalArgumentException if a request cannot be represented exactly in the binary format.
+     */
+    public long convert(Path inputPath, Path outputPath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(inputPath, StandardCharsets.UTF_8);
+             LoadFundsRequestBinaryWriter writer = new LoadFundsRequestBinaryWriter(outputPath)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                LoadFundsRequest loadFundsRequest = loadFundsRequestReader.readLine(line);
+                if (loadFundsRequest.getTime().getNano() != 0) {
+                    throw new IllegalArgumentException("Time with fractions of seconds cannot be converted: " + line);
+                }
+
+                long amountCents;
+                try {
+                    amountCents = loadFundsRequest.getLoadAmount().movePointRight(2).longValueExact();
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("Amount with fractions of cents cannot be converted: " + line, e);
+                }
+
+                writer.write(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), amountCents,
+                        loadFundsRequest.getTime().toEpochSecond());
+            }
+            return writer.getCount();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        if (!options.containsProperty("input") || !options.containsProperty("output")) {
+            System.err.println("Usage: java com.tryvault.tools.LoadFundsRequestBinaryConverter --input=<file> --output=<file>");
+            System.exit(1);
+        }
+
+        long count = new LoadFundsRequestBinaryConverter(new LoadFundsRequestReader())
+                .convert(Paths.get(options.getProperty("input")), Paths.get(options.getProperty("output")));
+        System.out.println("Converted " + count + " load funds requests");
+    }
+}
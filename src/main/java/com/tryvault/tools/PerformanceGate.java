@@ -0,0 +1,374 @@
+package com.tryvault.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tryvault.app.LightweightMain;
+import com.tryvault.app.LoadFundsBatchRunner;
+import com.tryvault.diagnostics.AllocationProfiler;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PerformanceGate checks that a build keeps both the output and the speed of the application, for the perf-gate Maven
+ * profile. It fails when any of these checks fails:
+ * <ul>
+ * <li>the packaged application, run end to end on input.txt, writes exactly output_expected.txt;</li>
+ * <li>the batch pipeline, run on a generated dataset over the in-memory store of the lightweight bootstrap, writes the
+ * reference output of the dataset;</li>
+ * <li>its throughput, the median of several runs after warm-up runs, is not lower than the throughput baseline of the
+ * machine by more than the tolerance;</li>
+ * <li>its allocated bytes per request, from the {@link AllocationProfiler}, are not higher than the allocation baseline
+ * by more than the tolerance.</li>
+ * </ul>
+ * The results are written as a JSON report. The allocations per request hardly depend on the machine, so their baseline
+ * is a budget kept in version control and recorded with --update-baseline. The throughput does, so its baseline is kept
+ * out of version control, in a file of the machine given explicitly and outside the build directory, which a clean build
+ * would delete. --update-baseline records it too. A missing baseline, or one recorded with another number of requests,
+ * fails the gate like a missing allocation baseline, rather than being recorded again by the run it should check.
+ *
+ * <p>
+ * Usage: java com.tryvault.tools.PerformanceGate --jar=&lt;application jar&gt;
+ * --throughput-baseline=&lt;throughput baseline of the machine&gt; [--build-directory=target] [--input=input.txt]
+ * [--expected=output_expected.txt] [--requests=200000] [--customers=2000] [--warmups=2] [--runs=5]
+ * [--baseline=perf-baseline.json] [--tolerance=0.15] [--report=target/perf-gate/report.json] [--update-baseline[=true]]
+ */
+public class PerformanceGate {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final long END_TO_END_TIMEOUT_MINUTES = 10;
+
+    /**
+     * The performance of the batch pipeline on the generated dataset.
+     */
+    public static final class Measurement {
+
+        private final long numberOfRequests;
+
+        private final double throughput;
+
+        private final long allocatedBytesPerRequest;
+
+        private final AllocationProfiler allocationProfiler;
+
+        public Measurement(long numberOfRequests, double throughput, long allocatedBytesPerRequest,
+                           AllocationProfiler allocationProfiler) {
+            this.numberOfRequests = numberOfRequests;
+            this.throughput = throughput;
+            this.allocatedBytesPerRequest = allocatedBytesPerRequest;
+            this.allocationProfiler = allocationProfiler;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+
+        public long getAllocatedBytesPerRequest() {
+            return allocatedBytesPerRequest;
+        }
+    }
+
+    /**
+     * The outcome of one check of the gate.
+     */
+    public static final class Check {
+
+        private final String name;
+
+        private final boolean passed;
+
+        private final String detail;
+
+        public Check(String name, boolean passed, String detail) {
+            this.name = name;
+            this.passed = passed;
+            this.detail = detail;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isPassed() {
+            return passed;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+    }
+
+    /**
+     * Compares the throughput of a measurement with the throughput baseline of the machine.
+     *
+     * @param throughputBaseline The baseline recorded on this machine, with throughput_requests_per_second.
+     * @param measurement        The measurement of this build.
+     * @param tolerance          The fraction by which the throughput may fall, such as 0.15.
+     * @return The throughput check.
+     */
+    public static Check compareThroughput(JsonNode throughputBaseline, Measurement measurement, double tolerance) {
+        double baselineThroughput = throughputBaseline.path("throughput_requests_per_second").asDouble();
+        double minThroughput = baselineThroughput * (1 - tolerance);
+        return new Check("throughput", measurement.getThroughput() >= minThroughput, String.format(
+                "%.0f requests/s, baseline %.0f, minimum %.0f", measurement.getThroughput(), baselineThroughput, minThroughput));
+    }
+
+    /**
+     * Checks a measurement against the throughput baseline of the machine, which must have been recorded with the same
+     * number of requests.
+     *
+     * @param throughputBaselinePath The file of the baseline recorded on this machine.
+     * @param numberOfRequests       The number of generated requests of this run.
+     * @param measurement            The measurement of this build.
+     * @param tolerance              The fraction by which the throughput may fall, such as 0.15.
+     * @return The throughput check, failed if there is no baseline to compare with.
+     * @throws IOException if the baseline cannot be read.
+     */
+    public static Check checkThroughput(Path throughputBaselinePath, long numberOfRequests, Measurement measurement,
+                                        double tolerance) throws IOException {
+        if (!Files.exists(throughputBaselinePath)) {
+            return new Check("throughput baseline", false, "No throughput baseline at " + throughputBaselinePath
+                    + ", record one on this machine with --update-baseline");
+        }
+        JsonNode throughputBaseline = OBJECT_MAPPER.readTree(throughputBaselinePath.toFile());
+        if (throughputBaseline.path("requests").asLong() != numberOfRequests) {
+            return new Check("throughput baseline", false, "The throughput baseline was recorded with "
+                    + throughputBaseline.path("requests").asLong() + " requests, not " + numberOfRequests);
+        }
+        return compareThroughput(throughputBaseline, measurement, tolerance);
+    }
+
+    /**
+     * Compares the allocations of a measurement with the allocation baseline.
+     *
+     * @param baseline    The allocation baseline, with allocated_bytes_per_request.
+     * @param measurement The measurement of this build.
+     * @param tolerance   The fraction by which the allocations may rise, such as 0.15.
+     * @return The allocation check.
+     */
+    public static Check compareAllocations(JsonNode baseline, Measurement measurement, double tolerance) {
+        long baselineBytes = baseline.path("allocated_bytes_per_request").asLong();
+        double maxBytes = baselineBytes * (1 + tolerance);
+        return new Check("allocation", measurement.getAllocatedBytesPerRequest() <= maxBytes, String.format(
+                "%d bytes/request, baseline %d, maximum %.0f", measurement.getAllocatedBytesPerRequest(), baselineBytes, maxBytes));
+    }
+
+    /**
+     * Runs the packaged application on an input in its own JVM, as a user would, and compares its output.
+     *
+     * @param jarPath      The application jar.
+     * @param inputPath    The input file.
+     * @param expectedPath The expected output.
+     * @param workDir      The directory of the output and of the log of the run.
+     * @return The check of the output.
+     * @throws IOException if the application cannot be started or its output cannot be read.
+     */
+    public static Check runEndToEnd(Path jarPath, Path inputPath, Path expectedPath, Path workDir)
+            throws IOException, InterruptedException {
+        Path outputPath = workDir.resolve("end-to-end-output.txt");
+        Path logPath = workDir.resolve("end-to-end.log");
+        Files.deleteIfExists(outputPath);
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-jar", jarPath.toString(), inputPath.toString(), outputPath.toString(), "--spring.jpa.show-sql=false")
+                .redirectErrorStream(true).redirectOutput(logPath.toFile()).start();
+        if (!process.waitFor(END_TO_END_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            return new Check("end-to-end output", false, "Timed out, see " + logPath);
+        }
+        if (process.exitValue() != 0) {
+            return new Check("end-to-end output", false, "Exit code " + process.exitValue() + ", see " + logPath);
+        }
+        return compareOutputs("end-to-end output", outputPath, expectedPath);
+    }
+
+    /**
+     * Runs the batch pipeline on a dataset, warm-up runs first, then measured runs, each over a new in-memory store.
+     *
+     * @param inputPath    The dataset.
+     * @param expectedPath The reference output of the dataset, compared with the output of the warm-up runs.
+     * @param workDir      The directory of the outputs.
+     * @param warmups      The number of runs before the measured ones.
+     * @param runs         The number of measured runs, the throughput is their median.
+     * @param checks       Receives the check of the output.
+     * @return The measurement.
+     * @throws IOException if the dataset cannot be read or the output written.
+     */
+    public static Measurement measure(Path inputPath, Path expectedPath, Path workDir, int warmups, int runs,
+                                      List<Check> checks) throws IOException {
+        Path outputPath = workDir.resolve("generated-output.txt");
+        for (int run = 0; run < warmups; run++) {
+            newRunner(null).run(inputPath.toString(), outputPath.toString(), 1);
+        }
+        checks.add(compareOutputs("generated dataset output", outputPath, expectedPath));
+
+        double[] throughputs = new double[runs];
+        long numberOfRequests = 0;
+        AllocationProfiler allocationProfiler = null;
+        for (int run = 0; run < runs; run++) {
+            // Every measured run pays for the profiler, so the runs stay comparable
+            allocationProfiler = new AllocationProfiler();
+            LoadFundsBatchRunner loadFundsBatchRunner = newRunner(allocationProfiler);
+            long start = System.nanoTime();
+            numberOfRequests = loadFundsBatchRunner.run(inputPath.toString(), outputPath.toString(), 1);
+            throughputs[run] = numberOfRequests * 1e9 / (System.nanoTime() - start);
+        }
+        Arrays.sort(throughputs);
+
+        long allocatedBytes = 0;
+        for (AllocationProfiler.Stage stage : AllocationProfiler.Stage.values()) {
+            allocatedBytes += allocationProfiler.getAllocatedBytes(stage);
+        }
+        return new Measurement(numberOfRequests, throughputs[runs / 2],
+                numberOfRequests == 0 ? 0 : allocatedBytes / numberOfRequests, allocationProfiler);
+    }
+
+    private static LoadFundsBatchRunner newRunner(AllocationProfiler allocationProfiler) {
+        LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(new InMemoryLoadFundsRequestStore());
+        LoadFundsBatchRunner loadFundsBatchRunner = new LoadFundsBatchRunner(loadFundsRequestService,
+                new LoadFundsRequestReader(), new LoadFundsResponseWriter());
+        loadFundsRequestService.setAllocationProfiler(allocationProfiler);
+        loadFundsBatchRunner.setAllocationProfiler(allocationProfiler);
+        return loadFundsBatchRunner;
+    }
+
+    private static Check compareOutputs(String name, Path outputPath, Path expectedPath) throws IOException {
+        long mismatch = Files.mismatch(outputPath, expectedPath);
+        return new Check(name, mismatch < 0, mismatch < 0 ? "Identical to " + expectedPath
+                : "Differs from " + expectedPath + " at byte " + mismatch + ", see " + outputPath);
+    }
+
+    private static ObjectNode toThroughputJson(Measurement measurement) {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("requests", measurement.numberOfRequests);
+        node.put("throughput_requests_per_second", Math.round(measurement.throughput));
+        node.put("java_version", System.getProperty("java.version"));
+        node.put("available_processors", Runtime.getRuntime().availableProcessors());
+        return node;
+    }
+
+    private static ObjectNode toAllocationJson(Measurement measurement) {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("requests", measurement.numberOfRequests);
+        node.put("allocated_bytes_per_request", measurement.allocatedBytesPerRequest);
+        ObjectNode stages = node.putObject("stage_bytes_per_request");
+        for (AllocationProfiler.Stage stage : AllocationProfiler.Stage.values()) {
+            stages.put(stage.name().toLowerCase(), measurement.allocationProfiler.getBytesPerRequest(stage));
+        }
+        return node;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        if (!options.containsProperty("jar") || option(options, "throughput-baseline", "").isEmpty()) {
+            System.err.println("Usage: java com.tryvault.tools.PerformanceGate --jar=<application jar> "
+                    + "--throughput-baseline=<throughput baseline of the machine> [--build-directory=target] "
+                    + "[--input=input.txt] [--expected=output_expected.txt] [--requests=200000] [--customers=2000] "
+                    + "[--warmups=2] [--runs=5] [--baseline=perf-baseline.json] [--tolerance=0.15] "
+                    + "[--report=target/perf-gate/report.json] [--update-baseline]");
+            System.exit(2);
+        }
+        Path inputPath = Paths.get(option(options, "input", "input.txt"));
+        Path expectedPath = Paths.get(option(options, "expected", "output_expected.txt"));
+        long numberOfRequests = Long.parseLong(option(options, "requests", "200000"));
+        int numberOfCustomers = Integer.parseInt(option(options, "customers", "2000"));
+        int warmups = Integer.parseInt(option(options, "warmups", "2"));
+        int runs = Integer.parseInt(option(options, "runs", "5"));
+        Path baselinePath = Paths.get(option(options, "baseline", "perf-baseline.json"));
+        Path throughputBaselinePath = Paths.get(options.getProperty("throughput-baseline")).toAbsolutePath().normalize();
+        Path buildDirectory = Paths.get(option(options, "build-directory", "target")).toAbsolutePath().normalize();
+        double tolerance = Double.parseDouble(option(options, "tolerance", "0.15"));
+        Path reportPath = Paths.get(option(options, "report", "target/perf-gate/report.json"));
+        boolean updateBaseline = options.containsProperty("update-baseline")
+                && !"false".equals(options.getProperty("update-baseline"));
+        if (runs < 1 || warmups < 1 || tolerance < 0) {
+            throw new IllegalArgumentException("The gate needs at least one warm-up run, one measured run and a tolerance >= 0");
+        }
+        if (throughputBaselinePath.startsWith(buildDirectory)) {
+            throw new IllegalArgumentException("The throughput baseline " + throughputBaselinePath
+                    + " would be deleted by the next clean build, keep it outside " + buildDirectory);
+        }
+
+        // Measure the pipeline as the lightweight bootstrap runs it, without logging each request
+        LightweightMain.configureLogging("WARN");
+        Path workDir = Files.createDirectories(reportPath.toAbsolutePath().getParent());
+        List<Check> checks = new ArrayList<>();
+
+        System.out.println("Running " + options.getProperty("jar") + " on " + inputPath);
+        checks.add(runEndToEnd(Paths.get(options.getProperty("jar")), inputPath, expectedPath, workDir));
+
+        Path datasetPath = workDir.resolve("generated-input.txt");
+        Path datasetExpectedPath = workDir.resolve("generated-output-expected.txt");
+        new LoadFundsInputGenerator().requests(numberOfRequests).customers(numberOfCustomers)
+                .generate(datasetPath, datasetExpectedPath);
+        System.out.println("Measuring " + numberOfRequests + " generated requests, " + warmups + " warm-up and " + runs
+                + " measured runs");
+        Measurement measurement = measure(datasetPath, datasetExpectedPath, workDir, warmups, runs, checks);
+
+        ObjectNode report = OBJECT_MAPPER.createObjectNode();
+        ObjectNode measurementNode = report.putObject("measurement");
+        measurementNode.setAll(toAllocationJson(measurement));
+        measurementNode.setAll(toThroughputJson(measurement));
+        measurementNode.put("customers", numberOfCustomers);
+        measurementNode.put("warmups", warmups);
+        measurementNode.put("runs", runs);
+        report.put("tolerance", tolerance);
+
+        if (updateBaseline) {
+            Files.write(baselinePath, OBJECT_MAPPER.writeValueAsBytes(toAllocationJson(measurement)));
+            System.out.println("Recorded the allocation baseline in " + baselinePath);
+        } else if (Files.exists(baselinePath)) {
+            JsonNode baseline = OBJECT_MAPPER.readTree(baselinePath.toFile());
+            if (baseline.path("requests").asLong() != numberOfRequests) {
+                checks.add(new Check("baseline", false, "The baseline was recorded with " + baseline.path("requests").asLong()
+                        + " requests, not " + numberOfRequests));
+            } else {
+                checks.add(compareAllocations(baseline, measurement, tolerance));
+            }
+            report.set("baseline", baseline);
+        } else {
+            checks.add(new Check("baseline", false, "No baseline at " + baselinePath + ", record one with --update-baseline"));
+        }
+
+        if (updateBaseline) {
+            Files.createDirectories(throughputBaselinePath.getParent());
+            Files.write(throughputBaselinePath, OBJECT_MAPPER.writeValueAsBytes(toThroughputJson(measurement)));
+            System.out.println("Recorded the throughput baseline of this machine in " + throughputBaselinePath);
+        } else {
+            checks.add(checkThroughput(throughputBaselinePath, numberOfRequests, measurement, tolerance));
+            if (Files.exists(throughputBaselinePath)) {
+                report.set("throughput_baseline", OBJECT_MAPPER.readTree(throughputBaselinePath.toFile()));
+            }
+        }
+
+        boolean passed = checks.stream().allMatch(Check::isPassed);
+        report.put("status", passed ? "passed" : "failed");
+        ArrayNode checksNode = report.putArray("checks");
+        for (Check check : checks) {
+            checksNode.addObject().put("name", check.getName()).put("passed", check.isPassed()).put("detail", check.getDetail());
+            System.out.printf("%-26s %-6s %s%n", check.getName(), check.isPassed() ? "PASS" : "FAIL", check.getDetail());
+        }
+        Files.write(reportPath, OBJECT_MAPPER.writeValueAsBytes(report));
+        System.out.println("Report written to " + reportPath);
+
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        return options.containsProperty(name) ? options.getProperty(name) : defaultValue;
+    }
+}
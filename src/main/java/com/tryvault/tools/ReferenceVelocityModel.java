@@ -0,0 +1,115 @@
+package com.tryvault.tools;
+
+import com.tryvault.constants.LoadFundsRequestLimits;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deliberately simple model of the velocity limits, used to compute the expected output of generated inputs.
+ * It keeps every stored request in memory and scans them for each decision, mirroring the repository queries
+ * of {@link com.tryvault.service.LoadFundsRequestService} one for one:
+ * <ul>
+ *     <li>a request whose (id, customer_id) was already stored is a duplicate and has no output;</li>
+ *     <li>the day window runs from the start of the request's UTC day to the start of the next day, both inclusive;</li>
+ *     <li>the week window runs from the start of the request's Monday to the same end;</li>
+ *     <li>requests are stored by id, so a request reusing the id of another customer replaces it, like
+ *     {@code save()} does for an assigned id.</li>
+ * </ul>
+ * Amounts are in cents and times in epoch seconds.
+ */
+public class ReferenceVelocityModel {
+
+    private static final long SECONDS_PER_DAY = 86_400L;
+
+    private final long loadsPerDay;
+
+    private final long amountPerDayCents;
+
+    private final long amountPerWeekCents;
+
+    private final Map<Long, StoredRequest> requestsById = new HashMap<>();
+
+    private final Map<Long, List<StoredRequest>> requestsByCustomer = new HashMap<>();
+
+    public ReferenceVelocityModel() {
+        this(LoadFundsRequestLimits.LOADS_PER_DAY,
+                LoadFundsRequestLimits.AMOUNT_PER_DAY.movePointRight(2).longValueExact(),
+                LoadFundsRequestLimits.AMOUNT_PER_WEEK.movePointRight(2).longValueExact());
+    }
+
+    public ReferenceVelocityModel(long loadsPerDay, long amountPerDayCents, long amountPerWeekCents) {
+        this.loadsPerDay = loadsPerDay;
+        this.amountPerDayCents = amountPerDayCents;
+        this.amountPerWeekCents = amountPerWeekCents;
+    }
+
+    /**
+     * Decides and stores a load funds request.
+     *
+     * @param id          The ID of the load funds request.
+     * @param customerId  The customer ID associated with the load funds request.
+     * @param amountCents The amount to be loaded, in cents.
+     * @param epochSecond The time of the load funds request, in epoch seconds.
+     * @return Whether the request was accepted, or null if it is a duplicate.
+     */
+    public Boolean decide(long id, long customerId, long amountCents, long epochSecond) {
+        StoredRequest existing = requestsById.get(id);
+        if (existing != null && existing.customerId == customerId) {
+            return null;
+        }
+
+        long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        long startOfDay = epochDay * SECONDS_PER_DAY;
+        long endOfDay = startOfDay + SECONDS_PER_DAY;
+        long daysSinceMonday = LocalDate.ofEpochDay(epochDay).getDayOfWeek().getValue() - DayOfWeek.MONDAY.getValue();
+        long startOfWeek = startOfDay - daysSinceMonday * SECONDS_PER_DAY;
+
+        long dailyCount = 0;
+        long dailyAmount = 0;
+        long weeklyAmount = 0;
+        for (StoredRequest stored : requestsByCustomer.getOrDefault(customerId, List.of())) {
+            if (!stored.accepted || stored.epochSecond > endOfDay) {
+                continue;
+            }
+            if (stored.epochSecond >= startOfDay) {
+                dailyCount++;
+                dailyAmount += stored.amountCents;
+            }
+            if (stored.epochSecond >= startOfWeek) {
+                weeklyAmount += stored.amountCents;
+            }
+        }
+
+        boolean accepted = dailyCount < loadsPerDay
+                && dailyAmount + amountCents < amountPerDayCents
+                && weeklyAmount + amountCents < amountPerWeekCents;
+
+        if (existing != null) {
+            requestsByCustomer.get(existing.customerId).remove(existing);
+        }
+        StoredRequest stored = new StoredRequest(customerId, amountCents, epochSecond, accepted);
+        requestsById.put(id, stored);
+        requestsByCustomer.computeIfAbsent(customerId, key -> new ArrayList<>()).add(stored);
+
+        return accepted;
+    }
+
+    private static final class StoredRequest {
+        private final long customerId;
+        private final long amountCents;
+        private final long epochSecond;
+        private final boolean accepted;
+
+        private StoredRequest(long customerId, long amountCents, long epochSecond, boolean accepted) {
+            this.customerId = customerId;
+            this.amountCents = amountCents;
+            this.epochSecond = epochSecond;
+            this.accepted = accepted;
+        }
+    }
+}
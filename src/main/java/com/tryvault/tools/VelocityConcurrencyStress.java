@@ -0,0 +1,421 @@
+package com.tryvault.tools;
+
+import com.tryvault.app.LightweightMain;
+import com.tryvault.app.Main;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.repository.JdbcLoadFundsRequestStore;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.repository.ShardedLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import javax.sql.DataSource;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stresses the velocity decisions of a {@link LoadFundsRequestService} shared by several threads, in the manner of
+ * jcstress: in each round, actor threads released together by a barrier make conflicting load attempts for a customer
+ * of their own to the round, and the outcome of the round, how many attempts were accepted, rejected or ignored as
+ * duplicates and how many accepted requests the store holds for the customer afterwards, is counted. The attempts of a
+ * round are alike, so every serial order of them has the same outcome, the one {@link ReferenceVelocityModel} gives;
+ * any other outcome is forbidden, whether it accepts past a limit, decides a duplicate twice or rejects an attempt
+ * that fitted.
+ *
+ * <p>
+ * A service is only expected to pass with the atomic insert, where each decision is a single store operation. The
+ * default check then save path decides the customers of one lane at a time and loses the races this harness provokes.
+ *
+ * <p>
+ * The memory, jdbc and sharded stores serialize their operations on a monitor, the JDBC ones over a single connection
+ * per database, so only the jpa and rollup stores race the actors inside the database: they run in an application
+ * context whose pool has a connection per actor, each decision a transaction of its own.
+ *
+ * <p>
+ * Usage: java com.tryvault.tools.VelocityConcurrencyStress [--store=memory|jdbc|sharded|jpa|rollup]
+ * [--atomic-insert=true] [--actors=8] [--rounds=2000] [--scenarios=DAILY_COUNT,DAILY_AMOUNT,WEEKLY_AMOUNT,DUPLICATE]
+ * [--url=jdbc:h2:mem:stress] [--batch-size=256] [--shards=4]; it exits with status 1 if any outcome is forbidden.
+ * The url of the sharded store has %d for the shard index.
+ */
+public class VelocityConcurrencyStress implements Closeable {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final long SECONDS_PER_DAY = 86_400L;
+
+    // Noon of a Monday, far from the midnights that belong to two days
+    private static final long MONDAY_NOON = Instant.parse("2000-01-03T12:00:00Z").getEpochSecond();
+
+    /**
+     * The conflicting attempts of a round.
+     */
+    public enum Scenario {
+        /** Every actor loads 1.00 the same day, more loads than the daily count allows. */
+        DAILY_COUNT,
+        /** Every actor loads 3,000.00 the same day, two of which exceed the daily amount. */
+        DAILY_AMOUNT,
+        /** Four days of 4,000.00 are accepted first, then every actor loads 2,000.00 on the Friday, two of which
+         * reach the weekly amount. */
+        WEEKLY_AMOUNT,
+        /** Every actor sends the same request, which must be decided once. */
+        DUPLICATE
+    }
+
+    /**
+     * The outcomes of the rounds of a scenario.
+     */
+    public static final class Result {
+
+        private final Scenario scenario;
+
+        private final String expectedOutcome;
+
+        private final Map<String, Long> outcomes = new TreeMap<>();
+
+        private Result(Scenario scenario, String expectedOutcome) {
+            this.scenario = scenario;
+            this.expectedOutcome = expectedOutcome;
+        }
+
+        public Scenario getScenario() {
+            return scenario;
+        }
+
+        /**
+         * @return The outcome of every serial order of the attempts of a round.
+         */
+        public String getExpectedOutcome() {
+            return expectedOutcome;
+        }
+
+        /**
+         * @return The number of rounds of each outcome.
+         */
+        public Map<String, Long> getOutcomes() {
+            return outcomes;
+        }
+
+        /**
+         * @return The number of rounds whose outcome is not the expected one.
+         */
+        public long getForbidden() {
+            return outcomes.entrySet().stream().filter(outcome -> !outcome.getKey().equals(expectedOutcome))
+                    .mapToLong(Map.Entry::getValue).sum();
+        }
+
+        public boolean isPassed() {
+            return getForbidden() == 0;
+        }
+    }
+
+    private final LoadFundsRequestService loadFundsRequestService;
+
+    private final LoadFundsRequestStore loadFundsRequestStore;
+
+    private final int actors;
+
+    private final ExecutorService executor;
+
+    private final CyclicBarrier start;
+
+    private long nextId = 1;
+
+    private long nextCustomerId = 1;
+
+    /**
+     * @param loadFundsRequestService The service under stress.
+     * @param loadFundsRequestStore   The store of the service, queried for the accepted requests after each round.
+     * @param actors                  The number of threads racing in each round, at least two.
+     */
+    public VelocityConcurrencyStress(LoadFundsRequestService loadFundsRequestService,
+                                     LoadFundsRequestStore loadFundsRequestStore, int actors) {
+        if (actors < 2) {
+            throw new IllegalArgumentException("A race needs at least two actors");
+        }
+        this.loadFundsRequestService = loadFundsRequestService;
+        this.loadFundsRequestStore = loadFundsRequestStore;
+        this.actors = actors;
+        this.executor = Executors.newFixedThreadPool(actors, runnable -> {
+            Thread thread = new Thread(runnable, "stress-actor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.start = new CyclicBarrier(actors);
+    }
+
+    /**
+     * Runs rounds of a scenario, each for a new customer and with new request ids, so rounds do not interfere.
+     *
+     * @param scenario The scenario.
+     * @param rounds   The number of rounds.
+     * @return The outcomes of the rounds.
+     * @throws InterruptedException if interrupted while waiting for the actors.
+     */
+    public Result run(Scenario scenario, int rounds) throws InterruptedException {
+        Result result = new Result(scenario, expectedOutcome(scenario));
+        for (int round = 0; round < rounds; round++) {
+            result.outcomes.merge(runRound(scenario), 1L, Long::sum);
+        }
+        return result;
+    }
+
+    private String runRound(Scenario scenario) throws InterruptedException {
+        long customerId = nextCustomerId++;
+        List<LoadFundsRequest> seeds = seeds(scenario, customerId, nextId);
+        nextId += seeds.size();
+        List<LoadFundsRequest> attempts = attempts(scenario, customerId, nextId);
+        nextId += attempts.size();
+
+        for (LoadFundsRequest seed : seeds) {
+            if (!Boolean.TRUE.equals(loadFundsRequestService.decideLoadAttempt(seed))) {
+                throw new IllegalStateException("The service rejected a request decided by a single thread: " + seed);
+            }
+        }
+
+        List<Callable<Boolean>> actorTasks = new ArrayList<>();
+        for (LoadFundsRequest attempt : attempts) {
+            actorTasks.add(() -> {
+                start.await();
+                return loadFundsRequestService.decideLoadAttempt(attempt);
+            });
+        }
+        int accepted = 0;
+        int rejected = 0;
+        int duplicates = 0;
+        for (Future<Boolean> decision : executor.invokeAll(actorTasks)) {
+            Boolean accept = get(decision);
+            if (accept == null) {
+                duplicates++;
+            } else if (accept) {
+                accepted++;
+            } else {
+                rejected++;
+            }
+        }
+
+        ZonedDateTime startOfWeek = time(MONDAY_NOON - SECONDS_PER_DAY / 2);
+        long stored = loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(customerId, startOfWeek,
+                startOfWeek.plusDays(7), true) - seeds.size();
+        return outcome(accepted, rejected, duplicates, stored);
+    }
+
+    private Boolean get(Future<Boolean> decision) throws InterruptedException {
+        try {
+            return decision.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BrokenBarrierException) {
+                throw new IllegalStateException("The actors of a round were not released together", e.getCause());
+            }
+            throw new IllegalStateException("An actor failed to decide its load attempt", e.getCause());
+        }
+    }
+
+    private String expectedOutcome(Scenario scenario) {
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel();
+        for (LoadFundsRequest seed : seeds(scenario, 1, 1)) {
+            referenceModel.decide(seed.getId(), seed.getCustomerId(), cents(seed), seed.getTime().toEpochSecond());
+        }
+        int accepted = 0;
+        int rejected = 0;
+        int duplicates = 0;
+        for (LoadFundsRequest attempt : attempts(scenario, 1, 1_000)) {
+            Boolean accept = referenceModel.decide(attempt.getId(), attempt.getCustomerId(), cents(attempt),
+                    attempt.getTime().toEpochSecond());
+            if (accept == null) {
+                duplicates++;
+            } else if (accept) {
+                accepted++;
+            } else {
+                rejected++;
+            }
+        }
+        return outcome(accepted, rejected, duplicates, accepted);
+    }
+
+    private static String outcome(int accepted, int rejected, int duplicates, long stored) {
+        return "accepted=" + accepted + " rejected=" + rejected + " duplicates=" + duplicates + " stored=" + stored;
+    }
+
+    private List<LoadFundsRequest> seeds(Scenario scenario, long customerId, long firstId) {
+        List<LoadFundsRequest> seeds = new ArrayList<>();
+        if (scenario == Scenario.WEEKLY_AMOUNT) {
+            for (int day = 0; day < 4; day++) {
+                seeds.add(request(firstId + day, customerId, "4000.00", MONDAY_NOON + day * SECONDS_PER_DAY));
+            }
+        }
+        return seeds;
+    }
+
+    private List<LoadFundsRequest> attempts(Scenario scenario, long customerId, long firstId) {
+        List<LoadFundsRequest> attempts = new ArrayList<>();
+        for (int actor = 0; actor < actors; actor++) {
+            switch (scenario) {
+                case DAILY_COUNT:
+                    attempts.add(request(firstId + actor, customerId, "1.00", MONDAY_NOON + 2 * SECONDS_PER_DAY));
+                    break;
+                case DAILY_AMOUNT:
+                    attempts.add(request(firstId + actor, customerId, "3000.00", MONDAY_NOON + 2 * SECONDS_PER_DAY));
+                    break;
+                case WEEKLY_AMOUNT:
+                    attempts.add(request(firstId + actor, customerId, "2000.00", MONDAY_NOON + 4 * SECONDS_PER_DAY));
+                    break;
+                case DUPLICATE:
+                    attempts.add(request(firstId, customerId, "1.00", MONDAY_NOON + 2 * SECONDS_PER_DAY));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown scenario " + scenario);
+            }
+        }
+        return attempts;
+    }
+
+    private static LoadFundsRequest request(long id, long customerId, String amount, long epochSecond) {
+        return new LoadFundsRequest(id, customerId, new BigDecimal(amount), time(epochSecond));
+    }
+
+    private static ZonedDateTime time(long epochSecond) {
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), UTC);
+    }
+
+    private static long cents(LoadFundsRequest loadFundsRequest) {
+        return loadFundsRequest.getLoadAmount().movePointRight(2).longValueExact();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+        String storeName = option(options, "store", "memory");
+        boolean atomicInsert = Boolean.parseBoolean(option(options, "atomic-insert", "true"));
+        int actors = Integer.parseInt(option(options, "actors", "8"));
+        int rounds = Integer.parseInt(option(options, "rounds", "2000"));
+        List<Scenario> scenarios = new ArrayList<>();
+        if (options.containsProperty("scenarios")) {
+            for (String scenario : options.getProperty("scenarios").split(",")) {
+                scenarios.add(Scenario.valueOf(scenario.trim()));
+            }
+        } else {
+            scenarios.addAll(Arrays.asList(Scenario.values()));
+        }
+
+        // The service logs every decision at INFO level
+        LightweightMain.configureLogging("WARN");
+
+        ConfigurableApplicationContext context = null;
+        HikariDataSource dataSource = null;
+        LoadFundsRequestStore loadFundsRequestStore;
+        LoadFundsRequestService loadFundsRequestService;
+        if (storeName.equals("jpa") || storeName.equals("rollup")) {
+            context = startApplicationContext(option(options, "url", "jdbc:h2:mem:stress;LOCK_TIMEOUT=10000"), actors,
+                    storeName.equals("rollup"));
+            loadFundsRequestStore = context.getBean(LoadFundsRequestStore.class);
+            loadFundsRequestService = context.getBean(LoadFundsRequestService.class);
+        } else {
+            if (storeName.equals("memory")) {
+                loadFundsRequestStore = new InMemoryLoadFundsRequestStore();
+            } else if (storeName.equals("jdbc")) {
+                // The store runs every operation on one connection of the pool
+                dataSource = migratedDataSource(option(options, "url", "jdbc:h2:mem:stress"));
+                loadFundsRequestStore = new JdbcLoadFundsRequestStore(dataSource,
+                        Integer.parseInt(option(options, "batch-size", "256")));
+            } else if (storeName.equals("sharded")) {
+                List<DataSource> dataSources = new ArrayList<>();
+                for (int index = 0; index < Integer.parseInt(option(options, "shards", "4")); index++) {
+                    dataSources.add(migratedDataSource(String.format(option(options, "url", "jdbc:h2:mem:stress-%d"), index)));
+                }
+                loadFundsRequestStore = new ShardedLoadFundsRequestStore(dataSources,
+                        Integer.parseInt(option(options, "batch-size", "256")));
+            } else {
+                throw new IllegalArgumentException("Unknown store " + storeName
+                        + ", expected memory, jdbc, sharded, jpa or rollup");
+            }
+            loadFundsRequestService = new LoadFundsRequestService(loadFundsRequestStore);
+        }
+        loadFundsRequestService.setAtomicInsert(atomicInsert);
+
+        boolean passed = true;
+        try (VelocityConcurrencyStress stress = new VelocityConcurrencyStress(loadFundsRequestService,
+                loadFundsRequestStore, actors)) {
+            System.out.printf("%s store, atomic insert %s, %d actors, %d rounds per scenario%n", storeName,
+                    atomicInsert, actors, rounds);
+            for (Scenario scenario : scenarios) {
+                long startTime = System.nanoTime();
+                Result result = stress.run(scenario, rounds);
+                System.out.printf("%n%s in %d ms: %s%n", scenario, (System.nanoTime() - startTime) / 1_000_000,
+                        result.isPassed() ? "OK" : "FAILED");
+                System.out.printf("  %-56s %12s  %s%n", "outcome", "rounds", "expect");
+                for (Map.Entry<String, Long> outcome : result.getOutcomes().entrySet()) {
+                    System.out.printf("  %-56s %12d  %s%n", outcome.getKey(), outcome.getValue(),
+                            outcome.getKey().equals(result.getExpectedOutcome()) ? "ACCEPTABLE" : "FORBIDDEN");
+                }
+                passed &= result.isPassed();
+            }
+        } finally {
+            if (context != null) {
+                context.close();
+            } else if (loadFundsRequestStore instanceof Closeable) {
+                ((Closeable) loadFundsRequestStore).close();
+            }
+            if (dataSource != null) {
+                dataSource.close();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Starts the application context of the JPA store, without processing any input, with a connection per actor so
+     * each of them decides in a transaction of its own.
+     *
+     * @param url            The JDBC URL of the database.
+     * @param actors         The number of actors.
+     * @param velocityRollup Whether the store reads the velocity windows from the daily rollups.
+     * @return The started context, to be closed by the caller.
+     */
+    public static ConfigurableApplicationContext startApplicationContext(String url, int actors, boolean velocityRollup) {
+        return new SpringApplicationBuilder(Main.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                // As arguments, which take precedence over application.properties
+                .run("--spring.main.banner-mode=off", "--logging.level.root=WARN", "--spring.jpa.show-sql=false",
+                        "--spring.datasource.url=" + url, "--spring.datasource.hikari.maximum-pool-size=" + (actors + 1),
+                        "--tryvault.persistence.store=jpa", "--tryvault.persistence.velocity-rollup=" + velocityRollup);
+    }
+
+    private static HikariDataSource migratedDataSource(String url) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("tryvault-stress");
+        dataSource.setJdbcUrl(url);
+        Flyway.configure().dataSource(dataSource).load().migrate();
+        return dataSource;
+    }
+
+    private static String option(SimpleCommandLinePropertySource options, String name, String defaultValue) {
+        return options.containsProperty(name) ? options.getProperty(name) : defaultValue;
+    }
+}
@@ -0,0 +1,106 @@
+package com.tryvault.util;
+
+/**
+ * Adaptive limit on the number of requests in flight, waiting for or going through a store, adjusted by additive
+ * increase and multiplicative decrease (AIMD) on their observed latency. While requests complete within the target
+ * latency and the limit is in use, it grows by one over each limit's worth of completed requests, about one per round
+ * trip like TCP congestion avoidance; when they take longer, the requests are queueing up in front of the store, and
+ * the limit is cut to the backoff ratio of the requests in flight. Requests past the limit are meant to be turned
+ * away at once, so the latency of the admitted ones stays near the target instead of growing with the queue.
+ *
+ * <p>
+ * A late completion only cuts the limit if its requests were admitted after the previous cut, like TCP reacting once
+ * per round trip, so a single slow spell does not collapse the limit to its minimum. This class is thread-safe.
+ */
+public class AimdConcurrencyLimit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long targetLatencyNanos;
+
+    private final double backoffRatio;
+
+    private double limit;
+
+    private int inFlight = 0;
+
+    private boolean decreased = false;
+
+    private long lastDecreaseNanos;
+
+    /**
+     * @param minLimit           The lowest limit.
+     * @param maxLimit           The highest limit, also the initial one, so requests are only turned away once they
+     *                           have been late.
+     * @param targetLatencyNanos The latency above which the limit is cut.
+     * @param backoffRatio       The ratio the limit is multiplied by when cut, between 0 and 1 excluded.
+     */
+    public AimdConcurrencyLimit(int minLimit, int maxLimit, long targetLatencyNanos, double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("The limits must be positive and the minimum at most the maximum");
+        }
+        if (targetLatencyNanos <= 0 || !(backoffRatio > 0 && backoffRatio < 1)) {
+            throw new IllegalArgumentException("The target latency must be positive and the backoff ratio between 0 and 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.backoffRatio = backoffRatio;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Admits up to a number of requests, as many as the limit leaves room for.
+     *
+     * @param requests The number of requests asking to be admitted.
+     * @return The number of requests admitted, the first ones, to be released once completed.
+     */
+    public synchronized int tryAcquire(int requests) {
+        int admitted = Math.max(0, Math.min(requests, (int) limit - inFlight));
+        inFlight += admitted;
+        return admitted;
+    }
+
+    /**
+     * Releases completed requests and adjusts the limit to their latency.
+     *
+     * @param requests      The number of requests completed.
+     * @param admittedNanos When the requests were admitted, in {@link System#nanoTime()}.
+     * @param latencyNanos  The latency of the slowest of them, from their admission to their completion.
+     */
+    public synchronized void release(int requests, long admittedNanos, long latencyNanos) {
+        if (requests == 0) {
+            return;
+        }
+        int inFlightBefore = inFlight;
+        boolean saturated = inFlight * 2 >= limit;
+        inFlight -= requests;
+        if (latencyNanos > targetLatencyNanos) {
+            if (!decreased || admittedNanos - lastDecreaseNanos > 0) {
+                // Cut from what is in flight, a limit far above it would take several cuts to have any effect
+                limit = Math.max(minLimit, Math.min(limit, inFlightBefore) * backoffRatio);
+                decreased = true;
+                lastDecreaseNanos = admittedNanos + latencyNanos;
+            }
+        } else if (saturated) {
+            // 1 / limit per request, so a limit's worth of timely requests adds one
+            limit = Math.min(maxLimit, limit + requests / limit);
+        }
+    }
+
+    /**
+     * @return The current limit.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The number of admitted requests not released yet.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
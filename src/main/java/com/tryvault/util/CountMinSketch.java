@@ -0,0 +1,93 @@
+package com.tryvault.util;
+
+/**
+ * Count-min sketch over long keys, used to estimate how often a customer has been seen in a stream without keeping a
+ * counter per customer. Estimates never undercount; they overcount by at most a small fraction of the total, which
+ * makes the sketch a good fit for spotting heavy hitters online.
+ *
+ * <p>
+ * Counters can be halved with {@link #decay()} so that the estimates follow the recent traffic instead of the whole
+ * history. This class is not thread-safe.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+
+    private final int mask;
+
+    private final long[] counters;
+
+    private long total;
+
+    /**
+     * @param width The number of counters per row, rounded up to a power of two.
+     * @param depth The number of rows, each using an independent hash.
+     */
+    public CountMinSketch(int width, int depth) {
+        int roundedWidth = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = roundedWidth - 1;
+        this.counters = new long[roundedWidth * depth];
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key The key to be counted.
+     * @return The estimated number of occurrences of the key, including this one.
+     */
+    public long add(long key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = index(key, row);
+            estimate = Math.min(estimate, ++counters[index]);
+        }
+        total++;
+        return estimate;
+    }
+
+    /**
+     * @param key The key to be looked up.
+     * @return The estimated number of occurrences of the key.
+     */
+    public long estimate(long key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[index(key, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * @return The number of occurrences counted, across all keys.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Halves every counter, so older occurrences weigh half as much as the ones counted from now on.
+     */
+    public void decay() {
+        for (int index = 0; index < counters.length; index++) {
+            counters[index] >>>= 1;
+        }
+        total >>>= 1;
+    }
+
+    private int index(long key, int row) {
+        return row * (mask + 1) + (int) (mix(key + row * 0x9E3779B97F4A7C15L) & mask);
+    }
+
+    /**
+     * Spreads the bits of a key (the SplitMix64 finalizer), so consecutive customer ids land in unrelated buckets.
+     *
+     * @param key The key to be hashed.
+     * @return The hashed key.
+     */
+    public static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+}
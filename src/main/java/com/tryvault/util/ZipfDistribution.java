@@ -0,0 +1,53 @@
+package com.tryvault.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Zipf distribution over the ranks 1..n, where rank k is drawn with a probability proportional to 1 / k^exponent.
+ * It models skewed traffic, where a few customers send a large share of the load attempts.
+ * Samples are drawn by binary search over the precomputed cumulative probabilities.
+ */
+public class ZipfDistribution {
+
+    private final double[] cumulativeProbabilities;
+
+    /**
+     * @param numberOfElements The number of ranks.
+     * @param exponent         The skew of the distribution; 0 is uniform and higher values are more skewed.
+     */
+    public ZipfDistribution(int numberOfElements, double exponent) {
+        if (numberOfElements < 1) {
+            throw new IllegalArgumentException("A Zipf distribution needs at least one element");
+        }
+
+        cumulativeProbabilities = new double[numberOfElements];
+        double sum = 0;
+        for (int rank = 1; rank <= numberOfElements; rank++) {
+            sum += 1.0 / Math.pow(rank, exponent);
+            cumulativeProbabilities[rank - 1] = sum;
+        }
+        for (int index = 0; index < numberOfElements; index++) {
+            cumulativeProbabilities[index] /= sum;
+        }
+    }
+
+    /**
+     * @param random The source of randomness.
+     * @return A rank between 1 and the number of elements.
+     */
+    public int sample(Random random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        int rank = index >= 0 ? index + 1 : -index;
+        return Math.min(rank, cumulativeProbabilities.length);
+    }
+
+    /**
+     * @param rank A rank between 1 and the number of elements.
+     * @return The probability of drawing the rank.
+     */
+    public double probability(int rank) {
+        double previous = rank == 1 ? 0 : cumulativeProbabilities[rank - 2];
+        return cumulativeProbabilities[rank - 1] - previous;
+    }
+}
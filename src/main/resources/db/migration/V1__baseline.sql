@@ -0,0 +1,28 @@
+-- Tables of the load funds requests, their checkpoints and their daily velocity rollups, as mapped by the entities
+CREATE TABLE public.load_funds_request (
+    id          BIGINT        NOT NULL,
+    accepted    BOOLEAN       NOT NULL,
+    customer_id BIGINT        NOT NULL,
+    load_amount DECIMAL(19,2),
+    time        TIMESTAMP,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE public.load_funds_checkpoint (
+    input_path         VARCHAR(1024) NOT NULL,
+    input_offset       BIGINT        NOT NULL,
+    output_position    BIGINT        NOT NULL,
+    processed_requests BIGINT        NOT NULL,
+    stored_requests    BIGINT        NOT NULL,
+    PRIMARY KEY (input_path)
+);
+
+CREATE TABLE public.customer_velocity_daily (
+    customer_id      BIGINT        NOT NULL,
+    epoch_day        BIGINT        NOT NULL,
+    accepted_count   BIGINT        NOT NULL,
+    accepted_sum     DECIMAL(19,2),
+    end_of_day_count BIGINT        NOT NULL,
+    end_of_day_sum   DECIMAL(19,2),
+    PRIMARY KEY (customer_id, epoch_day)
+);
@@ -0,0 +1,6 @@
+-- The velocity checks filter on customer, accepted flag and time range and sum the amounts: with the amount as last
+-- column the index covers them, and each check reads only the customer's requests inside its window
+CREATE INDEX idx_load_funds_request_velocity ON public.load_funds_request (customer_id, accepted, time, load_amount);
+
+-- The duplicate check looks up (id, customer_id) without reading the row
+CREATE INDEX idx_load_funds_request_id_customer ON public.load_funds_request (id, customer_id);
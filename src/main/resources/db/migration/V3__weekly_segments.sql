@@ -0,0 +1,21 @@
+-- H2 has no table partitioning, so requests are segmented by week instead: each request gets the number of its week,
+-- counted in Mondays since 1970-01-05, and whole weeks older than the velocity windows can be moved to the archive
+-- table, keeping the table and the indexes of the active weeks small on long lived file based databases
+ALTER TABLE public.load_funds_request ADD COLUMN week_segment INT
+    AS CAST(FLOOR(DATEDIFF('DAY', DATE '1970-01-05', time) / 7.0) AS INT);
+
+CREATE INDEX idx_load_funds_request_week_segment ON public.load_funds_request (week_segment);
+
+-- Archived requests no longer count towards the limits, but are still duplicates when processed again
+CREATE TABLE public.load_funds_request_archive (
+    id           BIGINT        NOT NULL,
+    accepted     BOOLEAN       NOT NULL,
+    customer_id  BIGINT        NOT NULL,
+    load_amount  DECIMAL(19,2),
+    time         TIMESTAMP,
+    week_segment INT           NOT NULL
+);
+
+CREATE INDEX idx_load_funds_request_archive_id_customer ON public.load_funds_request_archive (id, customer_id);
+
+CREATE INDEX idx_load_funds_request_archive_week_segment ON public.load_funds_request_archive (week_segment);
@@ -0,0 +1,6 @@
+-- One row per customer, locked by the transaction deciding a load attempt of the customer with the atomic insert, so
+-- the attempts of a customer decided on different connections wait for each other instead of each computing its
+-- velocity from the rows committed before the other one wrote
+CREATE TABLE public.customer_velocity_lock (
+    customer_id BIGINT NOT NULL PRIMARY KEY
+);
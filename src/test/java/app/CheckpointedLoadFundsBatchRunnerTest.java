@@ -0,0 +1,80 @@
+package app;
+
+import com.tryvault.app.CheckpointedLoadFundsBatchRunner;
+import com.tryvault.app.Main;
+import com.tryvault.entity.LoadFundsCheckpointEntity;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.LoadFundsCheckpointRepository;
+import com.tryvault.repository.LoadFundsRequestRepository;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(classes = Main.class, properties = {"spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:checkpoint-test"})
+public class CheckpointedLoadFundsBatchRunnerTest {
+
+    @Autowired
+    private LoadFundsRequestService loadFundsRequestService;
+
+    @Autowired
+    private LoadFundsRequestRepository loadFundsRequestRepository;
+
+    @Autowired
+    private LoadFundsCheckpointRepository loadFundsCheckpointRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRun_ResumesFromLastCheckpointAfterCrash() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        Path expectedPath = tempDir.resolve("expected.txt");
+        Path outputPath = tempDir.resolve("output.txt");
+        new LoadFundsInputGenerator().requests(3000).customers(200).seed(7).generate(inputPath, expectedPath);
+
+        // Crash in the middle of the file, after a few batches were checkpointed
+        LoadFundsRequestService crashingService = spy(loadFundsRequestService);
+        AtomicInteger decisions = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (decisions.incrementAndGet() == 2000) {
+                throw new IllegalStateException("Simulated crash");
+            }
+            return invocation.callRealMethod();
+        }).when(crashingService).decideLoadAttempt(any(LoadFundsRequest.class));
+
+        assertThrows(IllegalStateException.class, () -> runner(crashingService).run(inputPath.toString(), outputPath.toString()));
+
+        LoadFundsCheckpointEntity checkpoint = loadFundsCheckpointRepository.findById(inputPath.toAbsolutePath().toString()).orElseThrow();
+        assertTrue(checkpoint.getProcessedRequests() > 0 && checkpoint.getProcessedRequests() < 2000);
+        assertEquals(loadFundsRequestRepository.count(), checkpoint.getStoredRequests());
+
+        // The restart only decides the requests after the checkpoint and completes the output
+        LoadFundsRequestService resumedService = spy(loadFundsRequestService);
+        assertEquals(3000, runner(resumedService).run(inputPath.toString(), outputPath.toString()));
+        verify(resumedService, times(3000 - (int) checkpoint.getProcessedRequests())).decideLoadAttempt(any(LoadFundsRequest.class));
+        assertEquals(Files.readString(expectedPath), Files.readString(outputPath));
+    }
+
+    private CheckpointedLoadFundsBatchRunner runner(LoadFundsRequestService service) {
+        return new CheckpointedLoadFundsBatchRunner(service, new LoadFundsRequestReader(), new LoadFundsResponseWriter(),
+                loadFundsRequestRepository, loadFundsCheckpointRepository, transactionManager);
+    }
+}
@@ -0,0 +1,100 @@
+package app;
+
+import com.tryvault.app.LoadFundsBatchRunner;
+import com.tryvault.app.LoadFundsPartitionCoordinator;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsPartitionCoordinatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testProcessLocally_MergedOutputMatchesASingleProcess() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        Path expectedPath = tempDir.resolve("expected.txt");
+        Path outputPath = tempDir.resolve("output.txt");
+        // Duplicates and ids reused across customers, which must stay in the same partition
+        new LoadFundsInputGenerator().requests(3000).customers(100).duplicateRate(0.05).seed(11)
+                .generate(inputPath, expectedPath);
+
+        LoadFundsPartitionCoordinator coordinator = new LoadFundsPartitionCoordinator(new LoadFundsRequestReader(), 3);
+        long processed = coordinator.processLocally(inputPath, outputPath, tempDir.resolve("work"),
+                (partition, partitionPath, partitionOutputPath) -> newRunner().run(partitionPath.toString(),
+                        partitionOutputPath.toString(), 1));
+
+        assertEquals(3000, processed);
+        assertEquals(Files.readString(expectedPath), Files.readString(outputPath));
+        for (int partition = 0; partition < 3; partition++) {
+            assertTrue(Files.size(tempDir.resolve("work").resolve("partition-" + partition + ".txt")) > 0);
+        }
+    }
+
+    @Test
+    public void testSplit_CustomersSharingIdsInAnyIdBucketShareAPartition() throws Exception {
+        // Customer c uses ids 100c to 100c + 9, and id 100c + 9 is used again by customer c + 1, chaining 1 to 40
+        StringBuilder input = new StringBuilder();
+        for (int customerId = 1; customerId <= 40; customerId++) {
+            for (int index = 0; index < 10; index++) {
+                input.append(line(100L * customerId + index, customerId));
+            }
+            input.append(line(100L * customerId + 9, customerId + 1));
+        }
+        for (int customerId = 50; customerId <= 80; customerId++) {
+            input.append(line(100L * customerId, customerId));
+        }
+        Path inputPath = tempDir.resolve("input.txt");
+        Files.writeString(inputPath, input);
+
+        LoadFundsPartitionCoordinator coordinator = new LoadFundsPartitionCoordinator(new LoadFundsRequestReader(), 8);
+        coordinator.setNumberOfIdBuckets(5);
+        coordinator.split(inputPath, tempDir.resolve("work"));
+
+        for (int customerId = 2; customerId <= 41; customerId++) {
+            assertEquals(coordinator.partitionOf(1), coordinator.partitionOf(customerId), "customer " + customerId);
+        }
+        // The customers sharing no id are spread over the partitions, and the id buckets are removed
+        assertTrue(IntStream.rangeClosed(50, 80).map(coordinator::partitionOf).distinct().count() > 1);
+        try (Stream<Path> paths = Files.list(tempDir.resolve("work"))) {
+            assertTrue(paths.noneMatch(path -> path.getFileName().toString().startsWith("ids-")));
+        }
+    }
+
+    @Test
+    public void testMerge_RejectsAnOutputThatDoesNotMatchItsPartition() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        new LoadFundsInputGenerator().requests(100).customers(10).seed(12).generate(inputPath, null);
+
+        LoadFundsPartitionCoordinator coordinator = new LoadFundsPartitionCoordinator(new LoadFundsRequestReader(), 1);
+        coordinator.split(inputPath, tempDir);
+        Path strayOutputPath = tempDir.resolve("stray.txt");
+        Files.writeString(strayOutputPath, "{\"id\":\"0\",\"customer_id\":\"0\",\"accepted\":true}");
+
+        assertThrows(java.io.IOException.class,
+                () -> coordinator.merge(inputPath, List.of(strayOutputPath), tempDir.resolve("output.txt")));
+    }
+
+    private static String line(long id, long customerId) {
+        return "{\"id\":\"" + id + "\",\"customer_id\":\"" + customerId
+                + "\",\"load_amount\":\"$1.00\",\"time\":\"2000-01-01T00:00:00Z\"}\n";
+    }
+
+    private static LoadFundsBatchRunner newRunner() {
+        return new LoadFundsBatchRunner(new LoadFundsRequestService(new InMemoryLoadFundsRequestStore()),
+                new LoadFundsRequestReader(), new LoadFundsResponseWriter());
+    }
+}
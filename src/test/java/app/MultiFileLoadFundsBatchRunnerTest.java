@@ -0,0 +1,92 @@
+package app;
+
+import com.tryvault.app.MultiFileLoadFundsBatchRunner;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultiFileLoadFundsBatchRunnerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRun_FilesSplitByLineAreMergedBackByTime() throws Exception {
+        Path inputDirectory = Files.createDirectory(tempDir.resolve("input"));
+        // Every customer spans the three files, one of which is compressed
+        List<List<String>> files = split(Files.readAllLines(Path.of("input.txt")), 3);
+        Files.write(inputDirectory.resolve("part-0.txt"), files.get(0));
+        Files.write(inputDirectory.resolve("part-1.txt"), files.get(1));
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(inputDirectory.resolve("part-2.txt.gz")))) {
+            outputStream.write(String.join("\n", files.get(2)).getBytes());
+        }
+        Path outputPath = tempDir.resolve("output.txt");
+
+        for (int numberOfLanes : new int[]{1, 4}) {
+            List<MultiFileLoadFundsBatchRunner.FileReport> reports = newRunner()
+                    .run(inputDirectory.toString(), outputPath.toString(), false, numberOfLanes);
+
+            assertEquals(Files.readString(Path.of("output_expected.txt")), Files.readString(outputPath));
+            assertEquals(3, reports.size());
+            assertEquals(1000, reports.stream().mapToLong(MultiFileLoadFundsBatchRunner.FileReport::getNumberOfRequests).sum());
+        }
+    }
+
+    @Test
+    public void testRun_OutputPerFileHoldsTheResponsesOfItsFile() throws Exception {
+        Path inputDirectory = Files.createDirectory(tempDir.resolve("input"));
+        List<String> lines = Files.readAllLines(Path.of("input.txt"));
+        // Consecutive halves, so the outputs are the halves of the expected output
+        Files.write(inputDirectory.resolve("a.txt"), lines.subList(0, 500));
+        Files.write(inputDirectory.resolve("b.txt"), lines.subList(500, 1000));
+        Files.write(inputDirectory.resolve("notes.md"), List.of("not an input"));
+        Path outputDirectory = tempDir.resolve("output");
+
+        List<MultiFileLoadFundsBatchRunner.FileReport> reports = newRunner()
+                .run(inputDirectory.resolve("*.txt").toString(), outputDirectory.toString(), true, 1);
+
+        List<String> expected = Files.readAllLines(Path.of("output_expected.txt"));
+        List<String> outputA = Files.readAllLines(outputDirectory.resolve("a.txt"));
+        List<String> outputB = Files.readAllLines(outputDirectory.resolve("b.txt"));
+        assertEquals(expected.subList(0, outputA.size()), outputA);
+        assertEquals(expected.subList(outputA.size(), expected.size()), outputB);
+        assertEquals(outputA.size(), reports.get(0).getNumberOfResponses());
+        assertFalse(Files.exists(outputDirectory.resolve("notes.md")));
+    }
+
+    @Test
+    public void testRun_RefusesToWriteOutputsOverTheInputs() throws Exception {
+        Files.write(tempDir.resolve("a.txt"), List.of());
+
+        assertThrows(IOException.class, () -> newRunner().run(tempDir.toString(), tempDir.toString(), true, 1));
+    }
+
+    private static List<List<String>> split(List<String> lines, int numberOfFiles) {
+        List<List<String>> files = new ArrayList<>();
+        for (int file = 0; file < numberOfFiles; file++) {
+            files.add(new ArrayList<>());
+        }
+        for (int index = 0; index < lines.size(); index++) {
+            files.get(index % numberOfFiles).add(lines.get(index));
+        }
+        return files;
+    }
+
+    private static MultiFileLoadFundsBatchRunner newRunner() {
+        return new MultiFileLoadFundsBatchRunner(new LoadFundsRequestService(new InMemoryLoadFundsRequestStore()),
+                new LoadFundsRequestReader(), new LoadFundsResponseWriter(), 2);
+    }
+}
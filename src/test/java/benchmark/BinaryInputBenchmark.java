@@ -0,0 +1,66 @@
+package benchmark;
+
+import com.tryvault.io.LoadFundsRequestBinaryReader;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import com.tryvault.tools.LoadFundsRequestBinaryConverter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares reading a generated input in the JSON lines format with reading its binary conversion, both through
+ * {@link LoadFundsRequest} objects as the service consumes them and through the primitive accessors.
+ *
+ * <p>
+ * Usage: benchmark.BinaryInputBenchmark [requests]
+ */
+public class BinaryInputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long numberOfRequests = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+
+        Path jsonPath = Files.createTempFile("load-funds", ".txt");
+        Path binaryPath = Files.createTempFile("load-funds", ".bin");
+        try {
+            new LoadFundsInputGenerator().requests(numberOfRequests).generate(jsonPath, null);
+            LoadFundsRequestReader loadFundsRequestReader = new LoadFundsRequestReader();
+            new LoadFundsRequestBinaryConverter(loadFundsRequestReader).convert(jsonPath, binaryPath);
+            System.out.printf("%d requests, %d bytes as JSON lines, %d bytes as binary%n", numberOfRequests,
+                    Files.size(jsonPath), Files.size(binaryPath));
+
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                long checksum = 0;
+                for (LoadFundsRequest loadFundsRequest : loadFundsRequestReader.readFromFile(jsonPath.toString())) {
+                    checksum += loadFundsRequest.getCustomerId();
+                }
+                report("JSON lines", numberOfRequests, start, checksum);
+
+                start = System.nanoTime();
+                checksum = 0;
+                for (LoadFundsRequest loadFundsRequest : LoadFundsRequestBinaryReader.open(binaryPath)) {
+                    checksum += loadFundsRequest.getCustomerId();
+                }
+                report("binary objects", numberOfRequests, start, checksum);
+
+                start = System.nanoTime();
+                checksum = 0;
+                LoadFundsRequestBinaryReader binaryReader = LoadFundsRequestBinaryReader.open(binaryPath);
+                for (long index = 0; index < binaryReader.size(); index++) {
+                    checksum += binaryReader.getCustomerId(index);
+                }
+                report("binary fields", numberOfRequests, start, checksum);
+            }
+        } finally {
+            Files.deleteIfExists(jsonPath);
+            Files.deleteIfExists(binaryPath);
+        }
+    }
+
+    private static void report(String name, long numberOfRequests, long start, long checksum) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-15s %12.0f requests/s (checksum %d)%n", name, numberOfRequests / seconds, checksum);
+    }
+}
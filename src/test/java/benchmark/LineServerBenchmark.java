@@ -0,0 +1,106 @@
+package benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.tryvault.io.LoadFundsLineServer;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the throughput of the load funds line server on localhost: each connection streams a generated input as
+ * fast as the socket takes it while a second thread counts the responses, with an in-memory store behind the server.
+ *
+ * <p>
+ * Usage: benchmark.LineServerBenchmark [requests] [connections] [maxOutstandingRequests]
+ */
+public class LineServerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long numberOfRequests = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int numberOfConnections = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int maxOutstandingRequests = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.tryvault")).setLevel(Level.WARN);
+
+        // One input per connection, so the requests of a connection are not duplicates of another's
+        byte[][] inputs = new byte[numberOfConnections][];
+        Path inputPath = Files.createTempFile("load-funds", ".txt");
+        try {
+            for (int connection = 0; connection < numberOfConnections; connection++) {
+                new LoadFundsInputGenerator().requests(numberOfRequests).seed(connection).generate(inputPath, null);
+                inputs[connection] = Files.readAllBytes(inputPath);
+            }
+
+            for (int round = 0; round < 3; round++) {
+                // A fresh store per round, so the requests of a round are not duplicates of the previous one
+                try (LoadFundsLineServer server = new LoadFundsLineServer(
+                        new LoadFundsRequestService(new InMemoryLoadFundsRequestStore()), new LoadFundsRequestReader(),
+                        new InetSocketAddress("127.0.0.1", 0), maxOutstandingRequests)) {
+                    server.start();
+
+                    long start = System.nanoTime();
+                    List<CompletableFuture<Long>> connections = new ArrayList<>();
+                    for (byte[] input : inputs) {
+                        connections.add(CompletableFuture.supplyAsync(() -> stream(server, input)));
+                    }
+                    long numberOfResponses = 0;
+                    for (CompletableFuture<Long> connection : connections) {
+                        numberOfResponses += connection.get();
+                    }
+                    double seconds = (System.nanoTime() - start) / 1e9;
+
+                    System.out.printf("%d connections: %d requests, %d responses in %.2f s, %.0f requests/s%n",
+                            numberOfConnections, numberOfRequests * numberOfConnections, numberOfResponses, seconds,
+                            numberOfRequests * numberOfConnections / seconds);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(inputPath);
+        }
+    }
+
+    private static long stream(LoadFundsLineServer server, byte[] input) {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            InputStream inputStream = socket.getInputStream();
+            CompletableFuture<Long> responses = CompletableFuture.supplyAsync(() -> countLines(inputStream));
+
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            outputStream.write(input);
+            outputStream.flush();
+            socket.shutdownOutput();
+            return responses.get();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long countLines(InputStream inputStream) {
+        byte[] buffer = new byte[64 * 1024];
+        long numberOfLines = 0;
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                for (int index = 0; index < read; index++) {
+                    if (buffer[index] == '\n') {
+                        numberOfLines++;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return numberOfLines;
+    }
+}
@@ -0,0 +1,166 @@
+package benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.tryvault.io.LoadFundsLineServer;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.util.AimdConcurrencyLimit;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the latency of the load funds line server during a load spike: clients send requests at a fixed rate above
+ * what the store behind the server can decide, each decision taking a set time like a database round trip, and the
+ * latency of each decided request is measured from when the client sent it to when it read its response. Without
+ * shedding the requests queue up and the latency grows for as long as the spike lasts; with a request timeout or the
+ * adaptive concurrency limit the excess requests are shed and the latency of the decided ones stays bounded.
+ *
+ * <p>
+ * Usage: benchmark.LoadSheddingBenchmark [seconds] [requestsPerSecond] [decisionMicros] [connections]
+ */
+public class LoadSheddingBenchmark {
+
+    private static final long START = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int requestsPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 40_000;
+        int decisionMicros = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int numberOfConnections = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.tryvault")).setLevel(Level.WARN);
+
+        System.out.printf("%d requests/s for %d s over %d connections, %d us per decision (capacity %d requests/s)%n",
+                requestsPerSecond, seconds, numberOfConnections, decisionMicros, 1_000_000 / decisionMicros);
+        System.out.printf("%-28s %10s %10s %10s %10s %10s%n", "shedding", "decided", "shed", "p50 ms", "p99 ms", "max ms");
+        for (String shedding : List.of("none", "request timeout 50 ms", "concurrency limit 20 ms")) {
+            InMemoryLoadFundsRequestStore loadFundsRequestStore = new InMemoryLoadFundsRequestStore() {
+                @Override
+                public boolean existsByIdAndCustomerId(long id, long customerId) {
+                    long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(decisionMicros);
+                    while (System.nanoTime() < end) {
+                        Thread.onSpinWait();
+                    }
+                    return super.existsByIdAndCustomerId(id, customerId);
+                }
+            };
+            try (LoadFundsLineServer server = new LoadFundsLineServer(new LoadFundsRequestService(loadFundsRequestStore),
+                    new LoadFundsRequestReader(), new InetSocketAddress("127.0.0.1", 0), 4096)) {
+                if (shedding.startsWith("request timeout")) {
+                    server.setRequestTimeoutMillis(50);
+                } else if (shedding.startsWith("concurrency limit")) {
+                    server.setConcurrencyLimit(new AimdConcurrencyLimit(64, 65536, TimeUnit.MILLISECONDS.toNanos(20), 0.5));
+                }
+                server.start();
+
+                List<CompletableFuture<long[]>> connections = new ArrayList<>();
+                for (int connection = 0; connection < numberOfConnections; connection++) {
+                    int index = connection;
+                    connections.add(CompletableFuture.supplyAsync(() -> stream(server, index, seconds,
+                            requestsPerSecond / numberOfConnections)));
+                }
+                List<long[]> latencies = new ArrayList<>();
+                long decided = 0;
+                long sent = 0;
+                for (CompletableFuture<long[]> connection : connections) {
+                    long[] connectionLatencies = connection.get();
+                    sent += (long) seconds * (requestsPerSecond / numberOfConnections);
+                    decided += connectionLatencies.length;
+                    latencies.add(connectionLatencies);
+                }
+                long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+                System.out.printf("%-28s %10d %10d %10.1f %10.1f %10.1f%n", shedding, decided, sent - decided,
+                        percentile(all, 0.5), percentile(all, 0.99), percentile(all, 1.0));
+            }
+        }
+    }
+
+    /**
+     * Sends requests at a fixed rate, one batch per millisecond, and returns the latencies of the decided ones.
+     */
+    private static long[] stream(LoadFundsLineServer server, int connection, int seconds, int requestsPerSecond) {
+        int numberOfRequests = seconds * requestsPerSecond;
+        AtomicLongArray sendNanos = new AtomicLongArray(numberOfRequests);
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            InputStream inputStream = socket.getInputStream();
+            CompletableFuture<long[]> latencies = CompletableFuture.supplyAsync(() -> readLatencies(inputStream, sendNanos));
+
+            OutputStream outputStream = socket.getOutputStream();
+            StringBuilder batch = new StringBuilder();
+            long start = System.nanoTime();
+            int sent = 0;
+            for (long tick = 1; sent < numberOfRequests; tick++) {
+                LockSupport.parkNanos(start + tick * 1_000_000L - System.nanoTime());
+                int due = (int) Math.min(numberOfRequests, tick * requestsPerSecond / 1000);
+                batch.setLength(0);
+                long now = System.nanoTime();
+                for (; sent < due; sent++) {
+                    // Distinct ids and many customers, so every request is decided and answered
+                    batch.append("{\"id\":\"").append(connection * 100_000_000L + sent).append("\",\"customer_id\":\"")
+                            .append(connection * 100_000L + sent % 10_000).append("\",\"load_amount\":\"$1.00\",\"time\":\"")
+                            .append(Instant.ofEpochSecond(START + sent)).append("\"}\n");
+                    sendNanos.lazySet(sent, now);
+                }
+                outputStream.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            outputStream.flush();
+            socket.shutdownOutput();
+            return latencies.get();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the responses, one per request in order, and returns the latencies of the ones that are not errors.
+     */
+    private static long[] readLatencies(InputStream inputStream, AtomicLongArray sendNanos) {
+        long[] latencies = new long[sendNanos.length()];
+        int numberOfDecided = 0;
+        int index = 0;
+        byte last = 0;
+        byte beforeLast = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                long now = System.nanoTime();
+                for (int position = 0; position < read; position++) {
+                    if (buffer[position] == '\n') {
+                        // Decisions end with true} or false}, errors with a quoted code
+                        if (beforeLast != '"') {
+                            latencies[numberOfDecided++] = now - sendNanos.get(index);
+                        }
+                        index++;
+                    }
+                    beforeLast = last;
+                    last = buffer[position];
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return Arrays.copyOf(latencies, numberOfDecided);
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+}
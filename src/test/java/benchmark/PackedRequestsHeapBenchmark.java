@@ -0,0 +1,79 @@
+package benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.PackedLoadFundsRequests;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Compares the heap retained by the requests of a generated input, read as a list of {@link LoadFundsRequest} objects
+ * and read as {@link PackedLoadFundsRequests}, measured as the used heap after a full collection, and the time to read
+ * and iterate both.
+ *
+ * <p>
+ * Usage: benchmark.PackedRequestsHeapBenchmark [requests]
+ */
+public class PackedRequestsHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long numberOfRequests = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.tryvault")).setLevel(Level.WARN);
+
+        Path inputPath = Files.createTempFile("load-funds", ".txt");
+        try {
+            new LoadFundsInputGenerator().requests(numberOfRequests).generate(inputPath, null);
+            LoadFundsRequestReader loadFundsRequestReader = new LoadFundsRequestReader();
+
+            for (int round = 0; round < 3; round++) {
+                long baseline = usedHeap();
+                long start = System.nanoTime();
+                List<LoadFundsRequest> list = loadFundsRequestReader.readFromFile(inputPath.toString());
+                long checksum = 0;
+                for (LoadFundsRequest loadFundsRequest : list) {
+                    checksum += loadFundsRequest.getCustomerId();
+                }
+                long elapsed = System.nanoTime() - start;
+                report("list of objects", list.size(), elapsed, usedHeap() - baseline, checksum);
+                // Keep the requests reachable until they are measured
+                Reference.reachabilityFence(list);
+                list = null;
+
+                baseline = usedHeap();
+                start = System.nanoTime();
+                PackedLoadFundsRequests packed = loadFundsRequestReader.readPackedFromFile(inputPath.toString());
+                checksum = 0;
+                for (LoadFundsRequest loadFundsRequest : packed) {
+                    checksum += loadFundsRequest.getCustomerId();
+                }
+                elapsed = System.nanoTime() - start;
+                report("packed", packed.size(), elapsed, usedHeap() - baseline, checksum);
+                Reference.reachabilityFence(packed);
+                packed = null;
+            }
+        } finally {
+            Files.deleteIfExists(inputPath);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int collection = 0; collection < 3; collection++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String label, long numberOfRequests, long elapsedNanos, long retainedBytes, long checksum) {
+        System.out.printf("%-16s %8d requests, read and iterated in %5d ms, %10d bytes retained, %4d bytes/request (checksum %d)%n",
+                label, numberOfRequests, elapsedNanos / 1_000_000, retainedBytes,
+                retainedBytes / numberOfRequests, checksum);
+    }
+}
@@ -0,0 +1,73 @@
+package benchmark;
+
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.service.PartitionedLoadFundsExecutor;
+import com.tryvault.util.ZipfDistribution;
+
+import java.math.BigDecimal;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Compares plain hash partitioning with skew-aware scheduling on a Zipf distributed synthetic input.
+ * Each decision is modelled as a fixed wait, like a database round trip, so the benchmark measures how evenly the lanes
+ * are loaded rather than how many cores the machine has.
+ *
+ * <p>
+ * Usage: benchmark.SkewedSchedulingBenchmark [requests] [customers] [exponent] [lanes] [decisionMicros]
+ */
+public class SkewedSchedulingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numberOfRequests = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int numberOfCustomers = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        double exponent = args.length > 2 ? Double.parseDouble(args[2]) : 1.1;
+        int numberOfLanes = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        long decisionNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 4 ? Long.parseLong(args[4]) : 50);
+
+        List<LoadFundsRequest> loadFundsRequests = zipfRequests(numberOfRequests, numberOfCustomers, exponent);
+        Function<LoadFundsRequest, Boolean> decision = loadFundsRequest -> {
+            LockSupport.parkNanos(decisionNanos);
+            return Boolean.TRUE;
+        };
+
+        System.out.printf("%d requests, %d customers, Zipf exponent %.2f, %d lanes, %d us per decision%n",
+                numberOfRequests, numberOfCustomers, exponent, numberOfLanes, TimeUnit.NANOSECONDS.toMicros(decisionNanos));
+
+        for (int round = 0; round < 3; round++) {
+            run("hash partitioned", loadFundsRequests, new PartitionedLoadFundsExecutor(decision, numberOfLanes, false, 1.0, 0));
+            run("skew aware", loadFundsRequests, new PartitionedLoadFundsExecutor(decision, numberOfLanes));
+        }
+    }
+
+    private static void run(String name, List<LoadFundsRequest> loadFundsRequests, PartitionedLoadFundsExecutor executor)
+            throws Exception {
+        long[] decided = new long[1];
+        long start = System.nanoTime();
+        try (executor) {
+            executor.processInOrder(loadFundsRequests, (loadFundsRequest, accepted) -> decided[0]++);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-17s %8.0f requests/s (%d dedicated lanes)%n", name, decided[0] / seconds,
+                    executor.getDedicatedCustomers().size());
+        }
+    }
+
+    private static List<LoadFundsRequest> zipfRequests(int numberOfRequests, int numberOfCustomers, double exponent) {
+        ZipfDistribution customers = new ZipfDistribution(numberOfCustomers, exponent);
+        Random random = new Random(42);
+        ZonedDateTime time = ZonedDateTime.of(2000, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        BigDecimal loadAmount = new BigDecimal("100.00");
+
+        List<LoadFundsRequest> loadFundsRequests = new ArrayList<>(numberOfRequests);
+        for (int id = 0; id < numberOfRequests; id++) {
+            loadFundsRequests.add(new LoadFundsRequest(id, customers.sample(random), loadAmount, time.plusSeconds(id)));
+        }
+        return loadFundsRequests;
+    }
+}
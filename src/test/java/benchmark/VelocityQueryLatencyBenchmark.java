@@ -0,0 +1,135 @@
+package benchmark;
+
+import ch.qos.logback.classic.Level;
+import org.flywaydb.core.Flyway;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the latency of the velocity and duplicate queries as load_funds_request grows, on the schema of the Flyway
+ * migrations, with and without the indexes they create. The queries are the SQL the repository issues.
+ *
+ * <p>
+ * Usage: benchmark.VelocityQueryLatencyBenchmark [maxRows] [customers] [queries]
+ */
+public class VelocityQueryLatencyBenchmark {
+
+    private static final String COUNT_QUERY = "SELECT COUNT(*) FROM public.load_funds_request "
+            + "WHERE customer_id = ? AND time BETWEEN ? AND ? AND accepted = ?";
+
+    private static final String SUM_QUERY = "SELECT COALESCE(SUM(load_amount), 0) FROM public.load_funds_request "
+            + "WHERE accepted = ? AND customer_id = ? AND time BETWEEN ? AND ?";
+
+    private static final String EXISTS_QUERY = "SELECT EXISTS (SELECT 1 FROM public.load_funds_request p "
+            + "WHERE p.id = ? AND p.customer_id = ?) OR EXISTS (SELECT 1 FROM public.load_funds_request_archive a "
+            + "WHERE a.id = ? AND a.customer_id = ?)";
+
+    private static final long START = Timestamp.valueOf("2000-01-03 00:00:00").getTime();
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    public static void main(String[] args) throws Exception {
+        int maxRows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int customers = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        // Flyway logs every migration statement at DEBUG level without a logging configuration
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        for (boolean indexed : new boolean[]{false, true}) {
+            String url = "jdbc:h2:mem:velocity-" + indexed;
+            try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+                Flyway.configure().dataSource(url, "sa", "").load().migrate();
+                if (!indexed) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("DROP INDEX public.idx_load_funds_request_velocity");
+                        statement.execute("DROP INDEX public.idx_load_funds_request_id_customer");
+                    }
+                }
+
+                System.out.printf("%s indexes, %d customers%n", indexed ? "With" : "Without", customers);
+                Random random = new Random(42);
+                int rows = 0;
+                for (int size = 10_000; size <= maxRows; size *= 10) {
+                    rows = insert(connection, rows, size, customers, random);
+                    // Without indexes every query is a full scan, so fewer of them are enough
+                    measure(connection, size, customers, indexed ? queries : Math.max(20, queries * 10_000 / size));
+                }
+            }
+        }
+    }
+
+    private static int insert(Connection connection, int from, int to, int customers, Random random) throws Exception {
+        // Requests are spread over a year, so the table holds many weeks of history for each customer
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO public.load_funds_request "
+                + "(id, accepted, customer_id, load_amount, time) VALUES (?, ?, ?, ?, ?)")) {
+            for (int id = from; id < to; id++) {
+                statement.setLong(1, id);
+                statement.setBoolean(2, random.nextInt(4) != 0);
+                statement.setLong(3, random.nextInt(customers));
+                statement.setBigDecimal(4, java.math.BigDecimal.valueOf(random.nextInt(500_000), 2));
+                statement.setTimestamp(5, new Timestamp(START + (long) id * 365 * MILLIS_PER_DAY / to));
+                statement.addBatch();
+                if (id % 10_000 == 9_999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+        return to;
+    }
+
+    private static void measure(Connection connection, int size, int customers, int queries) throws Exception {
+        long[] latencies = new long[queries];
+        Random random = new Random(7);
+        try (PreparedStatement count = connection.prepareStatement(COUNT_QUERY);
+             PreparedStatement sum = connection.prepareStatement(SUM_QUERY);
+             PreparedStatement exists = connection.prepareStatement(EXISTS_QUERY)) {
+            for (int query = 0; query < queries; query++) {
+                long customerId = random.nextInt(customers);
+                long day = START + random.nextInt(365) * MILLIS_PER_DAY;
+                Timestamp startOfDay = new Timestamp(day);
+                Timestamp endOfDay = new Timestamp(day + MILLIS_PER_DAY);
+                Timestamp startOfWeek = new Timestamp(day - 6 * MILLIS_PER_DAY);
+
+                long start = System.nanoTime();
+                // One decision: the duplicate check and the three velocity checks
+                exists.setLong(1, random.nextInt(size));
+                exists.setLong(2, customerId);
+                exists.setLong(3, random.nextInt(size));
+                exists.setLong(4, customerId);
+                consume(exists);
+                count.setLong(1, customerId);
+                count.setTimestamp(2, startOfDay);
+                count.setTimestamp(3, endOfDay);
+                count.setBoolean(4, true);
+                consume(count);
+                sum.setBoolean(1, true);
+                sum.setLong(2, customerId);
+                sum.setTimestamp(3, startOfDay);
+                sum.setTimestamp(4, endOfDay);
+                consume(sum);
+                sum.setTimestamp(3, startOfWeek);
+                consume(sum);
+                latencies[query] = System.nanoTime() - start;
+            }
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("  %,10d rows: p50 %8.1f us, p99 %8.1f us per decision (%d samples)%n", size,
+                latencies[queries / 2] / 1e3, latencies[queries * 99 / 100] / 1e3, queries);
+    }
+
+    private static void consume(PreparedStatement statement) throws Exception {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package diagnostics;
+
+import com.tryvault.diagnostics.AllocationProfiler;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AllocationProfilerTest {
+
+    @Test
+    public void testRecord_AttributesTheAllocationsOfTheCurrentThread() {
+        AllocationProfiler allocationProfiler = new AllocationProfiler();
+        long mark = allocationProfiler.mark();
+        byte[][] buffers = new byte[16][];
+        for (int index = 0; index < buffers.length; index++) {
+            buffers[index] = new byte[64 * 1024];
+        }
+        allocationProfiler.record(AllocationProfiler.Stage.PARSE, mark);
+
+        assertTrue(allocationProfiler.getAllocatedBytes(AllocationProfiler.Stage.PARSE) >= 16L * 64 * 1024);
+        assertEquals(0, allocationProfiler.getAllocatedBytes(AllocationProfiler.Stage.RESPONSE));
+        assertEquals(0, allocationProfiler.getBytesPerRequest(AllocationProfiler.Stage.PARSE));
+    }
+
+    @Test
+    public void testDecideLoadAttempt_CountsRequestsAndAttributesTheirStages() {
+        AllocationProfiler allocationProfiler = new AllocationProfiler();
+        LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(new InMemoryLoadFundsRequestStore());
+        loadFundsRequestService.setAllocationProfiler(allocationProfiler);
+
+        ZonedDateTime time = ZonedDateTime.parse("2000-01-05T10:00:00Z");
+        for (long id = 1; id <= 100; id++) {
+            loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(id, id % 7, new BigDecimal("10.00"), time));
+        }
+
+        assertEquals(100, allocationProfiler.getNumberOfRequests());
+        assertTrue(allocationProfiler.getAllocatedBytes(AllocationProfiler.Stage.TIME_WINDOWS) > 0);
+        assertTrue(allocationProfiler.getAllocatedBytes(AllocationProfiler.Stage.SAVE) > 0);
+        assertTrue(allocationProfiler.report().startsWith("Allocations of 100 load funds requests:"));
+    }
+}
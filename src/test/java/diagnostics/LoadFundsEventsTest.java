@@ -0,0 +1,84 @@
+package diagnostics;
+
+import com.tryvault.diagnostics.LoadFundsPhaseEvent;
+import com.tryvault.diagnostics.LoadFundsRequestEvent;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsEventsTest {
+
+    private static final ZonedDateTime TIME = ZonedDateTime.parse("2000-01-05T10:00:00Z");
+
+    @Test
+    public void testEvents_AreDisabledByDefault() {
+        FlightRecorder.register(LoadFundsRequestEvent.class);
+        EventType eventType = EventType.getEventType(LoadFundsRequestEvent.class);
+        assertFalse(eventType.isEnabled());
+        assertFalse(new LoadFundsRequestEvent().isEnabled());
+    }
+
+    @Test
+    public void testEvents_CarryTheDecisionAndRejectionReason() throws Exception {
+        LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(new InMemoryLoadFundsRequestStore());
+        Path recordingPath = Files.createTempFile("tryvault-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(LoadFundsRequestEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(LoadFundsPhaseEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+
+            assertTrue(loadFundsRequestService.decideLoadAttempt(request(1L, "4000.00")));
+            assertFalse(loadFundsRequestService.decideLoadAttempt(request(2L, "1000.00")));
+            assertNull(loadFundsRequestService.decideLoadAttempt(request(1L, "4000.00")));
+
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+
+        try {
+            List<RecordedEvent> requestEvents = RecordingFile.readAllEvents(recordingPath).stream()
+                    .filter(event -> event.getEventType().getName().equals("com.tryvault.LoadFundsRequest"))
+                    .collect(Collectors.toList());
+            assertEquals(3, requestEvents.size());
+            assertEquals(LoadFundsRequestEvent.ACCEPTED, requestEvents.get(0).getString("decision"));
+            assertEquals(LoadFundsRequestEvent.REJECTED, requestEvents.get(1).getString("decision"));
+            assertEquals(LoadFundsPhaseEvent.DAILY_AMOUNT, requestEvents.get(1).getString("rejectionReason"));
+            assertEquals(2L, requestEvents.get(1).getLong("id"));
+            assertEquals(10L, requestEvents.get(1).getLong("customerId"));
+            assertEquals(LoadFundsRequestEvent.DUPLICATE, requestEvents.get(2).getString("decision"));
+
+            // Accepted and rejected requests go through every phase up to the one rejecting them, then the save
+            List<String> phases = RecordingFile.readAllEvents(recordingPath).stream()
+                    .filter(event -> event.getEventType().getName().equals("com.tryvault.LoadFundsPhase"))
+                    .map(event -> event.getString("phase"))
+                    .collect(Collectors.toList());
+            assertEquals(List.of(LoadFundsPhaseEvent.DEDUPE, LoadFundsPhaseEvent.DAILY_COUNT, LoadFundsPhaseEvent.DAILY_AMOUNT,
+                    LoadFundsPhaseEvent.WEEKLY_AMOUNT, LoadFundsPhaseEvent.SAVE,
+                    LoadFundsPhaseEvent.DEDUPE, LoadFundsPhaseEvent.DAILY_COUNT, LoadFundsPhaseEvent.DAILY_AMOUNT,
+                    LoadFundsPhaseEvent.SAVE,
+                    LoadFundsPhaseEvent.DEDUPE), phases);
+        } finally {
+            Files.deleteIfExists(recordingPath);
+        }
+    }
+
+    private static LoadFundsRequest request(long id, String amount) {
+        return new LoadFundsRequest(id, 10L, new BigDecimal(amount), TIME);
+    }
+}
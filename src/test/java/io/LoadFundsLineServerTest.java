@@ -0,0 +1,302 @@
+package io;
+
+import com.tryvault.io.LoadFundsLineServer;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.repository.JdbcLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.util.AimdConcurrencyLimit;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsLineServerTest {
+
+    @Test
+    public void testPipelinedRequests_ResponsesMatchTheExpectedOutput() throws Exception {
+        byte[] input = Files.readAllBytes(Path.of("input.txt"));
+        String expected = Files.readString(Path.of("output_expected.txt"));
+
+        // A small maximum of outstanding requests, so reading the connection pauses and resumes
+        try (LoadFundsLineServer server = newServer(16)) {
+            String responses = exchange(server.getPort(), input, 777);
+
+            assertEquals(expected + "\n", responses);
+        }
+    }
+
+    @Test
+    public void testMalformedAndBlankLines_AreSkipped() throws Exception {
+        String input = "\n{\"id\":\"1\",\"customer_id\":\"2\",\"load_amount\":\"$10.00\",\"time\":\"2000-01-01T00:00:00Z\"}\r\n"
+                + "not json\n\n"
+                + "{\"id\":\"1\",\"customer_id\":\"2\",\"load_amount\":\"$10.00\",\"time\":\"2000-01-01T00:01:00Z\"}\n"
+                + "{\"id\":\"3\",\"customer_id\":\"2\",\"load_amount\":\"$5000.00\",\"time\":\"2000-01-01T00:02:00Z\"}";
+
+        try (LoadFundsLineServer server = newServer(1024)) {
+            String responses = exchange(server.getPort(), input.getBytes(StandardCharsets.UTF_8), 5);
+
+            assertEquals("{\"id\":\"1\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                    + "{\"id\":\"3\",\"customer_id\":\"2\",\"accepted\":false}\n", responses);
+        }
+    }
+
+    @Test
+    public void testBatchingStore_RequestsAreStoredBeforeTheirResponsesAreSent() throws Exception {
+        String input = request(1, "2000-01-01T00:00:00Z") + request(2, "2000-01-01T00:01:00Z");
+
+        try (HikariDataSource dataSource = new HikariDataSource()) {
+            dataSource.setJdbcUrl("jdbc:h2:mem:line-server-test");
+            Flyway.configure().dataSource(dataSource).load().migrate();
+            // A batch larger than the input, so only the server can have flushed the pending requests
+            try (JdbcLoadFundsRequestStore loadFundsRequestStore = new JdbcLoadFundsRequestStore(dataSource, 10_000);
+                 LoadFundsLineServer server = new LoadFundsLineServer(new LoadFundsRequestService(loadFundsRequestStore),
+                         new LoadFundsRequestReader(), new InetSocketAddress("127.0.0.1", 0), 1024)) {
+                server.start();
+                String responses = exchange(server.getPort(), input.getBytes(StandardCharsets.UTF_8), input.length());
+                assertEquals("{\"id\":\"1\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                        + "{\"id\":\"2\",\"customer_id\":\"2\",\"accepted\":true}\n", responses);
+
+                // Another connection sees every request that was answered
+                try (Connection connection = dataSource.getConnection();
+                     Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM public.load_funds_request")) {
+                    resultSet.next();
+                    assertEquals(2, resultSet.getLong(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFailedStoreFlush_DecidedRequestsAreAnsweredWithAnError() throws Exception {
+        class UnflushableStore extends InMemoryLoadFundsRequestStore implements Flushable {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("The database is unavailable");
+            }
+        }
+        String input = request(1, "2000-01-01T00:00:00Z") + request(1, "2000-01-01T00:00:00Z");
+
+        try (LoadFundsLineServer server = newServer(new UnflushableStore(), 1024)) {
+            String responses = exchange(server.getPort(), input.getBytes(StandardCharsets.UTF_8), input.length());
+
+            // The duplicate still has no response
+            assertEquals("{\"id\":\"1\",\"customer_id\":\"2\",\"error\":\"store_failed\"}\n", responses);
+        }
+    }
+
+    @Test
+    public void testExpiredDeadline_RequestsAreShedWithoutBeingRecorded() throws Exception {
+        InMemoryLoadFundsRequestStore loadFundsRequestStore = slowFirstRequestStore();
+        String input = request(1, "2000-01-01T00:00:00Z") + request(2, "2000-01-01T00:01:00Z") + request(3, "2000-01-01T00:02:00Z");
+
+        try (LoadFundsLineServer server = new LoadFundsLineServer(new LoadFundsRequestService(loadFundsRequestStore),
+                new LoadFundsRequestReader(), new InetSocketAddress("127.0.0.1", 0), 1024)) {
+            server.setRequestTimeoutMillis(100);
+            server.start();
+
+            // The requests read with the first one are past their deadline once it is decided
+            String responses = exchange(server.getPort(), input.getBytes(StandardCharsets.UTF_8), input.length());
+            assertEquals("{\"id\":\"1\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                    + "{\"id\":\"2\",\"customer_id\":\"2\",\"error\":\"deadline_exceeded\"}\n"
+                    + "{\"id\":\"3\",\"customer_id\":\"2\",\"error\":\"deadline_exceeded\"}\n", responses);
+            assertEquals(1, loadFundsRequestStore.count());
+            assertEquals(2, server.getShedRequests());
+
+            // Shed requests were not recorded, so they are decided when sent again
+            String retried = request(2, "2000-01-01T00:01:00Z");
+            assertEquals("{\"id\":\"2\",\"customer_id\":\"2\",\"accepted\":true}\n",
+                    exchange(server.getPort(), retried.getBytes(StandardCharsets.UTF_8), retried.length()));
+        }
+    }
+
+    @Test
+    public void testClientTimeout_ShedsTheRequestsPastTheirOwnDeadline() throws Exception {
+        InMemoryLoadFundsRequestStore loadFundsRequestStore = slowFirstRequestStore();
+        String input = request(1, "2000-01-01T00:00:00Z")
+                + request(2, "2000-01-01T00:01:00Z").replace("}", ",\"timeout_ms\":100}")
+                + request(3, "2000-01-01T00:02:00Z").replace("}", ",\"timeout_ms\":10000}");
+
+        // No server timeout, the requests read with the first one only wait for as long as they asked
+        try (LoadFundsLineServer server = newServer(loadFundsRequestStore, 1024)) {
+            String responses = exchange(server.getPort(), input.getBytes(StandardCharsets.UTF_8), input.length());
+
+            assertEquals("{\"id\":\"1\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                    + "{\"id\":\"2\",\"customer_id\":\"2\",\"error\":\"deadline_exceeded\"}\n"
+                    + "{\"id\":\"3\",\"customer_id\":\"2\",\"accepted\":true}\n", responses);
+            assertEquals(2, loadFundsRequestStore.count());
+            assertEquals(1, server.getShedRequests());
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimit_RequestsPastTheLimitAreShedAsOverloaded() throws Exception {
+        InMemoryLoadFundsRequestStore loadFundsRequestStore = slowFirstRequestStore();
+        StringBuilder input = new StringBuilder();
+        for (int id = 1; id <= 5; id++) {
+            input.append(request(id, "2000-01-01T00:0" + id + ":00Z"));
+        }
+
+        try (LoadFundsLineServer server = new LoadFundsLineServer(new LoadFundsRequestService(loadFundsRequestStore),
+                new LoadFundsRequestReader(), new InetSocketAddress("127.0.0.1", 0), 1024)) {
+            server.setConcurrencyLimit(new AimdConcurrencyLimit(2, 2, TimeUnit.SECONDS.toNanos(10), 0.5));
+            server.start();
+
+            String responses = exchange(server.getPort(), input.toString().getBytes(StandardCharsets.UTF_8), 50);
+            assertEquals("{\"id\":\"1\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                    + "{\"id\":\"2\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                    + "{\"id\":\"3\",\"customer_id\":\"2\",\"error\":\"overloaded\"}\n"
+                    + "{\"id\":\"4\",\"customer_id\":\"2\",\"error\":\"overloaded\"}\n"
+                    + "{\"id\":\"5\",\"customer_id\":\"2\",\"error\":\"overloaded\"}\n", responses);
+            assertEquals(2, loadFundsRequestStore.count());
+        }
+    }
+
+    @Test
+    public void testFailedDecision_IsAnsweredWithAnErrorAndGivesItsPermitBack() throws Exception {
+        InMemoryLoadFundsRequestStore loadFundsRequestStore = new InMemoryLoadFundsRequestStore() {
+            @Override
+            public boolean existsByIdAndCustomerId(long id, long customerId) {
+                if (id == 2) {
+                    throw new IllegalStateException("Query timed out");
+                }
+                return super.existsByIdAndCustomerId(id, customerId);
+            }
+        };
+        String input = request(1, "2000-01-01T00:00:00Z") + request(2, "2000-01-01T00:01:00Z");
+        String retried = request(3, "2000-01-01T00:02:00Z") + request(4, "2000-01-01T00:03:00Z");
+
+        try (LoadFundsLineServer server = newServer(loadFundsRequestStore, 1024)) {
+            server.setConcurrencyLimit(new AimdConcurrencyLimit(2, 2, TimeUnit.SECONDS.toNanos(10), 0.5));
+
+            // The connection is closed once its requests are answered, and the next ones are admitted
+            String responses = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> exchange(server.getPort(), input.getBytes(StandardCharsets.UTF_8), input.length()));
+            assertEquals("{\"id\":\"1\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                    + "{\"id\":\"2\",\"customer_id\":\"2\",\"error\":\"store_failed\"}\n", responses);
+            String retriedResponses = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> exchange(server.getPort(), retried.getBytes(StandardCharsets.UTF_8), retried.length()));
+            assertEquals("{\"id\":\"3\",\"customer_id\":\"2\",\"accepted\":true}\n"
+                    + "{\"id\":\"4\",\"customer_id\":\"2\",\"accepted\":true}\n", retriedResponses);
+        }
+    }
+
+    @Test
+    public void testClose_WhileARequestIsDecided_StopsReadingBeforeTheDecisionThread() throws Exception {
+        List<Throwable> uncaught = new CopyOnWriteArrayList<>();
+        Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> uncaught.add(e));
+        LoadFundsLineServer server = newServer(slowFirstRequestStore(), 1024);
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(request(1, "2000-01-01T00:00:00Z").getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+            Thread.sleep(100);
+
+            // Closing waits for request 1, a line arriving meanwhile must not reach the stopped decision thread
+            CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Thread.sleep(100);
+            try {
+                outputStream.write(request(2, "2000-01-01T00:01:00Z").getBytes(StandardCharsets.UTF_8));
+                outputStream.flush();
+            } catch (IOException e) {
+                // Already closed by the server
+            }
+            closed.get(10, TimeUnit.SECONDS);
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        }
+
+        assertEquals(List.of(), uncaught);
+    }
+
+    private static String request(long id, String time) {
+        return "{\"id\":\"" + id + "\",\"customer_id\":\"2\",\"load_amount\":\"$10.00\",\"time\":\"" + time + "\"}\n";
+    }
+
+    /**
+     * A store taking 300 ms over the duplicate check of request 1, so the requests read after it wait for it.
+     */
+    private static InMemoryLoadFundsRequestStore slowFirstRequestStore() {
+        return new InMemoryLoadFundsRequestStore() {
+            @Override
+            public boolean existsByIdAndCustomerId(long id, long customerId) {
+                if (id == 1) {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.existsByIdAndCustomerId(id, customerId);
+            }
+        };
+    }
+
+    private static LoadFundsLineServer newServer(int maxOutstandingRequests) throws Exception {
+        return newServer(new InMemoryLoadFundsRequestStore(), maxOutstandingRequests);
+    }
+
+    private static LoadFundsLineServer newServer(InMemoryLoadFundsRequestStore loadFundsRequestStore,
+                                                 int maxOutstandingRequests) throws Exception {
+        LoadFundsLineServer server = new LoadFundsLineServer(new LoadFundsRequestService(loadFundsRequestStore),
+                new LoadFundsRequestReader(), new InetSocketAddress("127.0.0.1", 0), maxOutstandingRequests);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Sends the input in chunks that cut lines anywhere while the responses are read, then reads the rest of them.
+     */
+    private static String exchange(int port, byte[] input, int chunkSize) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            InputStream inputStream = socket.getInputStream();
+            CompletableFuture<byte[]> responses = CompletableFuture.supplyAsync(() -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try {
+                    inputStream.transferTo(bytes);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return bytes.toByteArray();
+            });
+
+            OutputStream outputStream = socket.getOutputStream();
+            for (int offset = 0; offset < input.length; offset += chunkSize) {
+                outputStream.write(input, offset, Math.min(chunkSize, input.length - offset));
+                outputStream.flush();
+            }
+            socket.shutdownOutput();
+
+            return new String(responses.get(), StandardCharsets.UTF_8);
+        }
+    }
+}
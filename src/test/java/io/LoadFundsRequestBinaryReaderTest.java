@@ -0,0 +1,61 @@
+package io;
+
+import com.tryvault.io.LoadFundsRequestBinaryReader;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.tools.LoadFundsRequestBinaryConverter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsRequestBinaryReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testConvert_ReadsBackTheSameRequestsAsTheJsonReader() throws Exception {
+        Path binaryPath = tempDir.resolve("input.bin");
+        LoadFundsRequestReader loadFundsRequestReader = new LoadFundsRequestReader();
+        long count = new LoadFundsRequestBinaryConverter(loadFundsRequestReader).convert(Paths.get("input.txt"), binaryPath);
+
+        List<LoadFundsRequest> expected = loadFundsRequestReader.readFromFile("input.txt");
+        LoadFundsRequestBinaryReader binaryReader = LoadFundsRequestBinaryReader.open(binaryPath);
+        assertTrue(LoadFundsRequestBinaryReader.isBinary(binaryPath));
+        assertFalse(LoadFundsRequestBinaryReader.isBinary(Paths.get("input.txt")));
+        assertEquals(expected.size(), count);
+        assertEquals(expected.size(), binaryReader.size());
+
+        int index = 0;
+        for (LoadFundsRequest actual : binaryReader) {
+            LoadFundsRequest request = expected.get(index++);
+            assertEquals(request.getId(), actual.getId());
+            assertEquals(request.getCustomerId(), actual.getCustomerId());
+            assertEquals(0, request.getLoadAmount().compareTo(actual.getLoadAmount()));
+            assertEquals(request.getTime(), actual.getTime());
+        }
+        assertEquals(expected.size(), index);
+    }
+
+    @Test
+    public void testOpen_RejectsIncompleteFiles() throws Exception {
+        Path binaryPath = tempDir.resolve("input.bin");
+        new LoadFundsRequestBinaryConverter(new LoadFundsRequestReader()).convert(Paths.get("input.txt"), binaryPath);
+
+        try (RandomAccessFile file = new RandomAccessFile(binaryPath.toFile(), "rw")) {
+            file.setLength(file.length() - 7);
+        }
+        assertThrows(IOException.class, () -> LoadFundsRequestBinaryReader.open(binaryPath));
+
+        Files.writeString(binaryPath, "{\"id\":\"1\"}");
+        assertThrows(IOException.class, () -> LoadFundsRequestBinaryReader.open(binaryPath));
+    }
+}
@@ -0,0 +1,82 @@
+package io;
+
+import com.tryvault.io.LoadFundsRequestFileFollower;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.model.LoadFundsRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsRequestFileFollowerTest {
+
+    private static final String FIRST = "{\"id\":\"1\",\"customer_id\":\"10\",\"load_amount\":\"$1.00\",\"time\":\"2000-01-01T00:00:00Z\"}";
+    private static final String SECOND = "{\"id\":\"2\",\"customer_id\":\"10\",\"load_amount\":\"$2.00\",\"time\":\"2000-01-01T00:01:00Z\"}";
+    private static final String THIRD = "{\"id\":\"3\",\"customer_id\":\"20\",\"load_amount\":\"$3.00\",\"time\":\"2000-01-01T00:02:00Z\"}";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testFollow_ReadsAppendedLinesAndCompletesPartialLines() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        Files.writeString(inputPath, FIRST + "\n" + SECOND.substring(0, 20));
+
+        List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+        LoadFundsRequestFileFollower follower = new LoadFundsRequestFileFollower(inputPath, new LoadFundsRequestReader(), 20, 1000);
+        CompletableFuture<Void> following = CompletableFuture.runAsync(() -> {
+            try {
+                follower.follow(loadFundsRequests -> loadFundsRequests.forEach(request -> ids.add(request.getId())));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // Complete the partial line, then append a last line without a line break
+        awaitSize(ids, 1);
+        append(inputPath, SECOND.substring(20) + "\n\n");
+        awaitSize(ids, 2);
+        append(inputPath, THIRD);
+
+        following.get(10, TimeUnit.SECONDS);
+        assertEquals(List.of(1L, 2L, 3L), ids);
+        assertEquals(Files.size(inputPath), follower.getConsumedPosition());
+    }
+
+    @Test
+    public void testFollow_SkipsMalformedLinesAndResumesFromOffset() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        Files.writeString(inputPath, FIRST + "\nnot a request\n" + SECOND + "\n" + THIRD + "\n");
+
+        List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+        LoadFundsRequestFileFollower follower = new LoadFundsRequestFileFollower(inputPath, new LoadFundsRequestReader(), 10, 50);
+        follower.seek(FIRST.length() + 1);
+        follower.follow(loadFundsRequests::addAll);
+
+        assertEquals(2, loadFundsRequests.size());
+        assertEquals(2L, loadFundsRequests.get(0).getId());
+        assertEquals(20L, loadFundsRequests.get(1).getCustomerId());
+    }
+
+    private static void append(Path path, String text) throws Exception {
+        Files.writeString(path, text, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    private static void awaitSize(List<Long> ids, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ids.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(size, ids.size());
+    }
+}
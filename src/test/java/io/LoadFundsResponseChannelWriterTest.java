@@ -0,0 +1,60 @@
+package io;
+
+import com.tryvault.io.LoadFundsResponseChannelWriter;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.model.LoadFundsResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsResponseChannelWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testWrite_IsByteIdenticalToJacksonWriter() throws Exception {
+        long[][] responses = {{15887L, 528L, 1L}, {0L, 9L, 0L}, {-42L, Long.MAX_VALUE, 1L}, {Long.MIN_VALUE, 1000000L, 0L}};
+
+        // Build the expected output with the Jackson based writer
+        List<LoadFundsResponse> loadFundsResponses = new ArrayList<>();
+        for (long[] response : responses) {
+            loadFundsResponses.add(new LoadFundsResponse(String.valueOf(response[0]), String.valueOf(response[1]), response[2] == 1L));
+        }
+        Path expectedPath = tempDir.resolve("expected.txt");
+        new LoadFundsResponseWriter().writeToFile(loadFundsResponses, expectedPath.toString());
+
+        // Encode the same responses from their primitive fields
+        Path actualPath = tempDir.resolve("actual.txt");
+        try (LoadFundsResponseChannelWriter writer = new LoadFundsResponseChannelWriter(actualPath)) {
+            for (long[] response : responses) {
+                writer.write(response[0], response[1], response[2] == 1L);
+            }
+            assertEquals(responses.length, writer.getCount());
+        }
+
+        assertArrayEquals(Files.readAllBytes(expectedPath), Files.readAllBytes(actualPath));
+    }
+
+    @Test
+    public void testWrite_FlushesAcrossBufferBoundaries() throws Exception {
+        Path actualPath = tempDir.resolve("actual.txt");
+        int count = 50_000;
+
+        try (LoadFundsResponseChannelWriter writer = new LoadFundsResponseChannelWriter(actualPath)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(i, i % 100, i % 3 == 0);
+            }
+        }
+
+        List<String> lines = Files.readAllLines(actualPath);
+        assertEquals(count, lines.size());
+        assertEquals("{\"id\":\"49999\",\"customer_id\":\"99\",\"accepted\":false}", lines.get(count - 1));
+    }
+}
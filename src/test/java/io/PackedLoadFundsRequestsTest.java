@@ -0,0 +1,88 @@
+package io;
+
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.PackedLoadFundsRequests;
+import com.tryvault.model.LoadFundsRequest;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedLoadFundsRequestsTest {
+
+    @Test
+    public void testReadPackedFromFile_MaterializesTheRequestsOfTheJsonReader() throws Exception {
+        LoadFundsRequestReader loadFundsRequestReader = new LoadFundsRequestReader();
+        List<LoadFundsRequest> expected = loadFundsRequestReader.readFromFile("input.txt");
+        PackedLoadFundsRequests packed = loadFundsRequestReader.readPackedFromFile("input.txt");
+
+        assertEquals(expected.size(), packed.size());
+        int index = 0;
+        for (LoadFundsRequest actual : packed) {
+            LoadFundsRequest request = expected.get(index);
+            assertEquals(request.getId(), actual.getId());
+            assertEquals(request.getCustomerId(), actual.getCustomerId());
+            assertEquals(request.getLoadAmount(), actual.getLoadAmount());
+            assertEquals(request.getTime(), actual.getTime());
+            assertEquals(request.getCustomerId(), packed.getCustomerId(index));
+            assertEquals(request.getLoadAmount().movePointRight(2).longValueExact(), packed.getAmountCents(index));
+            assertEquals(request.getTime().toEpochSecond(), packed.getEpochSecond(index));
+            index++;
+        }
+    }
+
+    @Test
+    public void testAdd_KeepsTheRequestsThatCannotBePackedAsTheyAre() {
+        ZonedDateTime time = ZonedDateTime.of(2000, 1, 3, 10, 0, 0, 0, ZoneId.of("UTC"));
+        LoadFundsRequest fractionOfCent = new LoadFundsRequest(1, 2, new BigDecimal("10.005"), time);
+        LoadFundsRequest wholeDollars = new LoadFundsRequest(3, 2, new BigDecimal("10"), time);
+        LoadFundsRequest fractionOfSecond = new LoadFundsRequest(4, 2, new BigDecimal("10.00"), time.withNano(500));
+        LoadFundsRequest otherZone = new LoadFundsRequest(5, 2, new BigDecimal("10.00"),
+                time.withZoneSameInstant(ZoneOffset.ofHours(-5)));
+        LoadFundsRequest packable = new LoadFundsRequest(6, 2, new BigDecimal("10.00"), time);
+
+        PackedLoadFundsRequests packed = new PackedLoadFundsRequests();
+        for (LoadFundsRequest loadFundsRequest : List.of(fractionOfCent, wholeDollars, fractionOfSecond, otherZone, packable)) {
+            packed.add(loadFundsRequest);
+        }
+
+        assertSame(fractionOfCent, packed.get(0));
+        assertSame(wholeDollars, packed.get(1));
+        assertSame(fractionOfSecond, packed.get(2));
+        assertSame(otherZone, packed.get(3));
+        assertNotSame(packable, packed.get(4));
+        assertThrows(ArithmeticException.class, () -> packed.getAmountCents(0));
+        assertEquals(1000, packed.getAmountCents(1));
+        assertEquals(500, packed.getNano(2));
+        assertEquals(time.toEpochSecond(), packed.getEpochSecond(3));
+        assertEquals(packable.getTime(), packed.get(4).getTime());
+    }
+
+    @Test
+    public void testAdd_SpansSeveralPagesAndCopiesBetweenPackedRequests() {
+        ZonedDateTime time = ZonedDateTime.of(2000, 1, 3, 0, 0, 0, 0, ZoneId.of("UTC"));
+        PackedLoadFundsRequests packed = new PackedLoadFundsRequests();
+        for (int index = 0; index < 200_000; index++) {
+            packed.add(new LoadFundsRequest(index, index % 97, BigDecimal.valueOf(index, 2), time.plusSeconds(index)));
+        }
+        packed.add(new LoadFundsRequest(-1, -1, new BigDecimal("0.001"), time));
+
+        PackedLoadFundsRequests copy = new PackedLoadFundsRequests();
+        for (int index = packed.size() - 1; index >= 0; index--) {
+            copy.add(packed, index);
+        }
+
+        assertEquals(200_001, copy.size());
+        assertEquals(new BigDecimal("0.001"), copy.get(0).getLoadAmount());
+        assertEquals(199_999, copy.getId(1));
+        assertEquals(199_999 % 97, copy.getCustomerId(1));
+        assertEquals(199_999, copy.getAmountCents(1));
+        assertEquals(time.plusSeconds(65_536).toEpochSecond(), copy.getEpochSecond(200_000 - 65_536));
+        assertThrows(IndexOutOfBoundsException.class, () -> copy.getId(200_001));
+    }
+}
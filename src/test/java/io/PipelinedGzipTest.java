@@ -0,0 +1,167 @@
+package io;
+
+import com.tryvault.app.LoadFundsBatchRunner;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseChannelWriter;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.io.PipelinedGzipChannel;
+import com.tryvault.io.PipelinedGzipInputStream;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelinedGzipTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRun_GzipInputAndOutputMatchTheUncompressedRun() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt.gz");
+        Path outputPath = tempDir.resolve("output.txt.gz");
+        gzip(Path.of("input.txt"), inputPath);
+
+        new LoadFundsBatchRunner(new LoadFundsRequestService(new InMemoryLoadFundsRequestStore()),
+                new LoadFundsRequestReader(), new LoadFundsResponseWriter()).run(inputPath.toString(), outputPath.toString(), 1);
+
+        assertEquals(Files.readString(Path.of("output_expected.txt")), gunzip(outputPath));
+    }
+
+    @Test
+    public void testReadFromFile_GzipInputOfSeveralChunks() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        Path compressedPath = tempDir.resolve("input.gz");
+        // About 2 MiB, more than one chunk of the inflater
+        new LoadFundsInputGenerator().requests(20_000).seed(3).generate(inputPath, null);
+        gzip(inputPath, compressedPath);
+
+        LoadFundsRequestReader loadFundsRequestReader = new LoadFundsRequestReader();
+        List<LoadFundsRequest> expected = loadFundsRequestReader.readFromFile(inputPath.toString());
+        List<LoadFundsRequest> actual = loadFundsRequestReader.readFromFile(compressedPath.toString());
+
+        assertTrue(Files.size(inputPath) > 1024 * 1024);
+        assertEquals(expected.size(), actual.size());
+        for (int index = 0; index < expected.size(); index++) {
+            assertEquals(expected.get(index).getId(), actual.get(index).getId());
+            assertEquals(expected.get(index).getCustomerId(), actual.get(index).getCustomerId());
+            assertEquals(expected.get(index).getLoadAmount(), actual.get(index).getLoadAmount());
+            assertEquals(expected.get(index).getTime(), actual.get(index).getTime());
+        }
+    }
+
+    @Test
+    public void testChannel_LargeWritesAreDeflatedInOrder() throws Exception {
+        Path outputPath = tempDir.resolve("bytes.gz");
+        byte[] bytes = new byte[3 * 1024 * 1024 + 17];
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = (byte) (index % 251);
+        }
+
+        try (PipelinedGzipChannel channel = new PipelinedGzipChannel(outputPath)) {
+            channel.write(ByteBuffer.wrap(bytes, 0, 100));
+            channel.write(ByteBuffer.wrap(bytes, 100, bytes.length - 100));
+        }
+
+        try (InputStream inputStream = new PipelinedGzipInputStream(outputPath)) {
+            assertArrayEquals(bytes, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testTruncatedGzipFile_FailsTheRead() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt.gz");
+        gzip(Path.of("input.txt"), inputPath);
+        byte[] compressed = Files.readAllBytes(inputPath);
+        Files.write(inputPath, Arrays.copyOf(compressed, compressed.length / 2));
+
+        assertThrows(IOException.class, () -> new LoadFundsRequestReader().readFromFile(inputPath.toString()));
+    }
+
+    @Test
+    public void testContinuingAGzipOutput_IsRejected() {
+        assertThrows(IOException.class, () -> new LoadFundsResponseChannelWriter(tempDir.resolve("output.txt.gz"), 0));
+    }
+
+    @Test
+    public void testChannel_FailureToFinishTheFileFailsTheClose() {
+        // The stream takes the 10 bytes of the header, zeros are only deflated when the file is finished
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            PipelinedGzipChannel channel = new PipelinedGzipChannel(new FailingOutputStream(16), "failing");
+            channel.write(ByteBuffer.wrap(new byte[4 * 1024]));
+            IOException exception = assertThrows(IOException.class, channel::close);
+            assertEquals("No space left on device", exception.getCause().getMessage());
+        });
+    }
+
+    @Test
+    public void testChannel_FailureToWriteAChunkFailsTheWritesAndTheClose() {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            PipelinedGzipChannel channel = new PipelinedGzipChannel(new FailingOutputStream(1024), "failing");
+            byte[] bytes = new byte[1024 * 1024];
+            new Random(3).nextBytes(bytes);
+            // Chunks keep being taken after the failure, so the writes never wait for room and one of them reports it
+            assertThrows(IOException.class, () -> {
+                for (int chunk = 0; chunk < 64; chunk++) {
+                    channel.write(ByteBuffer.wrap(bytes));
+                }
+            });
+            assertThrows(IOException.class, channel::close);
+        });
+    }
+
+    private static void gzip(Path source, Path target) throws IOException {
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(target))) {
+            Files.copy(source, outputStream);
+        }
+    }
+
+    private static String gunzip(Path source) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(source))) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * An output stream failing like a full disk once it has taken a number of bytes.
+     */
+    private static final class FailingOutputStream extends OutputStream {
+
+        private int remaining;
+
+        private FailingOutputStream(int capacity) {
+            this.remaining = capacity;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > remaining) {
+                throw new IOException("No space left on device");
+            }
+            remaining -= length;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package repository;
+
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static repository.LoadFundsRequestEntities.entity;
+
+public class InMemoryLoadFundsRequestStoreTest {
+
+    private static final ZonedDateTime START_OF_DAY = ZonedDateTime.parse("2000-01-05T00:00:00Z");
+    private static final ZonedDateTime END_OF_DAY = START_OF_DAY.plusDays(1);
+
+    @Test
+    public void testRangeQueries_IncludeBothEnds() {
+        InMemoryLoadFundsRequestStore store = new InMemoryLoadFundsRequestStore();
+        store.save(entity(1L, 10L, "100.00", START_OF_DAY, true));
+        store.save(entity(2L, 10L, "200.00", END_OF_DAY, true));
+        store.save(entity(3L, 10L, "400.00", START_OF_DAY.plusHours(3), false));
+        store.save(entity(4L, 10L, "800.00", END_OF_DAY.plusSeconds(1), true));
+        store.save(entity(5L, 11L, "1600.00", START_OF_DAY.plusHours(1), true));
+
+        assertEquals(2, store.countByCustomerIdAndTimeBetweenAndAccepted(10L, START_OF_DAY, END_OF_DAY, true));
+        assertEquals(1, store.countByCustomerIdAndTimeBetweenAndAccepted(10L, START_OF_DAY, END_OF_DAY, false));
+        assertEquals(0, new BigDecimal("300.00").compareTo(store.sumLoadAmountByCustomerIdAndTimeBetween(10L, START_OF_DAY, END_OF_DAY, true)));
+        assertEquals(0, BigDecimal.ZERO.compareTo(store.sumLoadAmountByCustomerIdAndTimeBetween(12L, START_OF_DAY, END_OF_DAY, true)));
+    }
+
+    @Test
+    public void testSave_ReplacesRequestWithSameIdEvenForAnotherCustomer() {
+        InMemoryLoadFundsRequestStore store = new InMemoryLoadFundsRequestStore();
+        store.save(entity(1L, 10L, "100.00", START_OF_DAY, true));
+        store.save(entity(1L, 11L, "200.00", START_OF_DAY, true));
+
+        assertFalse(store.existsByIdAndCustomerId(1L, 10L));
+        assertTrue(store.existsByIdAndCustomerId(1L, 11L));
+        assertEquals(0, store.countByCustomerIdAndTimeBetweenAndAccepted(10L, START_OF_DAY, END_OF_DAY, true));
+        assertEquals(1, store.count());
+    }
+
+    @Test
+    public void testInsertIfWithinLimits_DecidesAndStores() {
+        InMemoryLoadFundsRequestStore store = new InMemoryLoadFundsRequestStore();
+        BigDecimal amountPerDay = new BigDecimal("5000");
+        BigDecimal amountPerWeek = new BigDecimal("20000");
+
+        assertTrue(store.insertIfWithinLimits(1L, 10L, new BigDecimal("4000.00"), START_OF_DAY.plusHours(1), START_OF_DAY,
+                END_OF_DAY, START_OF_DAY.minusDays(2), 3, amountPerDay, amountPerWeek));
+        assertFalse(store.insertIfWithinLimits(2L, 10L, new BigDecimal("1000.00"), START_OF_DAY.plusHours(2), START_OF_DAY,
+                END_OF_DAY, START_OF_DAY.minusDays(2), 3, amountPerDay, amountPerWeek));
+        assertNull(store.insertIfWithinLimits(1L, 10L, new BigDecimal("1.00"), START_OF_DAY.plusHours(3), START_OF_DAY,
+                END_OF_DAY, START_OF_DAY.minusDays(2), 3, amountPerDay, amountPerWeek));
+        assertEquals(2, store.count());
+    }
+}
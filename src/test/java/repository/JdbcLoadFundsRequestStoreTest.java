@@ -0,0 +1,146 @@
+package repository;
+
+import com.tryvault.app.LoadFundsBatchRunner;
+import com.tryvault.app.Main;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseWriter;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.JdbcLoadFundsRequestStore;
+import com.tryvault.repository.LoadFundsRequestRepository;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import com.tryvault.tools.ReferenceVelocityModel;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static repository.LoadFundsRequestEntities.entity;
+
+@SpringBootTest(classes = Main.class, properties = {"spring.jpa.show-sql=false", "tryvault.persistence.store=jdbc",
+        "tryvault.persistence.jdbc.batch-size=7", "spring.datasource.url=jdbc:h2:mem:jdbc-store-test"})
+public class JdbcLoadFundsRequestStoreTest {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final long MONDAY = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+
+    @Autowired
+    private LoadFundsRequestStore loadFundsRequestStore;
+
+    @Autowired
+    private LoadFundsRequestRepository loadFundsRequestRepository;
+
+    @Autowired
+    private LoadFundsRequestService loadFundsRequestService;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testDecisions_MatchTheReferenceWithBatchedAndAtomicInserts() {
+        assertTrue(loadFundsRequestStore instanceof JdbcLoadFundsRequestStore);
+
+        // Few customers and ids, times on the hour, so midnights, limits and ids reused across customers are common
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel();
+        decide(referenceModel, new Random(5), 0);
+        try {
+            loadFundsRequestService.setAtomicInsert(true);
+            decide(referenceModel, new Random(6), 40);
+        } finally {
+            loadFundsRequestService.setAtomicInsert(false);
+        }
+
+        // Once flushed, the rows are the ones the JPA repository reads
+        assertEquals(loadFundsRequestRepository.count(), loadFundsRequestStore.count());
+    }
+
+    @Test
+    public void testSave_ReplacedRequestIsNotCountedForItsFormerCustomer() {
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + 60 * 86_400L), UTC);
+        loadFundsRequestStore.save(entity(8001L, 300L, "10.00", time, true));
+        assertTrue(loadFundsRequestStore.existsByIdAndCustomerId(8001L, 300L));
+        assertEquals(1, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(300L, time, time.plusDays(1), true));
+
+        // The same id for another customer replaces the request, pending or not
+        assertFalse(loadFundsRequestStore.existsByIdAndCustomerId(8001L, 400L));
+        loadFundsRequestStore.save(entity(8001L, 400L, "20.00", time, true));
+        assertFalse(loadFundsRequestStore.existsByIdAndCustomerId(8001L, 300L));
+        assertEquals(0, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(300L, time, time.plusDays(1), true));
+        assertEquals(0, new BigDecimal("20.00").compareTo(
+                loadFundsRequestStore.sumLoadAmountByCustomerIdAndTimeBetween(400L, time, time.plusDays(1), true)));
+    }
+
+    @Test
+    public void testFlush_ARequestTheDatabaseRejectsFailsAloneWithoutFailingTheQueryThatFlushedIt() {
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + 70 * 86_400L), UTC);
+        loadFundsRequestStore.save(entity(9001L, 500L, "10.00", time, true));
+        // Past the precision of the load_amount column
+        loadFundsRequestStore.save(entity(9002L, 600L, "100000000000000000000.00", time, true));
+        loadFundsRequestStore.save(entity(9003L, 500L, "20.00", time, true));
+
+        // Flushed by a query of the other customer, which still gets its answer, and the other requests are saved
+        assertEquals(2, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(500L, time, time.plusDays(1), true));
+        assertFalse(loadFundsRequestStore.existsByIdAndCustomerId(9002L, 600L));
+        assertTrue(loadFundsRequestStore.existsByIdAndCustomerId(9003L, 500L));
+    }
+
+    @Test
+    public void testFollow_StoresTheRequestsOfEachBatchBeforeFlushingTheirResponses() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        Path expectedPath = tempDir.resolve("expected.txt");
+        Path outputPath = tempDir.resolve("output.txt");
+        new LoadFundsInputGenerator().requests(500).customers(50).seed(11).generate(inputPath, expectedPath);
+
+        try (HikariDataSource dataSource = new HikariDataSource()) {
+            dataSource.setJdbcUrl("jdbc:h2:mem:jdbc-store-follow-test");
+            Flyway.configure().dataSource(dataSource).load().migrate();
+            // A batch larger than the input, so only the runner can have flushed the pending requests
+            JdbcLoadFundsRequestStore followStore = new JdbcLoadFundsRequestStore(dataSource, 10_000);
+            new LoadFundsBatchRunner(new LoadFundsRequestService(followStore), new LoadFundsRequestReader(),
+                    new LoadFundsResponseWriter()).follow(inputPath.toString(), outputPath.toString(), 20, 300);
+            assertEquals(Files.readString(expectedPath), Files.readString(outputPath));
+
+            // Another connection sees every request whose response is in the output
+            long stored;
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM public.load_funds_request")) {
+                resultSet.next();
+                stored = resultSet.getLong(1);
+            }
+            assertTrue(stored > 0);
+            assertEquals(followStore.count(), stored);
+            followStore.close();
+        }
+    }
+
+    private void decide(ReferenceVelocityModel referenceModel, Random random, int firstCustomer) {
+        for (int index = 0; index < 1500; index++) {
+            long id = 1 + random.nextInt(300);
+            long customerId = firstCustomer + 1 + random.nextInt(20);
+            long amountCents = 1 + random.nextInt(400_000);
+            long epochSecond = MONDAY + random.nextInt(15 * 24) * 3600L;
+
+            LoadFundsRequest loadFundsRequest = new LoadFundsRequest(id, customerId, BigDecimal.valueOf(amountCents, 2),
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), UTC));
+            assertEquals(referenceModel.decide(id, customerId, amountCents, epochSecond),
+                    loadFundsRequestService.decideLoadAttempt(loadFundsRequest), "request " + index);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package repository;
+
+import com.tryvault.entity.LoadFundsRequestEntity;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+/**
+ * Builds the load funds request entities the store tests save.
+ */
+public final class LoadFundsRequestEntities {
+
+    private LoadFundsRequestEntities() {
+    }
+
+    /**
+     * @return An accepted load funds request of 10.00.
+     */
+    public static LoadFundsRequestEntity entity(long id, long customerId, ZonedDateTime time) {
+        return entity(id, customerId, "10.00", time, true);
+    }
+
+    public static LoadFundsRequestEntity entity(long id, long customerId, String loadAmount, ZonedDateTime time,
+                                                boolean accepted) {
+        LoadFundsRequestEntity entity = new LoadFundsRequestEntity();
+        entity.setId(id);
+        entity.setCustomerId(customerId);
+        entity.setLoadAmount(new BigDecimal(loadAmount));
+        entity.setTime(time);
+        entity.setAccepted(accepted);
+        return entity;
+    }
+}
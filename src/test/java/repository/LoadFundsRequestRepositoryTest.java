@@ -0,0 +1,111 @@
+package repository;
+
+import com.tryvault.app.Main;
+import com.tryvault.repository.LoadFundsRequestRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = Main.class, properties = {"spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:repository-test"})
+public class LoadFundsRequestRepositoryTest {
+
+    private static final ZonedDateTime START_OF_WEEK = ZonedDateTime.parse("2000-01-03T00:00:00Z");
+
+    @Autowired
+    private LoadFundsRequestRepository loadFundsRequestRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    public void testInsertIfWithinLimits_WaitsForTheUncommittedAttemptOfTheCustomerOnAnotherConnection() throws Exception {
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+
+        // The first attempt is decided and stays uncommitted on its connection until the second one is under way
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> new TransactionTemplate(transactionManager)
+                .execute(status -> {
+                    Boolean accepted = insert(1L, 100L, "3000.00", 10);
+                    inserted.countDown();
+                    try {
+                        secondStarted.await();
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return accepted;
+                }));
+        assertTrue(inserted.await(10, TimeUnit.SECONDS));
+
+        // Deciding on its own connection from the committed rows only, the second attempt would not see the first one
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> {
+            secondStarted.countDown();
+            return insert(2L, 100L, "3000.00", 11);
+        });
+
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertFalse(second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInsertIfWithinLimits_RacingAttemptsOfACustomerNeverPassTheLimits() throws Exception {
+        int numberOfThreads = 8;
+        for (int round = 0; round < 20; round++) {
+            long customerId = 1000L + round;
+            CyclicBarrier start = new CyclicBarrier(numberOfThreads);
+            List<CompletableFuture<Boolean>> attempts = new ArrayList<>();
+            for (int thread = 0; thread < numberOfThreads; thread++) {
+                long id = customerId * 100 + thread;
+                attempts.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return insert(id, customerId, "1000.00", 12);
+                }));
+            }
+
+            // Eight loads of 1000 on the same day: only the daily count of 3 lets any of them through
+            long accepted = 0;
+            for (CompletableFuture<Boolean> attempt : attempts) {
+                accepted += attempt.get(30, TimeUnit.SECONDS) ? 1 : 0;
+            }
+            assertEquals(3, accepted, "round " + round);
+        }
+    }
+
+    @Test
+    public void testInsertIfWithinLimits_SkipsDuplicatesAndReplacesAnotherCustomersId() {
+        assertTrue(insert(5001L, 200L, "10.00", 10));
+        assertNull(insert(5001L, 200L, "10.00", 10));
+
+        // Same id for another customer: merged on the id, like a save
+        assertTrue(insert(5001L, 201L, "20.00", 10));
+        assertEquals(0, loadFundsRequestRepository.countByCustomerIdAndTimeBetweenAndAccepted(200L, START_OF_WEEK,
+                START_OF_WEEK.plusDays(7), true));
+        assertEquals(1, loadFundsRequestRepository.countByCustomerIdAndTimeBetweenAndAccepted(201L, START_OF_WEEK,
+                START_OF_WEEK.plusDays(7), true));
+    }
+
+    private Boolean insert(long id, long customerId, String loadAmount, int hour) {
+        ZonedDateTime time = START_OF_WEEK.plusDays(2).plusHours(hour);
+        ZonedDateTime startOfDay = START_OF_WEEK.plusDays(2);
+        return loadFundsRequestRepository.insertIfWithinLimits(id, customerId, new BigDecimal(loadAmount), time, startOfDay,
+                startOfDay.plusDays(1), START_OF_WEEK, 3, new BigDecimal("5000"), new BigDecimal("20000"));
+    }
+}
@@ -0,0 +1,129 @@
+package repository;
+
+import com.tryvault.app.Main;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.repository.ShardedLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.ReferenceVelocityModel;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static repository.LoadFundsRequestEntities.entity;
+
+@SpringBootTest(classes = Main.class, properties = {"spring.jpa.show-sql=false", "tryvault.persistence.store=sharded",
+        "tryvault.persistence.shards=3", "tryvault.persistence.shards.url=jdbc:h2:mem:sharded-test-%d",
+        "tryvault.persistence.jdbc.batch-size=5", "spring.datasource.url=jdbc:h2:mem:sharded-test"})
+public class ShardedLoadFundsRequestStoreTest {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final long MONDAY = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+
+    @Autowired
+    private LoadFundsRequestStore loadFundsRequestStore;
+
+    @Autowired
+    private LoadFundsRequestService loadFundsRequestService;
+
+    @Test
+    public void testDecisions_MatchTheReferenceWithIdsReusedAcrossShards() {
+        assertTrue(loadFundsRequestStore instanceof ShardedLoadFundsRequestStore);
+        assertEquals(3, ((ShardedLoadFundsRequestStore) loadFundsRequestStore).getNumberOfShards());
+
+        // Few ids for many customers, so most reused ids move a request to another shard
+        Random random = new Random(8);
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel();
+        Set<Long> storedIds = new HashSet<>();
+        long initialCount = loadFundsRequestStore.count();
+        for (int index = 0; index < 2000; index++) {
+            long id = 1 + random.nextInt(300);
+            long customerId = 1 + random.nextInt(30);
+            long amountCents = 1 + random.nextInt(400_000);
+            long epochSecond = MONDAY + random.nextInt(15 * 24) * 3600L;
+
+            LoadFundsRequest loadFundsRequest = new LoadFundsRequest(id, customerId, BigDecimal.valueOf(amountCents, 2),
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), UTC));
+            Boolean expected = referenceModel.decide(id, customerId, amountCents, epochSecond);
+            assertEquals(expected, loadFundsRequestService.decideLoadAttempt(loadFundsRequest), "request " + index);
+            if (expected != null) {
+                storedIds.add(id);
+            }
+        }
+
+        // Each id is stored once over all the shards
+        assertEquals(initialCount + storedIds.size(), loadFundsRequestStore.count());
+    }
+
+    @Test
+    public void testSave_ReplacesTheRequestOfACustomerOfAnotherShard() {
+        ShardedLoadFundsRequestStore shardedStore = (ShardedLoadFundsRequestStore) loadFundsRequestStore;
+        long firstCustomer = 1000L;
+        long secondCustomer = firstCustomer + 1;
+        while (shardedStore.shardOf(secondCustomer) == shardedStore.shardOf(firstCustomer)) {
+            secondCustomer++;
+        }
+
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + 60 * 86_400L), UTC);
+        long count = loadFundsRequestStore.count();
+        loadFundsRequestStore.save(entity(7001L, firstCustomer, time));
+        loadFundsRequestStore.save(entity(7001L, secondCustomer, time));
+
+        assertFalse(loadFundsRequestStore.existsByIdAndCustomerId(7001L, firstCustomer));
+        assertTrue(loadFundsRequestStore.existsByIdAndCustomerId(7001L, secondCustomer));
+        assertEquals(0, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(firstCustomer, time, time.plusDays(1), true));
+        assertEquals(count + 1, loadFundsRequestStore.count());
+    }
+
+    @Test
+    public void testSave_ReplacesARequestStoredBeforeTheStoreWasCreated() throws Exception {
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + 60 * 86_400L), UTC);
+        long firstCustomer = 2000L;
+        long secondCustomer;
+        try (ShardedLoadFundsRequestStore firstStore = new ShardedLoadFundsRequestStore(restartedShards(), 5)) {
+            secondCustomer = firstCustomer + 1;
+            while (firstStore.shardOf(secondCustomer) == firstStore.shardOf(firstCustomer)) {
+                secondCustomer++;
+            }
+            firstStore.save(entity(7002L, firstCustomer, time));
+        }
+
+        // A new store over the same databases knows no ids, it finds the stored request in its shard
+        try (ShardedLoadFundsRequestStore secondStore = new ShardedLoadFundsRequestStore(restartedShards(), 5)) {
+            secondStore.save(entity(7002L, secondCustomer, time));
+
+            assertFalse(secondStore.existsByIdAndCustomerId(7002L, firstCustomer));
+            assertTrue(secondStore.existsByIdAndCustomerId(7002L, secondCustomer));
+            assertEquals(1, secondStore.count());
+        }
+    }
+
+    /**
+     * Opens two shards kept by H2 after their data sources are closed, migrated the first time.
+     */
+    private static List<DataSource> restartedShards() {
+        List<DataSource> dataSources = new ArrayList<>();
+        for (int shard = 0; shard < 2; shard++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl("jdbc:h2:mem:sharded-restart-test-" + shard + ";DB_CLOSE_DELAY=-1");
+            Flyway.configure().dataSource(dataSource).load().migrate();
+            dataSources.add(dataSource);
+        }
+        return dataSources;
+    }
+}
@@ -0,0 +1,119 @@
+package repository;
+
+import com.tryvault.app.Main;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.LoadFundsRequestRepository;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.repository.VelocityRollupLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.ReferenceVelocityModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static repository.LoadFundsRequestEntities.entity;
+
+@SpringBootTest(classes = Main.class, properties = {"spring.jpa.show-sql=false", "tryvault.persistence.velocity-rollup=true",
+        "spring.datasource.url=jdbc:h2:mem:velocity-rollup-test"})
+public class VelocityRollupLoadFundsRequestStoreTest {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final long MONDAY = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+
+    @Autowired
+    private LoadFundsRequestStore loadFundsRequestStore;
+
+    @Autowired
+    private LoadFundsRequestRepository loadFundsRequestRepository;
+
+    @Autowired
+    private LoadFundsRequestService loadFundsRequestService;
+
+    @Test
+    public void testDecisions_MatchTheRequestScansIncludingMidnightsAndReplacedIds() {
+        assertTrue(loadFundsRequestStore instanceof VelocityRollupLoadFundsRequestStore);
+
+        // Few customers and ids, times on the hour, so midnights, limits and ids reused across customers are common
+        Random random = new Random(3);
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel();
+        for (int index = 0; index < 1500; index++) {
+            long id = 1 + random.nextInt(300);
+            long customerId = 1 + random.nextInt(5);
+            long amountCents = 1 + random.nextInt(400_000);
+            long epochSecond = MONDAY + random.nextInt(15 * 24) * 3600L;
+
+            LoadFundsRequest loadFundsRequest = new LoadFundsRequest(id, customerId, BigDecimal.valueOf(amountCents, 2),
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), UTC));
+            assertEquals(referenceModel.decide(id, customerId, amountCents, epochSecond),
+                    loadFundsRequestService.decideLoadAttempt(loadFundsRequest), "request " + index);
+        }
+
+        // Every whole day range of the rollups equals the scan of the stored requests
+        for (long customerId = 1; customerId <= 5; customerId++) {
+            for (int firstDay = 0; firstDay < 15; firstDay++) {
+                for (int lastDay = firstDay; lastDay < Math.min(15, firstDay + 7); lastDay++) {
+                    ZonedDateTime start = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + firstDay * 86_400L), UTC);
+                    ZonedDateTime end = start.plusDays(lastDay - firstDay + 1);
+                    assertEquals(loadFundsRequestRepository.countByCustomerIdAndTimeBetweenAndAccepted(customerId, start, end, true),
+                            loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(customerId, start, end, true));
+                    assertEquals(0, loadFundsRequestRepository.sumLoadAmountByCustomerIdAndTimeBetween(customerId, start, end, true)
+                            .compareTo(loadFundsRequestStore.sumLoadAmountByCustomerIdAndTimeBetween(customerId, start, end, true)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSave_MovesTheRollupOfAReplacedRequest() {
+        ZonedDateTime midnight = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + 30 * 86_400L), UTC);
+        loadFundsRequestStore.save(entity(9001L, 100L, "10.00", midnight, true));
+        assertEquals(1, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(100L, midnight.minusDays(1), midnight, true));
+        assertEquals(1, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(100L, midnight, midnight.plusDays(1), true));
+
+        // The same id for another customer replaces the request, and its rollups
+        loadFundsRequestStore.save(entity(9001L, 200L, "20.00", midnight.plusHours(1), true));
+        assertEquals(0, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(100L, midnight.minusDays(1), midnight, true));
+        assertEquals(0, loadFundsRequestStore.sumLoadAmountByCustomerIdAndTimeBetween(100L, midnight, midnight.plusDays(1), true)
+                .compareTo(BigDecimal.ZERO));
+        assertEquals(0, new BigDecimal("20.00").compareTo(
+                loadFundsRequestStore.sumLoadAmountByCustomerIdAndTimeBetween(200L, midnight, midnight.plusDays(1), true)));
+    }
+
+    @Test
+    public void testRebuildRollupsIfStale_RollsUpTheRequestsStoredWithoutThem() {
+        VelocityRollupLoadFundsRequestStore velocityRollupLoadFundsRequestStore =
+                (VelocityRollupLoadFundsRequestStore) loadFundsRequestStore;
+        assertFalse(velocityRollupLoadFundsRequestStore.rebuildRollupsIfStale());
+
+        // Requests stored by the repository itself, as on a database written before the rollups were enabled
+        ZonedDateTime monday = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + 70 * 86_400L), UTC);
+        loadFundsRequestRepository.save(entity(9101L, 600L, "100.00", monday.plusHours(10), true));
+        loadFundsRequestRepository.save(entity(9102L, 600L, "200.00", monday.plusDays(1), true));
+        loadFundsRequestRepository.save(entity(9103L, 600L, "400.00", monday.plusDays(1).plusHours(3), true));
+        loadFundsRequestRepository.save(entity(9104L, 600L, "800.00", monday.plusDays(2), false));
+        assertEquals(0, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(600L, monday, monday.plusDays(1), true));
+
+        assertTrue(velocityRollupLoadFundsRequestStore.rebuildRollupsIfStale());
+        assertFalse(velocityRollupLoadFundsRequestStore.rebuildRollupsIfStale());
+        for (int firstDay = 0; firstDay < 3; firstDay++) {
+            for (int lastDay = firstDay; lastDay < 3; lastDay++) {
+                ZonedDateTime start = monday.plusDays(firstDay);
+                ZonedDateTime end = monday.plusDays(lastDay + 1);
+                assertEquals(loadFundsRequestRepository.countByCustomerIdAndTimeBetweenAndAccepted(600L, start, end, true),
+                        loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(600L, start, end, true));
+                assertEquals(0, loadFundsRequestRepository.sumLoadAmountByCustomerIdAndTimeBetween(600L, start, end, true)
+                        .compareTo(loadFundsRequestStore.sumLoadAmountByCustomerIdAndTimeBetween(600L, start, end, true)));
+            }
+        }
+        // The request at midnight also belongs to the end of the previous day
+        assertEquals(2, loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(600L, monday, monday.plusDays(1), true));
+    }
+}
@@ -0,0 +1,102 @@
+package service;
+
+import com.tryvault.app.Main;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.LoadFundsRequestRepository;
+import com.tryvault.service.LoadFundsRequestSegmentArchiver;
+import com.tryvault.service.LoadFundsRequestService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static repository.LoadFundsRequestEntities.entity;
+
+@SpringBootTest(classes = Main.class, properties = {"spring.jpa.show-sql=false",
+        "spring.datasource.url=jdbc:h2:mem:segment-archiver-test"})
+public class LoadFundsRequestSegmentArchiverTest {
+
+    private static final ZonedDateTime MONDAY = ZonedDateTime.of(2000, 1, 3, 0, 0, 0, 0, ZoneId.of("UTC"));
+
+    // Archived up to this week by the tests deciding requests, whichever runs first
+    private static final ZonedDateTime FIRST_ACTIVE_MONDAY = ZonedDateTime.of(2001, 1, 8, 0, 0, 0, 0, ZoneId.of("UTC"));
+
+    @Autowired
+    private LoadFundsRequestRepository loadFundsRequestRepository;
+
+    @Autowired
+    private LoadFundsRequestSegmentArchiver loadFundsRequestSegmentArchiver;
+
+    @Autowired
+    private LoadFundsRequestService loadFundsRequestService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    public void clearRequests() {
+        jdbcTemplate.update("DELETE FROM public.load_funds_request");
+        jdbcTemplate.update("DELETE FROM public.load_funds_request_archive");
+    }
+
+    @Test
+    public void testArchiveOlderThan_MovesWholeWeeksAndKeepsThemAsDuplicates() {
+        // Sunday night and Monday midnight fall in different weeks
+        loadFundsRequestRepository.save(entity(1L, 10L, MONDAY.plusDays(6).plusHours(23)));
+        loadFundsRequestRepository.save(entity(2L, 10L, MONDAY.plusDays(7)));
+        loadFundsRequestRepository.save(entity(3L, 20L, MONDAY.plusDays(14).plusHours(12)));
+        assertEquals(LoadFundsRequestSegmentArchiver.weekSegment(MONDAY.plusDays(14)),
+                loadFundsRequestRepository.findLatestWeekSegment());
+        assertEquals(LoadFundsRequestSegmentArchiver.weekSegment(MONDAY) + 1,
+                LoadFundsRequestSegmentArchiver.weekSegment(MONDAY.plusDays(7)));
+
+        assertEquals(1, loadFundsRequestSegmentArchiver.archiveOlderThan(1));
+
+        assertEquals(2, loadFundsRequestRepository.count());
+        assertFalse(loadFundsRequestRepository.findById(1L).isPresent());
+        assertTrue(loadFundsRequestRepository.existsByIdAndCustomerId(1L, 10L));
+        assertFalse(loadFundsRequestRepository.existsByIdAndCustomerId(1L, 20L));
+        assertEquals(1, loadFundsRequestRepository.countByCustomerIdAndTimeBetweenAndAccepted(10L, MONDAY, MONDAY.plusDays(14), true));
+    }
+
+    @Test
+    public void testDecideLoadAttempt_RejectsALateRequestOfAnArchivedWeek() {
+        ZonedDateTime archivedTuesday = FIRST_ACTIVE_MONDAY.minusDays(6);
+        loadFundsRequestRepository.save(entity(11L, 30L, archivedTuesday.plusHours(10)));
+        loadFundsRequestRepository.save(entity(12L, 30L, FIRST_ACTIVE_MONDAY.plusHours(10)));
+        assertEquals(1, loadFundsRequestSegmentArchiver.archiveWeekSegmentsBefore(
+                LoadFundsRequestSegmentArchiver.weekSegment(FIRST_ACTIVE_MONDAY)));
+        assertTrue(loadFundsRequestSegmentArchiver.isArchived(archivedTuesday));
+        assertFalse(loadFundsRequestSegmentArchiver.isArchived(FIRST_ACTIVE_MONDAY));
+
+        // The archived request of its day no longer counts, so it could otherwise be accepted past the limits
+        assertEquals(Boolean.FALSE, loadFundsRequestService.decideLoadAttempt(
+                new LoadFundsRequest(13L, 30L, new BigDecimal("10.00"), archivedTuesday.plusHours(12))));
+        assertNull(loadFundsRequestService.decideLoadAttempt(
+                new LoadFundsRequest(11L, 30L, new BigDecimal("10.00"), archivedTuesday.plusHours(10))));
+        assertEquals(Boolean.TRUE, loadFundsRequestService.decideLoadAttempt(
+                new LoadFundsRequest(14L, 30L, new BigDecimal("10.00"), FIRST_ACTIVE_MONDAY.plusHours(12))));
+    }
+
+    @Test
+    public void testSave_ReplacedArchivedRequestIsNoLongerADuplicate() {
+        loadFundsRequestRepository.save(entity(21L, 40L, FIRST_ACTIVE_MONDAY.minusDays(3)));
+        loadFundsRequestRepository.save(entity(22L, 40L, FIRST_ACTIVE_MONDAY.plusHours(10)));
+        assertEquals(1, loadFundsRequestSegmentArchiver.archiveWeekSegmentsBefore(
+                LoadFundsRequestSegmentArchiver.weekSegment(FIRST_ACTIVE_MONDAY)));
+        assertTrue(loadFundsRequestRepository.existsByIdAndCustomerId(21L, 40L));
+
+        // Another customer's request replaces the archived one, as it would replace an active one
+        assertEquals(Boolean.TRUE, loadFundsRequestService.decideLoadAttempt(
+                new LoadFundsRequest(21L, 50L, new BigDecimal("10.00"), FIRST_ACTIVE_MONDAY.plusHours(11))));
+        assertFalse(loadFundsRequestRepository.existsByIdAndCustomerId(21L, 40L));
+        assertEquals(Boolean.TRUE, loadFundsRequestService.decideLoadAttempt(
+                new LoadFundsRequest(21L, 40L, new BigDecimal("10.00"), FIRST_ACTIVE_MONDAY.plusHours(12))));
+    }
+}
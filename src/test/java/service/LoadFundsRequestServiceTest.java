@@ -183,4 +183,46 @@ public class LoadFundsRequestServiceTest {
         assert result.getId().equals(String.valueOf(id));
         assert result.getCustomerId().equals(String.valueOf(customerId));
     }
+
+    @Test
+    public void testProcessLoadAttempt_AtomicInsertReadsDecisionFromInsertedRow() {
+        // Mock input
+        long id = 1L;
+        long customerId = 12345L;
+        BigDecimal loadAmount = new BigDecimal("100.00");
+        ZonedDateTime requestTime = ZonedDateTime.parse("2000-01-05T10:00:00Z");
+        LoadFundsRequest loadFundsRequest = new LoadFundsRequest(id, customerId, loadAmount, requestTime);
+        loadFundsRequestService.setAtomicInsert(true);
+
+        // Mock repository
+        when(loadFundsRequestRepository.insertIfWithinLimits(eq(id), eq(customerId), eq(loadAmount), eq(requestTime),
+                any(), any(), any(), anyLong(), any(), any())).thenReturn(false);
+
+        // Call the method being tested
+        LoadFundsResponse result = loadFundsRequestService.processLoadAttempt(loadFundsRequest);
+
+        // Verify the decision comes from the insert and no velocity query is issued
+        verify(loadFundsRequestRepository, times(1)).insertIfWithinLimits(eq(id), eq(customerId), eq(loadAmount), eq(requestTime),
+                eq(ZonedDateTime.parse("2000-01-05T00:00:00Z")), eq(ZonedDateTime.parse("2000-01-06T00:00:00Z")),
+                eq(ZonedDateTime.parse("2000-01-03T00:00:00Z")), eq((long) LoadFundsRequestLimits.LOADS_PER_DAY),
+                eq(LoadFundsRequestLimits.AMOUNT_PER_DAY), eq(LoadFundsRequestLimits.AMOUNT_PER_WEEK));
+        verify(loadFundsRequestRepository, never()).countByCustomerIdAndTimeBetweenAndAccepted(anyLong(), any(), any(), anyBoolean());
+        verify(loadFundsRequestRepository, never()).save(any(LoadFundsRequestEntity.class));
+
+        // Verify the result
+        assertFalse(result.isAccepted());
+        assertEquals(String.valueOf(customerId), result.getCustomerId());
+    }
+
+    @Test
+    public void testProcessLoadAttempt_AtomicInsertSkipsDuplicates() {
+        LoadFundsRequest loadFundsRequest = new LoadFundsRequest(1L, 12345L, new BigDecimal("100.00"), ZonedDateTime.now());
+        loadFundsRequestService.setAtomicInsert(true);
+
+        // A duplicate request does not insert any row, so there is no decision to read back
+        when(loadFundsRequestRepository.insertIfWithinLimits(anyLong(), anyLong(), any(), any(), any(), any(), any(), anyLong(), any(), any()))
+                .thenReturn(null);
+
+        assertNull(loadFundsRequestService.processLoadAttempt(loadFundsRequest));
+    }
 }
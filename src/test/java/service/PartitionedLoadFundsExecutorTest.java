@@ -0,0 +1,124 @@
+package service;
+
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.service.PartitionedLoadFundsExecutor;
+import com.tryvault.tools.ReferenceVelocityModel;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedLoadFundsExecutorTest {
+
+    @Test
+    public void testProcessInOrder_KeepsPerCustomerAndOutputOrder() throws Exception {
+        // Customer 1 sends half of the traffic, so it becomes hot and moves to a dedicated lane mid-stream
+        List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+        for (int id = 0; id < 20_000; id++) {
+            long customerId = id % 2 == 0 ? 1L : 2L + id % 37;
+            loadFundsRequests.add(new LoadFundsRequest(id, customerId, BigDecimal.TEN, ZonedDateTime.now()));
+        }
+
+        // Record, per customer, the last id decided; decisions must see increasing ids
+        Map<Long, Long> lastDecidedIds = new ConcurrentHashMap<>();
+        List<String> violations = new ArrayList<>();
+        List<Long> output = new ArrayList<>();
+
+        try (PartitionedLoadFundsExecutor executor = new PartitionedLoadFundsExecutor(loadFundsRequest -> {
+            Long previous = lastDecidedIds.put(loadFundsRequest.getCustomerId(), loadFundsRequest.getId());
+            if (previous != null && previous > loadFundsRequest.getId()) {
+                synchronized (violations) {
+                    violations.add(loadFundsRequest.getCustomerId() + ": " + previous + " before " + loadFundsRequest.getId());
+                }
+            }
+            if (loadFundsRequest.getId() % 1000 == 0) {
+                LockSupport.parkNanos(100_000);
+            }
+            return loadFundsRequest.getId() % 3 == 0 ? null : Boolean.TRUE;
+        }, 4)) {
+            executor.processInOrder(loadFundsRequests, (loadFundsRequest, accepted) -> output.add(loadFundsRequest.getId()));
+            assertTrue(executor.getDedicatedCustomers().contains(1L));
+        }
+
+        assertTrue(violations.isEmpty(), violations.toString());
+        assertEquals(loadFundsRequests.size(), output.size());
+        for (int index = 0; index < output.size(); index++) {
+            assertEquals(index, output.get(index).longValue());
+        }
+    }
+
+    @Test
+    public void testProcessInOrder_RequestReplacingAnotherCustomersRequestIsOrderedWithIt() throws Exception {
+        // 3/200 replaces 3/100, so customer 100 has two accepted loads left that day when 4/100 comes
+        ZonedDateTime time = ZonedDateTime.ofInstant(Instant.parse("2000-01-03T10:00:00Z"), ZoneId.of("UTC"));
+        List<LoadFundsRequest> loadFundsRequests = List.of(request(1, 100, time), request(2, 100, time),
+                request(3, 100, time), request(3, 200, time), request(4, 100, time));
+
+        for (int lanes : new int[]{1, 8}) {
+            LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(new InMemoryLoadFundsRequestStore());
+            List<Boolean> decisions = new ArrayList<>();
+            try (PartitionedLoadFundsExecutor executor = new PartitionedLoadFundsExecutor(loadFundsRequest -> {
+                if (loadFundsRequest.getCustomerId() == 200) {
+                    LockSupport.parkNanos(50_000_000);
+                }
+                return loadFundsRequestService.decideLoadAttempt(loadFundsRequest);
+            }, lanes, false, 1.0, 0)) {
+                executor.processInOrder(loadFundsRequests, (loadFundsRequest, accepted) -> decisions.add(accepted));
+            }
+
+            assertEquals(List.of(true, true, true, true, true), decisions, lanes + " lanes");
+        }
+    }
+
+    @Test
+    public void testProcessInOrder_MatchesTheReferenceWithIdsSharedAcrossCustomers() throws Exception {
+        // Few ids for many customers, so requests often replace another customer's request
+        Random random = new Random(7);
+        List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel();
+        List<Boolean> expected = new ArrayList<>();
+        long monday = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+        for (int index = 0; index < 5_000; index++) {
+            long epochSecond = monday + random.nextInt(10 * 24) * 3600L;
+            LoadFundsRequest loadFundsRequest = new LoadFundsRequest(1 + random.nextInt(300), 1 + random.nextInt(40),
+                    BigDecimal.valueOf(1 + random.nextInt(300_000), 2),
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.of("UTC")));
+            loadFundsRequests.add(loadFundsRequest);
+            expected.add(referenceModel.decide(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(),
+                    loadFundsRequest.getLoadAmount().movePointRight(2).longValueExact(), epochSecond));
+        }
+
+        // Also with most ids forgotten, so their requests are ordered by barriers instead
+        for (int maxTrackedIds : new int[]{1 << 20, 16}) {
+            LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(new InMemoryLoadFundsRequestStore());
+            List<Boolean> decisions = new ArrayList<>();
+            try (PartitionedLoadFundsExecutor executor = new PartitionedLoadFundsExecutor(loadFundsRequest -> {
+                if (loadFundsRequest.getCustomerId() % 7 == 0) {
+                    LockSupport.parkNanos(20_000);
+                }
+                return loadFundsRequestService.decideLoadAttempt(loadFundsRequest);
+            }, 8)) {
+                executor.setMaxTrackedIds(maxTrackedIds);
+                executor.processInOrder(loadFundsRequests, (loadFundsRequest, accepted) -> decisions.add(accepted));
+            }
+
+            assertEquals(expected, decisions, maxTrackedIds + " tracked ids");
+        }
+    }
+
+    private static LoadFundsRequest request(long id, long customerId, ZonedDateTime time) {
+        return new LoadFundsRequest(id, customerId, BigDecimal.TEN, time);
+    }
+}
@@ -0,0 +1,118 @@
+package service;
+
+import com.tryvault.constants.LoadFundsRequestLimits;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.model.VelocityHeadroom;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.service.VelocityHeadroomService;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VelocityHeadroomServiceTest {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final long MONDAY = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+
+    private static final BigDecimal CENT = new BigDecimal("0.01");
+
+    @Test
+    public void testGetHeadroom_MatchesTheAggregatesOfTheStore() {
+        InMemoryLoadFundsRequestStore store = new InMemoryLoadFundsRequestStore();
+        VelocityHeadroomService velocityHeadroomService = new VelocityHeadroomService();
+        LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(store);
+        loadFundsRequestService.setVelocityHeadroomService(velocityHeadroomService);
+
+        // Times on the hour, going forward with some lateness, so midnights and week boundaries are common
+        Random random = new Random(3);
+        long epochSecond = MONDAY;
+        for (long id = 1; id <= 3_000; id++) {
+            epochSecond += random.nextInt(3) * 3600L;
+            long requestSecond = epochSecond - random.nextInt(4) * 3600L;
+            ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(requestSecond), UTC);
+            long customerId = 1 + random.nextInt(10);
+            loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(id, customerId,
+                    BigDecimal.valueOf(1 + random.nextInt(300_000), 2), time));
+
+            if (id % 7 == 0) {
+                ZonedDateTime queryTime = ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), UTC);
+                long queriedCustomerId = 1 + random.nextInt(10);
+                assertHeadroom(store, queriedCustomerId, queryTime,
+                        velocityHeadroomService.getHeadroom(queriedCustomerId, queryTime));
+            }
+        }
+    }
+
+    @Test
+    public void testGetHeadroom_OfAnUnknownCustomerIsTheLimits() {
+        VelocityHeadroom headroom = new VelocityHeadroomService().getHeadroom(42L, ZonedDateTime.now(UTC));
+
+        assertEquals("42", headroom.getCustomerId());
+        assertEquals(LoadFundsRequestLimits.LOADS_PER_DAY, headroom.getRemainingDailyCount());
+        assertEquals(0, LoadFundsRequestLimits.AMOUNT_PER_DAY.subtract(CENT).compareTo(headroom.getRemainingDailyAmount()));
+        assertEquals(0, LoadFundsRequestLimits.AMOUNT_PER_WEEK.subtract(CENT).compareTo(headroom.getRemainingWeeklyAmount()));
+    }
+
+    @Test
+    public void testGetHeadroom_ALoadOfExactlyTheHeadroomIsAcceptedAndACentMoreIsNot() {
+        InMemoryLoadFundsRequestStore store = new InMemoryLoadFundsRequestStore();
+        VelocityHeadroomService velocityHeadroomService = new VelocityHeadroomService();
+        LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(store);
+        loadFundsRequestService.setVelocityHeadroomService(velocityHeadroomService);
+
+        // Bound by the daily amount on the Tuesday
+        ZonedDateTime monday = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY), UTC);
+        assertTrue(loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(1L, 7L, new BigDecimal("1234.56"), monday.plusHours(10))));
+        assertTrue(loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(2L, 7L, new BigDecimal("3000.00"), monday.plusHours(34))));
+        VelocityHeadroom headroom = velocityHeadroomService.getHeadroom(7L, monday.plusHours(36));
+        assertEquals(new BigDecimal("1999.99"), headroom.getRemainingDailyAmount());
+        assertLargestAcceptedLoad(loadFundsRequestService, 3L, 7L, headroom.getRemainingDailyAmount(), monday.plusHours(36));
+
+        // Bound by the weekly amount on the Friday, after four days of 4,000.00
+        for (int day = 0; day < 4; day++) {
+            assertTrue(loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(10L + day, 8L,
+                    new BigDecimal("4000.00"), monday.plusDays(day).plusHours(12))));
+        }
+        headroom = velocityHeadroomService.getHeadroom(8L, monday.plusDays(4).plusHours(12));
+        assertEquals(new BigDecimal("3999.99"), headroom.getRemainingWeeklyAmount());
+        assertEquals(new BigDecimal("4999.99"), headroom.getRemainingDailyAmount());
+        assertLargestAcceptedLoad(loadFundsRequestService, 20L, 8L, headroom.getRemainingWeeklyAmount(),
+                monday.plusDays(4).plusHours(12));
+    }
+
+    private static void assertLargestAcceptedLoad(LoadFundsRequestService loadFundsRequestService, long id, long customerId,
+                                                  BigDecimal headroom, ZonedDateTime time) {
+        assertFalse(loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(id, customerId, headroom.add(CENT), time)));
+        assertTrue(loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(id + 1, customerId, headroom, time)));
+    }
+
+    private static void assertHeadroom(InMemoryLoadFundsRequestStore store, long customerId, ZonedDateTime time,
+                                       VelocityHeadroom headroom) {
+        ZonedDateTime startOfDay = time.toLocalDate().atStartOfDay(ZoneOffset.UTC);
+        ZonedDateTime endOfDay = startOfDay.plusDays(1);
+        ZonedDateTime startOfWeek = time.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                .atStartOfDay(ZoneOffset.UTC);
+
+        long dailyCount = store.countByCustomerIdAndTimeBetweenAndAccepted(customerId, startOfDay, endOfDay, true);
+        BigDecimal dailyAmount = store.sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfDay, endOfDay, true);
+        BigDecimal weeklyAmount = store.sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfWeek, endOfDay, true);
+
+        String message = "customer " + customerId + " at " + time;
+        assertEquals(Math.max(0, LoadFundsRequestLimits.LOADS_PER_DAY - dailyCount), headroom.getRemainingDailyCount(), message);
+        assertEquals(0, LoadFundsRequestLimits.AMOUNT_PER_DAY.subtract(dailyAmount).subtract(CENT).max(BigDecimal.ZERO)
+                .compareTo(headroom.getRemainingDailyAmount()), message);
+        assertEquals(0, LoadFundsRequestLimits.AMOUNT_PER_WEEK.subtract(weeklyAmount).subtract(CENT).max(BigDecimal.ZERO)
+                .compareTo(headroom.getRemainingWeeklyAmount()), message);
+    }
+}
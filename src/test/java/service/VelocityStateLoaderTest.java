@@ -0,0 +1,95 @@
+package service;
+
+import com.tryvault.app.Main;
+import com.tryvault.constants.LoadFundsRequestLimits;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.model.VelocityHeadroom;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.service.VelocityHeadroomService;
+import com.tryvault.service.VelocityStateLoader;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(classes = Main.class, properties = {"spring.jpa.show-sql=false", "tryvault.velocity.warm-up=true",
+        "spring.datasource.url=jdbc:h2:mem:velocity-state-loader-test"})
+public class VelocityStateLoaderTest {
+
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    private static final long MONDAY = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+
+    private static final BigDecimal CENT = new BigDecimal("0.01");
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private LoadFundsRequestService loadFundsRequestService;
+
+    @Autowired
+    private LoadFundsRequestStore loadFundsRequestStore;
+
+    @Autowired
+    private VelocityStateLoader velocityStateLoader;
+
+    @Test
+    public void testLoad_BuildsTheHeadroomOfTheActiveWeekFromTheTable() {
+        // The loader of the context ran at startup, on an empty table
+        assertEquals(0, velocityStateLoader.load());
+
+        // Two weeks of requests, the second one ending on Sunday night
+        Random random = new Random(8);
+        for (long id = 1; id <= 1_500; id++) {
+            long epochSecond = MONDAY + random.nextInt(14 * 24) * 3600L;
+            loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(id, 1 + random.nextInt(40),
+                    BigDecimal.valueOf(1 + random.nextInt(300_000), 2),
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), UTC)));
+        }
+        // Monday midnight starts the next week segment, but is still in the day window of the Sunday before
+        loadFundsRequestService.decideLoadAttempt(new LoadFundsRequest(1_501, 1, new BigDecimal("10.00"),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + 14 * 86_400L), UTC)));
+
+        VelocityHeadroomService velocityHeadroomService = new VelocityHeadroomService();
+        long numberOfRequests = new VelocityStateLoader(dataSource, velocityHeadroomService, 3, 7, "jpa").load();
+        assertTrue(numberOfRequests > 0);
+
+        for (int day = 7; day < 14; day++) {
+            ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(MONDAY + day * 86_400L + 12 * 3600L), UTC);
+            for (long customerId = 1; customerId <= 40; customerId++) {
+                assertHeadroom(customerId, time, velocityHeadroomService.getHeadroom(customerId, time));
+            }
+        }
+    }
+
+    private void assertHeadroom(long customerId, ZonedDateTime time, VelocityHeadroom headroom) {
+        ZonedDateTime startOfDay = time.toLocalDate().atStartOfDay(ZoneOffset.UTC);
+        ZonedDateTime endOfDay = startOfDay.plusDays(1);
+        ZonedDateTime startOfWeek = time.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                .atStartOfDay(ZoneOffset.UTC);
+
+        long dailyCount = loadFundsRequestStore.countByCustomerIdAndTimeBetweenAndAccepted(customerId, startOfDay, endOfDay, true);
+        BigDecimal dailyAmount = loadFundsRequestStore.sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfDay, endOfDay, true);
+        BigDecimal weeklyAmount = loadFundsRequestStore.sumLoadAmountByCustomerIdAndTimeBetween(customerId, startOfWeek, endOfDay, true);
+
+        String message = "customer " + customerId + " at " + time;
+        assertEquals(Math.max(0, LoadFundsRequestLimits.LOADS_PER_DAY - dailyCount), headroom.getRemainingDailyCount(), message);
+        assertEquals(0, LoadFundsRequestLimits.AMOUNT_PER_DAY.subtract(dailyAmount).subtract(CENT).max(BigDecimal.ZERO)
+                .compareTo(headroom.getRemainingDailyAmount()), message);
+        assertEquals(0, LoadFundsRequestLimits.AMOUNT_PER_WEEK.subtract(weeklyAmount).subtract(CENT).max(BigDecimal.ZERO)
+                .compareTo(headroom.getRemainingWeeklyAmount()), message);
+    }
+}
@@ -0,0 +1,117 @@
+package tools;
+
+import com.tryvault.io.PackedLoadFundsRequests;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.tools.LoadFundsBacktester;
+import com.tryvault.tools.ReferenceVelocityModel;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsBacktesterTest {
+
+    private static final long MONDAY = Instant.parse("2000-01-03T00:00:00Z").getEpochSecond();
+
+    @Test
+    public void testRun_MatchesTheReferenceModelForEveryLimitSet() {
+        // Few ids and times on the hour, so duplicates, ids reused across customers and midnights are common
+        Random random = new Random(11);
+        List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+        for (int index = 0; index < 20_000; index++) {
+            long epochSecond = MONDAY + random.nextInt(40 * 24) * 3600L;
+            loadFundsRequests.add(new LoadFundsRequest(1 + random.nextInt(4_000), 1 + random.nextInt(300),
+                    BigDecimal.valueOf(1 + random.nextInt(600_000), 2),
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.of("UTC"))));
+        }
+
+        LoadFundsBacktester.Limits baseline = LoadFundsBacktester.Limits.current();
+        List<LoadFundsBacktester.Limits> candidates = List.of(LoadFundsBacktester.Limits.parse("1:3000:15000"),
+                LoadFundsBacktester.Limits.parse("5:8000.50:30000"), LoadFundsBacktester.Limits.parse("3:5000:20000"));
+        List<LoadFundsBacktester.Result> results = new LoadFundsBacktester(loadFundsRequests)
+                .run(baseline, candidates, new ForkJoinPool(4));
+
+        assertEquals(candidates.size() + 1, results.size());
+        List<Boolean> baselineDecisions = decide(loadFundsRequests, baseline);
+        for (LoadFundsBacktester.Result result : results) {
+            List<Boolean> decisions = decide(loadFundsRequests, result.getLimits());
+            long accepted = 0;
+            long rejected = 0;
+            long newlyAccepted = 0;
+            long newlyRejected = 0;
+            for (int index = 0; index < decisions.size(); index++) {
+                Boolean decision = decisions.get(index);
+                if (decision == null) {
+                    continue;
+                }
+                if (decision) {
+                    accepted++;
+                } else {
+                    rejected++;
+                }
+                if (decision && !baselineDecisions.get(index)) {
+                    newlyAccepted++;
+                } else if (!decision && baselineDecisions.get(index)) {
+                    newlyRejected++;
+                }
+            }
+
+            assertEquals(accepted, result.getAccepted(), result.getLimits().toString());
+            assertEquals(rejected, result.getRejected(), result.getLimits().toString());
+            assertEquals(newlyAccepted, result.getNewlyAccepted(), result.getLimits().toString());
+            assertEquals(newlyRejected, result.getNewlyRejected(), result.getLimits().toString());
+        }
+        assertEquals(results.get(0).getAccepted(), results.get(3).getAccepted());
+        assertEquals(0, results.get(3).getNewlyAccepted() + results.get(3).getNewlyRejected());
+    }
+
+    @Test
+    public void testRun_PackedRequestsMatchTheRequestList() {
+        // Every request on a midnight, some a nanosecond after it, so the nanos decide the day window
+        Random random = new Random(13);
+        List<LoadFundsRequest> loadFundsRequests = new ArrayList<>();
+        PackedLoadFundsRequests packedLoadFundsRequests = new PackedLoadFundsRequests();
+        for (int index = 0; index < 5_000; index++) {
+            long epochSecond = MONDAY + random.nextInt(40) * 86400L;
+            LoadFundsRequest loadFundsRequest = new LoadFundsRequest(1 + random.nextInt(2_000), 1 + random.nextInt(100),
+                    BigDecimal.valueOf(1 + random.nextInt(600_000), 2),
+                    ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond, random.nextInt(2)), ZoneId.of("UTC")));
+            loadFundsRequests.add(loadFundsRequest);
+            packedLoadFundsRequests.add(loadFundsRequest);
+        }
+
+        LoadFundsBacktester.Limits baseline = LoadFundsBacktester.Limits.current();
+        List<LoadFundsBacktester.Limits> candidates = List.of(LoadFundsBacktester.Limits.parse("2:4000:12000"));
+        List<LoadFundsBacktester.Result> expected = new LoadFundsBacktester(loadFundsRequests)
+                .run(baseline, candidates, new ForkJoinPool(2));
+        List<LoadFundsBacktester.Result> results = new LoadFundsBacktester(packedLoadFundsRequests)
+                .run(baseline, candidates, new ForkJoinPool(2));
+
+        assertEquals(expected.size(), results.size());
+        for (int index = 0; index < expected.size(); index++) {
+            assertEquals(expected.get(index).getAccepted(), results.get(index).getAccepted());
+            assertEquals(expected.get(index).getRejected(), results.get(index).getRejected());
+            assertEquals(expected.get(index).getNewlyRejected(), results.get(index).getNewlyRejected());
+        }
+    }
+
+    private static List<Boolean> decide(List<LoadFundsRequest> loadFundsRequests, LoadFundsBacktester.Limits limits) {
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel(limits.getLoadsPerDay(),
+                limits.getAmountPerDayCents(), limits.getAmountPerWeekCents());
+        List<Boolean> decisions = new ArrayList<>();
+        for (LoadFundsRequest loadFundsRequest : loadFundsRequests) {
+            decisions.add(referenceModel.decide(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(),
+                    loadFundsRequest.getLoadAmount().movePointRight(2).longValueExact(),
+                    loadFundsRequest.getTime().toEpochSecond()));
+        }
+        return decisions;
+    }
+}
@@ -0,0 +1,73 @@
+package tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tryvault.io.LoadFundsRequestReader;
+import com.tryvault.io.LoadFundsResponseChannelWriter;
+import com.tryvault.model.LoadFundsRequest;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import com.tryvault.tools.ReferenceVelocityModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadFundsInputGeneratorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testReferenceModel_MatchesExpectedOutput() throws Exception {
+        Path outputPath = tempDir.resolve("output.txt");
+        ReferenceVelocityModel referenceModel = new ReferenceVelocityModel();
+
+        try (LoadFundsResponseChannelWriter writer = new LoadFundsResponseChannelWriter(outputPath)) {
+            for (LoadFundsRequest loadFundsRequest : new LoadFundsRequestReader().readFromFile("input.txt")) {
+                Boolean accepted = referenceModel.decide(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(),
+                        loadFundsRequest.getLoadAmount().movePointRight(2).longValueExact(),
+                        loadFundsRequest.getTime().toEpochSecond());
+                if (accepted != null) {
+                    writer.write(loadFundsRequest.getId(), loadFundsRequest.getCustomerId(), accepted);
+                }
+            }
+        }
+
+        assertArrayEquals(Files.readAllBytes(Paths.get("output_expected.txt")), Files.readAllBytes(outputPath));
+    }
+
+    @Test
+    public void testGenerate_IsDeterministicAndReadable() throws Exception {
+        LoadFundsInputGenerator generator = new LoadFundsInputGenerator()
+                .requests(5_000)
+                .customers(50)
+                .skew(1.2)
+                .duplicateRate(0.05)
+                .outOfOrder(0.2, 3_600)
+                .timeSpan(Instant.parse("2000-01-01T00:00:00Z"), 7)
+                .seed(7);
+
+        Path first = tempDir.resolve("first.txt");
+        Path second = tempDir.resolve("second.txt");
+        Path reference = tempDir.resolve("reference.txt");
+        generator.generate(first, reference);
+        generator.generate(second, null);
+
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+
+        List<LoadFundsRequest> loadFundsRequests = new LoadFundsRequestReader().readFromFile(first.toString());
+        assertEquals(5_000, loadFundsRequests.size());
+
+        // Duplicates have no output, so the reference output is shorter than the input
+        List<String> responses = Files.readAllLines(reference);
+        assertTrue(responses.size() < loadFundsRequests.size());
+        JsonNode response = new ObjectMapper().readTree(responses.get(0));
+        assertEquals(String.valueOf(loadFundsRequests.get(0).getId()), response.get("id").asText());
+    }
+}
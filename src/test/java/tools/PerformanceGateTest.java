@@ -0,0 +1,73 @@
+package tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tryvault.tools.LoadFundsInputGenerator;
+import com.tryvault.tools.PerformanceGate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerformanceGateTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testCompare_FailsPastTheTolerance() {
+        ObjectNode throughputBaseline = new ObjectMapper().createObjectNode().put("throughput_requests_per_second", 10_000);
+        ObjectNode allocationBaseline = new ObjectMapper().createObjectNode().put("allocated_bytes_per_request", 1000);
+
+        PerformanceGate.Measurement withinTolerance = new PerformanceGate.Measurement(1, 9_000, 1_100, null);
+        PerformanceGate.Measurement slower = new PerformanceGate.Measurement(1, 8_000, 1_000, null);
+        PerformanceGate.Measurement allocatingMore = new PerformanceGate.Measurement(1, 12_000, 1_200, null);
+
+        assertTrue(PerformanceGate.compareThroughput(throughputBaseline, withinTolerance, 0.15).isPassed());
+        assertTrue(PerformanceGate.compareAllocations(allocationBaseline, withinTolerance, 0.15).isPassed());
+        assertFalse(PerformanceGate.compareThroughput(throughputBaseline, slower, 0.15).isPassed());
+        assertTrue(PerformanceGate.compareAllocations(allocationBaseline, slower, 0.15).isPassed());
+        assertTrue(PerformanceGate.compareThroughput(throughputBaseline, allocatingMore, 0.15).isPassed());
+        assertFalse(PerformanceGate.compareAllocations(allocationBaseline, allocatingMore, 0.15).isPassed());
+    }
+
+    @Test
+    public void testCheckThroughput_FailsWithoutABaselineOfTheSameRequests() throws Exception {
+        Path throughputBaselinePath = tempDir.resolve("throughput-baseline.json");
+        PerformanceGate.Measurement measurement = new PerformanceGate.Measurement(1000, 9_000, 1_000, null);
+
+        assertFalse(PerformanceGate.checkThroughput(throughputBaselinePath, 1000, measurement, 0.15).isPassed());
+        assertFalse(Files.exists(throughputBaselinePath));
+
+        ObjectNode throughputBaseline = new ObjectMapper().createObjectNode().put("requests", 1000)
+                .put("throughput_requests_per_second", 10_000);
+        Files.write(throughputBaselinePath, new ObjectMapper().writeValueAsBytes(throughputBaseline));
+        assertTrue(PerformanceGate.checkThroughput(throughputBaselinePath, 1000, measurement, 0.15).isPassed());
+        assertFalse(PerformanceGate.checkThroughput(throughputBaselinePath, 2000, measurement, 0.15).isPassed());
+    }
+
+    @Test
+    public void testMeasure_ChecksTheOutputAndMeasuresTheAllocations() throws Exception {
+        Path inputPath = tempDir.resolve("input.txt");
+        Path expectedPath = tempDir.resolve("expected.txt");
+        new LoadFundsInputGenerator().requests(2000).customers(50).generate(inputPath, expectedPath);
+
+        List<PerformanceGate.Check> checks = new ArrayList<>();
+        PerformanceGate.Measurement measurement = PerformanceGate.measure(inputPath, expectedPath, tempDir, 1, 1, checks);
+
+        assertEquals(1, checks.size());
+        assertTrue(checks.get(0).isPassed(), checks.get(0).getDetail());
+        assertTrue(measurement.getThroughput() > 0);
+        assertTrue(measurement.getAllocatedBytesPerRequest() > 0);
+
+        Files.writeString(expectedPath, "{}");
+        checks.clear();
+        PerformanceGate.measure(inputPath, expectedPath, tempDir, 1, 1, checks);
+        assertFalse(checks.get(0).isPassed());
+    }
+}
@@ -0,0 +1,138 @@
+package tools;
+
+import com.tryvault.entity.LoadFundsRequestEntity;
+import com.tryvault.repository.InMemoryLoadFundsRequestStore;
+import com.tryvault.repository.JdbcLoadFundsRequestStore;
+import com.tryvault.repository.LoadFundsRequestStore;
+import com.tryvault.repository.ShardedLoadFundsRequestStore;
+import com.tryvault.repository.VelocityRollupLoadFundsRequestStore;
+import com.tryvault.service.LoadFundsRequestService;
+import com.tryvault.tools.VelocityConcurrencyStress;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VelocityConcurrencyStressTest {
+
+    private static final int ROUNDS = 100;
+
+    @Test
+    public void testAtomicInsert_NoForbiddenOutcomeOverTheInMemoryStore() throws Exception {
+        InMemoryLoadFundsRequestStore loadFundsRequestStore = new InMemoryLoadFundsRequestStore();
+        LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(loadFundsRequestStore);
+        loadFundsRequestService.setAtomicInsert(true);
+
+        assertAllScenariosPass(loadFundsRequestService, loadFundsRequestStore);
+    }
+
+    @Test
+    public void testAtomicInsert_NoForbiddenOutcomeOverTheJdbcStore() throws Exception {
+        try (HikariDataSource dataSource = new HikariDataSource()) {
+            dataSource.setJdbcUrl("jdbc:h2:mem:velocity-stress-test");
+            dataSource.setMaximumPoolSize(8);
+            Flyway.configure().dataSource(dataSource).load().migrate();
+            try (JdbcLoadFundsRequestStore loadFundsRequestStore = new JdbcLoadFundsRequestStore(dataSource, 16)) {
+                LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(loadFundsRequestStore);
+                loadFundsRequestService.setAtomicInsert(true);
+
+                assertAllScenariosPass(loadFundsRequestService, loadFundsRequestStore);
+            }
+        }
+    }
+
+    @Test
+    public void testAtomicInsert_NoForbiddenOutcomeOverTheShardedStore() throws Exception {
+        List<DataSource> dataSources = new ArrayList<>();
+        for (int index = 0; index < 3; index++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl("jdbc:h2:mem:velocity-stress-shard-test-" + index);
+            Flyway.configure().dataSource(dataSource).load().migrate();
+            dataSources.add(dataSource);
+        }
+        try (ShardedLoadFundsRequestStore loadFundsRequestStore = new ShardedLoadFundsRequestStore(dataSources, 16)) {
+            LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(loadFundsRequestStore);
+            loadFundsRequestService.setAtomicInsert(true);
+
+            assertAllScenariosPass(loadFundsRequestService, loadFundsRequestStore);
+        }
+    }
+
+    @Test
+    public void testAtomicInsert_NoForbiddenOutcomeOverTheJpaStoreWithAConnectionPerActor() throws Exception {
+        try (ConfigurableApplicationContext context = VelocityConcurrencyStress.startApplicationContext(
+                "jdbc:h2:mem:velocity-stress-jpa-test;LOCK_TIMEOUT=10000", 8, false)) {
+            LoadFundsRequestService loadFundsRequestService = context.getBean(LoadFundsRequestService.class);
+            loadFundsRequestService.setAtomicInsert(true);
+
+            assertAllScenariosPass(loadFundsRequestService, context.getBean(LoadFundsRequestStore.class));
+        }
+    }
+
+    @Test
+    public void testAtomicInsert_NoForbiddenOutcomeOverTheRollupStoreWithAConnectionPerActor() throws Exception {
+        try (ConfigurableApplicationContext context = VelocityConcurrencyStress.startApplicationContext(
+                "jdbc:h2:mem:velocity-stress-rollup-test;LOCK_TIMEOUT=10000", 8, true)) {
+            LoadFundsRequestStore loadFundsRequestStore = context.getBean(LoadFundsRequestStore.class);
+            assertTrue(loadFundsRequestStore instanceof VelocityRollupLoadFundsRequestStore);
+            LoadFundsRequestService loadFundsRequestService = context.getBean(LoadFundsRequestService.class);
+            loadFundsRequestService.setAtomicInsert(true);
+
+            assertAllScenariosPass(loadFundsRequestService, loadFundsRequestStore);
+        }
+    }
+
+    @Test
+    public void testCheckThenSave_ForcedRacesAreForbidden() throws Exception {
+        // Every actor makes its checks before any of them saves, the interleaving the harness hopes to hit
+        int actors = 4;
+        CyclicBarrier saves = new CyclicBarrier(actors);
+        InMemoryLoadFundsRequestStore loadFundsRequestStore = new InMemoryLoadFundsRequestStore() {
+            @Override
+            public <S extends LoadFundsRequestEntity> S save(S entity) {
+                try {
+                    saves.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.save(entity);
+            }
+        };
+        LoadFundsRequestService loadFundsRequestService = new LoadFundsRequestService(loadFundsRequestStore);
+
+        try (VelocityConcurrencyStress stress = new VelocityConcurrencyStress(loadFundsRequestService,
+                loadFundsRequestStore, actors)) {
+            VelocityConcurrencyStress.Result dailyAmount = stress.run(VelocityConcurrencyStress.Scenario.DAILY_AMOUNT, 5);
+            assertEquals("accepted=1 rejected=3 duplicates=0 stored=1", dailyAmount.getExpectedOutcome());
+            assertEquals(Map.of("accepted=4 rejected=0 duplicates=0 stored=4", 5L), dailyAmount.getOutcomes());
+            assertEquals(5, dailyAmount.getForbidden());
+            assertFalse(dailyAmount.isPassed());
+
+            // Saves replace the request with the same id, so only the decisions tell the duplicates apart
+            VelocityConcurrencyStress.Result duplicate = stress.run(VelocityConcurrencyStress.Scenario.DUPLICATE, 5);
+            assertEquals("accepted=1 rejected=0 duplicates=3 stored=1", duplicate.getExpectedOutcome());
+            assertEquals(Map.of("accepted=4 rejected=0 duplicates=0 stored=1", 5L), duplicate.getOutcomes());
+            assertFalse(duplicate.isPassed());
+        }
+    }
+
+    private static void assertAllScenariosPass(LoadFundsRequestService loadFundsRequestService,
+                                               LoadFundsRequestStore loadFundsRequestStore) throws Exception {
+        try (VelocityConcurrencyStress stress = new VelocityConcurrencyStress(loadFundsRequestService,
+                loadFundsRequestStore, 8)) {
+            for (VelocityConcurrencyStress.Scenario scenario : VelocityConcurrencyStress.Scenario.values()) {
+                VelocityConcurrencyStress.Result result = stress.run(scenario, ROUNDS);
+                assertEquals(Map.of(result.getExpectedOutcome(), (long) ROUNDS), result.getOutcomes(), scenario.name());
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package util;
+
+import com.tryvault.util.AimdConcurrencyLimit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AimdConcurrencyLimitTest {
+
+    private static final long TARGET = 1_000_000L;
+
+    @Test
+    public void testTryAcquire_AdmitsUpToTheLimit() {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(2, 10, TARGET, 0.5);
+
+        assertEquals(6, limit.tryAcquire(6));
+        assertEquals(4, limit.tryAcquire(6));
+        assertEquals(0, limit.tryAcquire(1));
+        assertEquals(10, limit.getInFlight());
+    }
+
+    @Test
+    public void testRelease_LateRequestsCutTheLimitOncePerSpell() {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(10, 100, TARGET, 0.5);
+
+        limit.tryAcquire(100);
+        limit.release(50, 0, 2 * TARGET);
+        assertEquals(50, limit.getLimit());
+
+        // Admitted before the cut took effect, the other late requests do not cut it again
+        limit.release(50, 1, 3 * TARGET);
+        assertEquals(50, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+
+        // Admitted after it, they do, down to the minimum
+        for (int spell = 1; spell <= 5; spell++) {
+            limit.tryAcquire(1);
+            limit.release(1, spell * 10 * TARGET, 2 * TARGET);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void testRelease_TimelyRequestsGrowTheLimitOnlyWhenItIsUsed() {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit(10, 100, TARGET, 0.5);
+        limit.tryAcquire(100);
+        limit.release(100, 0, 2 * TARGET);
+        assertEquals(50, limit.getLimit());
+
+        // A few requests in flight do not show that more could go through in time
+        limit.tryAcquire(5);
+        limit.release(5, 10 * TARGET, TARGET / 2);
+        assertEquals(50, limit.getLimit());
+
+        // A full limit of timely requests, one round trip, adds one
+        limit.tryAcquire(50);
+        limit.release(50, 20 * TARGET, TARGET / 2);
+        assertEquals(51, limit.getLimit());
+
+        for (int roundTrip = 1; roundTrip <= 60; roundTrip++) {
+            int admitted = limit.tryAcquire(limit.getLimit());
+            limit.release(admitted, (20 + roundTrip) * TARGET, TARGET / 2);
+            assertEquals(Math.min(100, 51 + roundTrip), limit.getLimit(), "after " + roundTrip + " round trips");
+        }
+    }
+}